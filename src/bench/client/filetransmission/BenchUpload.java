@@ -0,0 +1,190 @@
+package client.filetransmission;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.channels.ServerSocketChannel;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+import common.Configuration;
+
+/**
+ * Benchmark dell'invio di un file da parte di GestoreUpload, sulla
+ * connessione locale.
+ * Lo stesso GestoreUpload serve il file in due modi:
+ * <ul>
+ * <li>pezzi: il client chiede il file a pezzi di GTF_PIECE_SIZE byte con
+ * ProtocolloPeer, come SorgentePezzi, e i pezzi sono inviati con
+ * FileChannel.transferTo;</li>
+ * <li>oggetti: il client chiede il file intero con il vecchio protocollo,
+ * e Upload lo invia a blocchi di 1 KB in uno stream a oggetti.</li>
+ * </ul>
+ * Per ogni modo riporta i MB/s e i millisecondi di CPU per GB inviato, sia
+ * di tutto il processo sia di chi invia. La CPU di chi invia è quella del
+ * processo meno quella del thread che riceve, quindi comprende anche il
+ * garbage collector.
+ * <pre>
+ *  BenchUpload [MB del file] [giri]
+ * </pre>
+ * @author Federico Della Bona - Alessandro Lensi
+ */
+public class BenchUpload {
+
+    private static final String NOME = "bench.dat";
+    private static final com.sun.management.OperatingSystemMXBean SISTEMA =
+            (com.sun.management.OperatingSystemMXBean)
+            ManagementFactory.getOperatingSystemMXBean();
+
+    public static void main(String[] args) throws Exception {
+        int mb = (args.length > 0) ? Integer.parseInt(args[0]) : 256;
+        int giri = (args.length > 1) ? Integer.parseInt(args[1]) : 5;
+        long dimensione = (long) mb * 1024 * 1024;
+        File dir = creaFile(dimensione);
+
+        ServerSocketChannel canale = ServerSocketChannel.open();
+        canale.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+        int porta = canale.socket().getLocalPort();
+        final GestoreUpload gestore = new GestoreUpload(canale,
+                dir.getPath(), new AtomicInteger(0), new LimitiBanda(0, 0, 0, 0),
+                new IndiceContenuti());
+        Thread t = new Thread(new Runnable() {
+
+            public void run() {
+                try {
+                    gestore.esegui();
+                } catch (IOException e) {
+                    System.out.println("BENCH UPLOAD: " + e);
+                }
+            }
+        }, "GestoreUpload");
+        t.start();
+
+        String[] modi = {"pezzi", "oggetti"};
+        /* la tabella è stampata alla fine, dopo i messaggi degli upload */
+        StringBuilder tabella = new StringBuilder(String.format(
+                "%-8s %10s %16s %16s%n", "modo", "MB/s", "CPU ms/GB tot.",
+                "CPU ms/GB invio"));
+        for (int m = 0; m < modi.length; m++) {
+            double[] mbs = new double[giri];
+            double[] cpu = new double[giri];
+            double[] cpuInvio = new double[giri];
+            /* il primo giro serve solo a far compilare il codice alla JVM */
+            for (int g = -1; g < giri; g++) {
+                long cpuInizio = SISTEMA.getProcessCpuTime();
+                long ricevente = ManagementFactory.getThreadMXBean()
+                        .getCurrentThreadCpuTime();
+                long inizio = System.nanoTime();
+                long ricevuti = (m == 0) ? scaricaPezzi(porta, dimensione)
+                        : scaricaOggetti(porta);
+                long tempo = System.nanoTime() - inizio;
+                ricevente = ManagementFactory.getThreadMXBean()
+                        .getCurrentThreadCpuTime() - ricevente;
+                long tot = SISTEMA.getProcessCpuTime() - cpuInizio;
+                if (ricevuti != dimensione) {
+                    throw new IOException("ricevuti " + ricevuti + " byte su "
+                            + dimensione);
+                }
+                if (g >= 0) {
+                    double gb = dimensione / (1024.0 * 1024 * 1024);
+                    mbs[g] = (dimensione / (1024.0 * 1024)) / (tempo / 1e9);
+                    cpu[g] = tot / 1e6 / gb;
+                    cpuInvio[g] = (tot - ricevente) / 1e6 / gb;
+                }
+            }
+            Arrays.sort(mbs);
+            Arrays.sort(cpu);
+            Arrays.sort(cpuInvio);
+            tabella.append(String.format("%-8s %10.1f %16.1f %16.1f%n",
+                    modi[m], mbs[giri / 2], cpu[giri / 2], cpuInvio[giri / 2]));
+        }
+
+        t.interrupt();
+        t.join();
+        System.out.println("BENCH UPLOAD: file di " + mb + " MB, " + giri
+                + " giri, mediana");
+        System.out.print(tabella);
+        new File(dir, NOME).delete();
+        dir.delete();
+    }
+
+    /* crea una directory temporanea con il file da inviare */
+    private static File creaFile(long dimensione) throws IOException {
+        File dir = File.createTempFile("benchupload", "");
+        dir.delete();
+        dir.mkdir();
+        FileOutputStream fos = new FileOutputStream(new File(dir, NOME));
+        byte[] buf = new byte[1024 * 1024];
+        Random r = new Random(0);
+        for (long scritti = 0; scritti < dimensione; scritti += buf.length) {
+            r.nextBytes(buf);
+            fos.write(buf, 0, (int) Math.min(buf.length, dimensione - scritti));
+        }
+        fos.close();
+        return dir;
+    }
+
+    /* chiede il file a pezzi, come SorgentePezzi, e restituisce i byte
+     * ricevuti */
+    private static long scaricaPezzi(int porta, long dimensione)
+            throws IOException {
+        Socket s = new Socket(InetAddress.getLoopbackAddress(), porta);
+        try {
+            DataInputStream in = new DataInputStream(
+                    new BufferedInputStream(s.getInputStream()));
+            DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(s.getOutputStream()));
+            ProtocolloPeer.saluta(in, out);
+            byte[] buf = new byte[Configuration.GTF_PIECE_SIZE];
+            long ricevuti = 0;
+            for (long off = 0; off < dimensione; off += buf.length) {
+                int len = (int) Math.min(buf.length, dimensione - off);
+                ProtocolloPeer.scriviRichiesta(out,
+                        new RichiestaFile(NOME, off, len));
+                out.flush();
+                if (ProtocolloPeer.leggiRisposta(in, len)
+                        != ProtocolloPeer.ESITO_OK) {
+                    throw new IOException("pezzo " + off + " rifiutato");
+                }
+                in.readFully(buf, 0, len);
+                ricevuti += len;
+            }
+            return ricevuti;
+        } finally {
+            s.close();
+        }
+    }
+
+    /* chiede il file intero con il vecchio protocollo a oggetti, come il
+     * Download della versione precedente, e restituisce i byte ricevuti */
+    private static long scaricaOggetti(int porta) throws Exception {
+        Socket s = new Socket(InetAddress.getLoopbackAddress(), porta);
+        try {
+            ObjectInputStream in = new ObjectInputStream(s.getInputStream());
+            ObjectOutputStream out = new ObjectOutputStream(s.getOutputStream());
+            out.writeObject(NOME);
+            if (!"ok".equals(in.readObject())) {
+                throw new IOException(NOME + " non trovato");
+            }
+            byte[] buf = new byte[1024];
+            long ricevuti = 0;
+            int read;
+            while ((read = in.read(buf)) != -1) {
+                ricevuti += read;
+            }
+            return ricevuti;
+        } finally {
+            s.close();
+        }
+    }
+}
@@ -0,0 +1,219 @@
+package client.filetransmission;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.management.ThreadMXBean;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.channels.ServerSocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import common.Configuration;
+
+/**
+ * Test di carico dei modi di esecuzione della trasmissione dei file (vedi
+ * EsecutoreTrasferimenti).
+ * Un GestoreUpload serve un file sulla connessione locale; DOWNLOAD
+ * download, accodati tutti insieme all'esecutore dei download creato
+ * come in GestoreTrasmissioneFile, chiedono ognuno un pezzo del file con
+ * ProtocolloPeer, come SorgentePezzi.
+ * Riporta i download al secondo, i MB/s, il massimo dei thread di
+ * piattaforma vivi e il massimo della memoria heap usata, campionata ogni
+ * CAMPIONAMENTO millisecondi.
+ * Il modo è scelto con -Dbytetorrent.esecuzione; con "tutti" come primo
+ * argomento il test viene eseguito in una JVM nuova per ogni modo, così le
+ * misure non si influenzano.
+ * <pre>
+ *  CaricoEsecuzione [tutti] [download] [pezzi per download]
+ * </pre>
+ * @author Federico Della Bona - Alessandro Lensi
+ */
+public class CaricoEsecuzione {
+
+    private static final String NOME = "carico.dat";
+    private static final long CAMPIONAMENTO = 10;
+
+    public static void main(String[] args) throws Exception {
+        if (args.length > 0 && args[0].equals("tutti")) {
+            String[] resto = new String[args.length - 1];
+            System.arraycopy(args, 1, resto, 0, resto.length);
+            confronta(resto);
+            return;
+        }
+        int download = (args.length > 0) ? Integer.parseInt(args[0]) : 5000;
+        int pezzi = (args.length > 1) ? Integer.parseInt(args[1]) : 1;
+        carico(download, pezzi);
+    }
+
+    /* esegue il test in una JVM per ogni modo */
+    private static void confronta(String[] args) throws Exception {
+        String java = System.getProperty("java.home") + File.separator + "bin"
+                + File.separator + "java";
+        String[] modi = {EsecutoreTrasferimenti.PIATTAFORMA,
+            EsecutoreTrasferimenti.VIRTUALE};
+        for (String modo : modi) {
+            List<String> comando = new ArrayList<String>();
+            comando.add(java);
+            comando.add("-Dbytetorrent.esecuzione=" + modo);
+            comando.add("-cp");
+            comando.add(System.getProperty("java.class.path"));
+            comando.add(CaricoEsecuzione.class.getName());
+            for (String a : args) {
+                comando.add(a);
+            }
+            int stato = new ProcessBuilder(comando).inheritIO().start().waitFor();
+            if (stato != 0) {
+                System.exit(stato);
+            }
+        }
+    }
+
+    private static void carico(int download, final int pezzi)
+            throws Exception {
+        final int pezzo = Configuration.GTF_PIECE_SIZE;
+        File dir = creaFile((long) pezzi * pezzo);
+        ServerSocketChannel canale = ServerSocketChannel.open();
+        canale.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0),
+                Configuration.GTF_MAX_DOWNLOADS);
+        final int porta = canale.socket().getLocalPort();
+        final GestoreUpload gestore = new GestoreUpload(canale, dir.getPath(),
+                new AtomicInteger(0), new LimitiBanda(0, 0, 0, 0),
+                new IndiceContenuti());
+        Thread upload = new Thread(new Runnable() {
+
+            public void run() {
+                try {
+                    gestore.esegui();
+                } catch (IOException e) {
+                    System.out.println("CARICO: " + e);
+                }
+            }
+        }, "GestoreUpload");
+        upload.start();
+
+        final ThreadMXBean thread = ManagementFactory.getThreadMXBean();
+        final MemoryMXBean memoria = ManagementFactory.getMemoryMXBean();
+        final AtomicLong heapMassimo = new AtomicLong(0);
+        Thread campionatore = new Thread(new Runnable() {
+
+            public void run() {
+                while (!Thread.interrupted()) {
+                    long usata = memoria.getHeapMemoryUsage().getUsed();
+                    if (usata > heapMassimo.get()) {
+                        heapMassimo.set(usata);
+                    }
+                    try {
+                        Thread.sleep(CAMPIONAMENTO);
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+            }
+        }, "Campionatore");
+        campionatore.setDaemon(true);
+
+        System.gc();
+        long heapIniziale = memoria.getHeapMemoryUsage().getUsed();
+        heapMassimo.set(heapIniziale);
+        thread.resetPeakThreadCount();
+        campionatore.start();
+
+        ExecutorService esecutore = EsecutoreTrasferimenti.crea("Download-",
+                Configuration.GTF_MAX_DOWNLOADS);
+        final CountDownLatch finiti = new CountDownLatch(download);
+        final AtomicInteger falliti = new AtomicInteger(0);
+        final AtomicLong ricevuti = new AtomicLong(0);
+        long inizio = System.nanoTime();
+        for (int i = 0; i < download; i++) {
+            esecutore.execute(new Runnable() {
+
+                public void run() {
+                    try {
+                        ricevuti.addAndGet(scarica(porta, pezzi, pezzo));
+                    } catch (IOException e) {
+                        falliti.incrementAndGet();
+                    } finally {
+                        finiti.countDown();
+                    }
+                }
+            });
+        }
+        finiti.await();
+        long tempo = System.nanoTime() - inizio;
+        campionatore.interrupt();
+        esecutore.shutdown();
+        upload.interrupt();
+        upload.join();
+        new File(dir, NOME).delete();
+        dir.delete();
+
+        double secondi = tempo / 1e9;
+        System.out.println("CARICO: modo " + EsecutoreTrasferimenti.modo()
+                + " (chiesto " + Configuration.GTF_EXECUTION_MODE + "), "
+                + download + " download da " + pezzi + " pezzi, limite "
+                + Configuration.GTF_MAX_DOWNLOADS);
+        System.out.printf("CARICO:   %.0f download/s, %.1f MB/s, %d falliti%n",
+                download / secondi, ricevuti.get() / (1024.0 * 1024) / secondi,
+                falliti.get());
+        System.out.printf("CARICO:   %d thread di piattaforma al massimo, "
+                + "heap al massimo %.1f MB (%.1f MB all'inizio)%n",
+                thread.getPeakThreadCount(),
+                heapMassimo.get() / (1024.0 * 1024),
+                heapIniziale / (1024.0 * 1024));
+        if (falliti.get() > 0) {
+            System.exit(1);
+        }
+    }
+
+    /* crea una directory temporanea con il file da inviare */
+    private static File creaFile(long dimensione) throws IOException {
+        File dir = File.createTempFile("carico", "");
+        dir.delete();
+        dir.mkdir();
+        FileOutputStream fos = new FileOutputStream(new File(dir, NOME));
+        fos.write(new byte[(int) dimensione]);
+        fos.close();
+        return dir;
+    }
+
+    /* scarica i pezzi del file, come SorgentePezzi, e restituisce i byte
+     * ricevuti */
+    private static long scarica(int porta, int pezzi, int pezzo)
+            throws IOException {
+        Socket s = new Socket(InetAddress.getLoopbackAddress(), porta);
+        try {
+            s.setSoTimeout(Configuration.GTF_PIECE_TIMEOUT);
+            DataInputStream in = new DataInputStream(
+                    new BufferedInputStream(s.getInputStream()));
+            DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(s.getOutputStream()));
+            ProtocolloPeer.saluta(in, out);
+            byte[] buf = new byte[pezzo];
+            for (int i = 0; i < pezzi; i++) {
+                ProtocolloPeer.scriviRichiesta(out,
+                        new RichiestaFile(NOME, (long) i * pezzo, pezzo));
+                out.flush();
+                if (ProtocolloPeer.leggiRisposta(in, pezzo)
+                        != ProtocolloPeer.ESITO_OK) {
+                    throw new IOException("pezzo " + i + " rifiutato");
+                }
+                in.readFully(buf);
+            }
+            return (long) pezzi * pezzo;
+        } finally {
+            s.close();
+        }
+    }
+}
@@ -0,0 +1,23 @@
+#!/bin/sh
+# Compila i sorgenti di src/src e i test e benchmark di src/bench, poi
+# esegue la classe indicata con gli argomenti che seguono, ad esempio:
+#
+#   src/bench/esegui.sh server.data.StressDataServer concorrente 10
+#
+# Le opzioni per la JVM si passano con la variabile JAVA_OPTS.
+# Le classi compilate vanno in $BENCH_OUT (default /tmp/bytetorrent-bench).
+
+set -e
+if [ $# -lt 1 ]; then
+    echo "uso: $0 classe [argomenti...]" >&2
+    exit 2
+fi
+dir=$(cd "$(dirname "$0")/.." && pwd)
+out=${BENCH_OUT:-/tmp/bytetorrent-bench}
+rm -rf "$out"
+mkdir -p "$out"
+javac -encoding UTF-8 -nowarn -d "$out" \
+    $(find "$dir/src" "$dir/bench" -name '*.java')
+classe=$1
+shift
+exec java $JAVA_OPTS -cp "$out" "$classe" "$@"
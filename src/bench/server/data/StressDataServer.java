@@ -0,0 +1,241 @@
+package server.data;
+
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.atomic.AtomicLong;
+import common.identifier.FileDescriptor;
+import common.identifier.IdClient;
+import server.data.exception.ClientNotActiveException;
+import server.data.exception.LeacherNotFoundException;
+import server.data.util.ConteggioPeer;
+import server.data.util.Istantanea;
+
+/**
+ * Test di stress di un DataServerInterface: controlla che leacherToSeeder
+ * e deleteClient eseguiti insieme sugli stessi client non perdano
+ * aggiornamenti.
+ * Ad ogni giro un client pubblica NUM_FILE file e CLIENT_PER_GIRO client
+ * diventano leachers di uno di questi, da più thread. Poi metà dei thread
+ * promuove tutti i leachers a seeders mentre l'altra metà cancella un
+ * client su tre, negli stessi istanti. Alla fine i client cancellati non
+ * devono comparire da nessuna parte, gli altri devono essere seeders del
+ * loro file, e le tabelle dei file e dei client devono essere coerenti.
+ * <pre>
+ *  StressDataServer [concorrente|sincronizzato] [giri] [thread]
+ * </pre>
+ * "sincronizzato" esegue lo stesso test sul DataServer con un unico
+ * monitor, come riferimento. Termina con stato 1 se trova un errore.
+ * @author Federico Della Bona - Alessandro Lensi
+ */
+public class StressDataServer {
+
+    private static final int NUM_FILE = 32;
+    private static final int CLIENT_PER_GIRO = 20000;
+
+    public static void main(String[] args) throws Exception {
+        boolean concorrente = args.length < 1 || !args[0].equals("sincronizzato");
+        int giri = (args.length > 1) ? Integer.parseInt(args[1]) : 10;
+        int thread = (args.length > 2) ? Integer.parseInt(args[2])
+                : 2 * Runtime.getRuntime().availableProcessors();
+        if (thread < 2) {
+            thread = 2;
+        }
+        System.out.println("STRESS: " + (concorrente ? "ConcurrentDataServer"
+                : "DataServer") + ", " + giri + " giri, " + thread
+                + " thread, " + CLIENT_PER_GIRO + " client per giro");
+        int errori = 0;
+        long inizio = System.nanoTime();
+        for (int g = 0; g < giri; g++) {
+            DataServerInterface data = concorrente
+                    ? new ConcurrentDataServer() : new DataServer();
+            errori += giro(data, g, thread);
+        }
+        System.out.println("STRESS: " + giri + " giri in "
+                + (System.nanoTime() - inizio) / 1000000 + " ms, "
+                + errori + " errori");
+        if (errori > 0) {
+            System.exit(1);
+        }
+    }
+
+    /* esegue un giro su un database vuoto e restituisce il numero di
+     * errori trovati */
+    private static int giro(final DataServerInterface data, int g,
+            final int thread) throws Exception {
+        IdClient editore = new IdClient(InetAddress.getByAddress(
+                new byte[]{10, 0, 0, 1}), 1);
+        data.insertClient(editore, null, 0);
+        final FileDescriptor[] file = new FileDescriptor[NUM_FILE];
+        for (int i = 0; i < NUM_FILE; i++) {
+            file[i] = new FileDescriptor("file" + i, 1000 + i);
+            data.insertFile(editore, file[i]);
+        }
+        final IdClient[] client = new IdClient[CLIENT_PER_GIRO];
+        for (int i = 0; i < CLIENT_PER_GIRO; i++) {
+            client[i] = new IdClient(InetAddress.getByAddress(new byte[]{
+                10, 1, (byte) (i >> 8), (byte) i}), 1024 + g);
+        }
+
+        /* i client diventano leachers, ognuno da un thread diverso */
+        esegui(thread, null, new Lavoro() {
+
+            public void esegui(int t) throws Exception {
+                for (int i = t; i < CLIENT_PER_GIRO; i += thread) {
+                    data.insertClient(client[i], null, 0);
+                    data.getFile(file[i % NUM_FILE].getName(), client[i]);
+                }
+            }
+        });
+
+        /* promozioni e cancellazioni insieme: i thread pari promuovono,
+         * quelli dispari cancellano, partendo dallo stesso client */
+        final AtomicLong promossi = new AtomicLong(0);
+        final AtomicLong rifiutati = new AtomicLong(0);
+        final int coppie = thread / 2;
+        esegui(2 * coppie, new CyclicBarrier(2 * coppie), new Lavoro() {
+
+            public void esegui(int t) throws Exception {
+                for (int i = t / 2; i < CLIENT_PER_GIRO; i += coppie) {
+                    if (t % 2 == 0) {
+                        try {
+                            data.leacherToSeeder(client[i],
+                                    file[i % NUM_FILE]);
+                            promossi.incrementAndGet();
+                        } catch (ClientNotActiveException e) {
+                            rifiutati.incrementAndGet();
+                        } catch (LeacherNotFoundException e) {
+                            rifiutati.incrementAndGet();
+                        }
+                    } else if (i % 3 == 0) {
+                        data.deleteClient(client[i]);
+                    }
+                }
+            }
+        });
+
+        return controlla(data, editore, file, client, g,
+                promossi.get(), rifiutati.get());
+    }
+
+    /* controlla lo stato finale del database */
+    private static int controlla(DataServerInterface data, IdClient editore,
+            FileDescriptor[] file, IdClient[] client, int g, long promossi,
+            long rifiutati) {
+        int errori = 0;
+        int vivi = 0;
+        List<Set<IdClient>> attesi = new ArrayList<Set<IdClient>>();
+        for (int j = 0; j < NUM_FILE; j++) {
+            Set<IdClient> s = new HashSet<IdClient>();
+            s.add(editore);
+            attesi.add(s);
+        }
+        for (int i = 0; i < client.length; i++) {
+            boolean cancellato = (i % 3 == 0);
+            if (data.isActive(client[i]) == cancellato) {
+                errori += errore(g, client[i] + (cancellato
+                        ? " cancellato ma ancora attivo" : " non più attivo"));
+            }
+            if (!cancellato) {
+                vivi++;
+                attesi.get(i % NUM_FILE).add(client[i]);
+            }
+            if (data.isLeacher(client[i], file[i % NUM_FILE].getName())) {
+                errori += errore(g, client[i] + " ancora leacher");
+            }
+        }
+        if (promossi + rifiutati != client.length || promossi < vivi) {
+            errori += errore(g, promossi + " promossi e " + rifiutati
+                    + " rifiutati su " + client.length);
+        }
+
+        /* lato client: i file posseduti e richiesti di ogni client */
+        Istantanea ist = data.fotografa();
+        List<Set<IdClient>> posseduti = new ArrayList<Set<IdClient>>();
+        for (int j = 0; j < NUM_FILE; j++) {
+            posseduti.add(new HashSet<IdClient>());
+        }
+        for (int i = 0; i < ist.size(); i++) {
+            for (FileDescriptor f : ist.getPosseduti(i)) {
+                posseduti.get(indice(f)).add(ist.getClient(i));
+            }
+            if (ist.getRichiesti(i).length != 0) {
+                errori += errore(g, ist.getClient(i)
+                        + " ha ancora file richiesti");
+            }
+        }
+        if (ist.size() != vivi + 1 || data.countClient() != vivi + 1) {
+            errori += errore(g, ist.size() + " client nell'istantanea, "
+                    + data.countClient() + " attivi, attesi " + (vivi + 1));
+        }
+        for (int j = 0; j < NUM_FILE; j++) {
+            if (!posseduti.get(j).equals(attesi.get(j))) {
+                errori += errore(g, "i possessori di " + file[j]
+                        + " non sono quelli attesi");
+            }
+        }
+
+        /* lato file: i seeders e i leachers contati sui file */
+        ConteggioPeer conteggio = data.contaPeer(0);
+        if (conteggio.getSeeders() != vivi + NUM_FILE
+                || conteggio.getLeachers() != 0) {
+            errori += errore(g, conteggio.getSeeders() + " seeders e "
+                    + conteggio.getLeachers() + " leachers nei file, attesi "
+                    + (vivi + NUM_FILE) + " e 0");
+        }
+        return errori;
+    }
+
+    private static int indice(FileDescriptor f) {
+        return Integer.parseInt(f.getName().substring(4));
+    }
+
+    private static int errore(int g, String messaggio) {
+        System.out.println("STRESS: giro " + g + ", " + messaggio);
+        return 1;
+    }
+
+    /* il lavoro di un thread, t è il suo numero */
+    private interface Lavoro {
+
+        void esegui(int t) throws Exception;
+    }
+
+    /* esegue il lavoro su n thread, che partono insieme dalla barriera se
+     * non è null, e aspetta che terminino */
+    private static void esegui(int n, final CyclicBarrier barriera,
+            final Lavoro lavoro) throws Exception {
+        final Exception[] errore = new Exception[1];
+        Thread[] t = new Thread[n];
+        for (int i = 0; i < n; i++) {
+            final int numero = i;
+            t[i] = new Thread(new Runnable() {
+
+                public void run() {
+                    try {
+                        if (barriera != null) {
+                            barriera.await();
+                        }
+                        lavoro.esegui(numero);
+                    } catch (Exception e) {
+                        synchronized (errore) {
+                            errore[0] = e;
+                        }
+                    }
+                }
+            });
+            t[i].start();
+        }
+        for (int i = 0; i < n; i++) {
+            t[i].join();
+        }
+        synchronized (errore) {
+            if (errore[0] != null) {
+                throw errore[0];
+            }
+        }
+    }
+}
@@ -0,0 +1,210 @@
+package server.data.util;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.Random;
+import common.identifier.FileDescriptor;
+import common.identifier.IdClient;
+
+/**
+ * Microbenchmark delle liste dei seeders e dei leachers di FileCondiviso,
+ * confrontate con le LinkedList usate prima. Le LinkedList usano l'equals
+ * dell'IdClient attuale, che non alloca stringhe: il loro costo è quindi
+ * minore di quello della versione precedente.
+ * Per ogni dimensione dello sciame (10, 1000 e 100000 peer, oppure quelle
+ * passate come argomenti) misura il costo medio in nanosecondi di:
+ * <ul>
+ * <li>contains: containsLeacher di un leacher a caso;</li>
+ * <li>ricambio: removeLeacher e addLeacher di un leacher a caso, come
+ * quando un peer lascia lo sciame e ne arriva un altro;</li>
+ * <li>promozione: removeLeacher e addSeeder, come in leacherToSeeder, poi
+ * il contrario per tornare alla dimensione di partenza;</li>
+ * <li>getSeeder: la scelta a turno di un seeder.</li>
+ * </ul>
+ * Ogni misura viene ripetuta, raddoppiando il numero di operazioni, fino
+ * a che non dura almeno TEMPO_MINIMO; le prime GIRI_RISCALDAMENTO misure
+ * servono solo a far compilare il codice alla JVM.
+ * <pre>
+ *  BenchFileCondiviso [peer...]
+ * </pre>
+ * @author Federico Della Bona - Alessandro Lensi
+ */
+public class BenchFileCondiviso {
+
+    private static final long TEMPO_MINIMO = 200000000L;
+    private static final int GIRI_RISCALDAMENTO = 3;
+    private static final int GIRI = 5;
+    private static final String[] OPERAZIONI =
+            {"contains", "ricambio", "promozione", "getSeeder"};
+    /* impedisce alla JVM di eliminare le operazioni misurate */
+    private static int pozzo;
+
+    public static void main(String[] args) throws Exception {
+        int[] peer = {10, 1000, 100000};
+        if (args.length > 0) {
+            peer = new int[args.length];
+            for (int i = 0; i < args.length; i++) {
+                peer[i] = Integer.parseInt(args[i]);
+            }
+        }
+        System.out.printf("%8s %-12s %14s %14s%n", "peer", "operazione",
+                "LinkedList ns", "FileCond. ns");
+        for (int n : peer) {
+            IdClient[] id = crea(2 * n);
+            for (int op = 0; op < OPERAZIONI.length; op++) {
+                double vecchio = misura(new Vecchio(), id, n, op);
+                double nuovo = misura(new Nuovo(), id, n, op);
+                System.out.printf("%8d %-12s %14.1f %14.1f%n", n,
+                        OPERAZIONI[op], vecchio, nuovo);
+            }
+        }
+        if (pozzo == 42) {
+            System.out.println();
+        }
+    }
+
+    /* 2n client diversi: i primi n sono leachers, gli altri seeders */
+    private static IdClient[] crea(int n) throws UnknownHostException {
+        IdClient[] id = new IdClient[n];
+        for (int i = 0; i < n; i++) {
+            id[i] = new IdClient(InetAddress.getByAddress(new byte[]{
+                10, (byte) (i >> 16), (byte) (i >> 8), (byte) i}), 4000);
+        }
+        return id;
+    }
+
+    /* restituisce la mediana dei nanosecondi per operazione */
+    private static double misura(Liste l, IdClient[] id, int n, int op) {
+        for (int i = 0; i < n; i++) {
+            l.addLeacher(id[i]);
+            l.addSeeder(id[n + i]);
+        }
+        double[] ns = new double[GIRI];
+        for (int g = -GIRI_RISCALDAMENTO; g < GIRI; g++) {
+            Random r = new Random(g);
+            double m = Double.NaN;
+            for (int volte = 1024; ; volte *= 2) {
+                long inizio = System.nanoTime();
+                esegui(l, id, n, op, volte, r);
+                long t = System.nanoTime() - inizio;
+                if (t >= TEMPO_MINIMO || volte >= (1 << 26)) {
+                    m = (double) t / volte;
+                    break;
+                }
+            }
+            if (g >= 0) {
+                ns[g] = m;
+            }
+        }
+        Arrays.sort(ns);
+        return ns[GIRI / 2];
+    }
+
+    private static void esegui(Liste l, IdClient[] id, int n, int op,
+            int volte, Random r) {
+        int s = 0;
+        for (int k = 0; k < volte; k++) {
+            IdClient c = id[r.nextInt(n)];
+            switch (op) {
+                case 0:
+                    s += l.containsLeacher(c) ? 1 : 0;
+                    break;
+                case 1:
+                    s += l.removeLeacher(c) ? 1 : 0;
+                    l.addLeacher(c);
+                    break;
+                case 2:
+                    s += l.removeLeacher(c) ? 1 : 0;
+                    l.addSeeder(c);
+                    s += l.removeSeeder(c) ? 1 : 0;
+                    l.addLeacher(c);
+                    break;
+                default:
+                    s += l.getSeeder().hashCode();
+            }
+        }
+        pozzo += s;
+    }
+
+    /* le operazioni misurate */
+    private interface Liste {
+
+        void addSeeder(IdClient id);
+
+        void addLeacher(IdClient id);
+
+        boolean removeSeeder(IdClient id);
+
+        boolean removeLeacher(IdClient id);
+
+        boolean containsLeacher(IdClient id);
+
+        IdClient getSeeder();
+    }
+
+    /* le liste di FileCondiviso */
+    private static class Nuovo implements Liste {
+
+        private final FileCondiviso f =
+                new FileCondiviso(new FileDescriptor("bench", 1));
+
+        public void addSeeder(IdClient id) {
+            f.addSeeder(id);
+        }
+
+        public void addLeacher(IdClient id) {
+            f.addLeacher(id);
+        }
+
+        public boolean removeSeeder(IdClient id) {
+            return f.removeSeeder(id);
+        }
+
+        public boolean removeLeacher(IdClient id) {
+            return f.removeLeacher(id);
+        }
+
+        public boolean containsLeacher(IdClient id) {
+            return f.containsLeacher(id);
+        }
+
+        public IdClient getSeeder() {
+            return f.getSeeder();
+        }
+    }
+
+    /* le LinkedList della versione precedente di FileCondiviso */
+    private static class Vecchio implements Liste {
+
+        private final LinkedList<IdClient> seeders = new LinkedList<IdClient>();
+        private final LinkedList<IdClient> leachers = new LinkedList<IdClient>();
+
+        public void addSeeder(IdClient id) {
+            seeders.addFirst(id);
+        }
+
+        public void addLeacher(IdClient id) {
+            leachers.add(id);
+        }
+
+        public boolean removeSeeder(IdClient id) {
+            return seeders.remove(id);
+        }
+
+        public boolean removeLeacher(IdClient id) {
+            return leachers.remove(id);
+        }
+
+        public boolean containsLeacher(IdClient id) {
+            return leachers.contains(id);
+        }
+
+        public IdClient getSeeder() {
+            IdClient id = seeders.removeFirst();
+            seeders.addLast(id);
+            return id;
+        }
+    }
+}
@@ -0,0 +1,224 @@
+package server.keepalive;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.HashMap;
+import common.Configuration;
+import common.identifier.IdClient;
+import common.keepalive.FrameKeepAlive;
+import server.data.util.CaricoClient;
+
+/**
+ * Microbenchmark del costo per pacchetto dei keepalive ricevuti dal
+ * server, dal pacchetto al rinnovo della scadenza del client.
+ * Confronta tre percorsi:
+ * <ul>
+ * <li>prima: la stringa ip:porta letta con readUTF, un IdClient creato
+ * con split e InetAddress.getByName, e le due ricerche di resetTimer
+ * (isActive e la tabella dei timer) con l'equals che confronta
+ * toString(), come nella versione precedente;</li>
+ * <li>testo: lo stesso pacchetto decodificato da GestoreKeepAlive con
+ * IdClient.parseChiave, senza creare oggetti, e passato a blocchi a
+ * RuotaTemporale.contatti;</li>
+ * <li>binario: il frame di FrameKeepAlive, con lo stesso percorso.</li>
+ * </ul>
+ * Per ogni percorso riporta i nanosecondi e i byte allocati per
+ * pacchetto, con CLIENT client registrati e i pacchetti che arrivano a
+ * turno da tutti. La stampa che la versione precedente faceva ad ogni
+ * pacchetto non è misurata.
+ * <pre>
+ *  BenchKeepAlive [client] [secondi per misura]
+ * </pre>
+ * @author Federico Della Bona - Alessandro Lensi
+ */
+public class BenchKeepAlive {
+
+    private static final int GIRI_RISCALDAMENTO = 3;
+    private static final int GIRI = 5;
+    private static final com.sun.management.ThreadMXBean THREAD =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+    /* impedisce alla JVM di eliminare le operazioni misurate */
+    private static int pozzo;
+
+    public static void main(String[] args) throws Exception {
+        int client = (args.length > 0) ? Integer.parseInt(args[0]) : 10000;
+        double secondi = (args.length > 1) ? Double.parseDouble(args[1]) : 0.5;
+        long durata = (long) (secondi * 1e9);
+        IdClient[] id = new IdClient[client];
+        byte[][] testo = new byte[client][];
+        byte[][] binario = new byte[client][];
+        for (int i = 0; i < client; i++) {
+            id[i] = new IdClient(InetAddress.getByAddress(new byte[]{
+                10, (byte) (i >> 16), (byte) (i >> 8), (byte) i}),
+                1024 + (i % 60000));
+            ByteArrayOutputStream bo = new ByteArrayOutputStream();
+            new DataOutputStream(bo).writeUTF(id[i].toString());
+            testo[i] = bo.toByteArray();
+            ByteBuffer b = ByteBuffer.allocate(FrameKeepAlive.DIMENSIONE);
+            FrameKeepAlive.scrivi(b, id[i], i + 1, i % 8);
+            binario[i] = b.array();
+        }
+
+        Percorso[] percorsi = {new Prima(id), new Nuovo(id, testo, false),
+            new Nuovo(id, binario, true)};
+        String[] nomi = {"prima", "testo", "binario"};
+        System.out.println("KEEPALIVE: " + client + " client");
+        System.out.printf("%-8s %12s %14s%n", "percorso", "ns/pacchetto",
+                "byte/pacchetto");
+        for (int p = 0; p < percorsi.length; p++) {
+            double[] ns = new double[GIRI];
+            double[] byteAllocati = new double[GIRI];
+            for (int g = -GIRI_RISCALDAMENTO; g < GIRI; g++) {
+                long pacchetti = 0;
+                long allocati = THREAD.getCurrentThreadAllocatedBytes();
+                long inizio = System.nanoTime();
+                long t;
+                do {
+                    percorsi[p].ricevi(testo.length);
+                    pacchetti += testo.length;
+                    t = System.nanoTime() - inizio;
+                } while (t < durata);
+                allocati = THREAD.getCurrentThreadAllocatedBytes() - allocati;
+                if (g >= 0) {
+                    ns[g] = (double) t / pacchetti;
+                    byteAllocati[g] = (double) allocati / pacchetti;
+                }
+            }
+            Arrays.sort(ns);
+            Arrays.sort(byteAllocati);
+            System.out.printf("%-8s %12.1f %14.1f%n", nomi[p], ns[GIRI / 2],
+                    byteAllocati[GIRI / 2]);
+        }
+        if (pozzo == 42) {
+            System.out.println();
+        }
+    }
+
+    /* riceve n pacchetti */
+    private interface Percorso {
+
+        void ricevi(int n) throws IOException;
+    }
+
+    /* GestoreKeepAlive e RuotaTemporale */
+    private static class Nuovo implements Percorso {
+
+        private final byte[][] pacchetti;
+        private final GestoreKeepAlive gestore;
+        private final RuotaTemporale ruota;
+        private final ByteBuffer buf = ByteBuffer.allocateDirect(256);
+        private final byte[] testo = new byte[256];
+        private final long[] chiavi = new long[Configuration.GKA_BATCH_SIZE];
+        private final long[] token = new long[Configuration.GKA_BATCH_SIZE];
+        private final int[] carichi = new int[Configuration.GKA_BATCH_SIZE];
+
+        Nuovo(IdClient[] id, byte[][] pacchetti, boolean token) {
+            this.pacchetti = pacchetti;
+            this.gestore = new GestoreKeepAlive(null, null, 0);
+            /* la ruota non gira: le scadenze vengono solo rinnovate */
+            this.ruota = new RuotaTemporale(this.gestore,
+                    Configuration.GKA_WHEEL_TICK,
+                    Configuration.GKA_WHEEL_SLOTS,
+                    Configuration.GKA_CLIENT_TIMEOUT);
+            for (int i = 0; i < id.length; i++) {
+                this.ruota.aggiungi(id[i], Configuration.GKA_CLIENT_TIMEOUT,
+                        new CaricoClient(), token ? i + 1 : 0);
+            }
+        }
+
+        public void ricevi(int quanti) {
+            int n = 0;
+            for (int i = 0; i < quanti; i++) {
+                buf.clear();
+                buf.put(pacchetti[i]);
+                buf.flip();
+                if (!gestore.decodifica(buf, testo, chiavi, token, carichi, n)) {
+                    continue;
+                }
+                if (++n == chiavi.length) {
+                    pozzo += ruota.contatti(chiavi, token, carichi, n);
+                    n = 0;
+                }
+            }
+            if (n > 0) {
+                pozzo += ruota.contatti(chiavi, token, carichi, n);
+            }
+        }
+    }
+
+    /* il percorso della versione precedente di GestoreKeepAlive */
+    private static class Prima implements Percorso {
+
+        private final byte[][] pacchetti;
+        /* i client attivi del DataServer e i timer del gestore */
+        private final HashMap<IdVecchio, Object> attivi =
+                new HashMap<IdVecchio, Object>();
+        private final HashMap<IdVecchio, Object> timer =
+                new HashMap<IdVecchio, Object>();
+
+        Prima(IdClient[] id) throws IOException {
+            this.pacchetti = new byte[id.length][];
+            for (int i = 0; i < id.length; i++) {
+                ByteArrayOutputStream bo = new ByteArrayOutputStream();
+                new DataOutputStream(bo).writeUTF(id[i].toString());
+                this.pacchetti[i] = bo.toByteArray();
+                IdVecchio v = new IdVecchio(id[i].toString());
+                this.attivi.put(v, v);
+                this.timer.put(v, v);
+            }
+        }
+
+        public void ricevi(int quanti) throws IOException {
+            for (int i = 0; i < quanti; i++) {
+                DataInputStream in = new DataInputStream(
+                        new ByteArrayInputStream(pacchetti[i]));
+                IdVecchio id = new IdVecchio(in.readUTF());
+                if (attivi.containsKey(id)) {
+                    pozzo += timer.get(id).hashCode();
+                }
+            }
+        }
+    }
+
+    /* l'IdClient della versione precedente */
+    private static class IdVecchio {
+
+        private final InetAddress ip;
+        private final int porta;
+
+        IdVecchio(String id) throws UnknownHostException {
+            String[] array = id.split(":", 2);
+            this.ip = InetAddress.getByName(array[0]);
+            this.porta = Integer.parseInt(array[1]);
+        }
+
+        @Override
+        public String toString() {
+            return this.ip.getHostAddress().toString() + ":" + this.porta;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (o.getClass() == IdVecchio.class) {
+                return this.toString().equals(((IdVecchio) o).toString());
+            }
+            return false;
+        }
+
+        @Override
+        public int hashCode() {
+            int hash = 7;
+            hash = 71 * hash + (this.ip != null ? this.ip.hashCode() : 0);
+            hash = 71 * hash + this.porta;
+            return hash;
+        }
+    }
+}
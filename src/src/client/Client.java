@@ -3,6 +3,7 @@ package client;
 import java.io.File;
 import java.io.IOException;
 import java.net.InetAddress;
+import java.net.InetSocketAddress;
 import java.net.UnknownHostException;
 import java.rmi.NotBoundException;
 import java.rmi.RemoteException;
@@ -12,6 +13,8 @@ import java.rmi.server.UnicastRemoteObject;
 import java.io.BufferedReader;
 import java.io.FileNotFoundException;
 import java.io.FileReader;
+import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.List;
 /*----------------*/
 import common.identifier.FileDescriptor;
@@ -19,10 +22,14 @@ import common.identifier.IdClient;
 import common.remote.exception.ClientAlreadyRegisteredException;
 import common.remote.exception.ClientNotActiveException;
 import common.remote.ClientRemote;
+import common.remote.DeltaClient;
 import common.remote.ServerRemote;
+import common.remote.FindResult;
 import common.remote.SearchResult;
 import client.filetransmission.GestoreTrasmissioneFile;
+import client.filetransmission.ImprontaFile;
 import common.Configuration;
+import common.metriche.ServizioMetriche;
 import common.multicast.GestoreMulticastClient;
 
 /**
@@ -47,6 +54,8 @@ public class Client implements ClientRemote {
     private Thread gestoreMulticastThread;
     private GestoreTrasmissioneFile gestoreTCP;
     private Thread gestoreTCPThread;
+    /* null se le metriche non sono esportate */
+    private ServizioMetriche metriche;
 
     /**
      * Costruisce un nuovo oggetto Client. Assume che i parametri siano 
@@ -76,6 +85,7 @@ public class Client implements ClientRemote {
         this.gestoreMulticastThread = null;
         this.gestoreTCP = null;
         this.gestoreTCPThread = null;
+        this.metriche = null;
 
 
     }
@@ -113,6 +123,8 @@ public class Client implements ClientRemote {
                 + "\n TID->"
                 + gestoreTCPThread.getName());
 
+        avviaMetriche();
+
         /* Costruisco il mio IdClient (this.myself)
          * L'ip e la porta me li da il gestoreTCP
          */
@@ -122,7 +134,8 @@ public class Client implements ClientRemote {
         /* Avvio del gestoreKeepAlive */
         try {
             gestoreKeepAlive = new KeepAliveSender(
-                    InetAddress.getByName(serverHost), udpPort, this.myself);
+                    InetAddress.getByName(serverHost), udpPort, this.myself,
+                    this.gestoreTCP);
         } catch (UnknownHostException e) {
             System.out.println("CLIENT, problemi nell'avviare "
                     + "il gestore Keepalive");
@@ -141,7 +154,8 @@ public class Client implements ClientRemote {
 
         try {
             this.listaClients =
-                    new listaClient(stub.register(myself, callback));
+                    new listaClient(stub.register(myself, callback,
+                            gestoreKeepAlive.getToken()));
         } catch (ClientAlreadyRegisteredException e) {
             /* Sono già registrato, non dico niente all'utente
              * quindi non faccio niente quando ricevo
@@ -183,6 +197,28 @@ public class Client implements ClientRemote {
                 + gestoreKeepAliveThread.getName());
     }
 
+    /* esporta le metriche dei trasferimenti via HTTP, se non sono
+     * disattivate; senza metriche il client funziona lo stesso */
+    private void avviaMetriche() {
+        if (Configuration.CLT_METRICS_PORT < 0) {
+            return;
+        }
+        try {
+            metriche = new ServizioMetriche(new InetSocketAddress(
+                    Configuration.MET_ADDRESS,
+                    Configuration.CLT_METRICS_PORT));
+        } catch (IOException e) {
+            System.out.println("CLIENT, metriche non esportate: " + e);
+            return;
+        }
+        metriche.aggiungi(gestoreTCP.getStatistiche());
+        metriche.avvia();
+        System.out.println("CLIENT, metriche su http://"
+                + Configuration.MET_ADDRESS + ":"
+                + metriche.getIndirizzo().getPort()
+                + ServizioMetriche.PERCORSO);
+    }
+
     /**
      * Termina il client e tutti i suoi moduli.
      * @throws InterruptedException se una join() viene interrotta
@@ -212,6 +248,10 @@ public class Client implements ClientRemote {
         this.gestoreTCPThread.join();
         System.out.println("Gestore TCP Terminato\n");
 
+        if (this.metriche != null) {
+            this.metriche.ferma();
+        }
+
         System.err.println("Client Terminato.");
         System.exit(0);
     }
@@ -255,6 +295,30 @@ public class Client implements ClientRemote {
         return;
     }
 
+    /**
+     * Applica alla lista di client attivi le variazioni raccolte dal
+     * server.
+     * @param d Le variazioni da applicare
+     * @return false se la lista locale è rimasta indietro, il server
+     * invierà l'intera lista
+     * @throws RemoteException Non la lancia
+     */
+    @Override
+    public synchronized boolean applyDelta(DeltaClient d)
+            throws RemoteException {
+        boolean ok;
+        try {
+            ok = this.listaClients.applyDelta(d, this.myself);
+        } catch (Exception e) {
+            return false;
+        }
+        if (ok) {
+            System.out.println("CLIENT, DELTA " + d.getVersioneA() + ":\n"
+                    + "Lista client aggiornata -> " + listaClients);
+        }
+        return ok;
+    }
+
     /**
      * Rimuove l’identificatore del client passato per
      * argomento dalla lista di client attivi.
@@ -278,16 +342,27 @@ public class Client implements ClientRemote {
 
     /**
      * Metodo per invocare la publish sul server remoto.
+     * Calcola gli hash del contenuto e dei pezzi del file, con cui chi lo
+     * scarica controlla i pezzi ricevuti. Se lo stesso contenuto è già
+     * stato pubblicato, anche con un altro nome, diventiamo suoi seeder.
      * Assume che i parametri siano sensati!
-     * @param fileName Il file da pubblicare
-     * @param byteSize La sua dimensione
+     * @param file Il file da pubblicare
      * @throws RemoteException Se non siamo registrati
      * e non riusciamo a registrarci
      */
-    public void publishFile(String fileName, int byteSize)
-            throws RemoteException {
-        FileDescriptor fd = new FileDescriptor(fileName, byteSize);
+    public void publishFile(File file) throws RemoteException {
+        FileDescriptor fd;
+        try {
+            fd = ImprontaFile.calcola(file, Configuration.GTF_PIECE_SIZE);
+        } catch (IOException e) {
+            System.out.println("CLIENT, impossibile leggere "
+                    + file.getName() + ":\n" + e);
+            return;
+        }
+        String fileName = fd.getName();
         boolean ret = false;
+        /* chi scarica il file chiede i pezzi per chiave */
+        this.gestoreTCP.condividi(fd);
 
         try {
             ret = this.stub.publish(myself, fd);
@@ -296,23 +371,97 @@ public class Client implements ClientRemote {
              * Se la register fallisce, termino il client.
              */
             this.listaClients =
-                    new listaClient(this.stub.register(myself, callback));
+                    new listaClient(this.stub.register(myself, callback,
+                            gestoreKeepAlive.getToken()));
             ret = this.stub.publish(myself, fd);
         } catch (RemoteException ex) {
             throw ex;
         }
 
         if (ret == true) {
-            System.out.println("CLIENT, file " + fileName
-                    + "già pubblicato da un altro client");
-        } else {
             System.out.println("CLIENT, sei seeder per " + fileName);
+        } else {
+            System.out.println("CLIENT, file " + fileName
+                    + " già pubblicato da un altro client");
         }
 
         return;
 
     }
 
+    /**
+     * Pubblica tutti i file della working directory, tranne il file dei
+     * comandi, con una publishAll ogni Configuration.CLT_PUBLISH_BATCH
+     * file invece di una publish per file.
+     * @throws RemoteException Se non siamo registrati
+     * e non riusciamo a registrarci
+     */
+    public void publishDirectory() throws RemoteException {
+        File[] files = new File(this.workingDir).listFiles();
+        String comandi = new File(this.workingDir
+                + Configuration.CLT_COMMAND_FILENAME).getName();
+        List<FileDescriptor> lotto = new ArrayList<FileDescriptor>();
+        int pubblicati = 0;
+        int totale = 0;
+
+        if (files == null) {
+            System.out.println("CLIENT, impossibile leggere "
+                    + this.workingDir);
+            return;
+        }
+        for (File f : files) {
+            if (!f.isFile() || !f.canRead() || f.getName().equals(comandi)) {
+                continue;
+            }
+            try {
+                FileDescriptor fd =
+                        ImprontaFile.calcola(f, Configuration.GTF_PIECE_SIZE);
+                /* chi scarica il file chiede i pezzi per chiave */
+                this.gestoreTCP.condividi(fd);
+                lotto.add(fd);
+            } catch (IOException e) {
+                System.out.println("CLIENT, impossibile leggere "
+                        + f.getName() + ":\n" + e);
+                continue;
+            }
+            if (lotto.size() == Configuration.CLT_PUBLISH_BATCH) {
+                pubblicati += publishLotto(lotto);
+                totale += lotto.size();
+                lotto.clear();
+            }
+        }
+        if (!lotto.isEmpty()) {
+            pubblicati += publishLotto(lotto);
+            totale += lotto.size();
+        }
+        System.out.println("CLIENT, sei seeder per " + pubblicati + " file su "
+                + totale);
+    }
+
+    /* pubblica un lotto di file, restituisce quanti sono stati accettati */
+    private int publishLotto(List<FileDescriptor> lotto)
+            throws RemoteException {
+        BitSet ret;
+        try {
+            ret = this.stub.publishAll(myself, lotto);
+        } catch (ClientNotActiveException e) {
+            /* non ero registrato provo a registrarmi di nuovo
+             * Se la register fallisce, termino il client.
+             */
+            this.listaClients =
+                    new listaClient(this.stub.register(myself, callback,
+                            gestoreKeepAlive.getToken()));
+            ret = this.stub.publishAll(myself, lotto);
+        }
+        for (int i = 0; i < lotto.size(); i++) {
+            if (!ret.get(i)) {
+                System.out.println("CLIENT, file " + lotto.get(i).getName()
+                        + " già pubblicato da un altro client");
+            }
+        }
+        return ret.cardinality();
+    }
+
     /**
      * Metodo per invocare la search sul server remoto.
      * @param fileName il file da cercare
@@ -322,13 +471,16 @@ public class Client implements ClientRemote {
     public void searchFile(String fileName) throws RemoteException {
         SearchResult sr = null;
         try {
-            sr = this.stub.search(myself, fileName);
+            sr = this.stub.searchSeeders(myself, fileName,
+                    Configuration.CLT_SEARCH_SEEDERS);
         } catch (ClientNotActiveException e) {
             /* non ero registrato provo a registrarmi di nuovo
              * Se la register fallisce, termino il client.
              */
-            this.stub.register(myself, callback);
-            sr = this.stub.search(myself, fileName);
+            this.stub.register(myself, callback,
+                    gestoreKeepAlive.getToken());
+            sr = this.stub.searchSeeders(myself, fileName,
+                    Configuration.CLT_SEARCH_SEEDERS);
         } catch (RemoteException ex) {
             throw ex;
         }
@@ -349,6 +501,66 @@ public class Client implements ClientRemote {
 
     }
 
+    /**
+     * Metodo per invocare la find sul server remoto e stampare una pagina
+     * dei file trovati. Non scarica nessun file.
+     * @param query la stringa da cercare nei nomi dei file
+     * @param offset il numero di risultati da saltare
+     * @throws RemoteException Se non siamo registrati
+     * e non riusciamo a registrarci
+     */
+    public void findFile(String query, int offset) throws RemoteException {
+        FindResult fr = null;
+        try {
+            fr = this.stub.find(myself, query, offset,
+                    Configuration.CLT_FIND_PAGE);
+        } catch (ClientNotActiveException e) {
+            /* non ero registrato provo a registrarmi di nuovo
+             * Se la register fallisce, termino il client.
+             */
+            this.stub.register(myself, callback,
+                    gestoreKeepAlive.getToken());
+            fr = this.stub.find(myself, query, offset,
+                    Configuration.CLT_FIND_PAGE);
+        } catch (RemoteException ex) {
+            throw ex;
+        }
+
+        System.out.println("CLIENT, " + fr.getTotale()
+                + " file trovati per '" + query + "'");
+        for (int i = 0; i < fr.size(); i++) {
+            FileDescriptor fd = fr.getFileDescriptor(i);
+            System.out.println("  " + (offset + i + 1) + ". " + fd.getName()
+                    + " (" + fd.getSize() + " byte, "
+                    + fr.getSeeders(i) + " seeder)");
+        }
+        if (offset + fr.size() < fr.getTotale()) {
+            System.out.println("CLIENT, altri "
+                    + (fr.getTotale() - offset - fr.size()) + " risultati");
+        }
+    }
+
+    /**
+     * Cambia i limiti di banda degli upload o dei download
+     * @param upload true per gli upload, false per i download
+     * @param globale i byte al secondo di tutti i trasferimenti insieme,
+     * 0 per nessun limite
+     * @param perConnessione i byte al secondo di ogni trasferimento,
+     * 0 per nessun limite
+     */
+    public void setLimitiBanda(boolean upload, long globale,
+            long perConnessione) {
+        if (upload) {
+            this.gestoreTCP.setLimitiUpload(globale, perConnessione);
+        } else {
+            this.gestoreTCP.setLimitiDownload(globale, perConnessione);
+        }
+        System.out.println("CLIENT, limiti di banda "
+                + (upload ? "upload" : "download") + ": " + globale
+                + " byte/s in tutto, " + perConnessione
+                + " byte/s per connessione");
+    }
+
     private static void printUsage() {
         System.out.println("\nProgetto LPR - Della Bona, Lensi: CLIENT\n"
                 + "\n"
@@ -489,6 +701,9 @@ public class Client implements ClientRemote {
         }
 
 
+        /* se il server riparte lo stub va cercato di nuovo */
+        stub = RiconnessioneServer.crea(serverHost, rmiPort, stub);
+
         /* interfaccia trovata e messa dentro stub
          * creo l'oggetto Client
          */
@@ -531,6 +746,19 @@ public class Client implements ClientRemote {
                     System.out.println("MAIN, ricevuto comando EXIT");
                     client.stopClient();
                     return;
+                } else if (command[0].equalsIgnoreCase("publishall")
+                        && command.length == 1) {
+                    System.out.println("MAIN, ricevuto comando PUBLISHALL");
+                    try {
+                        client.publishDirectory();
+                    } catch (RemoteException e) {
+                        System.out.println("MAIN, "
+                                + "problemi di comunicazione "
+                                + "con il server:\n"
+                                + e);
+                        client.stopClient();
+                        return;
+                    }
                 } else if (command.length != 2) {
                     System.out.println("MAIN,"
                             + "'" + nextline + "' comando errato ");
@@ -541,7 +769,7 @@ public class Client implements ClientRemote {
                     File toSend = new File(workingDir + "/" + command[1]);
                     if (toSend.exists() && toSend.isFile() && toSend.canRead()) {
                         try {
-                            client.publishFile(toSend.getName(), (int) toSend.length());
+                            client.publishFile(toSend);
                         } catch (RemoteException e) {
                             System.out.println("MAIN, "
                                     + "problemi di comunicazione "
@@ -569,6 +797,48 @@ public class Client implements ClientRemote {
                         return;
                     }
 
+                } else if (command[0].equalsIgnoreCase("find")) {
+                    /* find [-pagina] stringa */
+                    System.out.println("MAIN, ricevuto comando "
+                            + "FIND " + command[1]);
+                    String query = command[1];
+                    int pagina = 0;
+                    String[] arg = command[1].split(" ", 2);
+                    if (arg.length == 2 && arg[0].matches("-[0-9]+")) {
+                        pagina = Integer.parseInt(arg[0].substring(1));
+                        query = arg[1];
+                    }
+                    try {
+                        client.findFile(query,
+                                pagina * Configuration.CLT_FIND_PAGE);
+                    } catch (RemoteException e) {
+                        System.out.println("MAIN, "
+                                + "problemi di comunicazione "
+                                + "con il server:\n"
+                                + e);
+                        client.stopClient();
+                        return;
+                    }
+                } else if (command[0].equalsIgnoreCase("limit")) {
+                    /* limit upload|download globale [perConnessione] */
+                    System.out.println("MAIN, ricevuto comando "
+                            + "LIMIT " + command[1]);
+                    String[] arg = command[1].trim().split(" +");
+                    try {
+                        if (arg.length < 2 || arg.length > 3
+                                || !(arg[0].equalsIgnoreCase("upload")
+                                || arg[0].equalsIgnoreCase("download"))) {
+                            throw new NumberFormatException();
+                        }
+                        client.setLimitiBanda(
+                                arg[0].equalsIgnoreCase("upload"),
+                                Long.parseLong(arg[1]),
+                                (arg.length == 3) ? Long.parseLong(arg[2]) : 0);
+                    } catch (NumberFormatException e) {
+                        System.out.println("MAIN, comando "
+                                + "LIMIT " + command[1]
+                                + " errato.");
+                    }
                 } else if (command[0].equalsIgnoreCase("wait")) {
                     System.out.println("MAIN, ricevuto comando "
                             + "WAIT " + command[1]);
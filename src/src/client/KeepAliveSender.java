@@ -1,13 +1,14 @@
 package client;
 
 import common.Configuration;
-import java.io.ByteArrayOutputStream;
-import java.io.DataOutputStream;
-import java.io.IOException;
 import java.net.DatagramPacket;
 import java.net.DatagramSocket;
 import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.security.SecureRandom;
 import common.identifier.IdClient;
+import common.keepalive.FrameKeepAlive;
+import client.filetransmission.GestoreTrasmissioneFile;
 
 /**
  * La classe KeepAliveSender realizza un modulo del client che
@@ -15,6 +16,11 @@ import common.identifier.IdClient;
  * per dimostrare che il client che la usa è attivo.
  * A ricevere queste notifiche c'è la classe GestoreKeepAlive che complementa 
  * la classe KeepAliveSender sul lato server.
+ * I pacchetti sono frame binari di dimensione fissa (vedi FrameKeepAlive)
+ * che contengono anche un token di sessione scelto a caso all'avvio e il
+ * numero di upload in corso, usato dal server per scegliere i seeder.
+ * Il token viene comunicato al server con la register (vedi getToken): il
+ * server accetta solo i keepalive con il token ricevuto via RMI.
  * @author Federico Della Bona - Alessandro Lensi
  */
 public class KeepAliveSender implements Runnable {
@@ -22,17 +28,37 @@ public class KeepAliveSender implements Runnable {
     private InetAddress host;
     private int port;
     private IdClient self;
+    private long token;
+    private GestoreTrasmissioneFile trasmissione;
 
     /**
      * Inizializza un KeepAliveSender
      * @param host indirizzo del server
      * @param port porta del server
      * @param self client che usa il KeepAliveSender
+     * @param trasmissione il gestore da cui leggere gli upload in corso,
+     * può essere null
      */
-    public KeepAliveSender(InetAddress host, int port, IdClient self) {
+    public KeepAliveSender(InetAddress host, int port, IdClient self,
+            GestoreTrasmissioneFile trasmissione) {
         this.host = host;
         this.port = port;
         this.self = self;
+        this.trasmissione = trasmissione;
+        /* il token 0 indica l'assenza del token */
+        SecureRandom r = new SecureRandom();
+        do {
+            this.token = r.nextLong();
+        } while (this.token == 0);
+    }
+
+    /**
+     * Restituisce il token di sessione inserito nei keepalive, da passare
+     * al server nella register
+     * @return il token, diverso da 0
+     */
+    public long getToken() {
+        return this.token;
     }
 
     /**
@@ -50,21 +76,16 @@ public class KeepAliveSender implements Runnable {
                     + " socket non trovata");
         }
 
-        ByteArrayOutputStream buf = new ByteArrayOutputStream();
-        DataOutputStream out = new DataOutputStream(buf);
-        try {
-            out.writeUTF(this.self.toString());
-        } catch (IOException ex) {
-            System.out.println("KEEP ALIVE SENDER: " + this.self
-                    + " errore di codificazione del client in UTF");
-        }
+        ByteBuffer buf = ByteBuffer.allocate(FrameKeepAlive.DIMENSIONE);
+        FrameKeepAlive.scrivi(buf, this.self, this.token, carico());
 
         System.out.println("KEEP ALIVE SENDER: " + this.self
-                + " inserisco " + buf.toString() + "in UTF nel pacchetto "
+                + " inserisco il frame keepalive (versione "
+                + FrameKeepAlive.VERSIONE + ") nel pacchetto "
                 + "e inizio ad inviarlo");
 
         DatagramPacket packet = new DatagramPacket(
-                buf.toByteArray(), buf.size());
+                buf.array(), buf.position());
 
 
 
@@ -72,6 +93,8 @@ public class KeepAliveSender implements Runnable {
             try {
                 System.out.println("KEEP ALIVE SENDER: " + this.self
                         + " ho mandato un pacchetto...");
+                buf.clear();
+                FrameKeepAlive.scrivi(buf, this.self, this.token, carico());
                 sender.send(packet);
                 Thread.sleep(Configuration.GKA_KEEPALIVE_FREQUENCY);
             } catch (InterruptedException i) {
@@ -90,4 +113,10 @@ public class KeepAliveSender implements Runnable {
         System.out.println("KEEP ALIVE SENDER: " + this.self
                 + "termino");
     }
+
+    /* upload in corso da dichiarare nel prossimo keepalive */
+    private int carico() {
+        return (this.trasmissione == null)
+                ? 0 : this.trasmissione.getUploadInCorso();
+    }
 }
@@ -0,0 +1,89 @@
+package client;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.rmi.ConnectException;
+import java.rmi.NoSuchObjectException;
+import java.rmi.NotBoundException;
+import java.rmi.RemoteException;
+import java.rmi.registry.LocateRegistry;
+import common.Configuration;
+import common.remote.ServerRemote;
+
+/**
+ * Interfaccia remota del server che sopravvive ai riavvii del server.
+ * Quando il server riparte, l'oggetto remoto esportato è un altro e le
+ * chiamate sul vecchio stub falliscono senza essere eseguite
+ * (NoSuchObjectException o ConnectException): in questo caso lo stub
+ * viene cercato di nuovo nel registro RMI e la chiamata ripetuta una
+ * volta. Se il server ha il database persistente il client riprende
+ * così senza registrarsi di nuovo.
+ * @author Federico Della Bona - Alessandro Lensi
+ */
+class RiconnessioneServer implements InvocationHandler {
+
+    private final String host;
+    private final int porta;
+    private volatile ServerRemote stub;
+
+    private RiconnessioneServer(String host, int porta, ServerRemote stub) {
+        this.host = host;
+        this.porta = porta;
+        this.stub = stub;
+    }
+
+    /**
+     * Crea l'interfaccia remota del server
+     * @param host l'host del registro RMI del server
+     * @param porta la porta del registro RMI del server
+     * @param stub lo stub trovato nel registro
+     * @return l'interfaccia remota che si ricollega al server
+     */
+    static ServerRemote crea(String host, int porta, ServerRemote stub) {
+        return (ServerRemote) Proxy.newProxyInstance(
+                ServerRemote.class.getClassLoader(),
+                new Class<?>[]{ServerRemote.class},
+                new RiconnessioneServer(host, porta, stub));
+    }
+
+    @Override
+    public Object invoke(Object proxy, Method m, Object[] args)
+            throws Throwable {
+        ServerRemote s = this.stub;
+        try {
+            return m.invoke(s, args);
+        } catch (InvocationTargetException e) {
+            Throwable t = e.getCause();
+            if (!(t instanceof NoSuchObjectException)
+                    && !(t instanceof ConnectException)) {
+                throw t;
+            }
+            ServerRemote nuovo;
+            try {
+                nuovo = cerca(s);
+            } catch (Exception ex) {
+                throw t;
+            }
+            try {
+                return m.invoke(nuovo, args);
+            } catch (InvocationTargetException ex) {
+                throw ex.getCause();
+            }
+        }
+    }
+
+    /* cerca di nuovo lo stub, se un altro thread non l'ha già fatto */
+    private synchronized ServerRemote cerca(ServerRemote vecchio)
+            throws RemoteException, NotBoundException {
+        if (this.stub == vecchio) {
+            this.stub = (ServerRemote) LocateRegistry.getRegistry(
+                    this.host, this.porta).lookup(
+                    Configuration.SRV_SERVICE_NAME);
+            System.out.println("CLIENT, ricollegato al server "
+                    + this.host + ":" + this.porta);
+        }
+        return this.stub;
+    }
+}
@@ -0,0 +1,116 @@
+package client.filetransmission;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+
+/**
+ * Lo stato di una connessione servita da GestoreUpload: i byte ricevuti e
+ * non ancora elaborati, quelli da inviare (saluto e risposte), il file
+ * aperto, la parte del pezzo in corso ancora da inviare e il secchio di
+ * gettoni che ne limita la velocità.
+ * I buffer sono usati sempre in scrittura: chi li legge li rigira e poi
+ * li compatta.
+ * Viene usata solo dal thread di GestoreUpload.
+ * @author Federico Della Bona - Alessandro Lensi
+ */
+class ConnessioneUpload {
+
+    /** si aspetta il saluto, o la richiesta di un client vecchio */
+    static final int SALUTO = 0;
+    /** si aspettano richieste di pezzi */
+    static final int RICHIESTE = 1;
+    private static final int DIMENSIONE_INGRESSO = 512;
+
+    final SocketChannel canale;
+    /* accettata oltre GTF_MAX_UPLOADS, risponde occupato e chiude */
+    final boolean occupata;
+    final ByteBuffer uscita;
+    final SecchioGettoni secchio;
+    ByteBuffer ingresso;
+    int stato;
+    RandomAccessFile file;
+    String nomeFile;
+    long posizione;
+    long rimasti;
+    boolean chiudiDopo;
+    long ultimaAttivita;
+    /* System.nanoTime() a cui riprendere l'invio, 0 se non è sospeso */
+    long riprendi;
+
+    /**
+     * Crea lo stato di una connessione appena accettata, con
+     * l'intestazione dello stream a oggetti già pronta da inviare
+     * @param canale il canale della connessione
+     * @param occupata true se la connessione supera il numero massimo di
+     * upload
+     * @param secchio il secchio di gettoni della connessione
+     */
+    ConnessioneUpload(SocketChannel canale, boolean occupata,
+            SecchioGettoni secchio) {
+        this.canale = canale;
+        this.occupata = occupata;
+        this.secchio = secchio;
+        this.ingresso = ByteBuffer.allocate(DIMENSIONE_INGRESSO);
+        this.uscita = ByteBuffer.allocate(ProtocolloPeer.DIMENSIONE_SALUTO
+                + ProtocolloPeer.DIMENSIONE_RISPOSTA);
+        this.uscita.putInt(ProtocolloPeer.INTESTAZIONE_OGGETTI);
+        this.stato = SALUTO;
+        this.ultimaAttivita = System.currentTimeMillis();
+    }
+
+    /**
+     * Controlla se non c'è niente da inviare
+     * @return true se il saluto, le risposte e i pezzi sono stati inviati
+     */
+    boolean isInviato() {
+        return this.uscita.position() == 0 && this.rimasti == 0;
+    }
+
+    /**
+     * Se il buffer dei byte ricevuti è pieno lo ingrandisce, fino a
+     * poter contenere la richiesta più lunga
+     * @return false se il buffer è pieno e non può essere ingrandito
+     */
+    boolean ingrandisci() {
+        if (this.ingresso.hasRemaining()) {
+            return true;
+        }
+        int capacita = this.ingresso.capacity();
+        if (capacita >= ProtocolloPeer.DIMENSIONE_MAX_RICHIESTA) {
+            return false;
+        }
+        ByteBuffer nuovo = ByteBuffer.allocate(Math.min(capacita * 4,
+                ProtocolloPeer.DIMENSIONE_MAX_RICHIESTA));
+        this.ingresso.flip();
+        nuovo.put(this.ingresso);
+        this.ingresso = nuovo;
+        return true;
+    }
+
+    /**
+     * Chiude il file aperto, se c'è
+     */
+    void chiudiFile() {
+        if (this.file != null) {
+            try {
+                this.file.close();
+            } catch (IOException ex) {
+            }
+            this.file = null;
+        }
+        this.nomeFile = null;
+    }
+
+    /**
+     * Chiude il file e la connessione
+     */
+    void chiudi() {
+        chiudiFile();
+        try {
+            this.canale.close();
+        } catch (IOException ex) {
+        }
+    }
+}
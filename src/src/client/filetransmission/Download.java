@@ -7,9 +7,20 @@ import java.io.InputStream;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.io.OutputStream;
+import java.io.RandomAccessFile;
 import java.net.InetAddress;
 import java.net.Socket;
 import java.rmi.RemoteException;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 import common.identifier.FileDescriptor;
 import common.identifier.IdClient;
 import common.remote.ServerRemote;
@@ -17,25 +28,45 @@ import common.remote.SearchResult;
 import common.Configuration;
 
 /**
- * Realizza il Task incaricato di scaricare un file da un altro client.
+ * Realizza il Task incaricato di scaricare un file da altri client.
+ * Il file è diviso in pezzi di Configuration.GTF_PIECE_SIZE byte (o della
+ * dimensione indicata nel FileDescriptor, se contiene gli hash), scaricati
+ * in parallelo da al più Configuration.GTF_MAX_SOURCES seeder (vedi
+ * SorgentePezzi) e scritti direttamente nella loro posizione nel file
+ * temporaneo. Se nessun pezzo arriva, il file viene chiesto per intero,
+ * come nel vecchio protocollo, ai soli seeder che non conoscono il
+ * protocollo a pezzi: un seeder che risponde ESITO_OCCUPATO non viene
+ * richiamato con il vecchio protocollo, che aggirerebbe il suo limite di
+ * upload.
+ * I pezzi ricevuti sono salvati in un registro accanto al file temporaneo
+ * (vedi RegistroPezzi): se il download fallisce il file temporaneo non
+ * viene cancellato, e il prossimo download dello stesso file, anche dopo
+ * un riavvio del client, scarica solo i pezzi mancanti.
+ * Se il FileDescriptor contiene gli hash, ogni pezzo viene controllato
+ * appena ricevuto: un pezzo sbagliato viene scartato e scaricato di nuovo
+ * da un altro seeder, e i pezzi di un download ripreso vengono controllati
+ * prima di ripartire.
  * @author Federico Della Bona - Alessandro Lensi
  */
 public class Download implements Runnable {
 
     String filename;
     String workingDir;
-    InetAddress ip;
-    int port;
+    List<IdClient> seeders;
     ServerRemote stub;
     IdClient myself;
     FileDescriptor toDownload;
+    LimitiBanda limiti;
+    IndiceContenuti indice;
+    StatisticheTrasferimenti statistiche;
 
     /**
      * Crea un nuovo Thread di download. 
      * Assumiamo che i parametri siano sempre diversi da null, quindi
      * chi chiama il costruttore deve esserne sicuro!
      * @param sr Struttura contenente il FileDescriptor (del package oggetti)
-     * che rappresenta il file da reperire e l'IdClient di chi lo possiede.
+     * che rappresenta il file da reperire e gli IdClient di chi lo possiede,
+     * da provare nell'ordine.
      * @param workingDir La directory dove salvare il file
      * una volta terminato il download
      * @param stub Lo stub remoto del server, per 
@@ -46,10 +77,31 @@ public class Download implements Runnable {
      */
     public Download(SearchResult sr, String workingDir,
             ServerRemote stub, IdClient self) {
+        this(sr, workingDir, stub, self, new LimitiBanda(0, 0, 0, 0),
+                new IndiceContenuti(),
+                new StatisticheTrasferimenti(new AtomicInteger(0)));
+    }
 
+    /**
+     * Crea un nuovo Thread di download che rispetta i limiti di banda
+     * @param sr i seeder e il FileDescriptor del file da reperire
+     * @param workingDir La directory dove salvare il file
+     * @param stub Lo stub remoto del server
+     * @param self L'IdClient del client che richiede il file
+     * @param limiti i limiti di banda dei download
+     * @param indice i file condivisi per chiave, a cui aggiungere quello
+     * scaricato
+     * @param statistiche dove contare i download in corso e il loro esito
+     */
+    Download(SearchResult sr, String workingDir, ServerRemote stub,
+            IdClient self, LimitiBanda limiti, IndiceContenuti indice,
+            StatisticheTrasferimenti statistiche) {
+
+        this.limiti = limiti;
+        this.statistiche = statistiche;
+        this.indice = indice;
         this.filename = sr.getFileDescriptor().getName();
-        this.ip = sr.getSeeder().getAddress();
-        this.port = sr.getSeeder().getPort();
+        this.seeders = sr.getSeeders();
         this.workingDir = workingDir;
         this.stub = stub;
         this.myself = self;
@@ -58,23 +110,241 @@ public class Download implements Runnable {
 
     /**
      * Funzione che viene eseguita quando si chiama la start() di Thread.
-     * Si occupa di scaricare il file dal client indicato.
+     * Scarica i pezzi del file dai seeder, nell'ordine in cui li ha
+     * restituiti il server: se il trasferimento da un seeder fallisce lo
+     * segnala al server e passa al successivo.
      */
     @Override
     public void run() {
+        boolean completato = false;
+        this.statistiche.downloadIniziato();
+        try {
+            completato = esegui();
+        } finally {
+            this.statistiche.downloadFinito(completato);
+        }
+    }
 
-        Socket transferSocket = null;
+    /* Scarica il file, restituisce true se è stato scaricato per intero */
+    private boolean esegui() {
 
         File fileToDownload =
                 new File(this.workingDir + Configuration.GTF_TMP_DIR + filename);
 
+        RegistroPezzi registro =
+                new RegistroPezzi(fileToDownload, toDownload.getKey());
+        StatoPezzi stato = riprendi(registro, fileToDownload);
+        List<IdClient> vecchi = new ArrayList<IdClient>();
+        IdClient migliore = scaricaAPezzi(stato, fileToDownload, registro,
+                vecchi);
+        if (stato.isCompleto()) {
+            registro.elimina();
+            /* i pezzi hanno l'hash giusto, ma la lista degli hash dei pezzi
+             * potrebbe non essere quella del contenuto: controllo anche
+             * l'hash di tutto il file */
+            if (contenutoValido(fileToDownload)) {
+                completato(migliore, fileToDownload);
+                return true;
+            }
+            System.out.println("GESTORE TRASMISSIONE FILE: Download("
+                    + Thread.currentThread().getName()
+                    + "), il file " + filename + " ricevuto a pezzi non ha "
+                    + "l'hash del contenuto, lo scarto");
+            fileToDownload.delete();
+        } else if (stato.numFatti() == 0) {
+            /* nessun pezzo ricevuto: chiedo il file intero ai seeder
+             * vecchi, come fanno i client vecchi */
+            registro.elimina();
+            for (IdClient seeder : vecchi) {
+                if (scarica(seeder, fileToDownload)) {
+                    completato(seeder, fileToDownload);
+                    return true;
+                }
+            }
+            /* elimino il file temporaneo */
+            fileToDownload.delete();
+        } else {
+            System.out.println("GESTORE TRASMISSIONE FILE: Download("
+                    + Thread.currentThread().getName()
+                    + "), " + stato.numFatti() + " pezzi di "
+                    + stato.getNumPezzi() + " di " + filename
+                    + " salvati, il prossimo download riprenderà da qui");
+        }
+
+        System.out.println("GESTORE TRASMISSIONE FILE: Download("
+                + Thread.currentThread().getName()
+                + "), nessun seeder ha inviato " + filename
+                + "\nTERMINO");
+        try {
+            /* notifico al server il problema di trasferimento */
+            stub.transferFailed(filename, myself);
+        } catch (RemoteException ex) {
+        }
+        return false;
+    }
+
+    /* Legge dal registro i pezzi già ricevuti da un download precedente.
+     * Se il registro non c'è, non corrisponde al file temporaneo o è
+     * di un altro file (un'altra chiave), elimina entrambi e riparte da
+     * zero.
+     */
+    private StatoPezzi riprendi(RegistroPezzi registro, File fileToDownload) {
+        BitSet fatti = null;
+        if (fileToDownload.isFile()
+                && fileToDownload.length() == toDownload.getSize()) {
+            fatti = registro.leggi(toDownload.getSize(), dimensionePezzo());
+        }
+        if (fatti != null && toDownload.hasHashes()) {
+            fatti = controllaPezzi(fileToDownload, fatti);
+        }
+        if (fatti == null) {
+            registro.elimina();
+            /* un file rimasto da un tentativo precedente viene scartato */
+            if (fileToDownload.exists()) {
+                fileToDownload.delete();
+            }
+        } else {
+            System.out.println("GESTORE TRASMISSIONE FILE: Download("
+                    + Thread.currentThread().getName()
+                    + "), riprendo " + filename + " ("
+                    + fatti.cardinality() + " pezzi già ricevuti)");
+        }
+        return new StatoPezzi(toDownload.getSize(), dimensionePezzo(), fatti);
+    }
+
+    /* La dimensione dei pezzi: quella a cui si riferiscono gli hash, se
+     * ci sono, altrimenti quella della configurazione */
+    private int dimensionePezzo() {
+        return toDownload.hasHashes()
+                ? toDownload.getPieceSize() : Configuration.GTF_PIECE_SIZE;
+    }
+
+    /* Controlla gli hash dei pezzi già ricevuti da un download precedente.
+     * Restituisce i pezzi corretti, null se il file non si può leggere.
+     */
+    private BitSet controllaPezzi(File fileToDownload, BitSet fatti) {
+        RandomAccessFile raf = null;
+        try {
+            raf = new RandomAccessFile(fileToDownload, "r");
+            int tolti = ImprontaFile.verificaPezzi(raf.getChannel(),
+                    toDownload, fatti);
+            if (tolti > 0) {
+                System.out.println("GESTORE TRASMISSIONE FILE: Download("
+                        + Thread.currentThread().getName()
+                        + "), " + tolti + " pezzi di " + filename
+                        + " salvati sono rovinati, li scarico di nuovo");
+            }
+            return fatti;
+        } catch (IOException e) {
+            return null;
+        } finally {
+            if (raf != null) {
+                try {
+                    raf.close();
+                } catch (IOException ex) {
+                }
+            }
+        }
+    }
+
+    /* Scarica i pezzi del file in parallelo, da al più GTF_MAX_SOURCES
+     * seeder alla volta. Quando un seeder fallisce lo segnala al server e,
+     * se ci sono ancora pezzi da scaricare, passa al prossimo seeder. I
+     * seeder che non conoscono il protocollo a pezzi sono aggiunti a
+     * vecchi, e non vengono segnalati.
+     * Restituisce il seeder che ha inviato più pezzi tra quelli che non
+     * hanno fallito, null se non ce ne sono.
+     */
+    private IdClient scaricaAPezzi(StatoPezzi stato, File fileToDownload,
+            RegistroPezzi registro, List<IdClient> vecchi) {
+        RandomAccessFile raf = null;
+        ExecutorService sorgenti = null;
+        try {
+            raf = new RandomAccessFile(fileToDownload, "rw");
+            raf.setLength(toDownload.getSize());
+            if (stato.isCompleto()) {
+                return null;
+            }
+
+            int n = Math.min(this.seeders.size(), Configuration.GTF_MAX_SOURCES);
+            sorgenti = EsecutoreTrasferimenti.crea(
+                    Thread.currentThread().getName() + "-Sorgente-", n);
+            CompletionService<Boolean> cs =
+                    new ExecutorCompletionService<Boolean>(sorgenti);
+            HashMap<Future<Boolean>, SorgentePezzi> attive =
+                    new HashMap<Future<Boolean>, SorgentePezzi>();
+            Iterator<IdClient> prossimi = this.seeders.iterator();
+            while (attive.size() < n && prossimi.hasNext()) {
+                SorgentePezzi sp = new SorgentePezzi(prossimi.next(),
+                        toDownload, stato, raf.getChannel(), registro, limiti);
+                attive.put(cs.submit(sp), sp);
+            }
+
+            SorgentePezzi migliore = null;
+            while (!attive.isEmpty()) {
+                Future<Boolean> f = cs.take();
+                SorgentePezzi sp = attive.remove(f);
+                if (f.get()) {
+                    if (migliore == null || sp.getPezziRicevuti()
+                            > migliore.getPezziRicevuti()) {
+                        migliore = sp;
+                    }
+                    continue;
+                }
+                if (sp.isVecchio()) {
+                    vecchi.add(sp.getSeeder());
+                } else if (!sp.isOccupato()) {
+                    try {
+                        /* notifico al server il problema con questo seeder */
+                        stub.seederFailed(myself, filename, sp.getSeeder());
+                    } catch (RemoteException ex) {
+                    }
+                }
+                if (!stato.isCompleto() && prossimi.hasNext()) {
+                    SorgentePezzi altra = new SorgentePezzi(prossimi.next(),
+                            toDownload, stato, raf.getChannel(), registro,
+                            limiti);
+                    attive.put(cs.submit(altra), altra);
+                }
+            }
+            return (migliore == null) ? null : migliore.getSeeder();
+        } catch (Exception e) {
+            System.out.println("GESTORE TRASMISSIONE FILE: Download("
+                    + Thread.currentThread().getName()
+                    + "), errore durante il trasferimento di " + filename
+                    + "\n Eccezione: " + e);
+            return null;
+        } finally {
+            if (sorgenti != null) {
+                sorgenti.shutdownNow();
+            }
+            if (raf != null) {
+                if (!stato.isCompleto() && stato.numFatti() > 0) {
+                    registro.salva(stato, raf.getChannel());
+                }
+                try {
+                    raf.close();
+                } catch (IOException ex) {
+                }
+            }
+        }
+    }
+
+    /* Scarica il file intero dal seeder nel file temporaneo.
+     * Restituisce true se il file è stato ricevuto per intero.
+     */
+    private boolean scarica(IdClient seeder, File fileToDownload) {
+
+        InetAddress ip = seeder.getAddress();
+        int port = seeder.getPort();
+        Socket transferSocket = null;
+
         InputStream is = null;
         ObjectInputStream in = null;
         OutputStream os = null;
         ObjectOutputStream out = null;
         String response = null;
 
-
         /* Controlliamo che non ci sia un file con lo stesso nome rimasto nella
          * cartella temporanea in seguito ad un tentativo di download
          * precedentemente fallito. Se è questo il caso, lo cancelliamo.
@@ -125,15 +395,10 @@ public class Download implements Runnable {
                         + "), il client "
                         + ip.toString() + ":" + port
                         + " non ha il file" + filename
-                        + "\nTERMINO");
+                        + "\nPROVO IL PROSSIMO SEEDER");
 
                 transferSocket.close();
-                fileToDownload.delete();
-                /* Notifico al server che ci sono stati problemi
-                 * nel trasferire il file
-                 */
-                stub.transferFailed(filename, myself);
-                return;
+                return false;
             }
 
             System.out.println("GESTORE TRASMISSIONE FILE: Download("
@@ -146,8 +411,10 @@ public class Download implements Runnable {
             FileOutputStream fos = new FileOutputStream(fileToDownload);
 
 
+            SecchioGettoni secchio = limiti.nuovoDownload();
             while ((read = in.read(buf)) != -1) {
                 fos.write(buf, 0, read);
+                limiti.ricevuti(secchio, read);
             }
 
             fos.flush();
@@ -162,54 +429,65 @@ public class Download implements Runnable {
                     + Thread.currentThread().getName()
                     + "), errore durante il trasferimento di " + filename
                     + "\n Eccezione: " + e
-                    + "\nTERMINO");
+                    + "\nPROVO IL PROSSIMO SEEDER");
             try {
-                transferSocket.close();
+                if (transferSocket != null) {
+                    transferSocket.close();
+                }
             } catch (IOException ex) {
             }
-
-            /* elimino il file temporaneo */
-            fileToDownload.delete();
-
-            try {
-                /* notifico al server il problema di trasferimento */
-                stub.transferFailed(filename, myself);
-            } catch (RemoteException ex) {
-            }
-            return;
+            return false;
         }
 
         /* controllo che il file sia stato effettivamente ricevuto per intero*/
         if (fileToDownload.length() == toDownload.getSize()) {
+            if (contenutoValido(fileToDownload)) {
+                return true;
+            }
             System.out.println("GESTORE TRASMISSIONE FILE: Download("
                     + Thread.currentThread().getName()
-                    + "), " + filename
-                    + "Ricevuto correttamente. Lo sposto in " + workingDir);
+                    + "), il file " + filename + " ricevuto da "
+                    + seeder + " è rovinato");
+            return false;
+        }
+        /* il file NON è stato ricevuto per intero */
+        System.out.println("GESTORE TRASMISSIONE FILE: Download("
+                + Thread.currentThread().getName()
+                + "), errore durante il trasferimento di " + filename
+                + " il file non è stato ricevuto completamente da "
+                + seeder);
+        return false;
+    }
 
-            fileToDownload.renameTo(new File(workingDir + "/"+ filename));
+    /* controlla l'hash del contenuto del file scaricato, se c'è */
+    private boolean contenutoValido(File fileToDownload) {
+        if (!toDownload.hasHashes()) {
+            return true;
+        }
+        try {
+            return ImprontaFile.verifica(fileToDownload, toDownload);
+        } catch (IOException e) {
+            return false;
+        }
+    }
 
-            try {
-                stub.completed(myself, toDownload);
-            } catch (RemoteException e) {
-                System.out.println("GESTORE TRASMISSIONE FILE: Download("
-                        + Thread.currentThread().getName()
-                        + "), COMPLETED FALLITA.");
-                return;
-            }
-        } else {
-            /* il file NON è stato ricevuto per intero */
+    /* sposta il file scaricato in workingDir e fa la completed */
+    private void completato(IdClient seeder, File fileToDownload) {
+        System.out.println("GESTORE TRASMISSIONE FILE: Download("
+                + Thread.currentThread().getName()
+                + "), " + filename
+                + "Ricevuto correttamente. Lo sposto in " + workingDir);
+
+        fileToDownload.renameTo(new File(workingDir + "/"+ filename));
+        indice.aggiungi(toDownload);
+
+        try {
+            stub.completed(myself, toDownload, seeder);
+        } catch (RemoteException e) {
             System.out.println("GESTORE TRASMISSIONE FILE: Download("
                     + Thread.currentThread().getName()
-                    + "), errore durante il trasferimento di " + filename
-                    + " il file non è stato ricevuto completamente"
-                    + "\nTERMINO");
-            try {
-                /* notifico al server il problema di trasferimento */
-                stub.transferFailed(filename, myself);
-            } catch (RemoteException ex) {
-            }
-
-            fileToDownload.delete();
+                    + "), COMPLETED FALLITA.");
+            return;
         }
 
         /* stampiamo che la completed è andata OK */
@@ -217,11 +495,5 @@ public class Download implements Runnable {
                 + Thread.currentThread().getName()
                 + "), COMPLETED SUCCESSO. Da ora in poi "
                 + myself.toString() + " è Seeder di " + filename);
-
-
-
-
-        return;
-
     }
 }
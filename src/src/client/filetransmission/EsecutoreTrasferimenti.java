@@ -0,0 +1,156 @@
+package client.filetransmission;
+
+import java.lang.reflect.Method;
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import common.Configuration;
+
+/**
+ * Crea gli esecutori della trasmissione dei file (download, sorgenti dei
+ * pezzi, upload verso i client vecchi) nel modo scelto con
+ * Configuration.GTF_EXECUTION_MODE:
+ * <ul>
+ * <li>PIATTAFORMA: al più limite thread di piattaforma, i task in più
+ * aspettano in coda;</li>
+ * <li>VIRTUALE: un thread virtuale per task, e un semaforo che ne lascia
+ * eseguire al più limite alla volta; gli altri aspettano sul semaforo
+ * senza occupare thread nativi.</li>
+ * </ul>
+ * I thread virtuali ci sono da Java 21: l'esecutore viene cercato per
+ * riflessione, così il client compila e gira anche con versioni
+ * precedenti, dove si usa comunque il modo PIATTAFORMA.
+ * @author Federico Della Bona - Alessandro Lensi
+ */
+final class EsecutoreTrasferimenti {
+
+    /** thread di piattaforma */
+    static final String PIATTAFORMA = "piattaforma";
+    /** thread virtuali */
+    static final String VIRTUALE = "virtuale";
+    private static final Method VIRTUALI = cercaVirtuali();
+
+    private EsecutoreTrasferimenti() {
+    }
+
+    private static Method cercaVirtuali() {
+        try {
+            return Executors.class.getMethod(
+                    "newVirtualThreadPerTaskExecutor");
+        } catch (NoSuchMethodException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Restituisce il modo effettivamente usato
+     * @return VIRTUALE se è stato scelto e la JVM lo supporta,
+     * PIATTAFORMA altrimenti
+     */
+    static String modo() {
+        if (VIRTUALE.equals(Configuration.GTF_EXECUTION_MODE)
+                && VIRTUALI != null) {
+            return VIRTUALE;
+        }
+        return PIATTAFORMA;
+    }
+
+    /**
+     * Crea un esecutore che esegue al più limite task alla volta
+     * @param nome il prefisso del nome dei thread di piattaforma
+     * @param limite il numero massimo di task eseguiti insieme
+     * @return l'esecutore
+     */
+    static ExecutorService crea(String nome, int limite) {
+        if (modo().equals(VIRTUALE)) {
+            try {
+                return new Limitato(
+                        (ExecutorService) VIRTUALI.invoke(null), limite);
+            } catch (Exception e) {
+                System.out.println("GESTORE TRASMISSIONE FILE: thread "
+                        + "virtuali non disponibili, uso quelli di "
+                        + "piattaforma\nEccezione: " + e);
+            }
+        }
+        /* i thread inattivi terminano, come in un pool cached */
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(limite, limite,
+                60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+                new Fabbrica(nome));
+        pool.allowCoreThreadTimeOut(true);
+        return pool;
+    }
+
+    /* crea thread con nome prefisso + numero */
+    private static class Fabbrica implements ThreadFactory {
+
+        private final String prefisso;
+        private final AtomicInteger n = new AtomicInteger(0);
+
+        Fabbrica(String prefisso) {
+            this.prefisso = prefisso;
+        }
+
+        public Thread newThread(Runnable r) {
+            return new Thread(r, this.prefisso + n.incrementAndGet());
+        }
+    }
+
+    /* esegue i task sull'esecutore base, al più limite alla volta */
+    private static class Limitato extends AbstractExecutorService {
+
+        private final ExecutorService base;
+        private final Semaphore permessi;
+
+        Limitato(ExecutorService base, int limite) {
+            this.base = base;
+            this.permessi = new Semaphore(limite, true);
+        }
+
+        public void execute(final Runnable r) {
+            this.base.execute(new Runnable() {
+
+                public void run() {
+                    try {
+                        permessi.acquire();
+                    } catch (InterruptedException e) {
+                        /* l'esecutore è stato chiuso con shutdownNow */
+                        return;
+                    }
+                    try {
+                        r.run();
+                    } finally {
+                        permessi.release();
+                    }
+                }
+            });
+        }
+
+        public void shutdown() {
+            this.base.shutdown();
+        }
+
+        public List<Runnable> shutdownNow() {
+            return this.base.shutdownNow();
+        }
+
+        public boolean isShutdown() {
+            return this.base.isShutdown();
+        }
+
+        public boolean isTerminated() {
+            return this.base.isTerminated();
+        }
+
+        public boolean awaitTermination(long timeout, TimeUnit unit)
+                throws InterruptedException {
+            return this.base.awaitTermination(timeout, unit);
+        }
+    }
+}
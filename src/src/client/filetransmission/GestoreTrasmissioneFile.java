@@ -3,12 +3,13 @@ package client.filetransmission;
 import java.io.File;
 import java.io.IOException;
 import java.net.InetAddress;
+import java.net.InetSocketAddress;
 import java.net.ServerSocket;
-import java.net.Socket;
-import java.net.SocketTimeoutException;
 import java.net.UnknownHostException;
+import java.nio.channels.ServerSocketChannel;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import common.identifier.FileDescriptor;
 import common.identifier.IdClient;
 import common.remote.ServerRemote;
 import common.remote.SearchResult;
@@ -19,16 +20,29 @@ import common.Configuration;
  * Una volta in esecuzione, risponde automaticamente alle richieste
  * di download da parte di altri client e offre un metodo per richiedere
  * lo scaricamento di un file ad un altro host.
+ * Gli upload sono serviti da un GestoreUpload sul thread del gestore.
  * @author Federico Della Bona - Alessandro Lensi
  */
 public class GestoreTrasmissioneFile implements Runnable {
 
+    ServerSocketChannel canale;
     ServerSocket ss;
     ExecutorService gestoreDownload;
-    ExecutorService gestoreUpload;
     String workingDir;
     ServerRemote stub;
     IdClient myself;
+    /* upload accettati e non ancora terminati */
+    final AtomicInteger uploadInCorso = new AtomicInteger(0);
+    final StatisticheTrasferimenti statistiche =
+            new StatisticheTrasferimenti(uploadInCorso);
+    final LimitiBanda limiti = new LimitiBanda(
+            Configuration.GTF_UPLOAD_RATE,
+            Configuration.GTF_UPLOAD_RATE_PER_CONNECTION,
+            Configuration.GTF_DOWNLOAD_RATE,
+            Configuration.GTF_DOWNLOAD_RATE_PER_CONNECTION,
+            statistiche);
+    /* chiave -> nome dei file condivisi con gli hash */
+    final IndiceContenuti indice = new IndiceContenuti();
 
     /**
      * Costruisce un nuovo GestoreTrasmissioneFile.
@@ -46,16 +60,18 @@ public class GestoreTrasmissioneFile implements Runnable {
     public GestoreTrasmissioneFile(String workingDir, ServerRemote stub)
             throws UnknownHostException, IOException {
 
-        this.ss = new ServerSocket(0, 50, InetAddress.getLocalHost());
-        ss.setSoTimeout(Configuration.GTF_SOCKET_TIMEOUT);
+        this.canale = ServerSocketChannel.open();
+        this.ss = canale.socket();
+        ss.bind(new InetSocketAddress(InetAddress.getLocalHost(), 0), 50);
         /* le informazioni per creare l'IdClient le prendo 
          * dal socket, così sono consistenti
          */
         this.myself = new IdClient(ss.getInetAddress(), ss.getLocalPort());
         /* Inizializzo il gestore dei Download */
-        this.gestoreDownload = Executors.newCachedThreadPool();
-        this.gestoreUpload =
-                Executors.newFixedThreadPool(Configuration.GTF_MAX_UPLOAD_THREADS);
+        this.gestoreDownload = EsecutoreTrasferimenti.crea("Download-",
+                Configuration.GTF_MAX_DOWNLOADS);
+        System.out.println("GESTORE TRASMISSIONE FILE: uso thread "
+                + EsecutoreTrasferimenti.modo());
         this.workingDir = workingDir;
         this.stub = stub;
     }
@@ -76,6 +92,54 @@ public class GestoreTrasmissioneFile implements Runnable {
         return myself.getPort();
     }
 
+    /**
+     * Restituisce il numero di upload accettati e non ancora terminati
+     * @return gli upload in corso
+     */
+    public int getUploadInCorso() {
+        return uploadInCorso.get();
+    }
+
+    /**
+     * Restituisce le statistiche dei trasferimenti, da esportare come
+     * metriche
+     * @return le statistiche
+     */
+    public StatisticheTrasferimenti getStatistiche() {
+        return statistiche;
+    }
+
+    /**
+     * Cambia i limiti di banda degli upload, anche di quelli in corso
+     * @param globale i byte al secondo di tutti gli upload insieme,
+     * 0 per nessun limite
+     * @param perConnessione i byte al secondo di ogni upload,
+     * 0 per nessun limite
+     */
+    public void setLimitiUpload(long globale, long perConnessione) {
+        limiti.setUpload(globale, perConnessione);
+    }
+
+    /**
+     * Cambia i limiti di banda dei download, anche di quelli in corso
+     * @param globale i byte al secondo di tutti i download insieme,
+     * 0 per nessun limite
+     * @param perConnessione i byte al secondo di ogni download,
+     * 0 per nessun limite
+     */
+    public void setLimitiDownload(long globale, long perConnessione) {
+        limiti.setDownload(globale, perConnessione);
+    }
+
+    /**
+     * Aggiunge un file pubblicato dal client a quelli che può inviare
+     * agli altri client, che lo chiedono per chiave se ha gli hash
+     * @param fd il file, salvato in workingDir con il nome fd.getName()
+     */
+    public void condividi(FileDescriptor fd) {
+        indice.aggiungi(fd);
+    }
+
     /**
      * Funzione che inizia a scaricare il file contenuto nel SearchResult
      * dall'host contenuto nel SearchResult
@@ -86,7 +150,8 @@ public class GestoreTrasmissioneFile implements Runnable {
             return;
         }
 
-        Download d = new Download(sr, workingDir, stub, myself);
+        Download d = new Download(sr, workingDir, stub, myself, limiti,
+                indice, statistiche);
         gestoreDownload.execute(d);
     }
 
@@ -97,8 +162,6 @@ public class GestoreTrasmissioneFile implements Runnable {
     @Override
     public void run() {
 
-        /* il socket su cui avverrà il trasferimento (upload o download) */
-        Socket transferSocket = null;
         /* Directory dove vengono scaricati i files. 
          * Al termine dei download vengono spostati in workingDir
          */
@@ -109,28 +172,17 @@ public class GestoreTrasmissioneFile implements Runnable {
             tmpDir.mkdir();
         }
 
-        /* entro in questo while fino a che il Thread 
+        /* servo gli upload fino a che il Thread 
          * non riceve una interruzione
          */
-        while (!Thread.interrupted()) {
-            try {
-                transferSocket = ss.accept();
-            } catch (SocketTimeoutException e) {
-                /* è scaduto il timeout del socket */
-                continue;
-            } catch (Exception ex) {
-                System.out.println(
-                        "GESTIONE TRASMISSIONE FILE,"
-                        + " problema con il ServerSocket:\n"
-                        + ex + "\nTERMINO IL GESTORE TRASMISSIONE FILES");
-                break;
-            }
-            if (transferSocket != null) {
-                System.out.println(
-                        "GESTIONE TRASMISSIONE FILE: Aggiungo un upload");
-                gestoreUpload.execute(
-                        (Runnable) new Upload(workingDir, transferSocket));
-            }
+        try {
+            new GestoreUpload(canale, workingDir, uploadInCorso, limiti,
+                    indice).esegui();
+        } catch (IOException ex) {
+            System.out.println(
+                    "GESTIONE TRASMISSIONE FILE,"
+                    + " problema con il ServerSocket:\n"
+                    + ex + "\nTERMINO IL GESTORE TRASMISSIONE FILES");
         }
         /* quando il Thread riceve l'interruzione, 
          * significa che deve terminare
@@ -151,25 +203,9 @@ public class GestoreTrasmissioneFile implements Runnable {
                     + " ha raggiunto il timeout");
         }
 
-        gestoreUpload.shutdown();
-        try {
-            System.out.println(
-                    "GESTORE TRASMISSIONE FILE: "
-                    + "Aspetto che terminino gli upload");
-            gestoreUpload.awaitTermination(
-                    Configuration.GTF_AWAIT_UPLOAD_TIMEOUT,
-                    Configuration.GTF_AWAIT_UPLOAD_TIMEOUT_UNIT);
-            
-        } catch (InterruptedException ex) {
-            System.out.println(
-                    "GESTORE TRASMISSIONE FILE: "
-                    + "awaitTermination su gestoreUpload"
-                    + " ha raggiunto il timeout");
-        }
-
         /* Chiudo il transferSocket */
         try {
-            ss.close();
+            canale.close();
         } catch (IOException ex) {
             System.out.println(
                     "GESTORE TRASMISSIONE FILE:"
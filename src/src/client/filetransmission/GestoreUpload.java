@@ -0,0 +1,453 @@
+package client.filetransmission;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.StreamCorruptedException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
+import common.Configuration;
+
+/**
+ * Serve, da un unico thread, tutte le connessioni di upload aperte da
+ * altri client. Le connessioni sono canali non bloccanti registrati su un
+ * Selector; ognuna ha i suoi buffer (vedi ConnessioneUpload), e ad ogni
+ * giro riceve al più Configuration.GTF_UPLOAD_QUANTUM byte di pezzo, così
+ * un client veloce non blocca gli altri. I byte dei pezzi sono inviati con
+ * FileChannel.transferTo.
+ * Una connessione che ha superato i limiti di banda (vedi LimitiBanda)
+ * viene sospesa, cioè il Selector smette di controllarla, fino a quando
+ * non ha abbastanza gettoni per continuare.
+ * Oltre Configuration.GTF_MAX_UPLOADS upload contemporanei le nuove
+ * connessioni ricevono ESITO_OCCUPATO alla prima richiesta.
+ * I file con gli hash sono richiesti per chiave (vedi IndiceContenuti).
+ * I client vecchi, che chiedono il file intero con il protocollo a
+ * oggetti, vengono passati ad Upload, di cui sono eseguiti al più
+ * Configuration.GTF_MAX_UPLOAD_THREADS alla volta (vedi
+ * EsecutoreTrasferimenti). Anche loro contano negli upload in corso, e
+ * vengono chiusi se restano inattivi, in coda o durante l'invio, per più
+ * di Configuration.GTF_UPLOAD_IDLE_TIMEOUT.
+ * @author Federico Della Bona - Alessandro Lensi
+ */
+class GestoreUpload {
+
+    /* byte per cui una connessione sospesa aspetta i gettoni */
+    private static final int MINIMO_INVIO = 8 * 1024;
+    private final ServerSocketChannel server;
+    private final String workingDir;
+    private final AtomicInteger inCorso;
+    private final LimitiBanda limiti;
+    private final IndiceContenuti indice;
+    private final ExecutorService vecchi;
+    private final Selector selettore;
+    /* connessioni di client vecchi da passare ad Upload */
+    private final ArrayList<ConnessioneUpload> daPassare;
+    /* gli Upload in coda o in esecuzione */
+    private final Set<Upload> passati;
+    /* connessioni sospese per i limiti di banda */
+    private final ArrayList<SelectionKey> sospese;
+
+    /**
+     * Crea il gestore degli upload
+     * @param server il canale su cui accettare le connessioni
+     * @param workingDir la directory che contiene i file da inviare
+     * @param inCorso il contatore degli upload in corso
+     * @param limiti i limiti di banda degli upload
+     * @param indice i nomi dei file richiesti per chiave
+     * @throws IOException se non si riesce ad aprire il Selector
+     */
+    GestoreUpload(ServerSocketChannel server, String workingDir,
+            AtomicInteger inCorso, LimitiBanda limiti, IndiceContenuti indice)
+            throws IOException {
+        this.limiti = limiti;
+        this.indice = indice;
+        this.server = server;
+        this.workingDir = workingDir;
+        this.inCorso = inCorso;
+        this.vecchi = EsecutoreTrasferimenti.crea("Upload-",
+                Configuration.GTF_MAX_UPLOAD_THREADS);
+        this.selettore = Selector.open();
+        this.daPassare = new ArrayList<ConnessioneUpload>();
+        this.passati = ConcurrentHashMap.newKeySet();
+        this.sospese = new ArrayList<SelectionKey>();
+    }
+
+    /**
+     * Serve le connessioni finché il thread non viene interrotto. Poi
+     * smette di accettarne di nuove e aspetta, al più
+     * GTF_AWAIT_UPLOAD_TIMEOUT, che terminino quelle aperte.
+     * @throws IOException in caso di errori del ServerSocketChannel o
+     * del Selector
+     */
+    void esegui() throws IOException {
+        this.server.configureBlocking(false);
+        SelectionKey accetta =
+                this.server.register(this.selettore, SelectionKey.OP_ACCEPT);
+        long controllo = System.currentTimeMillis();
+        try {
+            while (!Thread.interrupted()) {
+                giro();
+                long ora = System.currentTimeMillis();
+                if (ora - controllo >= Configuration.GTF_SOCKET_TIMEOUT) {
+                    chiudiInattive(ora);
+                    controllo = ora;
+                }
+            }
+
+            System.out.println(
+                    "GESTORE TRASMISSIONE FILE: "
+                    + "Aspetto che terminino gli upload");
+            accetta.cancel();
+            long fine = System.currentTimeMillis()
+                    + Configuration.GTF_AWAIT_UPLOAD_TIMEOUT_UNIT.toMillis(
+                    Configuration.GTF_AWAIT_UPLOAD_TIMEOUT);
+            while (this.selettore.keys().size() > 1
+                    && System.currentTimeMillis() < fine) {
+                giro();
+            }
+        } finally {
+            for (SelectionKey k : this.selettore.keys()) {
+                if (k.attachment() != null) {
+                    chiudi(k, (ConnessioneUpload) k.attachment());
+                }
+            }
+            this.selettore.close();
+            this.vecchi.shutdown();
+        }
+        try {
+            this.vecchi.awaitTermination(
+                    Configuration.GTF_AWAIT_UPLOAD_TIMEOUT,
+                    Configuration.GTF_AWAIT_UPLOAD_TIMEOUT_UNIT);
+        } catch (InterruptedException ex) {
+            System.out.println(
+                    "GESTORE TRASMISSIONE FILE: "
+                    + "awaitTermination su gestoreUpload"
+                    + " ha raggiunto il timeout");
+        }
+    }
+
+    /* Aspetta che qualche canale sia pronto, o che una connessione sospesa
+     * possa riprendere, e lo serve */
+    private void giro() throws IOException {
+        long attesa = Configuration.GTF_SOCKET_TIMEOUT;
+        if (!this.sospese.isEmpty()) {
+            attesa = Math.max(1, Math.min(attesa,
+                    (riattiva(System.nanoTime()) + 999999) / 1000000));
+        }
+        this.selettore.select(attesa);
+        Iterator<SelectionKey> it = this.selettore.selectedKeys().iterator();
+        while (it.hasNext()) {
+            SelectionKey k = it.next();
+            it.remove();
+            if (!k.isValid()) {
+                continue;
+            }
+            if (k.isAcceptable()) {
+                accetta();
+                continue;
+            }
+            ConnessioneUpload c = (ConnessioneUpload) k.attachment();
+            try {
+                servi(k, c);
+            } catch (IOException e) {
+                System.out.println(
+                        "GESTORE TRASMISSIONE FILE: Upload, problemi con "
+                        + c.canale.socket().getRemoteSocketAddress()
+                        + "\nEccezione:" + e);
+                chiudi(k, c);
+            }
+        }
+        if (!this.daPassare.isEmpty()) {
+            passaAVecchi();
+        }
+        if (!this.sospese.isEmpty()) {
+            riattiva(System.nanoTime());
+        }
+    }
+
+    /* Riprende l'invio delle connessioni sospese che hanno aspettato
+     * abbastanza. Restituisce quanti nanosecondi mancano alla prossima
+     * ripresa.
+     */
+    private long riattiva(long ora) {
+        long prossima = Long.MAX_VALUE;
+        Iterator<SelectionKey> it = this.sospese.iterator();
+        while (it.hasNext()) {
+            SelectionKey k = it.next();
+            ConnessioneUpload c = (ConnessioneUpload) k.attachment();
+            if (!k.isValid()) {
+                it.remove();
+            } else if (c.riprendi - ora <= 0) {
+                c.riprendi = 0;
+                k.interestOps(SelectionKey.OP_WRITE);
+                it.remove();
+            } else {
+                prossima = Math.min(prossima, c.riprendi - ora);
+            }
+        }
+        return prossima;
+    }
+
+    /* Accetta tutte le connessioni in attesa */
+    private void accetta() throws IOException {
+        SocketChannel sc;
+        while ((sc = this.server.accept()) != null) {
+            boolean occupata = this.inCorso.get()
+                    >= Configuration.GTF_MAX_UPLOADS;
+            if (!occupata) {
+                this.inCorso.incrementAndGet();
+                System.out.println(
+                        "GESTIONE TRASMISSIONE FILE: Aggiungo un upload");
+            }
+            ConnessioneUpload c = new ConnessioneUpload(sc, occupata,
+                    this.limiti.nuovoUpload());
+            try {
+                sc.configureBlocking(false);
+                sc.register(this.selettore, SelectionKey.OP_WRITE, c);
+            } catch (IOException e) {
+                chiudi(null, c);
+            }
+        }
+    }
+
+    /* Legge ed elabora i byte ricevuti, invia quelli pronti e sceglie
+     * l'evento da aspettare: la scrittura se resta qualcosa da inviare,
+     * altrimenti la lettura.
+     */
+    private void servi(SelectionKey k, ConnessioneUpload c)
+            throws IOException {
+        if (k.isReadable()) {
+            int n = c.canale.read(c.ingresso);
+            if (n == -1) {
+                /* il client che scarica ha finito */
+                chiudi(k, c);
+                return;
+            }
+            if (n > 0) {
+                c.ultimaAttivita = System.currentTimeMillis();
+            }
+        }
+        if (!elabora(k, c)) {
+            return;
+        }
+        if (invia(c)) {
+            if (c.chiudiDopo) {
+                chiudi(k, c);
+                return;
+            }
+            /* una richiesta arrivata insieme alla precedente: il pezzo
+             * sarà inviato al prossimo giro */
+            if (c.ingresso.position() > 0 && !elabora(k, c)) {
+                return;
+            }
+        }
+        if (c.riprendi != 0) {
+            k.interestOps(0);
+            this.sospese.add(k);
+            return;
+        }
+        k.interestOps(c.isInviato()
+                ? SelectionKey.OP_READ : SelectionKey.OP_WRITE);
+    }
+
+    /* Elabora i byte ricevuti: il saluto, oppure, se non c'è niente da
+     * inviare, la prossima richiesta. Restituisce false se la connessione
+     * è di un client vecchio ed è stata tolta dal Selector.
+     */
+    private boolean elabora(SelectionKey k, ConnessioneUpload c)
+            throws IOException {
+        c.ingresso.flip();
+        try {
+            if (c.stato == ConnessioneUpload.SALUTO) {
+                if (c.ingresso.remaining() >= 4
+                        && c.ingresso.getInt(0) != ProtocolloPeer.MAGIC) {
+                    /* i client vecchi inviano l'intestazione del loro
+                     * stream a oggetti */
+                    k.cancel();
+                    this.daPassare.add(c);
+                    return false;
+                }
+                if (c.ingresso.remaining() < ProtocolloPeer.DIMENSIONE_SALUTO) {
+                    return true;
+                }
+                c.ingresso.getInt();
+                int versione = c.ingresso.get() & 0xff;
+                if (versione < 1) {
+                    throw new StreamCorruptedException("versione " + versione);
+                }
+                ProtocolloPeer.scriviSaluto(c.uscita,
+                        Math.min(versione, ProtocolloPeer.VERSIONE));
+                c.stato = ConnessioneUpload.RICHIESTE;
+            }
+            if (c.isInviato()) {
+                RichiestaFile r = ProtocolloPeer.leggiRichiesta(c.ingresso);
+                if (r != null) {
+                    rispondi(c, r);
+                }
+            }
+        } finally {
+            c.ingresso.compact();
+        }
+        if (!c.ingrandisci()) {
+            throw new StreamCorruptedException("richiesta troppo lunga");
+        }
+        return true;
+    }
+
+    /* Prepara la risposta alla richiesta r */
+    private void rispondi(ConnessioneUpload c, RichiestaFile r)
+            throws IOException {
+        if (c.occupata) {
+            ProtocolloPeer.scriviRisposta(c.uscita,
+                    ProtocolloPeer.ESITO_OCCUPATO, 0);
+            c.chiudiDopo = true;
+            return;
+        }
+        if (!r.getNome().equals(c.nomeFile)) {
+            c.chiudiFile();
+            c.nomeFile = r.getNome();
+            File f = new File(workingDir + "/"
+                    + this.indice.risolvi(c.nomeFile));
+            if (f.exists() && f.isFile()) {
+                c.file = new RandomAccessFile(f, "r");
+            }
+        }
+        if (c.file == null || r.getOffset() < 0 || r.getLunghezza() < 0
+                || r.getOffset() + r.getLunghezza() > c.file.length()) {
+            System.out.println(
+                    "GESTORE TRASMISSIONE FILE: Upload, Non possiedo "
+                    + r + "!");
+            ProtocolloPeer.scriviRisposta(c.uscita,
+                    ProtocolloPeer.ESITO_NON_TROVATO, 0);
+            c.chiudiDopo = true;
+            return;
+        }
+        ProtocolloPeer.scriviRisposta(c.uscita, ProtocolloPeer.ESITO_OK,
+                r.getLunghezza());
+        c.posizione = r.getOffset();
+        c.rimasti = r.getLunghezza();
+    }
+
+    /* Invia i byte in uscita e poi, al più GTF_UPLOAD_QUANTUM byte del
+     * pezzo in corso, se i limiti di banda lo permettono; altrimenti
+     * sospende la connessione. Restituisce true se non resta niente da
+     * inviare.
+     */
+    private boolean invia(ConnessioneUpload c) throws IOException {
+        if (c.uscita.position() > 0) {
+            c.uscita.flip();
+            c.canale.write(c.uscita);
+            c.uscita.compact();
+            if (c.uscita.position() > 0) {
+                return false;
+            }
+            c.ultimaAttivita = System.currentTimeMillis();
+        }
+        if (c.rimasti > 0) {
+            long max = this.limiti.disponibiliUpload(c.secchio,
+                    Math.min(c.rimasti, Configuration.GTF_UPLOAD_QUANTUM));
+            if (max == 0) {
+                c.riprendi = System.nanoTime() + Math.max(1000000,
+                        this.limiti.attesaUpload(c.secchio,
+                        Math.min(c.rimasti, MINIMO_INVIO)));
+                return false;
+            }
+            FileChannel fc = c.file.getChannel();
+            long n = fc.transferTo(c.posizione, max, c.canale);
+            if (n == 0 && c.posizione >= fc.size()) {
+                /* il file è stato accorciato */
+                throw new EOFException(c.nomeFile);
+            }
+            if (n > 0) {
+                this.limiti.inviati(c.secchio, n);
+                c.posizione += n;
+                c.rimasti -= n;
+                c.ultimaAttivita = System.currentTimeMillis();
+            }
+        }
+        return c.rimasti == 0;
+    }
+
+    /* Passa le connessioni dei client vecchi ad Upload: i canali vengono
+     * rimessi in modalità bloccante, dopo che il Selector ha tolto le
+     * loro chiavi.
+     */
+    private void passaAVecchi() throws IOException {
+        this.selettore.selectNow();
+        for (ConnessioneUpload c : this.daPassare) {
+            if (c.occupata) {
+                c.chiudi();
+                continue;
+            }
+            c.ingresso.flip();
+            byte[] ricevuti = new byte[c.ingresso.remaining()];
+            c.ingresso.get(ricevuti);
+            try {
+                c.canale.configureBlocking(true);
+            } catch (IOException e) {
+                chiudi(null, c);
+                continue;
+            }
+            final Upload u = new Upload(this.workingDir,
+                    c.canale.socket(), ricevuti, this.limiti);
+            this.passati.add(u);
+            this.vecchi.execute(new Runnable() {
+
+                public void run() {
+                    try {
+                        /* può essere stato chiuso mentre era in coda */
+                        if (!u.isChiuso()) {
+                            u.run();
+                        }
+                    } finally {
+                        passati.remove(u);
+                        inCorso.decrementAndGet();
+                    }
+                }
+            });
+        }
+        this.daPassare.clear();
+    }
+
+    /* Chiude le connessioni che non inviano né ricevono niente da più di
+     * GTF_UPLOAD_IDLE_TIMEOUT millisecondi, comprese quelle passate ad
+     * Upload */
+    private void chiudiInattive(long ora) {
+        for (SelectionKey k : this.selettore.keys()) {
+            ConnessioneUpload c = (ConnessioneUpload) k.attachment();
+            if (c != null && k.isValid() && ora - c.ultimaAttivita
+                    > Configuration.GTF_UPLOAD_IDLE_TIMEOUT) {
+                chiudi(k, c);
+            }
+        }
+        for (Upload u : this.passati) {
+            if (ora - u.getUltimaAttivita()
+                    > Configuration.GTF_UPLOAD_IDLE_TIMEOUT) {
+                u.chiudi();
+            }
+        }
+    }
+
+    private void chiudi(SelectionKey k, ConnessioneUpload c) {
+        if (k != null) {
+            k.cancel();
+        }
+        if (!c.canale.isOpen()) {
+            return;
+        }
+        c.chiudi();
+        if (!c.occupata) {
+            this.inCorso.decrementAndGet();
+        }
+    }
+}
@@ -0,0 +1,142 @@
+package client.filetransmission;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.BitSet;
+import common.identifier.FileDescriptor;
+
+/**
+ * Calcola e controlla gli hash SHA-256 del contenuto e dei pezzi di un
+ * file (vedi FileDescriptor).
+ * Il file viene letto in un'unica passata, mappandolo in memoria una
+ * finestra alla volta: ogni pezzo viene passato sia al digest del pezzo
+ * sia a quello dell'intero contenuto, senza copiarlo.
+ * @author Federico Della Bona - Alessandro Lensi
+ */
+public final class ImprontaFile {
+
+    /* pezzi mappati in memoria alla volta */
+    private static final int PEZZI_PER_FINESTRA = 64;
+
+    private ImprontaFile() {
+    }
+
+    /**
+     * Crea il FileDescriptor di un file, con gli hash del contenuto e dei
+     * pezzi
+     * @param f il file
+     * @param dimensionePezzo la dimensione in byte dei pezzi
+     * @return il FileDescriptor
+     * @throws IOException in caso di errori di lettura
+     */
+    public static FileDescriptor calcola(File f, int dimensionePezzo)
+            throws IOException {
+        MessageDigest contenuto = sha256();
+        MessageDigest pezzo = sha256();
+        RandomAccessFile raf = new RandomAccessFile(f, "r");
+        try {
+            FileChannel fc = raf.getChannel();
+            long size = fc.size();
+            int n = FileDescriptor.countPieces(size, dimensionePezzo);
+            byte[] hashPezzi = new byte[n * FileDescriptor.HASH_SIZE];
+            int i = 0;
+            for (long inizio = 0; inizio < size;) {
+                long lunghezza = Math.min(size - inizio,
+                        (long) dimensionePezzo * PEZZI_PER_FINESTRA);
+                ByteBuffer finestra =
+                        fc.map(FileChannel.MapMode.READ_ONLY, inizio, lunghezza);
+                while (finestra.hasRemaining()) {
+                    ByteBuffer p = finestra.slice();
+                    p.limit(Math.min(dimensionePezzo, p.remaining()));
+                    finestra.position(finestra.position() + p.limit());
+                    contenuto.update(p.duplicate());
+                    pezzo.update(p);
+                    System.arraycopy(pezzo.digest(), 0, hashPezzi,
+                            i++ * FileDescriptor.HASH_SIZE,
+                            FileDescriptor.HASH_SIZE);
+                }
+                inizio += lunghezza;
+            }
+            return new FileDescriptor(f.getName(), size, contenuto.digest(),
+                    dimensionePezzo, hashPezzi);
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * Controlla che il contenuto di un file corrisponda al suo
+     * FileDescriptor
+     * @param f il file
+     * @param fd il FileDescriptor, con gli hash
+     * @return true se l'hash del contenuto è quello atteso
+     * @throws IOException in caso di errori di lettura
+     */
+    public static boolean verifica(File f, FileDescriptor fd)
+            throws IOException {
+        MessageDigest contenuto = sha256();
+        RandomAccessFile raf = new RandomAccessFile(f, "r");
+        try {
+            FileChannel fc = raf.getChannel();
+            long size = fc.size();
+            long finestra = (long) fd.getPieceSize() * PEZZI_PER_FINESTRA;
+            for (long inizio = 0; inizio < size; inizio += finestra) {
+                contenuto.update(fc.map(FileChannel.MapMode.READ_ONLY,
+                        inizio, Math.min(size - inizio, finestra)));
+            }
+            return fd.isContentValid(contenuto.digest());
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * Controlla i pezzi già scritti in un file e toglie dalla bitmap
+     * quelli il cui hash non è quello atteso
+     * @param fc il file
+     * @param fd il FileDescriptor, con gli hash
+     * @param fatti i pezzi da controllare
+     * @return il numero di pezzi tolti
+     * @throws IOException in caso di errori di lettura
+     */
+    static int verificaPezzi(FileChannel fc, FileDescriptor fd, BitSet fatti)
+            throws IOException {
+        MessageDigest pezzo = sha256();
+        int dimensione = fd.getPieceSize();
+        int tolti = 0;
+        for (int i = fatti.nextSetBit(0); i >= 0; i = fatti.nextSetBit(i + 1)) {
+            long inizio = (long) i * dimensione;
+            long lunghezza = Math.min(dimensione, fd.getSize() - inizio);
+            if (lunghezza <= 0) {
+                fatti.clear(i);
+                tolti++;
+                continue;
+            }
+            pezzo.update(fc.map(FileChannel.MapMode.READ_ONLY,
+                    inizio, lunghezza));
+            if (!fd.isPieceValid(i, pezzo.digest())) {
+                fatti.clear(i);
+                tolti++;
+            }
+        }
+        return tolti;
+    }
+
+    /**
+     * Crea un digest SHA-256
+     * @return il digest
+     */
+    static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            /* ogni JVM deve avere SHA-256 */
+            throw new IllegalStateException(e);
+        }
+    }
+}
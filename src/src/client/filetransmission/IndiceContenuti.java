@@ -0,0 +1,39 @@
+package client.filetransmission;
+
+import java.util.concurrent.ConcurrentHashMap;
+import common.identifier.FileDescriptor;
+
+/**
+ * Associa la chiave di ogni file con gli hash condiviso dal client (vedi
+ * FileDescriptor.getKey) al nome con cui il file è salvato in workingDir.
+ * Chi scarica un file con gli hash chiede i pezzi per chiave, perché lo
+ * stesso contenuto può essere stato pubblicato dai seeder con nomi
+ * diversi; i file senza hash sono chiesti per nome, come prima.
+ * @author Federico Della Bona - Alessandro Lensi
+ */
+class IndiceContenuti {
+
+    private final ConcurrentHashMap<String, String> nomi =
+            new ConcurrentHashMap<String, String>();
+
+    /**
+     * Aggiunge un file condiviso dal client
+     * @param fd il file, salvato in workingDir con il nome fd.getName()
+     */
+    void aggiungi(FileDescriptor fd) {
+        if (fd.hasHashes()) {
+            this.nomi.put(fd.getKey(), fd.getName());
+        }
+    }
+
+    /**
+     * Restituisce il nome del file richiesto da un altro client
+     * @param richiesto la chiave o il nome del file
+     * @return il nome con cui il file è salvato se richiesto è la chiave
+     * di un file condiviso, richiesto altrimenti
+     */
+    String risolvi(String richiesto) {
+        String nome = this.nomi.get(richiesto);
+        return (nome == null) ? richiesto : nome;
+    }
+}
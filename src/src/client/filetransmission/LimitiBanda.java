@@ -0,0 +1,156 @@
+package client.filetransmission;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * I limiti di banda del client: un secchio di gettoni globale per gli
+ * upload e uno per i download, condivisi da tutte le connessioni, e la
+ * velocità massima di ogni singola connessione, in byte al secondo.
+ * Ogni connessione ha il suo SecchioGettoni, e un trasferimento rispetta
+ * sia il limite della connessione sia quello globale.
+ * I limiti possono essere cambiati in qualunque momento: i secchi delle
+ * connessioni aperte prendono la nuova velocità al prossimo trasferimento.
+ * La velocità 0 indica nessun limite.
+ * Poiché tutti i trasferimenti passano di qui, i byte trasferiti vengono
+ * anche contati nelle StatisticheTrasferimenti.
+ * @author Federico Della Bona - Alessandro Lensi
+ */
+class LimitiBanda {
+
+    private final SecchioGettoni upload;
+    private final SecchioGettoni download;
+    private volatile long uploadPerConnessione;
+    private volatile long downloadPerConnessione;
+    private final StatisticheTrasferimenti statistiche;
+
+    /**
+     * Crea i limiti di banda, con i byte trasferiti contati in statistiche
+     * che non vengono esportate
+     * @param upload la velocità massima di tutti gli upload insieme
+     * @param uploadPerConnessione la velocità massima di un upload
+     * @param download la velocità massima di tutti i download insieme
+     * @param downloadPerConnessione la velocità massima di un download
+     */
+    LimitiBanda(long upload, long uploadPerConnessione, long download,
+            long downloadPerConnessione) {
+        this(upload, uploadPerConnessione, download, downloadPerConnessione,
+                new StatisticheTrasferimenti(new AtomicInteger(0)));
+    }
+
+    /**
+     * Crea i limiti di banda
+     * @param upload la velocità massima di tutti gli upload insieme
+     * @param uploadPerConnessione la velocità massima di un upload
+     * @param download la velocità massima di tutti i download insieme
+     * @param downloadPerConnessione la velocità massima di un download
+     * @param statistiche dove contare i byte trasferiti
+     */
+    LimitiBanda(long upload, long uploadPerConnessione, long download,
+            long downloadPerConnessione, StatisticheTrasferimenti statistiche) {
+        this.statistiche = statistiche;
+        this.upload = new SecchioGettoni(upload);
+        this.download = new SecchioGettoni(download);
+        this.uploadPerConnessione = uploadPerConnessione;
+        this.downloadPerConnessione = downloadPerConnessione;
+    }
+
+    /**
+     * Cambia i limiti degli upload
+     * @param globale la velocità massima di tutti gli upload insieme
+     * @param perConnessione la velocità massima di un upload
+     */
+    void setUpload(long globale, long perConnessione) {
+        this.upload.setVelocita(globale);
+        this.uploadPerConnessione = perConnessione;
+    }
+
+    /**
+     * Cambia i limiti dei download
+     * @param globale la velocità massima di tutti i download insieme
+     * @param perConnessione la velocità massima di un download
+     */
+    void setDownload(long globale, long perConnessione) {
+        this.download.setVelocita(globale);
+        this.downloadPerConnessione = perConnessione;
+    }
+
+    /**
+     * Crea il secchio di una nuova connessione di upload
+     * @return il secchio
+     */
+    SecchioGettoni nuovoUpload() {
+        return new SecchioGettoni(this.uploadPerConnessione);
+    }
+
+    /**
+     * Crea il secchio di una nuova connessione di download
+     * @return il secchio
+     */
+    SecchioGettoni nuovoDownload() {
+        return new SecchioGettoni(this.downloadPerConnessione);
+    }
+
+    /**
+     * Restituisce quanti byte può inviare subito una connessione di upload
+     * @param connessione il secchio della connessione
+     * @param massimo i byte che si vorrebbero inviare
+     * @return al più massimo, 0 se bisogna aspettare
+     */
+    long disponibiliUpload(SecchioGettoni connessione, long massimo) {
+        connessione.setVelocita(this.uploadPerConnessione);
+        return this.upload.disponibili(connessione.disponibili(massimo));
+    }
+
+    /**
+     * Restituisce quanto deve aspettare una connessione di upload per
+     * poter inviare n byte
+     * @param connessione il secchio della connessione
+     * @param n i byte da inviare
+     * @return l'attesa in nanosecondi
+     */
+    long attesaUpload(SecchioGettoni connessione, long n) {
+        return Math.max(connessione.attesa(n), this.upload.attesa(n));
+    }
+
+    /**
+     * Consuma i gettoni di n byte inviati da una connessione di upload,
+     * senza aspettare
+     * @param connessione il secchio della connessione
+     * @param n i byte inviati
+     */
+    void inviati(SecchioGettoni connessione, long n) {
+        this.statistiche.inviati(n);
+        connessione.consuma(n);
+        this.upload.consuma(n);
+    }
+
+    /**
+     * Consuma i gettoni di n byte inviati da un upload che può aspettare,
+     * ed aspetta se sono stati superati i limiti
+     * @param connessione il secchio della connessione
+     * @param n i byte inviati
+     * @throws InterruptedException se l'attesa viene interrotta
+     */
+    void inviatiAspetta(SecchioGettoni connessione, long n)
+            throws InterruptedException {
+        this.statistiche.inviati(n);
+        connessione.setVelocita(this.uploadPerConnessione);
+        connessione.aspetta(n);
+        this.upload.aspetta(n);
+    }
+
+    /**
+     * Consuma i gettoni di n byte ricevuti da una connessione di download,
+     * ed aspetta se sono stati superati i limiti
+     * @param connessione il secchio della connessione
+     * @param n i byte ricevuti
+     * @throws InterruptedException se l'attesa viene interrotta
+     */
+    void ricevuti(SecchioGettoni connessione, long n)
+            throws InterruptedException {
+        this.statistiche.ricevuti(n);
+        connessione.setVelocita(this.downloadPerConnessione);
+        connessione.aspetta(n);
+        this.download.aspetta(n);
+    }
+}
@@ -0,0 +1,207 @@
+package client.filetransmission;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+import java.nio.ByteBuffer;
+
+/**
+ * La classe ProtocolloPeer definisce il formato binario con cui Download
+ * chiede pezzi di file a GestoreUpload.
+ * Appena accettata la connessione, GestoreUpload invia l'intestazione di
+ * uno stream a oggetti (0xACED0005), che i client vecchi si aspettano; il
+ * client nuovo la scarta e risponde con il saluto:
+ * <pre>
+ *  0  4 byte  magic ('L' 'P' 'R' 'F')
+ *  4  1 byte  versione più alta supportata
+ * </pre>
+ * GestoreUpload risponde con lo stesso saluto, indicando la versione
+ * scelta. Un client vecchio non riconosce il saluto e chiude la
+ * connessione: in quel caso Download chiede il file intero con il vecchio
+ * protocollo.
+ * Poi il client invia una richiesta per ogni pezzo:
+ * <pre>
+ *  0  1 byte  operazione (OP_PEZZO)
+ *  1  2+n     nome del file (come writeUTF)
+ *  .  8 byte  offset
+ *  .  8 byte  lunghezza
+ * </pre>
+ * e GestoreUpload risponde con:
+ * <pre>
+ *  0  1 byte  esito (ESITO_OK, ESITO_NON_TROVATO, ESITO_OCCUPATO)
+ *  1  8 byte  numero di byte che seguono
+ * </pre>
+ * seguito, se l'esito è ESITO_OK, dai byte del pezzo. Dopo un esito
+ * diverso da ESITO_OK GestoreUpload chiude la connessione; il client
+ * chiude la connessione quando non ha più pezzi da chiedere.
+ * @author Federico Della Bona - Alessandro Lensi
+ */
+final class ProtocolloPeer {
+
+    /** magic del saluto */
+    static final int MAGIC = 0x4c505246;
+    /** versione del protocollo parlata da questa classe */
+    static final int VERSIONE = 1;
+    /** intestazione di uno stream a oggetti, inviata per prima */
+    static final int INTESTAZIONE_OGGETTI = 0xaced0005;
+    /** richiesta di un pezzo di file */
+    static final int OP_PEZZO = 1;
+    /** il pezzo segue la risposta */
+    static final int ESITO_OK = 0;
+    /** il file o il pezzo richiesto non è disponibile */
+    static final int ESITO_NON_TROVATO = 1;
+    /** il client ha già troppi upload in corso */
+    static final int ESITO_OCCUPATO = 2;
+    /** dimensione in byte del saluto */
+    static final int DIMENSIONE_SALUTO = 5;
+    /** dimensione in byte della risposta */
+    static final int DIMENSIONE_RISPOSTA = 9;
+    /** dimensione massima in byte di una richiesta */
+    static final int DIMENSIONE_MAX_RICHIESTA = 3 + 0xffff + 16;
+
+    private ProtocolloPeer() {
+    }
+
+    /**
+     * Scrive il saluto
+     * @param out lo stream su cui scrivere
+     * @param versione la versione da indicare
+     * @throws IOException in caso di errori di scrittura
+     */
+    static void scriviSaluto(DataOutputStream out, int versione)
+            throws IOException {
+        out.writeInt(MAGIC);
+        out.writeByte(versione);
+    }
+
+    /**
+     * Scrive il saluto nel buffer
+     * @param buf il buffer, deve avere almeno DIMENSIONE_SALUTO byte liberi
+     * @param versione la versione da indicare
+     */
+    static void scriviSaluto(ByteBuffer buf, int versione) {
+        buf.putInt(MAGIC);
+        buf.put((byte) versione);
+    }
+
+    /**
+     * Legge il saluto dell'altro client, il magic deve essere già stato
+     * letto
+     * @param in lo stream da cui leggere
+     * @return la versione da usare, cioè la minore tra quella indicata e
+     * VERSIONE
+     * @throws IOException in caso di errori di lettura o se la versione
+     * non è valida
+     */
+    static int leggiVersione(DataInputStream in) throws IOException {
+        int versione = in.readUnsignedByte();
+        if (versione < 1) {
+            throw new StreamCorruptedException("versione " + versione);
+        }
+        return Math.min(versione, VERSIONE);
+    }
+
+    /**
+     * Scrive la richiesta di un pezzo
+     * @param out lo stream su cui scrivere
+     * @param r la richiesta
+     * @throws IOException in caso di errori di scrittura
+     */
+    static void scriviRichiesta(DataOutputStream out, RichiestaFile r)
+            throws IOException {
+        out.writeByte(OP_PEZZO);
+        out.writeUTF(r.getNome());
+        out.writeLong(r.getOffset());
+        out.writeLong(r.getLunghezza());
+    }
+
+    /**
+     * Legge dal buffer, tra position e limit, la richiesta di un pezzo
+     * @param buf il buffer da cui leggere
+     * @return la richiesta, null se non è ancora arrivata per intero (in
+     * questo caso il buffer non viene modificato)
+     * @throws IOException se l'operazione o il nome non sono validi
+     */
+    static RichiestaFile leggiRichiesta(ByteBuffer buf) throws IOException {
+        int p = buf.position();
+        if (buf.remaining() < 3) {
+            return null;
+        }
+        int op = buf.get(p) & 0xff;
+        if (op != OP_PEZZO) {
+            throw new StreamCorruptedException("operazione " + op);
+        }
+        int lunghezzaNome = buf.getShort(p + 1) & 0xffff;
+        if (buf.remaining() < 3 + lunghezzaNome + 16) {
+            return null;
+        }
+        byte[] nome = new byte[2 + lunghezzaNome];
+        buf.position(p + 1);
+        buf.get(nome);
+        long offset = buf.getLong();
+        long lunghezza = buf.getLong();
+        return new RichiestaFile(new DataInputStream(
+                new ByteArrayInputStream(nome)).readUTF(), offset, lunghezza);
+    }
+
+    /**
+     * Scrive nel buffer la risposta ad una richiesta
+     * @param buf il buffer, deve avere almeno DIMENSIONE_RISPOSTA byte
+     * liberi
+     * @param esito l'esito della richiesta
+     * @param lunghezza il numero di byte che seguono la risposta
+     */
+    static void scriviRisposta(ByteBuffer buf, int esito, long lunghezza) {
+        buf.put((byte) esito);
+        buf.putLong(lunghezza);
+    }
+
+    /**
+     * Legge la risposta ad una richiesta
+     * @param in lo stream da cui leggere
+     * @param lunghezza il numero di byte richiesti
+     * @return l'esito della richiesta
+     * @throws IOException in caso di errori di lettura, o se l'esito è
+     * ESITO_OK ma la lunghezza non è quella richiesta
+     */
+    static int leggiRisposta(DataInputStream in, long lunghezza)
+            throws IOException {
+        int esito = in.readUnsignedByte();
+        long n = in.readLong();
+        if (esito == ESITO_OK && n != lunghezza) {
+            throw new StreamCorruptedException("lunghezza " + n);
+        }
+        return esito;
+    }
+
+    /**
+     * Legge l'intestazione inviata da GestoreUpload appena accettata la
+     * connessione, e invia il saluto
+     * @param in lo stream da cui leggere
+     * @param out lo stream su cui scrivere
+     * @return la versione scelta da GestoreUpload
+     * @throws IOException in caso di errori, o se l'altro client non parla
+     * questo protocollo (ad esempio se chiude la connessione)
+     */
+    static int saluta(DataInputStream in, DataOutputStream out)
+            throws IOException {
+        if (in.readInt() != INTESTAZIONE_OGGETTI) {
+            throw new StreamCorruptedException("intestazione");
+        }
+        scriviSaluto(out, VERSIONE);
+        out.flush();
+        int magic;
+        try {
+            magic = in.readInt();
+        } catch (EOFException e) {
+            throw new StreamCorruptedException("saluto rifiutato");
+        }
+        if (magic != MAGIC) {
+            throw new StreamCorruptedException("saluto");
+        }
+        return leggiVersione(in);
+    }
+}
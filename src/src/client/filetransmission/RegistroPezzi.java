@@ -0,0 +1,156 @@
+package client.filetransmission;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.BitSet;
+import common.Configuration;
+
+/**
+ * Mantiene su disco, accanto al file temporaneo di un download, i pezzi
+ * già ricevuti e scritti, così un download interrotto (anche da un
+ * riavvio del client) riprende dai pezzi mancanti.
+ * Il registro viene scritto solo dopo aver forzato su disco i dati del
+ * file temporaneo: un pezzo segnato nel registro è quindi sempre presente
+ * nel file. Il registro viene prima scritto in un file a parte e poi
+ * rinominato, così non è mai letto a metà.
+ * Formato: magic, versione, chiave del file (vedi FileDescriptor.getKey),
+ * dimensione del file, dimensione dei pezzi, numero di long della bitmap,
+ * long della bitmap. Un registro con un'altra chiave, lasciato da un
+ * download di un altro file con lo stesso nome, viene scartato.
+ * @author Federico Della Bona - Alessandro Lensi
+ */
+class RegistroPezzi {
+
+    private static final int MAGIC = 0x4c505250;
+    private static final int VERSIONE = 2;
+    private final File registro;
+    private final File nuovo;
+    private final String chiave;
+    private long ultimoSalvataggio;
+
+    /**
+     * Crea il registro per il file temporaneo di un download
+     * @param fileTemporaneo il file temporaneo del download
+     * @param chiave la chiave del file che si sta scaricando
+     */
+    RegistroPezzi(File fileTemporaneo, String chiave) {
+        this.registro = new File(fileTemporaneo.getPath() + ".pezzi");
+        this.nuovo = new File(fileTemporaneo.getPath() + ".pezzi.nuovo");
+        this.chiave = chiave;
+        this.ultimoSalvataggio = 0;
+    }
+
+    /**
+     * Legge i pezzi completati salvati nel registro
+     * @param dimensioneFile la dimensione del file che si sta scaricando
+     * @param dimensionePezzo la dimensione dei pezzi
+     * @return la bitmap dei pezzi completati, null se il registro non
+     * c'è, è illeggibile o si riferisce ad un altro file
+     */
+    BitSet leggi(long dimensioneFile, int dimensionePezzo) {
+        if (!this.registro.isFile()) {
+            return null;
+        }
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new FileInputStream(this.registro));
+            if (in.readInt() != MAGIC || in.readInt() != VERSIONE
+                    || !in.readUTF().equals(this.chiave)
+                    || in.readLong() != dimensioneFile
+                    || in.readInt() != dimensionePezzo) {
+                return null;
+            }
+            int n = in.readInt();
+            if (n < 0 || n > (dimensioneFile / dimensionePezzo) / 64 + 1) {
+                return null;
+            }
+            long[] parole = new long[n];
+            for (int i = 0; i < n; i++) {
+                parole[i] = in.readLong();
+            }
+            return BitSet.valueOf(parole);
+        } catch (IOException e) {
+            return null;
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException ex) {
+                }
+            }
+        }
+    }
+
+    /**
+     * Salva i pezzi completati, se dall'ultimo salvataggio sono passati
+     * almeno GTF_RESUME_SAVE_INTERVAL millisecondi
+     * @param stato lo stato del download
+     * @param dati il file temporaneo
+     */
+    void forse(StatoPezzi stato, FileChannel dati) {
+        synchronized (this) {
+            long ora = System.currentTimeMillis();
+            if (ora - this.ultimoSalvataggio
+                    < Configuration.GTF_RESUME_SAVE_INTERVAL) {
+                return;
+            }
+            this.ultimoSalvataggio = ora;
+        }
+        salva(stato, dati);
+    }
+
+    /**
+     * Salva i pezzi completati. Gli errori vengono ignorati: al più il
+     * download riprenderà da un punto precedente.
+     * @param stato lo stato del download
+     * @param dati il file temporaneo
+     */
+    synchronized void salva(StatoPezzi stato, FileChannel dati) {
+        DataOutputStream out = null;
+        try {
+            BitSet fatti = stato.copiaFatti();
+            dati.force(false);
+            out = new DataOutputStream(new FileOutputStream(this.nuovo));
+            long[] parole = fatti.toLongArray();
+            out.writeInt(MAGIC);
+            out.writeInt(VERSIONE);
+            out.writeUTF(this.chiave);
+            out.writeLong(stato.getDimensioneFile());
+            out.writeInt(stato.getDimensionePezzo());
+            out.writeInt(parole.length);
+            for (long p : parole) {
+                out.writeLong(p);
+            }
+            out.close();
+            out = null;
+            Files.move(this.nuovo.toPath(), this.registro.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            System.out.println("GESTORE TRASMISSIONE FILE: impossibile "
+                    + "salvare " + this.registro + ": " + e);
+        } finally {
+            if (out != null) {
+                try {
+                    out.close();
+                } catch (IOException ex) {
+                }
+            }
+        }
+    }
+
+    /**
+     * Elimina il registro
+     */
+    synchronized void elimina() {
+        this.registro.delete();
+        this.nuovo.delete();
+    }
+}
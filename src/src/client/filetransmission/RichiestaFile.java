@@ -0,0 +1,57 @@
+package client.filetransmission;
+
+/**
+ * Richiesta di una parte di un file, inviata da Download ad Upload nel
+ * formato di ProtocolloPeer. Sulla stessa connessione possono essere
+ * inviate più richieste, una dopo l'altra.
+ * Upload accetta anche il vecchio formato, cioè il solo nome del file
+ * in uno stream a oggetti, che richiede l'intero file.
+ * @author Federico Della Bona - Alessandro Lensi
+ */
+public class RichiestaFile {
+
+    private final String nome;
+    private final long offset;
+    private final long lunghezza;
+
+    /**
+     * Crea una richiesta
+     * @param nome il nome del file
+     * @param offset il primo byte richiesto
+     * @param lunghezza il numero di byte richiesti
+     */
+    public RichiestaFile(String nome, long offset, long lunghezza) {
+        this.nome = nome;
+        this.offset = offset;
+        this.lunghezza = lunghezza;
+    }
+
+    /**
+     * Restituisce il nome del file richiesto
+     * @return il nome del file
+     */
+    public String getNome() {
+        return this.nome;
+    }
+
+    /**
+     * Restituisce il primo byte richiesto
+     * @return l'offset nel file
+     */
+    public long getOffset() {
+        return this.offset;
+    }
+
+    /**
+     * Restituisce il numero di byte richiesti
+     * @return la lunghezza
+     */
+    public long getLunghezza() {
+        return this.lunghezza;
+    }
+
+    @Override
+    public String toString() {
+        return this.nome + "[" + this.offset + "+" + this.lunghezza + "]";
+    }
+}
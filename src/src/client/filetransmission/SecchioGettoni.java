@@ -0,0 +1,131 @@
+package client.filetransmission;
+
+import common.Configuration;
+
+/**
+ * Secchio di gettoni (token bucket) che limita la velocità di un flusso
+ * di byte: i gettoni si accumulano alla velocità impostata, fino alla
+ * capacità del secchio, e ogni byte inviato o ricevuto ne consuma uno.
+ * La capacità corrisponde a Configuration.GTF_RATE_BURST millisecondi di
+ * traffico (ma non è mai minore di GTF_UPLOAD_QUANTUM), così dopo una
+ * pausa il flusso può recuperare per poco tempo.
+ * Chi non può aspettare (GestoreUpload) chiede quanti gettoni sono
+ * disponibili e consuma quelli usati; chi può aspettare (Download) consuma
+ * i gettoni dei byte già letti e poi dorme per il debito accumulato.
+ * La velocità 0 indica nessun limite. La velocità può essere cambiata in
+ * qualunque momento.
+ * @author Federico Della Bona - Alessandro Lensi
+ */
+class SecchioGettoni {
+
+    private long velocita;
+    private long capacita;
+    private double gettoni;
+    private long ultimo;
+
+    /**
+     * Crea un secchio pieno
+     * @param velocita i byte al secondo, 0 per nessun limite
+     */
+    SecchioGettoni(long velocita) {
+        this.ultimo = System.nanoTime();
+        setVelocita(velocita);
+    }
+
+    /**
+     * Cambia la velocità
+     * @param velocita i byte al secondo, 0 per nessun limite
+     */
+    synchronized void setVelocita(long velocita) {
+        if (velocita == this.velocita) {
+            return;
+        }
+        ricarica();
+        boolean eraIllimitato = (this.velocita == 0);
+        this.velocita = Math.max(velocita, 0);
+        this.capacita = Math.max(
+                this.velocita * Configuration.GTF_RATE_BURST / 1000,
+                Configuration.GTF_UPLOAD_QUANTUM);
+        /* passando da nessun limite ad un limite il secchio è pieno */
+        this.gettoni = eraIllimitato
+                ? this.capacita : Math.min(this.gettoni, this.capacita);
+    }
+
+    /**
+     * Restituisce la velocità
+     * @return i byte al secondo, 0 se non c'è limite
+     */
+    synchronized long getVelocita() {
+        return this.velocita;
+    }
+
+    /**
+     * Restituisce quanti byte si possono trasferire subito
+     * @param massimo i byte che si vorrebbero trasferire
+     * @return al più massimo, 0 se bisogna aspettare
+     */
+    synchronized long disponibili(long massimo) {
+        if (this.velocita == 0) {
+            return massimo;
+        }
+        ricarica();
+        return (long) Math.max(0, Math.min(massimo, this.gettoni));
+    }
+
+    /**
+     * Restituisce quanto bisogna aspettare per poter trasferire n byte
+     * @param n i byte da trasferire
+     * @return l'attesa in nanosecondi
+     */
+    synchronized long attesa(long n) {
+        if (this.velocita == 0) {
+            return 0;
+        }
+        ricarica();
+        double mancanti = Math.min(n, this.capacita) - this.gettoni;
+        if (mancanti <= 0) {
+            return 0;
+        }
+        return (long) (mancanti * 1000000000L / this.velocita);
+    }
+
+    /**
+     * Consuma i gettoni di n byte trasferiti, anche se non ci sono
+     * @param n i byte trasferiti
+     * @return l'attesa, in nanosecondi, che ripaga l'eventuale debito
+     */
+    synchronized long consuma(long n) {
+        if (this.velocita == 0) {
+            return 0;
+        }
+        ricarica();
+        this.gettoni -= n;
+        if (this.gettoni >= 0) {
+            return 0;
+        }
+        return (long) (-this.gettoni * 1000000000L / this.velocita);
+    }
+
+    /**
+     * Consuma i gettoni di n byte trasferiti e, se non c'erano, aspetta
+     * il tempo necessario ad accumularli
+     * @param n i byte trasferiti
+     * @throws InterruptedException se l'attesa viene interrotta
+     */
+    void aspetta(long n) throws InterruptedException {
+        long nanos = consuma(n);
+        if (nanos > 0) {
+            Thread.sleep(nanos / 1000000, (int) (nanos % 1000000));
+        }
+    }
+
+    private void ricarica() {
+        long ora = System.nanoTime();
+        if (this.velocita > 0) {
+            this.gettoni = Math.min(this.capacita, this.gettoni
+                    + (ora - this.ultimo) * (double) this.velocita
+                    / 1000000000L);
+        }
+        this.ultimo = ora;
+    }
+}
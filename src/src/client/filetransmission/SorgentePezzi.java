@@ -0,0 +1,211 @@
+package client.filetransmission;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.util.concurrent.Callable;
+import common.Configuration;
+import common.identifier.FileDescriptor;
+import common.identifier.IdClient;
+
+/**
+ * Scarica da un seeder, su un'unica connessione, i pezzi assegnati da
+ * StatoPezzi, e li scrive nel file temporaneo con scritture posizionali.
+ * Richieste e risposte seguono il protocollo binario di ProtocolloPeer.
+ * Più SorgentePezzi dello stesso download lavorano in parallelo su
+ * seeder diversi: un seeder lento scarica meno pezzi, senza rallentare
+ * gli altri. Se il FileDescriptor contiene gli hash, un pezzo rovinato
+ * viene restituito e la sorgente smette, come se il seeder non
+ * rispondesse.
+ * @author Federico Della Bona - Alessandro Lensi
+ */
+class SorgentePezzi implements Callable<Boolean> {
+
+    private final IdClient seeder;
+    private final FileDescriptor descrittore;
+    private final String filename;
+    private final StatoPezzi stato;
+    private final FileChannel file;
+    private final RegistroPezzi registro;
+    private final LimitiBanda limiti;
+    private int pezziRicevuti;
+    private boolean occupato;
+    private boolean vecchio;
+
+    /**
+     * Crea una sorgente
+     * @param seeder il seeder da cui scaricare
+     * @param descrittore il file da scaricare
+     * @param stato lo stato del download
+     * @param file il file temporaneo, già della dimensione giusta
+     * @param registro il registro in cui salvare i pezzi ricevuti
+     * @param limiti i limiti di banda dei download
+     */
+    SorgentePezzi(IdClient seeder, FileDescriptor descrittore,
+            StatoPezzi stato, FileChannel file, RegistroPezzi registro,
+            LimitiBanda limiti) {
+        this.limiti = limiti;
+        this.seeder = seeder;
+        this.descrittore = descrittore;
+        this.filename = descrittore.getName();
+        this.stato = stato;
+        this.file = file;
+        this.registro = registro;
+        this.pezziRicevuti = 0;
+    }
+
+    /**
+     * Restituisce il seeder della sorgente
+     * @return l'IdClient del seeder
+     */
+    IdClient getSeeder() {
+        return this.seeder;
+    }
+
+    /**
+     * Restituisce il numero di pezzi ricevuti da questa sorgente
+     * @return il numero di pezzi
+     */
+    int getPezziRicevuti() {
+        return this.pezziRicevuti;
+    }
+
+    /**
+     * Controlla se la sorgente ha smesso perché il seeder aveva già troppi
+     * upload in corso
+     * @return true se il seeder ha risposto ESITO_OCCUPATO
+     */
+    boolean isOccupato() {
+        return this.occupato;
+    }
+
+    /**
+     * Controlla se la sorgente ha smesso perché il seeder è un client
+     * vecchio, che non conosce il protocollo a pezzi
+     * @return true se il seeder ha rifiutato il saluto
+     */
+    boolean isVecchio() {
+        return this.vecchio;
+    }
+
+    /**
+     * Scarica pezzi finché ce ne sono da scaricare.
+     * @return true se non ci sono più pezzi da scaricare, false se il
+     * seeder ha smesso di rispondere (il pezzo in corso viene restituito)
+     */
+    public Boolean call() {
+        Socket s = null;
+        int pezzo = -1;
+        try {
+            s = new Socket(this.seeder.getAddress(), this.seeder.getPort());
+            s.setSoTimeout(Configuration.GTF_PIECE_TIMEOUT);
+            /* i byte dei pezzi seguono la risposta sullo stesso stream */
+            DataInputStream in = new DataInputStream(
+                    new BufferedInputStream(s.getInputStream()));
+            DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(s.getOutputStream()));
+            try {
+                ProtocolloPeer.saluta(in, out);
+            } catch (StreamCorruptedException e) {
+                this.vecchio = true;
+                throw e;
+            }
+            byte[] buf = new byte[this.stato.getDimensionePezzo()];
+            MessageDigest hash = ImprontaFile.sha256();
+            SecchioGettoni secchio = this.limiti.nuovoDownload();
+
+            while ((pezzo = this.stato.prossimo()) != -1) {
+                int len = this.stato.lunghezza(pezzo);
+                /* i file con gli hash si chiedono per chiave, il seeder
+                 * può averli con un altro nome */
+                ProtocolloPeer.scriviRichiesta(out, new RichiestaFile(
+                        this.descrittore.getKey(), this.stato.offset(pezzo),
+                        len));
+                out.flush();
+                int esito = ProtocolloPeer.leggiRisposta(in, len);
+                if (esito == ProtocolloPeer.ESITO_OCCUPATO) {
+                    System.out.println("GESTORE TRASMISSIONE FILE: Download("
+                            + Thread.currentThread().getName()
+                            + "), il client " + this.seeder
+                            + " è occupato");
+                    this.occupato = true;
+                    this.stato.restituisci(pezzo);
+                    return false;
+                }
+                if (esito != ProtocolloPeer.ESITO_OK) {
+                    System.out.println("GESTORE TRASMISSIONE FILE: Download("
+                            + Thread.currentThread().getName()
+                            + "), il client " + this.seeder
+                            + " non ha il pezzo " + pezzo
+                            + " di " + this.filename);
+                    this.stato.restituisci(pezzo);
+                    return false;
+                }
+                ricevi(in, buf, len, secchio);
+                if (this.descrittore.hasHashes()) {
+                    hash.update(buf, 0, len);
+                    if (!this.descrittore.isPieceValid(pezzo, hash.digest())) {
+                        System.out.println("GESTORE TRASMISSIONE FILE: "
+                                + "Download("
+                                + Thread.currentThread().getName()
+                                + "), il client " + this.seeder
+                                + " ha inviato il pezzo " + pezzo
+                                + " di " + this.filename + " rovinato");
+                        this.stato.restituisci(pezzo);
+                        return false;
+                    }
+                }
+                ByteBuffer bb = ByteBuffer.wrap(buf, 0, len);
+                long pos = this.stato.offset(pezzo);
+                while (bb.hasRemaining()) {
+                    pos += this.file.write(bb, pos);
+                }
+                this.stato.fatto(pezzo);
+                this.pezziRicevuti++;
+                pezzo = -1;
+                this.registro.forse(this.stato, this.file);
+            }
+            return true;
+        } catch (Exception e) {
+            System.out.println("GESTORE TRASMISSIONE FILE: Download("
+                    + Thread.currentThread().getName()
+                    + "), errore con il seeder " + this.seeder
+                    + " durante il trasferimento di " + this.filename
+                    + "\n Eccezione: " + e);
+            if (pezzo != -1) {
+                this.stato.restituisci(pezzo);
+            }
+            return false;
+        } finally {
+            if (s != null) {
+                try {
+                    s.close();
+                } catch (IOException ex) {
+                }
+            }
+        }
+    }
+
+    /* Legge len byte del pezzo a blocchi, rispettando i limiti di banda */
+    private void ricevi(DataInputStream in, byte[] buf, int len,
+            SecchioGettoni secchio) throws IOException, InterruptedException {
+        int letti = 0;
+        while (letti < len) {
+            int n = in.read(buf, letti,
+                    Math.min(len - letti, Configuration.GTF_UPLOAD_QUANTUM));
+            if (n == -1) {
+                throw new EOFException(this.filename);
+            }
+            this.limiti.ricevuti(secchio, n);
+            letti += n;
+        }
+    }
+}
@@ -0,0 +1,124 @@
+package client.filetransmission;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import common.metriche.FormatoPrometheus;
+import common.metriche.Metriche;
+import common.metriche.Velocita;
+
+/**
+ * Le statistiche dei trasferimenti del client: i byte inviati e ricevuti,
+ * con la velocità, gli upload e i download in corso e l'esito dei
+ * download. I byte sono contati da LimitiBanda, da cui passano tutti i
+ * trasferimenti. Tutti i contatori sono atomici, quindi aggiornarli non
+ * prende lock e leggerli non rallenta i trasferimenti.
+ * @author Federico Della Bona - Alessandro Lensi
+ */
+public class StatisticheTrasferimenti implements Metriche {
+
+    private final Velocita inviati;
+    private final Velocita ricevuti;
+    private final AtomicInteger uploadInCorso;
+    private final AtomicInteger downloadInCorso;
+    private final LongAdder completati;
+    private final LongAdder falliti;
+
+    /**
+     * Crea statistiche vuote
+     * @param uploadInCorso il contatore degli upload in corso, aggiornato
+     * dal GestoreUpload
+     */
+    StatisticheTrasferimenti(AtomicInteger uploadInCorso) {
+        this.inviati = new Velocita();
+        this.ricevuti = new Velocita();
+        this.uploadInCorso = uploadInCorso;
+        this.downloadInCorso = new AtomicInteger(0);
+        this.completati = new LongAdder();
+        this.falliti = new LongAdder();
+    }
+
+    /**
+     * Conta n byte inviati da un upload
+     * @param n i byte
+     */
+    void inviati(long n) {
+        this.inviati.aggiungi(n);
+    }
+
+    /**
+     * Conta n byte ricevuti da un download
+     * @param n i byte
+     */
+    void ricevuti(long n) {
+        this.ricevuti.aggiungi(n);
+    }
+
+    /**
+     * Conta un download iniziato
+     */
+    void downloadIniziato() {
+        this.downloadInCorso.incrementAndGet();
+    }
+
+    /**
+     * Conta un download terminato
+     * @param completato true se il file è stato scaricato, false altrimenti
+     */
+    void downloadFinito(boolean completato) {
+        this.downloadInCorso.decrementAndGet();
+        if (completato) {
+            this.completati.increment();
+        } else {
+            this.falliti.increment();
+        }
+    }
+
+    /**
+     * @return i byte inviati, con la velocità in byte al secondo
+     */
+    public Velocita getInviati() {
+        return this.inviati;
+    }
+
+    /**
+     * @return i byte ricevuti, con la velocità in byte al secondo
+     */
+    public Velocita getRicevuti() {
+        return this.ricevuti;
+    }
+
+    /**
+     * @return i download in esecuzione, senza quelli in attesa di un thread
+     */
+    public int getDownloadInCorso() {
+        return this.downloadInCorso.get();
+    }
+
+    /**
+     * Scrive le metriche dei trasferimenti
+     * @param out dove scrivere le metriche
+     */
+    public void scrivi(FormatoPrometheus out) {
+        out.contatore("bytetorrent_upload_byte_total",
+                "Byte inviati agli altri client.", this.inviati.getTotale());
+        out.indicatore("bytetorrent_upload_byte_al_secondo",
+                "Byte inviati al secondo, dall'ultimo scrape.",
+                this.inviati.getPerSecondo());
+        out.indicatore("bytetorrent_upload_in_corso",
+                "Upload accettati e non ancora terminati.",
+                this.uploadInCorso.get());
+        out.contatore("bytetorrent_download_byte_total",
+                "Byte ricevuti dagli altri client.", this.ricevuti.getTotale());
+        out.indicatore("bytetorrent_download_byte_al_secondo",
+                "Byte ricevuti al secondo, dall'ultimo scrape.",
+                this.ricevuti.getPerSecondo());
+        out.indicatore("bytetorrent_download_in_corso",
+                "Download in esecuzione.", this.downloadInCorso.get());
+        out.contatore("bytetorrent_download_completati_total",
+                "Download terminati con il file completo.",
+                this.completati.sum());
+        out.contatore("bytetorrent_download_falliti_total",
+                "Download terminati senza il file completo.",
+                this.falliti.sum());
+    }
+}
@@ -0,0 +1,172 @@
+package client.filetransmission;
+
+import java.util.ArrayDeque;
+import java.util.BitSet;
+
+/**
+ * Mantiene lo stato di un download a pezzi: il file è diviso in pezzi di
+ * dimensione fissa (l'ultimo può essere più corto); ogni pezzo è da
+ * scaricare, assegnato ad una SorgentePezzi, oppure completato.
+ * I pezzi completati sono segnati in una bitmap, che RegistroPezzi salva
+ * su disco per riprendere i download interrotti.
+ * Tutti i metodi sono sincronizzati sull'oggetto, le SorgentePezzi senza
+ * lavoro aspettano sull'oggetto che un pezzo torni disponibile.
+ * @author Federico Della Bona - Alessandro Lensi
+ */
+class StatoPezzi {
+
+    private final long dimensioneFile;
+    private final int dimensionePezzo;
+    private final int numPezzi;
+    private final BitSet completati;
+    private final ArrayDeque<Integer> daFare;
+    private int assegnati;
+
+    /**
+     * Crea lo stato di un download in cui nessun pezzo è completato
+     * @param dimensioneFile la dimensione del file in byte
+     * @param dimensionePezzo la dimensione di un pezzo in byte
+     */
+    StatoPezzi(long dimensioneFile, int dimensionePezzo) {
+        this(dimensioneFile, dimensionePezzo, null);
+    }
+
+    /**
+     * Crea lo stato di un download ripreso
+     * @param dimensioneFile la dimensione del file in byte
+     * @param dimensionePezzo la dimensione di un pezzo in byte
+     * @param fatti i pezzi già completati, null se nessuno
+     */
+    StatoPezzi(long dimensioneFile, int dimensionePezzo, BitSet fatti) {
+        this.dimensioneFile = dimensioneFile;
+        this.dimensionePezzo = dimensionePezzo;
+        this.numPezzi = (int) ((dimensioneFile + dimensionePezzo - 1)
+                / dimensionePezzo);
+        this.completati = new BitSet(this.numPezzi);
+        this.daFare = new ArrayDeque<Integer>(this.numPezzi);
+        for (int i = 0; i < this.numPezzi; i++) {
+            if (fatti != null && fatti.get(i)) {
+                this.completati.set(i);
+            } else {
+                this.daFare.add(i);
+            }
+        }
+        this.assegnati = 0;
+    }
+
+    /**
+     * Restituisce la dimensione del file
+     * @return la dimensione in byte
+     */
+    long getDimensioneFile() {
+        return this.dimensioneFile;
+    }
+
+    /**
+     * Restituisce la dimensione dei pezzi
+     * @return la dimensione in byte
+     */
+    int getDimensionePezzo() {
+        return this.dimensionePezzo;
+    }
+
+    /**
+     * Restituisce il numero di pezzi del file
+     * @return il numero di pezzi
+     */
+    int getNumPezzi() {
+        return this.numPezzi;
+    }
+
+    /**
+     * Restituisce la posizione nel file del primo byte del pezzo i
+     * @param i il pezzo
+     * @return l'offset del pezzo
+     */
+    long offset(int i) {
+        return (long) i * this.dimensionePezzo;
+    }
+
+    /**
+     * Restituisce la lunghezza del pezzo i
+     * @param i il pezzo
+     * @return la lunghezza in byte
+     */
+    int lunghezza(int i) {
+        return (int) Math.min(this.dimensionePezzo,
+                this.dimensioneFile - offset(i));
+    }
+
+    /**
+     * Assegna un pezzo da scaricare. Se non ci sono pezzi da scaricare ma
+     * ce ne sono di assegnati ad altre sorgenti, aspetta che vengano
+     * completati o restituiti.
+     * @return il pezzo assegnato, -1 se il download è completo o se non
+     * resta niente da assegnare
+     * @throws InterruptedException se l'attesa viene interrotta
+     */
+    synchronized int prossimo() throws InterruptedException {
+        while (this.daFare.isEmpty() && this.assegnati > 0) {
+            wait();
+        }
+        Integer i = this.daFare.poll();
+        if (i == null) {
+            return -1;
+        }
+        this.assegnati++;
+        return i;
+    }
+
+    /**
+     * Segna il pezzo i come completato
+     * @param i il pezzo
+     */
+    synchronized void fatto(int i) {
+        this.completati.set(i);
+        this.assegnati--;
+        notifyAll();
+    }
+
+    /**
+     * Restituisce il pezzo i, che una sorgente non è riuscita a scaricare
+     * @param i il pezzo
+     */
+    synchronized void restituisci(int i) {
+        this.daFare.addFirst(i);
+        this.assegnati--;
+        notifyAll();
+    }
+
+    /**
+     * Controlla se il pezzo i è completato
+     * @param i il pezzo
+     * @return true se il pezzo è completato, false altrimenti
+     */
+    synchronized boolean isFatto(int i) {
+        return this.completati.get(i);
+    }
+
+    /**
+     * Restituisce una copia della bitmap dei pezzi completati
+     * @return la bitmap
+     */
+    synchronized BitSet copiaFatti() {
+        return (BitSet) this.completati.clone();
+    }
+
+    /**
+     * Restituisce il numero di pezzi completati
+     * @return il numero di pezzi completati
+     */
+    synchronized int numFatti() {
+        return this.completati.cardinality();
+    }
+
+    /**
+     * Controlla se tutti i pezzi sono completati
+     * @return true se il download è completo, false altrimenti
+     */
+    synchronized boolean isCompleto() {
+        return this.completati.cardinality() == this.numPezzi;
+    }
+}
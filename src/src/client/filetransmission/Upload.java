@@ -1,33 +1,92 @@
 package client.filetransmission;
 
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.ObjectInputFilter;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.io.OutputStream;
+import java.io.SequenceInputStream;
 import java.net.Socket;
 
 /**
- * Realizza il Task incaricato di inviare un file ad un altro client.
+ * Realizza il Task incaricato di inviare un file intero ad un client
+ * vecchio, che chiede il file inviando il suo nome in uno stream a
+ * oggetti. I client nuovi chiedono pezzi di file e sono serviti
+ * direttamente da GestoreUpload, che passa ad Upload le connessioni dei
+ * client vecchi dopo aver già inviato l'intestazione del proprio stream a
+ * oggetti e ricevuto i primi byte di quello del client.
  * @author Federico Della Bona - Alessandro Lensi
  */
 public class Upload implements Runnable {
 
+    private static final ObjectInputFilter SOLO_NOMI =
+            ObjectInputFilter.Config.createFilter("java.lang.String;!*");
     Socket transferSocket;
     String workingDir;
+    byte[] ricevuti;
+    LimitiBanda limiti;
+    /* istante dell'ultimo byte ricevuto o inviato, letto da GestoreUpload
+     * per chiudere le connessioni inattive */
+    private volatile long ultimaAttivita;
 
     /**
      * Crea un nuovo Thread di upload.
      * Assumiamo che i parametri siano sempre diversi da null, quindi
      * chi chiama il costruttore deve esserne sicuro!
      * @param workingDir La directory che contiene il file da inviare
+     * @param transferSocket Il socket dove inviare il file, su cui è già
+     * stata inviata l'intestazione dello stream a oggetti
+     * @param ricevuti I byte già ricevuti dal socket
+     */
+    public Upload(String workingDir, Socket transferSocket, byte[] ricevuti) {
+        this(workingDir, transferSocket, ricevuti, new LimitiBanda(0, 0, 0, 0));
+    }
+
+    /**
+     * Crea un nuovo Thread di upload che rispetta i limiti di banda
+     * @param workingDir La directory che contiene il file da inviare
      * @param transferSocket Il socket dove inviare il file
+     * @param ricevuti I byte già ricevuti dal socket
+     * @param limiti i limiti di banda degli upload
      */
-    public Upload(String workingDir, Socket transferSocket) {
+    Upload(String workingDir, Socket transferSocket, byte[] ricevuti,
+            LimitiBanda limiti) {
         this.workingDir = workingDir;
         this.transferSocket = transferSocket;
+        this.ricevuti = ricevuti;
+        this.limiti = limiti;
+        this.ultimaAttivita = System.currentTimeMillis();
+    }
+
+    /**
+     * Restituisce l'istante in cui la connessione ha ricevuto o inviato
+     * qualcosa l'ultima volta (o è stata creata)
+     * @return l'istante in millisecondi
+     */
+    long getUltimaAttivita() {
+        return this.ultimaAttivita;
+    }
+
+    /**
+     * Controlla se la connessione è stata chiusa
+     * @return true se è chiusa, false altrimenti
+     */
+    boolean isChiuso() {
+        return this.transferSocket.isClosed();
+    }
+
+    /**
+     * Chiude la connessione: un upload in corso termina con un'eccezione
+     */
+    void chiudi() {
+        try {
+            this.transferSocket.close();
+        } catch (IOException e) {
+        }
     }
 
     /**
@@ -45,11 +104,21 @@ public class Upload implements Runnable {
         try {
             os = transferSocket.getOutputStream();
             is = transferSocket.getInputStream();
-            out = new ObjectOutputStream(os);
-            in = new ObjectInputStream(is);
+            /* l'intestazione è già stata inviata da GestoreUpload */
+            out = new ObjectOutputStream(os) {
+
+                @Override
+                protected void writeStreamHeader() {
+                }
+            };
+            in = new ObjectInputStream(new SequenceInputStream(
+                    new ByteArrayInputStream(ricevuti), is));
+            /* dal client vecchio accetto solo il nome del file */
+            in.setObjectInputFilter(SOLO_NOMI);
 
             /* Il client che richiede il file invia il filename, lo leggo */
             filename = (String) in.readObject();
+            ultimaAttivita = System.currentTimeMillis();
 
             File uploaded = new File(workingDir + "/" + filename);
             /* Controllo di possedere effettivamente il file richiesto */
@@ -66,8 +135,11 @@ public class Upload implements Runnable {
                         + Thread.currentThread().getName()
                         + "), Possiedo il file " + filename + ". Lo invio");
 
+                SecchioGettoni secchio = limiti.nuovoUpload();
                 while ((read = fis.read(buf)) != -1) {
                     out.write(buf, 0, read);
+                    ultimaAttivita = System.currentTimeMillis();
+                    limiti.inviatiAspetta(secchio, read);
                 }
 
                 fis.close();
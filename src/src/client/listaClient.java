@@ -2,6 +2,7 @@ package client;
 
 import java.util.List;
 import common.identifier.IdClient;
+import common.remote.DeltaClient;
 
 /**
  * Realizza la lista locale dei client attivi.
@@ -9,13 +10,17 @@ import common.identifier.IdClient;
  */
 public class listaClient {
 
+    /** versione della lista non ancora nota */
+    public static final long VERSIONE_SCONOSCIUTA = -1;
     private List<IdClient> lista;
+    private long versione;
 
     /**
      * Crea una lista vuota
      */
     public listaClient() {
         lista = null;
+        versione = VERSIONE_SCONOSCIUTA;
     }
 
     /**
@@ -27,6 +32,7 @@ public class listaClient {
             throw new NullPointerException("Costruttore lista client, parametro NULL!");
         }
         lista = l;
+        versione = VERSIONE_SCONOSCIUTA;
     }
 
     /**
@@ -52,6 +58,51 @@ public class listaClient {
         return false;
     }
 
+    /**
+     * Applica alla lista un delta ricevuto dal server. Il delta viene
+     * applicato per intero o per niente; l'oggetto List restituito da
+     * returnList() resta lo stesso.
+     * Se la versione della lista non è nota (la lista è quella restituita
+     * dalla register) viene accettato qualsiasi delta: i client già
+     * presenti non vengono aggiunti di nuovo.
+     * @param d Il delta da applicare
+     * @param escluso Un client da non inserire mai nella lista (il client
+     * stesso), può essere null
+     * @return false se il delta non si applica alla versione della lista
+     * o se la lista non c'è ancora, true altrimenti
+     */
+    public synchronized boolean applyDelta(DeltaClient d, IdClient escluso) {
+        if (d == null || lista == null) {
+            return false;
+        }
+        if (d.isCompleto()) {
+            lista.clear();
+        } else if (versione != VERSIONE_SCONOSCIUTA
+                && d.getVersioneDa() != versione) {
+            return false;
+        }
+        for (IdClient c : d.getRimossi()) {
+            while (lista.remove(c)) {
+            }
+        }
+        for (IdClient c : d.getAggiunti()) {
+            if (!c.equals(escluso) && !lista.contains(c)) {
+                lista.add(c);
+            }
+        }
+        versione = d.getVersioneA();
+        return true;
+    }
+
+    /**
+     * Restituisce la versione della lista, cioè quella dell'ultimo delta
+     * applicato
+     * @return la versione, oppure VERSIONE_SCONOSCIUTA
+     */
+    public synchronized long getVersione() {
+        return versione;
+    }
+
     /**
      * Restitiusce la lista dei client
      * @return la lista dei client.
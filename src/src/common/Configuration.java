@@ -10,7 +10,41 @@ public class Configuration {
     /* Configuration del Gestore Trasmissione File */
 
     static public final int GTF_SOCKET_TIMEOUT = 1000;
+    /* thread con cui eseguire download e upload: "piattaforma" oppure
+     * "virtuale" (solo da Java 21), scelto con -Dbytetorrent.esecuzione */
+    static public final String GTF_EXECUTION_MODE =
+            System.getProperty("bytetorrent.esecuzione", "piattaforma");
+    /* download eseguiti contemporaneamente al massimo, gli altri aspettano */
+    static public final int GTF_MAX_DOWNLOADS = 64;
+    /* thread per gli upload verso i client vecchi, che chiedono il file
+     * intero con il protocollo a oggetti */
     static public final int GTF_MAX_UPLOAD_THREADS = 5;
+    /* upload contemporanei al massimo, oltre i quali si risponde occupato */
+    static public final int GTF_MAX_UPLOADS = 1024;
+    /* byte inviati al massimo ad una connessione prima di passare alla
+     * successiva */
+    static public final int GTF_UPLOAD_QUANTUM = 64 * 1024;
+    /* tempo (ms) dopo il quale una connessione di upload inattiva viene
+     * chiusa */
+    static public final long GTF_UPLOAD_IDLE_TIMEOUT = 60000;
+    /* limiti di banda iniziali (byte/s, 0 = nessun limite) di tutti gli
+     * upload e i download insieme e di ogni connessione; possono essere
+     * cambiati durante l'esecuzione con il comando limit */
+    static public final long GTF_UPLOAD_RATE = 0;
+    static public final long GTF_UPLOAD_RATE_PER_CONNECTION = 0;
+    static public final long GTF_DOWNLOAD_RATE = 0;
+    static public final long GTF_DOWNLOAD_RATE_PER_CONNECTION = 0;
+    /* traffico (ms) che un limite di banda lascia passare tutto insieme
+     * dopo una pausa */
+    static public final long GTF_RATE_BURST = 100;
+    /* dimensione dei pezzi e numero massimo di seeder usati in parallelo
+     * da un download */
+    static public final int GTF_PIECE_SIZE = 256 * 1024;
+    static public final int GTF_MAX_SOURCES = 4;
+    /* tempo massimo (ms) di attesa dei dati di un pezzo */
+    static public final int GTF_PIECE_TIMEOUT = 30000;
+    /* intervallo minimo (ms) tra due salvataggi dei pezzi ricevuti */
+    static public final long GTF_RESUME_SAVE_INTERVAL = 1000;
     static public final String GTF_TMP_DIR = "/tmp/";
     static public final long GTF_AWAIT_DOWNLOAD_TIMEOUT = 1;
     static public final TimeUnit GTF_AWAIT_DOWNLOAD_TIMEOUT_UNIT = TimeUnit.MINUTES;
@@ -20,9 +54,51 @@ public class Configuration {
     public static final int SRV_DEFAULT_UDP_PORT = 5555;
     public static final int SRV_DEFAULT_RMI_PORT = 1099;
     public static final String SRV_SERVICE_NAME = "ByteTorrent";
+    /* seeder considerati, al massimo, per ogni search */
+    public static final int SRV_SEARCH_SAMPLE = 64;
+    /* risultati restituiti, al massimo, da una find */
+    public static final int SRV_FIND_MAX = 100;
+    /* costante di tempo (ms) con cui decadono i download assegnati */
+    public static final long SRV_LOAD_DECAY = 30000;
+    /* peso del tasso di fallimenti nel punteggio di un seeder */
+    public static final double SRV_LOAD_FAILURE_WEIGHT = 4.0;
+    /* con la persistenza attiva: intervallo (ms) tra due istantanee del
+     * database, se nel frattempo è cambiato qualcosa */
+    public static final long SRV_SNAPSHOT_INTERVAL = 60000;
+    /* forza su disco ogni operazione scritta nel registro, altrimenti
+     * sopravvive ad un crash del server ma non del sistema */
+    public static final boolean SRV_LOG_SYNC = false;
+    /* tempo (ms) entro cui i client ripristinati dopo un riavvio devono
+     * inviare il primo keepalive */
+    public static final long SRV_RECOVERY_GRACE = 30000;
+    /* porta HTTP delle metriche (vedi ServizioMetriche), cambiata con
+     * -Dbytetorrent.metriche.porta; -1 per non esportarle */
+    public static final int SRV_METRICS_PORT =
+            Integer.getInteger("bytetorrent.metriche.porta", 9400);
+    /* file più condivisi di cui le metriche riportano seeders e leachers
+     * uno per uno, gli altri compaiono solo nei totali */
+    public static final int SRV_METRICS_TOP_FILES = 20;
     /*Configuration del Gestore Keep Alive */
     public static final int GKA_SOCKET_TIMEOUT = 700;
     public static final long GKA_KEEPALIVE_FREQUENCY = 1000;
+    /* tempo senza keepalive dopo il quale un client è considerato morto */
+    public static final long GKA_CLIENT_TIMEOUT = 3000;
+    /* risoluzione e dimensione della ruota delle scadenze */
+    public static final long GKA_WHEEL_TICK = 100;
+    public static final int GKA_WHEEL_SLOTS = 64;
+    /* numero massimo di keepalive passati insieme alla ruota */
+    public static final int GKA_BATCH_SIZE = 256;
+    /*Configuration del Gestore Notifiche */
+    public static final int GN_WORKER_THREADS = 8;
+    public static final int GN_QUEUE_SIZE = 1024;
+    /* notifiche inviate ad un client prima di passare al successivo */
+    public static final int GN_BATCH_SIZE = 32;
+    /* fallimenti consecutivi dopo i quali una callback viene scartata */
+    public static final int GN_MAX_FAILURES = 3;
+    /* timeout (ms) di connessione e di risposta delle callback remote */
+    public static final int GN_CALLBACK_TIMEOUT = 2000;
+    /* finestra (ms) in cui ingressi e uscite vengono raccolti in un delta */
+    public static final long GN_DELTA_WINDOW = 50;
 
     /* Multicast */
     public static final int GM_SOCKET_TIMEOUT = 700;
@@ -32,6 +108,23 @@ public class Configuration {
     /* Client */
     public static final String CLT_DEFAULT_SERVER_HOST ="localhost";
     public static final String CLT_COMMAND_FILENAME = "/comandi.txt";
+    /* seeder richiesti al server per ogni download */
+    public static final int CLT_SEARCH_SEEDERS = 4;
+    /* risultati chiesti da una find */
+    public static final int CLT_FIND_PAGE = 20;
+    /* file pubblicati, al massimo, con una publishAll */
+    public static final int CLT_PUBLISH_BATCH = 1000;
+    /* porta HTTP delle metriche, come SRV_METRICS_PORT; di default una
+     * porta libera qualsiasi, perché sulla stessa macchina possono girare
+     * più client */
+    public static final int CLT_METRICS_PORT =
+            Integer.getInteger("bytetorrent.metriche.porta", 0);
+
+    /* Metriche */
+    /* indirizzo su cui esportare le metriche, di default solo alla
+     * macchina locale; cambiato con -Dbytetorrent.metriche.indirizzo */
+    public static final String MET_ADDRESS =
+            System.getProperty("bytetorrent.metriche.indirizzo", "127.0.0.1");
 
 
     public static boolean isPort(int p) {
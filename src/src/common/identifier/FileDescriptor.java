@@ -1,16 +1,51 @@
 package common.identifier;
 
+import java.io.IOException;
+import java.io.InvalidObjectException;
+import java.io.ObjectInputStream;
 import java.io.Serializable;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
 
 /**
  * La classe FileDescriptor realizza un identificatore per i file, e
- * contiene nome e dimensione
+ * contiene nome e dimensione.
+ * Può contenere anche l'hash SHA-256 del contenuto e quello di ogni pezzo
+ * del file, calcolati da chi lo pubblica, con cui chi scarica controlla
+ * i pezzi ricevuti.
+ * Se ci sono gli hash l'identità del file sono gli hash: due
+ * FileDescriptor con lo stesso hash del contenuto e gli stessi hash dei
+ * pezzi sono equivalenti anche se i nomi sono diversi (vedi getKey).
+ * Altrimenti, come nei client vecchi, l'identità è data da nome e
+ * dimensione.
  * @author Federico Della Bona - Alessandro Lensi
  */
 public class FileDescriptor implements Serializable {
 
+    /* lo stesso della versione con solo nome e dimensione: i campi
+     * aggiunti dopo arrivano dai client vecchi con i valori di default,
+     * cioè senza hash */
+    private static final long serialVersionUID = 61597489369804664L;
+    /** dimensione in byte di un hash SHA-256 */
+    public static final int HASH_SIZE = 32;
+    /** dimensione massima in byte di un pezzo */
+    public static final int MAX_PIECE_SIZE = 64 * 1024 * 1024;
+    /** prefisso delle chiavi dei file con gli hash */
+    public static final String KEY_PREFIX = "sha256:";
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
     private String name;
     private long size;
+    /* SHA-256 del contenuto, null se non calcolato da chi ha pubblicato */
+    private byte[] contentHash;
+    private int pieceSize;
+    /* SHA-256 dei pezzi, uno dopo l'altro */
+    private byte[] pieceHashes;
+    /* hashcode calcolato alla prima richiesta, 0 se non ancora calcolato */
+    private transient int hash;
+    /* chiave calcolata alla prima richiesta, null se non ancora calcolata;
+     * String è immutabile, quindi può essere letta senza sincronizzazione */
+    private transient String key;
 
     /**
      * Crea un FileDescriptor per un file
@@ -22,6 +57,96 @@ public class FileDescriptor implements Serializable {
         this.size = size;
     }
 
+    /**
+     * Crea un FileDescriptor per un file, con gli hash del contenuto
+     * @param name nome del file
+     * @param size numero di byte del file
+     * @param contentHash SHA-256 del contenuto
+     * @param pieceSize dimensione in byte dei pezzi
+     * @param pieceHashes SHA-256 dei pezzi, uno dopo l'altro
+     * @throws IllegalArgumentException se gli hash non corrispondono alla
+     * dimensione del file
+     */
+    public FileDescriptor(String name, long size, byte[] contentHash,
+            int pieceSize, byte[] pieceHashes) {
+        this(name, size);
+        if (!hashValidi(size, contentHash, pieceSize, pieceHashes)) {
+            throw new IllegalArgumentException("hash non validi per " + name);
+        }
+        this.contentHash = contentHash.clone();
+        this.pieceSize = pieceSize;
+        this.pieceHashes = pieceHashes.clone();
+    }
+
+    /**
+     * Crea una copia del FileDescriptor f, con gli stessi hash ma con un
+     * altro nome
+     * @param f il FileDescriptor da copiare
+     * @param name il nuovo nome del file
+     */
+    public FileDescriptor(FileDescriptor f, String name) {
+        this(name, f.size);
+        this.contentHash = f.contentHash;
+        this.pieceSize = f.pieceSize;
+        this.pieceHashes = f.pieceHashes;
+        if (this.contentHash != null) {
+            this.key = f.key;
+            this.hash = f.hash;
+        }
+    }
+
+    /* true se gli hash sono coerenti con la dimensione del file: un hash
+     * del contenuto, una dimensione dei pezzi in (0, MAX_PIECE_SIZE] e un
+     * hash per ogni pezzo */
+    private static boolean hashValidi(long size, byte[] contentHash,
+            int pieceSize, byte[] pieceHashes) {
+        if (contentHash == null || pieceHashes == null
+                || contentHash.length != HASH_SIZE
+                || pieceSize <= 0 || pieceSize > MAX_PIECE_SIZE) {
+            return false;
+        }
+        long pezzi = size / pieceSize + ((size % pieceSize != 0) ? 1 : 0);
+        return pieceHashes.length == pezzi * HASH_SIZE;
+    }
+
+    /* controlla i campi letti da uno stream, che può venire da un peer
+     * qualsiasi: un FileDescriptor non valido viene rifiutato prima che
+     * arrivi alle tabelle del server o a un download */
+    private void readObject(ObjectInputStream in)
+            throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        if (this.name == null || this.size < 0) {
+            throw new InvalidObjectException("FileDescriptor non valido");
+        }
+        if (this.contentHash == null) {
+            if (this.pieceSize != 0 || this.pieceHashes != null) {
+                throw new InvalidObjectException(
+                        "hash dei pezzi senza hash del contenuto per "
+                        + this.name);
+            }
+            return;
+        }
+        if (!hashValidi(this.size, this.contentHash, this.pieceSize,
+                this.pieceHashes)) {
+            throw new InvalidObjectException(
+                    "hash non validi per " + this.name);
+        }
+        /* gli array possono essere condivisi con altri oggetti dello
+         * stream */
+        this.contentHash = this.contentHash.clone();
+        this.pieceHashes = this.pieceHashes.clone();
+    }
+
+    /**
+     * Restituisce il numero di pezzi di un file
+     * @param size numero di byte del file
+     * @param pieceSize dimensione in byte dei pezzi
+     * @return il numero di pezzi
+     */
+    public static int countPieces(long size, int pieceSize) {
+        return (int) ((size + pieceSize - 1) / pieceSize);
+    }
+
     /**
      * Restituisce il nome del file
      * @return nome del file
@@ -38,6 +163,101 @@ public class FileDescriptor implements Serializable {
         return this.size;
     }
 
+    /**
+     * Restituisce la chiave che identifica il file: se ci sono gli hash
+     * KEY_PREFIX seguito, in esadecimale, dallo SHA-256 dell'hash del
+     * contenuto, della dimensione dei pezzi e degli hash dei pezzi; il
+     * nome del file altrimenti.
+     * La chiave copre anche gli hash dei pezzi perché sono quelli con cui
+     * chi scarica controlla i pezzi: chi pubblica lo stesso contenuto con
+     * hash dei pezzi sbagliati crea un altro file, e non può impedire di
+     * scaricare il file pubblicato con gli hash giusti.
+     * Due FileDescriptor sono equivalenti solo se hanno la stessa chiave.
+     * La chiave è calcolata una volta sola.
+     * @return la chiave del file
+     */
+    public String getKey() {
+        String k = this.key;
+        if (k == null) {
+            if (this.contentHash == null) {
+                k = this.name;
+            } else {
+                MessageDigest md;
+                try {
+                    md = MessageDigest.getInstance("SHA-256");
+                } catch (NoSuchAlgorithmException e) {
+                    /* ogni JVM deve avere SHA-256 */
+                    throw new IllegalStateException(e);
+                }
+                md.update(this.contentHash);
+                md.update(new byte[]{(byte) (this.pieceSize >>> 24),
+                    (byte) (this.pieceSize >>> 16),
+                    (byte) (this.pieceSize >>> 8), (byte) this.pieceSize});
+                md.update(this.pieceHashes);
+                StringBuilder sb = new StringBuilder(
+                        KEY_PREFIX.length() + 2 * HASH_SIZE).append(KEY_PREFIX);
+                for (byte b : md.digest()) {
+                    sb.append(HEX[(b >> 4) & 0xf]).append(HEX[b & 0xf]);
+                }
+                k = sb.toString();
+            }
+            this.key = k;
+        }
+        return k;
+    }
+
+    /**
+     * Controlla se il FileDescriptor contiene gli hash del contenuto
+     * @return true se ci sono gli hash, false altrimenti
+     */
+    public boolean hasHashes() {
+        return this.contentHash != null;
+    }
+
+    /**
+     * Restituisce l'hash del contenuto
+     * @return una copia dello SHA-256 del contenuto, null se non c'è
+     */
+    public byte[] getContentHash() {
+        return (this.contentHash == null) ? null : this.contentHash.clone();
+    }
+
+    /**
+     * Restituisce la dimensione dei pezzi a cui si riferiscono gli hash
+     * @return la dimensione in byte, 0 se non ci sono gli hash
+     */
+    public int getPieceSize() {
+        return this.pieceSize;
+    }
+
+    /**
+     * Controlla l'hash di un pezzo
+     * @param i il pezzo
+     * @param hash lo SHA-256 dei byte ricevuti per il pezzo
+     * @return true se l'hash è quello del pezzo, false altrimenti (anche
+     * se non ci sono gli hash)
+     */
+    public boolean isPieceValid(int i, byte[] hash) {
+        if (this.pieceHashes == null || i < 0
+                || (i + 1) * HASH_SIZE > this.pieceHashes.length
+                || hash.length != HASH_SIZE) {
+            return false;
+        }
+        return Arrays.equals(this.pieceHashes, i * HASH_SIZE,
+                (i + 1) * HASH_SIZE, hash, 0, HASH_SIZE);
+    }
+
+    /**
+     * Controlla l'hash del contenuto
+     * @param hash lo SHA-256 del contenuto ricevuto
+     * @return true se l'hash è quello del contenuto, false altrimenti
+     * (anche se non c'è l'hash)
+     */
+    public boolean isContentValid(byte[] hash) {
+        return this.contentHash != null
+                && Arrays.equals(this.contentHash, hash);
+    }
+
     /**
      * Restituisce la stringa che rappresenta il FileDescriptor
      * @return la stringa che rappresenta il FileDescriptor
@@ -47,12 +267,48 @@ public class FileDescriptor implements Serializable {
         return this.name + ":" + this.size;
     }
 
+    /**
+     * Controlla se i due oggetti sono equivalenti: due FileDescriptor con
+     * gli hash sono equivalenti se hanno gli stessi hash del contenuto e
+     * dei pezzi, due senza hash se hanno lo stesso nome e la stessa
+     * dimensione.
+     * @param o l'oggetto da confrontare con this
+     * @return true se gli oggetti si equivalgono, false altrimenti
+     */
     @Override
     public boolean equals(Object o) {
-        if (o.getClass() == FileDescriptor.class) {
-            return this.toString().equals(((FileDescriptor) o).toString());
+        if (this == o) {
+            return true;
+        }
+        if (o == null || o.getClass() != FileDescriptor.class) {
+            return false;
         }
-        return false;
+        FileDescriptor fd = (FileDescriptor) o;
+        if (this.size != fd.size || this.hashCode() != fd.hashCode()) {
+            return false;
+        }
+        if (this.contentHash != null || fd.contentHash != null) {
+            return Arrays.equals(this.contentHash, fd.contentHash)
+                    && this.pieceSize == fd.pieceSize
+                    && Arrays.equals(this.pieceHashes, fd.pieceHashes);
+        }
+        return this.name.equals(fd.name);
+    }
 
+    /**
+     * Restituisce un valore hashcode per l'oggetto, coerente con equals
+     * @return il valore hashcode
+     */
+    @Override
+    public int hashCode() {
+        int h = this.hash;
+        if (h == 0) {
+            h = (this.contentHash != null)
+                    ? Arrays.hashCode(this.contentHash)
+                    : 31 * this.name.hashCode()
+                    + (int) (this.size ^ (this.size >>> 32));
+            this.hash = h;
+        }
+        return h;
     }
 }
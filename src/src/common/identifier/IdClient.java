@@ -1,19 +1,39 @@
 package common.identifier;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.io.Serializable;
 import java.net.InetAddress;
 import java.net.UnknownHostException;
+import java.util.Arrays;
 
 /**
  * La classe IdClient realizza un identificatore di client, e racchiude
- * InetAddress e porta del client
+ * InetAddress e porta del client.
+ * Alla creazione l'IdClient calcola una chiave compatta (i byte
+ * dell'indirizzo e la porta) e il proprio hashcode, così i confronti
+ * non allocano memoria. Per gli indirizzi IPv4 la chiave è anche
+ * impacchettata in un long (vedi getChiave()).
  * @author Federico Della Bona - Alessandro Lensi
  */
 public class IdClient implements Serializable{
 
+    /* lo stesso della versione senza campi transient, così i client
+     * vecchi e nuovi si scambiano gli IdClient */
+    private static final long serialVersionUID = 5256198237765537889L;
+
+    /**
+     * Valore restituito da getChiave() e parseChiave() quando l'indirizzo
+     * non è IPv4 o il testo non è valido
+     */
+    public static final long CHIAVE_NON_VALIDA = -1L;
 
     private InetAddress ip;
     private int porta;
+    /* chiave compatta, ricalcolata dopo la deserializzazione */
+    private transient byte[] indirizzo;
+    private transient long chiave;
+    private transient int hash;
 
     /**
      * Crea un nuovo identificatore di client a partire da un
@@ -24,6 +44,7 @@ public class IdClient implements Serializable{
     public IdClient(InetAddress ip, int porta){
         this.ip = ip;
         this.porta = porta;
+        this.calcolaChiave();
     }
 
     /**
@@ -37,8 +58,166 @@ public class IdClient implements Serializable{
         String[] array = id.split(":", 2);
         this.ip = InetAddress.getByName(array[0]);
         this.porta = Integer.parseInt(array[1]);
+        this.calcolaChiave();
+    }
+
+    private void calcolaChiave() {
+        this.indirizzo = this.ip.getAddress();
+        if (this.indirizzo.length == 4) {
+            this.chiave = chiave(this.indirizzo, this.porta);
+            this.hash = (int) (this.chiave ^ (this.chiave >>> 32));
+        } else {
+            this.chiave = CHIAVE_NON_VALIDA;
+            this.hash = 71 * Arrays.hashCode(this.indirizzo) + this.porta;
+        }
+    }
+
+    private void readObject(ObjectInputStream in)
+            throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        this.calcolaChiave();
     }
-    
+
+    /**
+     * Impacchetta un indirizzo IPv4 e una porta in un long
+     * @param ip4 i 4 byte dell'indirizzo
+     * @param porta la porta
+     * @return la chiave
+     */
+    public static long chiave(byte[] ip4, int porta) {
+        long a = ((ip4[0] & 0xffL) << 24) | ((ip4[1] & 0xffL) << 16)
+                | ((ip4[2] & 0xffL) << 8) | (ip4[3] & 0xffL);
+        return (a << 16) | (porta & 0xffff);
+    }
+
+    /**
+     * Crea un IdClient a partire da una chiave IPv4 restituita da
+     * getChiave() o parseChiave()
+     * @param chiave la chiave
+     * @return l'IdClient corrispondente
+     */
+    public static IdClient daChiave(long chiave) {
+        byte[] ip4 = new byte[]{
+            (byte) (chiave >>> 40), (byte) (chiave >>> 32),
+            (byte) (chiave >>> 24), (byte) (chiave >>> 16)};
+        try {
+            return new IdClient(InetAddress.getByAddress(ip4),
+                    (int) (chiave & 0xffff));
+        } catch (UnknownHostException e) {
+            /* non succede: l'indirizzo ha la lunghezza giusta */
+            throw new IllegalArgumentException(e);
+        }
+    }
+
+    /**
+     * Legge un testo ASCII nel formato a.b.c.d:porta direttamente dai byte
+     * di un pacchetto e restituisce la chiave compatta corrispondente, senza
+     * allocare memoria e senza interrogare il DNS.
+     * @param buf i byte da leggere
+     * @param off la posizione del primo carattere
+     * @param len il numero di caratteri
+     * @return la chiave, oppure CHIAVE_NON_VALIDA se il testo non è un
+     * indirizzo IPv4 seguito da una porta valida
+     */
+    public static long parseChiave(byte[] buf, int off, int len) {
+        long indirizzo = 0;
+        int ottetti = 0;
+        int valore = -1;
+        int fine = off + len;
+        int i = off;
+        for (; i < fine; i++) {
+            int b = buf[i];
+            if (b >= '0' && b <= '9') {
+                valore = (valore < 0 ? 0 : valore * 10) + (b - '0');
+                if (valore > 255) {
+                    return CHIAVE_NON_VALIDA;
+                }
+            } else if ((b == '.' && ottetti < 3) || (b == ':' && ottetti == 3)) {
+                if (valore < 0) {
+                    return CHIAVE_NON_VALIDA;
+                }
+                indirizzo = (indirizzo << 8) | valore;
+                ottetti++;
+                valore = -1;
+                if (b == ':') {
+                    break;
+                }
+            } else {
+                return CHIAVE_NON_VALIDA;
+            }
+        }
+        if (ottetti != 4 || i == fine) {
+            return CHIAVE_NON_VALIDA;
+        }
+        int porta = -1;
+        for (i++; i < fine; i++) {
+            int b = buf[i];
+            if (b < '0' || b > '9') {
+                return CHIAVE_NON_VALIDA;
+            }
+            porta = (porta < 0 ? 0 : porta * 10) + (b - '0');
+            if (porta > 0xffff) {
+                return CHIAVE_NON_VALIDA;
+            }
+        }
+        if (porta < 0) {
+            return CHIAVE_NON_VALIDA;
+        }
+        return (indirizzo << 16) | porta;
+    }
+
+    /**
+     * Crea un IdClient a partire da un testo nel formato a.b.c.d:porta
+     * (oppure indirizzo IPv6 letterale seguito da :porta) letto dai byte di
+     * un pacchetto. A differenza del costruttore IdClient(String) non usa
+     * String.split e non interroga mai il DNS.
+     * @param buf i byte da leggere
+     * @param off la posizione del primo carattere
+     * @param len il numero di caratteri
+     * @return l'IdClient, oppure null se il testo non è valido
+     */
+    public static IdClient parse(byte[] buf, int off, int len) {
+        long k = parseChiave(buf, off, len);
+        if (k != CHIAVE_NON_VALIDA) {
+            return daChiave(k);
+        }
+        /* non è IPv4: accetto solo un indirizzo IPv6 letterale, che
+         * InetAddress.getByName risolve senza interrogare il DNS
+         */
+        int sep = -1;
+        for (int i = off + len - 1; i >= off; i--) {
+            if (buf[i] == ':') {
+                sep = i;
+                break;
+            }
+        }
+        if (sep <= off) {
+            return null;
+        }
+        boolean ipv6 = false;
+        for (int i = off; i < sep; i++) {
+            if (buf[i] == ':') {
+                ipv6 = true;
+            } else if (buf[i] < 0x21 || buf[i] > 0x7e) {
+                return null;
+            }
+        }
+        if (!ipv6) {
+            return null;
+        }
+        try {
+            String host = new String(buf, off, sep - off, "US-ASCII");
+            int porta = Integer.parseInt(
+                    new String(buf, sep + 1, off + len - sep - 1, "US-ASCII"));
+            if (porta < 0 || porta > 0xffff) {
+                return null;
+            }
+            return new IdClient(InetAddress.getByName(host), porta);
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
     /**
      * Restituisce l'InetAddress
      * @return l'InetAddress
@@ -55,6 +234,15 @@ public class IdClient implements Serializable{
         return this.porta;
     }
 
+    /**
+     * Restituisce la chiave compatta dell'IdClient: i 4 byte
+     * dell'indirizzo seguiti dai 2 byte della porta.
+     * @return la chiave, oppure CHIAVE_NON_VALIDA se l'indirizzo non è IPv4
+     */
+    public long getChiave() {
+        return this.chiave;
+    }
+
     /**
      * Restituisce una stringa che rappresenta l'IdClient
      * @return una stringa che rappresenta l'IdClient
@@ -74,9 +262,16 @@ public class IdClient implements Serializable{
      */
     @Override
     public boolean equals(Object o){
-        if (o.getClass() == IdClient.class)
-            return this.toString().equals(((IdClient)o).toString());
-        return false;
+        if (this == o)
+            return true;
+        if (o == null || o.getClass() != IdClient.class)
+            return false;
+        IdClient c = (IdClient) o;
+        if (this.hash != c.hash || this.porta != c.porta)
+            return false;
+        if (this.chiave != CHIAVE_NON_VALIDA)
+            return this.chiave == c.chiave;
+        return Arrays.equals(this.indirizzo, c.indirizzo);
     }
 
     /**
@@ -85,11 +280,8 @@ public class IdClient implements Serializable{
      */
     @Override
     public int hashCode() {
-        int hash = 7;
-        hash = 71 * hash + (this.ip != null ? this.ip.hashCode() : 0);
-        hash = 71 * hash + this.porta;
-        return hash;
+        return this.hash;
     }
 
-    
+
 }
@@ -0,0 +1,151 @@
+package common.keepalive;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import common.identifier.IdClient;
+
+/**
+ * La classe FrameKeepAlive definisce il formato binario dei pacchetti
+ * keepalive inviati dal KeepAliveSender al GestoreKeepAlive.
+ * Il frame ha dimensione fissa ed è così composto:
+ * <pre>
+ *  0  2 byte  magic ('L' 'K')
+ *  2  1 byte  versione
+ *  3  1 byte  famiglia dell'indirizzo (4 oppure 6)
+ *  4 16 byte  indirizzo (per IPv4 solo i primi 4 byte, gli altri sono 0)
+ * 20  2 byte  porta
+ * 22  8 byte  token di sessione
+ * 30  2 byte  upload in corso (solo dalla versione 2)
+ * </pre>
+ * Il GestoreKeepAlive accetta sia frame della versione 1 sia della 2.
+ * Il primo byte del vecchio formato (la lunghezza scritta da writeUTF)
+ * è sempre 0, quindi i due formati si distinguono dal primo byte.
+ * @author Federico Della Bona - Alessandro Lensi
+ */
+public final class FrameKeepAlive {
+
+    /** dimensione in byte del frame */
+    public static final int DIMENSIONE = 32;
+    /** versione del formato scritta da questa classe */
+    public static final int VERSIONE = 2;
+    private static final int DIMENSIONE_V1 = 30;
+    private static final byte MAGIC_0 = 'L';
+    private static final byte MAGIC_1 = 'K';
+    private static final int FAMIGLIA_IPV4 = 4;
+    private static final int FAMIGLIA_IPV6 = 6;
+
+    private FrameKeepAlive() {
+    }
+
+    /**
+     * Scrive nel buffer il frame keepalive per il client id
+     * @param buf il buffer, deve avere almeno DIMENSIONE byte liberi
+     * @param id il client che invia il keepalive
+     * @param token il token di sessione del client
+     * @param carico il numero di upload in corso del client
+     */
+    public static void scrivi(ByteBuffer buf, IdClient id, long token,
+            int carico) {
+        byte[] ip = id.getAddress().getAddress();
+        buf.put(MAGIC_0).put(MAGIC_1).put((byte) VERSIONE);
+        buf.put((byte) (ip.length == 4 ? FAMIGLIA_IPV4 : FAMIGLIA_IPV6));
+        buf.put(ip);
+        for (int i = ip.length; i < 16; i++) {
+            buf.put((byte) 0);
+        }
+        buf.putShort((short) id.getPort());
+        buf.putLong(token);
+        buf.putShort((short) Math.min(Math.max(carico, 0), 0xffff));
+    }
+
+    /**
+     * Controlla se i byte tra position e limit del buffer sono un frame
+     * keepalive valido. Il buffer non viene modificato.
+     * @param buf il buffer da controllare
+     * @return true se il buffer contiene un frame valido, false altrimenti
+     */
+    public static boolean isFrame(ByteBuffer buf) {
+        int p = buf.position();
+        if (buf.remaining() < DIMENSIONE_V1
+                || buf.get(p) != MAGIC_0 || buf.get(p + 1) != MAGIC_1) {
+            return false;
+        }
+        int versione = buf.get(p + 2);
+        if (!(versione == 1 && buf.remaining() == DIMENSIONE_V1)
+                && !(versione == 2 && buf.remaining() == DIMENSIONE)) {
+            return false;
+        }
+        int famiglia = buf.get(p + 3);
+        return famiglia == FAMIGLIA_IPV4 || famiglia == FAMIGLIA_IPV6;
+    }
+
+    /**
+     * Controlla se il buffer sembra contenere un frame binario piuttosto
+     * che il vecchio formato testuale (guarda solo il primo byte)
+     * @param buf il buffer da controllare
+     * @return true se il primo byte è quello del frame binario
+     */
+    public static boolean isBinario(ByteBuffer buf) {
+        return buf.hasRemaining() && buf.get(buf.position()) == MAGIC_0;
+    }
+
+    /**
+     * Restituisce la chiave compatta (vedi IdClient.getChiave()) del client
+     * contenuto in un frame valido, senza creare oggetti.
+     * @param buf il buffer che contiene il frame
+     * @return la chiave, oppure IdClient.CHIAVE_NON_VALIDA se l'indirizzo
+     * non è IPv4
+     */
+    public static long leggiChiave(ByteBuffer buf) {
+        int p = buf.position();
+        if (buf.get(p + 3) != FAMIGLIA_IPV4) {
+            return IdClient.CHIAVE_NON_VALIDA;
+        }
+        long ip = buf.getInt(p + 4) & 0xffffffffL;
+        return (ip << 16) | (buf.getShort(p + 20) & 0xffff);
+    }
+
+    /**
+     * Restituisce l'IdClient contenuto in un frame valido. Non interroga
+     * mai il DNS.
+     * @param buf il buffer che contiene il frame
+     * @return l'IdClient
+     */
+    public static IdClient leggiId(ByteBuffer buf) {
+        int p = buf.position();
+        byte[] ip = new byte[buf.get(p + 3) == FAMIGLIA_IPV4 ? 4 : 16];
+        for (int i = 0; i < ip.length; i++) {
+            ip[i] = buf.get(p + 4 + i);
+        }
+        try {
+            return new IdClient(InetAddress.getByAddress(ip),
+                    buf.getShort(p + 20) & 0xffff);
+        } catch (UnknownHostException e) {
+            /* non succede: l'indirizzo ha la lunghezza giusta */
+            throw new IllegalArgumentException(e);
+        }
+    }
+
+    /**
+     * Restituisce il token di sessione contenuto in un frame valido
+     * @param buf il buffer che contiene il frame
+     * @return il token
+     */
+    public static long leggiToken(ByteBuffer buf) {
+        return buf.getLong(buf.position() + 22);
+    }
+
+    /**
+     * Restituisce il numero di upload in corso contenuto in un frame valido
+     * @param buf il buffer che contiene il frame
+     * @return gli upload in corso, -1 se il frame è della versione 1
+     */
+    public static int leggiCarico(ByteBuffer buf) {
+        int p = buf.position();
+        if (buf.get(p + 2) < 2) {
+            return -1;
+        }
+        return buf.getShort(p + 30) & 0xffff;
+    }
+}
@@ -0,0 +1,164 @@
+package common.metriche;
+
+/**
+ * Scrive metriche nel formato testuale di Prometheus (versione 0.0.4):
+ * per ogni famiglia le righe # HELP e # TYPE, seguite da un campione per
+ * riga, nella forma nome{etichetta="valore",...} numero.
+ * @author Federico Della Bona - Alessandro Lensi
+ */
+public class FormatoPrometheus {
+
+    /** il Content-Type delle metriche scritte */
+    public static final String TIPO_CONTENUTO =
+            "text/plain; version=0.0.4; charset=utf-8";
+    private final StringBuilder sb;
+
+    /**
+     * Crea un testo vuoto
+     */
+    public FormatoPrometheus() {
+        this.sb = new StringBuilder(4096);
+    }
+
+    /**
+     * Inizia una famiglia di metriche
+     * @param nome il nome della famiglia
+     * @param tipo counter, gauge o histogram
+     * @param aiuto la descrizione della famiglia
+     */
+    public void famiglia(String nome, String tipo, String aiuto) {
+        this.sb.append("# HELP ").append(nome).append(' ');
+        for (int i = 0; i < aiuto.length(); i++) {
+            char c = aiuto.charAt(i);
+            if (c == '\\') {
+                this.sb.append("\\\\");
+            } else if (c == '\n') {
+                this.sb.append("\\n");
+            } else {
+                this.sb.append(c);
+            }
+        }
+        this.sb.append('\n');
+        this.sb.append("# TYPE ").append(nome).append(' ').append(tipo)
+                .append('\n');
+    }
+
+    /**
+     * Scrive un campione senza etichette
+     * @param nome il nome del campione
+     * @param valore il valore
+     */
+    public void campione(String nome, long valore) {
+        campione(nome, null, valore);
+    }
+
+    /**
+     * Scrive un campione senza etichette
+     * @param nome il nome del campione
+     * @param valore il valore
+     */
+    public void campione(String nome, double valore) {
+        campione(nome, null, valore);
+    }
+
+    /**
+     * Scrive un campione
+     * @param nome il nome del campione
+     * @param etichette le etichette, create con etichetta(), o null
+     * @param valore il valore
+     */
+    public void campione(String nome, String etichette, long valore) {
+        inizio(nome, etichette).append(valore).append('\n');
+    }
+
+    /**
+     * Scrive un campione
+     * @param nome il nome del campione
+     * @param etichette le etichette, create con etichetta(), o null
+     * @param valore il valore
+     */
+    public void campione(String nome, String etichette, double valore) {
+        StringBuilder s = inizio(nome, etichette);
+        if (Double.isNaN(valore)) {
+            s.append("NaN");
+        } else if (Double.isInfinite(valore)) {
+            s.append((valore > 0) ? "+Inf" : "-Inf");
+        } else {
+            s.append(valore);
+        }
+        s.append('\n');
+    }
+
+    private StringBuilder inizio(String nome, String etichette) {
+        this.sb.append(nome);
+        if (etichette != null) {
+            this.sb.append('{').append(etichette).append('}');
+        }
+        return this.sb.append(' ');
+    }
+
+    /**
+     * Scrive un contatore senza etichette, con la sua famiglia
+     * @param nome il nome, che per convenzione finisce con _total
+     * @param aiuto la descrizione
+     * @param valore il valore
+     */
+    public void contatore(String nome, String aiuto, long valore) {
+        famiglia(nome, "counter", aiuto);
+        campione(nome, valore);
+    }
+
+    /**
+     * Scrive un indicatore senza etichette, con la sua famiglia
+     * @param nome il nome
+     * @param aiuto la descrizione
+     * @param valore il valore
+     */
+    public void indicatore(String nome, String aiuto, double valore) {
+        famiglia(nome, "gauge", aiuto);
+        campione(nome, valore);
+    }
+
+    /**
+     * Scrive un indicatore intero senza etichette, con la sua famiglia
+     * @param nome il nome
+     * @param aiuto la descrizione
+     * @param valore il valore
+     */
+    public void indicatore(String nome, String aiuto, long valore) {
+        famiglia(nome, "gauge", aiuto);
+        campione(nome, valore);
+    }
+
+    /**
+     * Crea un'etichetta nome="valore", con il valore protetto come
+     * richiesto dal formato. Più etichette vanno separate da virgole.
+     * @param nome il nome dell'etichetta
+     * @param valore il valore dell'etichetta
+     * @return l'etichetta
+     */
+    public static String etichetta(String nome, String valore) {
+        StringBuilder s = new StringBuilder(nome.length() + valore.length() + 3);
+        s.append(nome).append("=\"");
+        for (int i = 0; i < valore.length(); i++) {
+            char c = valore.charAt(i);
+            if (c == '\\' || c == '"') {
+                s.append('\\').append(c);
+            } else if (c == '\n') {
+                s.append("\\n");
+            } else {
+                s.append(c);
+            }
+        }
+        return s.append('"').toString();
+    }
+
+    /**
+     * Restituisce il testo scritto
+     * @return il testo
+     */
+    @Override
+    public String toString() {
+        return this.sb.toString();
+    }
+}
@@ -0,0 +1,16 @@
+package common.metriche;
+
+/**
+ * Una sorgente di metriche esportate da un ServizioMetriche.
+ * @author Federico Della Bona - Alessandro Lensi
+ */
+public interface Metriche {
+
+    /**
+     * Scrive le metriche. Viene invocata dal thread del ServizioMetriche
+     * ad ogni richiesta, quindi non deve prendere i lock usati dalle
+     * operazioni del programma.
+     * @param out dove scrivere le metriche
+     */
+    public void scrivi(FormatoPrometheus out);
+}
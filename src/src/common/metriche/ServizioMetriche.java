@@ -0,0 +1,132 @@
+package common.metriche;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Un piccolo server HTTP che esporta le metriche del programma nel formato
+ * di Prometheus all'indirizzo http://host:porta/metrics.
+ * Usa il server HTTP incluso nel JDK. Le richieste sono servite da un
+ * unico thread demone, quindi più scrape contemporanei non aggiungono
+ * carico: aspettano il loro turno. Le metriche sono lette dalle sorgenti
+ * registrate con aggiungi() ad ogni richiesta.
+ * @author Federico Della Bona - Alessandro Lensi
+ */
+public class ServizioMetriche {
+
+    /** il percorso delle metriche */
+    public static final String PERCORSO = "/metrics";
+    private final HttpServer http;
+    private final ExecutorService esecutore;
+    private final CopyOnWriteArrayList<Metriche> sorgenti;
+
+    static {
+        /* il server HTTP del JDK scrive intestazioni e corpo separati: senza
+         * TCP_NODELAY ogni risposta aspetta l'ACK ritardato del client
+         * (circa 40 ms). Va impostato prima di creare il primo server. */
+        if (System.getProperty("sun.net.httpserver.nodelay") == null) {
+            System.setProperty("sun.net.httpserver.nodelay", "true");
+        }
+    }
+
+    /**
+     * Crea il servizio, già in ascolto ma non ancora avviato
+     * @param indirizzo l'indirizzo e la porta su cui ascoltare, porta 0
+     * per una porta libera qualsiasi
+     * @throws IOException se non si riesce ad aprire la porta
+     */
+    public ServizioMetriche(InetSocketAddress indirizzo) throws IOException {
+        this.sorgenti = new CopyOnWriteArrayList<Metriche>();
+        this.http = HttpServer.create(indirizzo, 0);
+        this.esecutore = Executors.newSingleThreadExecutor(new ThreadFactory() {
+
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "Metriche");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        this.http.setExecutor(this.esecutore);
+        this.http.createContext(PERCORSO, new HttpHandler() {
+
+            public void handle(HttpExchange scambio) throws IOException {
+                rispondi(scambio);
+            }
+        });
+    }
+
+    /**
+     * Aggiunge una sorgente di metriche
+     * @param m la sorgente
+     */
+    public void aggiungi(Metriche m) {
+        this.sorgenti.add(m);
+    }
+
+    /**
+     * Restituisce l'indirizzo su cui il servizio è in ascolto
+     * @return l'indirizzo, con la porta effettiva
+     */
+    public InetSocketAddress getIndirizzo() {
+        return this.http.getAddress();
+    }
+
+    /**
+     * Avvia il servizio
+     */
+    public void avvia() {
+        this.http.start();
+    }
+
+    /**
+     * Termina il servizio, senza aspettare le richieste in corso
+     */
+    public void ferma() {
+        this.http.stop(0);
+        this.esecutore.shutdownNow();
+    }
+
+    /* scrive le metriche di tutte le sorgenti */
+    private void rispondi(HttpExchange scambio) throws IOException {
+        try {
+            String metodo = scambio.getRequestMethod();
+            boolean head = metodo.equalsIgnoreCase("HEAD");
+            if (!head && !metodo.equalsIgnoreCase("GET")) {
+                scambio.getResponseHeaders().set("Allow", "GET, HEAD");
+                scambio.sendResponseHeaders(405, -1);
+                return;
+            }
+            FormatoPrometheus out = new FormatoPrometheus();
+            for (Metriche m : this.sorgenti) {
+                try {
+                    m.scrivi(out);
+                } catch (RuntimeException e) {
+                    /* una sorgente rotta non nasconde le altre */
+                    System.out.println("METRICHE: errore leggendo "
+                            + m.getClass().getSimpleName() + ": " + e);
+                }
+            }
+            byte[] corpo = out.toString().getBytes("UTF-8");
+            scambio.getResponseHeaders().set("Content-Type",
+                    FormatoPrometheus.TIPO_CONTENUTO);
+            if (head) {
+                scambio.sendResponseHeaders(200, -1);
+                return;
+            }
+            scambio.sendResponseHeaders(200, corpo.length);
+            OutputStream os = scambio.getResponseBody();
+            os.write(corpo);
+            os.close();
+        } finally {
+            scambio.close();
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package common.metriche;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Un contatore che misura anche quanto cresce al secondo, ad esempio i
+ * byte trasferiti o i pacchetti ricevuti.
+ * L'incremento non prende lock e non alloca memoria; la velocità viene
+ * calcolata solo quando è letta, come media dall'ultima lettura fatta
+ * almeno un secondo prima. Con un solo lettore periodico (lo scrape di
+ * Prometheus) è quindi la media sull'intervallo tra due letture.
+ * @author Federico Della Bona - Alessandro Lensi
+ */
+public class Velocita {
+
+    /* intervallo minimo (ns) su cui calcolare la velocità */
+    private static final long INTERVALLO_MINIMO = 1000000000L;
+    private final LongAdder totale;
+    /* protetti dal lock dell'oggetto, usato solo da chi legge */
+    private long tempoLetto;
+    private long totaleLetto;
+    private double perSecondo;
+
+    /**
+     * Crea un contatore a 0
+     */
+    public Velocita() {
+        this.totale = new LongAdder();
+        this.tempoLetto = System.nanoTime();
+        this.totaleLetto = 0;
+        this.perSecondo = 0;
+    }
+
+    /**
+     * Incrementa il contatore di 1
+     */
+    public void incrementa() {
+        this.totale.increment();
+    }
+
+    /**
+     * Incrementa il contatore di n
+     * @param n l'incremento
+     */
+    public void aggiungi(long n) {
+        this.totale.add(n);
+    }
+
+    /**
+     * Restituisce il valore del contatore
+     * @return il totale degli incrementi
+     */
+    public long getTotale() {
+        return this.totale.sum();
+    }
+
+    /**
+     * Restituisce la crescita media al secondo dall'ultima lettura
+     * @return la velocità
+     */
+    public synchronized double getPerSecondo() {
+        long ora = System.nanoTime();
+        long trascorso = ora - this.tempoLetto;
+        if (trascorso >= INTERVALLO_MINIMO) {
+            long t = this.totale.sum();
+            this.perSecondo = (t - this.totaleLetto) * 1e9 / trascorso;
+            this.totaleLetto = t;
+            this.tempoLetto = ora;
+        }
+        return this.perSecondo;
+    }
+}
@@ -1,6 +1,7 @@
 package common.multicast;
 
 import server.data.DataServerInterface;
+import server.notifiche.GestoreNotifiche;
 import java.io.IOException;
 import java.net.InetAddress;
 import common.identifier.IdClient;
@@ -14,6 +15,7 @@ import common.identifier.IdClient;
 public class GestoreMulticastServer extends GestoreMulticast{
 
     private DataServerInterface data;
+    private GestoreNotifiche notifiche;
 
 
     /**
@@ -21,22 +23,27 @@ public class GestoreMulticastServer extends GestoreMulticast{
      * @param group indirizzo del gruppo a cui collegarsi
      * @param port porta su cui mettersi in ascolto
      * @param data DataServer da aggiornare
+     * @param notifiche GestoreNotifiche da cui rimuovere la callback
      * @throws IOException se c'è un errore nella creazione del socket
      */
     public GestoreMulticastServer(InetAddress group, int port,
-            DataServerInterface data) throws IOException{
+            DataServerInterface data, GestoreNotifiche notifiche)
+            throws IOException{
         super(group, port);
         this.data = data;
+        this.notifiche = notifiche;
     }
 
     /**
-     * Il metodo doSomething elimina il client c dal DataServer
+     * Il metodo doSomething elimina il client c dal DataServer e smette
+     * di inviargli notifiche
      * @param c client da eliminare
      */
     @Override
     public void doSomething(IdClient c) {
         System.out.println("GESTORE MULTICAST SERVER: "
                 + "rimuovo il client " + c.toString());
+        this.notifiche.rimuovi(c);
         this.data.deleteClient(c);
     }
 
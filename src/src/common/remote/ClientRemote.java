@@ -26,6 +26,17 @@ public interface ClientRemote extends Remote {
      */
     void removeClient(IdClient c) throws RemoteException;
 
+    /**
+     * Applica alla lista dei client attivi le variazioni raccolte dal
+     * server tra due versioni della lista. Il client deve applicare il
+     * delta per intero o per niente.
+     * @param d Le variazioni da applicare
+     * @return false se la versione locale non è quella a cui si applica
+     * il delta, in questo caso il server invierà l'intera lista
+     * @throws RemoteException Non la lancia
+     */
+    boolean applyDelta(DeltaClient d) throws RemoteException;
+
     /**
      * Metodo remoto con il quale il server notifica al client
      * la propria imminente terminazione
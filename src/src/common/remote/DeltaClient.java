@@ -0,0 +1,101 @@
+package common.remote;
+
+import java.io.Serializable;
+import java.util.Collections;
+import java.util.List;
+import common.identifier.IdClient;
+
+/**
+ * Contenitore, serializzabile, delle variazioni della lista dei client
+ * attivi tra due versioni della lista mantenuta dal server.
+ * Se il delta è completo la lista dei client aggiunti contiene tutti i
+ * client attivi alla versione getVersioneA(), e va a sostituire la lista
+ * locale del client.
+ * @author Federico Della Bona - Alessandro Lensi
+ */
+public class DeltaClient implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+    private long versioneDa;
+    private long versioneA;
+    private List<IdClient> aggiunti;
+    private List<IdClient> rimossi;
+    private boolean completo;
+
+    /**
+     * Costruisce un delta
+     * @param versioneDa la versione a cui si applica il delta
+     * @param versioneA la versione della lista dopo aver applicato il delta
+     * @param aggiunti i client entrati nel sistema
+     * @param rimossi i client usciti dal sistema
+     */
+    public DeltaClient(long versioneDa, long versioneA,
+            List<IdClient> aggiunti, List<IdClient> rimossi) {
+        this.versioneDa = versioneDa;
+        this.versioneA = versioneA;
+        this.aggiunti = aggiunti;
+        this.rimossi = rimossi;
+        this.completo = false;
+    }
+
+    /**
+     * Costruisce un delta completo, cioè l'intera lista dei client attivi
+     * @param versione la versione della lista
+     * @param lista tutti i client attivi
+     * @return il delta completo
+     */
+    public static DeltaClient completo(long versione, List<IdClient> lista) {
+        DeltaClient d = new DeltaClient(versione, versione, lista,
+                Collections.<IdClient>emptyList());
+        d.completo = true;
+        return d;
+    }
+
+    /**
+     * Restituisce la versione a cui si applica il delta
+     * @return la versione di partenza
+     */
+    public long getVersioneDa() {
+        return this.versioneDa;
+    }
+
+    /**
+     * Restituisce la versione della lista dopo aver applicato il delta
+     * @return la versione di arrivo
+     */
+    public long getVersioneA() {
+        return this.versioneA;
+    }
+
+    /**
+     * Restituisce i client entrati nel sistema (tutti i client attivi se
+     * il delta è completo)
+     * @return la lista dei client aggiunti
+     */
+    public List<IdClient> getAggiunti() {
+        return this.aggiunti;
+    }
+
+    /**
+     * Restituisce i client usciti dal sistema
+     * @return la lista dei client rimossi
+     */
+    public List<IdClient> getRimossi() {
+        return this.rimossi;
+    }
+
+    /**
+     * Controlla se il delta contiene l'intera lista dei client attivi
+     * @return true se il delta è completo, false altrimenti
+     */
+    public boolean isCompleto() {
+        return this.completo;
+    }
+
+    @Override
+    public String toString() {
+        return (this.completo ? "completo " : "")
+                + this.versioneDa + "->" + this.versioneA
+                + " +" + this.aggiunti + " -" + this.rimossi;
+    }
+}
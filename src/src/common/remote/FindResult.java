@@ -0,0 +1,66 @@
+package common.remote;
+
+import java.io.Serializable;
+import java.util.List;
+import common.identifier.FileDescriptor;
+
+/**
+ * Contenitore di informazioni, serializzabile, che contiene una pagina dei
+ * risultati di una find: i file trovati, dal più al meno condiviso, con il
+ * numero di seeder di ognuno, e il numero totale di risultati.
+ * @author Federico Della Bona - Alessandro Lensi
+ */
+public class FindResult implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+    private List<FileDescriptor> files;
+    private int[] seeders;
+    private int totale;
+
+    /**
+     * Costruisce una pagina di risultati.
+     * @param files I file trovati, con il nome cercato.
+     * @param seeders Il numero di seeder di ogni file.
+     * @param totale Il numero di risultati di tutte le pagine.
+     */
+    public FindResult(List<FileDescriptor> files, int[] seeders, int totale) {
+
+        this.files = files;
+        this.seeders = seeders;
+        this.totale = totale;
+    }
+
+    /**
+     * Metodo per estrarre il numero di file della pagina.
+     * @return Il numero di file della pagina.
+     */
+    public int size() {
+        return this.files.size();
+    }
+
+    /**
+     * Metodo per estrarre l'i-esimo file della pagina.
+     * @param i L'indice del file nella pagina.
+     * @return Il FileDescriptor del file.
+     */
+    public FileDescriptor getFileDescriptor(int i) {
+        return this.files.get(i);
+    }
+
+    /**
+     * Metodo per estrarre il numero di seeder dell'i-esimo file.
+     * @param i L'indice del file nella pagina.
+     * @return Il numero di seeder del file.
+     */
+    public int getSeeders(int i) {
+        return this.seeders[i];
+    }
+
+    /**
+     * Metodo per estrarre il numero totale di risultati.
+     * @return Il numero di risultati di tutte le pagine.
+     */
+    public int getTotale() {
+        return this.totale;
+    }
+}
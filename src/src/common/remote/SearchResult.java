@@ -1,17 +1,30 @@
 package common.remote;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.io.Serializable;
+import java.util.Collections;
+import java.util.List;
 import common.identifier.FileDescriptor;
 import common.identifier.IdClient;
 
 /**
  * Contenitore di informazioni, serializzabile, che contiene un file
- * descriptor, e un seeder associato.
+ * descriptor, e uno o più seeder associati, il migliore per primo.
+ * Il migliore è anche nel campo seeder della versione con un solo seeder,
+ * così i client vecchi continuano a leggere i risultati del server nuovo
+ * e viceversa.
  * @author Federico Della Bona - Alessandro Lensi
  */
 public class SearchResult implements Serializable{
+
+    /* lo stesso della versione con un solo seeder */
+    private static final long serialVersionUID = -8809758302122028436L;
     private FileDescriptor file;
+    /* il migliore dei seeders, letto dai client vecchi */
     private IdClient seeder;
+    /* null se il risultato viene da un server vecchio */
+    private List<IdClient> seeders;
 
     /**
      * Costruisce un nuovo risultato di ricerca.
@@ -20,8 +33,28 @@ public class SearchResult implements Serializable{
      */
     public SearchResult(FileDescriptor file, IdClient seeder) {
 
+        this(file, Collections.singletonList(seeder));
+    }
+
+    /**
+     * Costruisce un nuovo risultato di ricerca con più seeder.
+     * @param file Il FileDescriptor del file.
+     * @param seeders I seeder di quel file, il migliore per primo. La
+     * lista non deve essere vuota.
+     */
+    public SearchResult(FileDescriptor file, List<IdClient> seeders) {
+
         this.file = file;
-        this.seeder = seeder;
+        this.seeder = seeders.get(0);
+        this.seeders = seeders;
+    }
+
+    private void readObject(ObjectInputStream in)
+            throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        if (this.seeders == null) {
+            this.seeders = Collections.singletonList(this.seeder);
+        }
     }
 
     /**
@@ -34,12 +67,18 @@ public class SearchResult implements Serializable{
 
     /**
      * Metodo per estrarre il seeder
-     * @return L'IdClient di un seeder del file.
+     * @return L'IdClient del miglior seeder del file.
      */
     public IdClient getSeeder(){
         return this.seeder;
     }
 
-    
+    /**
+     * Metodo per estrarre tutti i seeder
+     * @return La lista dei seeder del file, il migliore per primo.
+     */
+    public List<IdClient> getSeeders(){
+        return this.seeders;
+    }
 
 }
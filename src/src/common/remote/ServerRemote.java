@@ -2,6 +2,7 @@ package common.remote;
 
 import java.rmi.Remote;
 import java.rmi.RemoteException;
+import java.util.BitSet;
 import java.util.List;
 import common.identifier.FileDescriptor;
 import common.identifier.IdClient;
@@ -23,17 +24,46 @@ public interface ServerRemote extends Remote {
      */
     public List<IdClient> register(IdClient client, ClientRemote callback) throws RemoteException;
 
+    /**
+     * Come register(client, callback), ma comunica al server anche il token
+     * di sessione contenuto nei keepalive del client: il server accetta
+     * solo i keepalive con questo token.
+     * @param client IdClient del client che vuole registrarsi
+     * @param callback Callback remota del client che vuole registrarsi
+     * @param token token di sessione dei keepalive, diverso da 0
+     * @return la lista di IdClient registrati in quel momento nel server
+     * @throws ClientAlreadyRegisteredException Se il client risulta
+     * già presente nella lista dei client registrati.
+     */
+    public List<IdClient> register(IdClient client, ClientRemote callback,
+            long token) throws RemoteException;
+
     /**
      * Nel caso in cui il file non esista lo inserisce tra quelli pubblicati
-     * con il client che lo ha pubblicato come primo seeder
+     * con il client che lo ha pubblicato come primo seeder.
+     * Se è già stato pubblicato un file con gli stessi hash, anche con
+     * un altro nome, il client diventa un suo seeder.
      * @param client Il client che vuole pubblicare il file
      * @param file Il file da pubblicare
      * @return Restituisce false se è già stato pubblicato un file
-     * con lo stesso nome, true altrimenti
+     * con lo stesso nome e senza hash, se il client era già seeder o
+     * leacher del file, o se il nome inizia con FileDescriptor.KEY_PREFIX,
+     * true altrimenti
      * @throws RemoteException Nel caso in cui il client risulti non registrato
      */
     public boolean publish(IdClient client, FileDescriptor file) throws RemoteException;
 
+    /**
+     * Esegue la publish di tutti i file della lista con una sola chiamata.
+     * @param client Il client che vuole pubblicare i file
+     * @param files I file da pubblicare
+     * @return L'esito di ogni file: il bit i-esimo vale true se la publish
+     * dell'i-esimo file avrebbe restituito true
+     * @throws RemoteException Nel caso in cui il client risulti non registrato
+     */
+    public BitSet publishAll(IdClient client, List<FileDescriptor> files)
+            throws RemoteException;
+
     /**
      * Se esiste un seeder per fileName, il server inserisce il client
      * che ha fatto la richiesta tra i leachers del file.
@@ -46,6 +76,39 @@ public interface ServerRemote extends Remote {
      */
     public SearchResult search(IdClient client, String fileName) throws RemoteException;
 
+    /**
+     * Come search, ma restituisce fino a k seeder del file ordinati dal
+     * meno al più carico (upload dichiarati, download assegnati e
+     * fallimenti recenti), così il client può passare al seeder successivo
+     * senza chiedere di nuovo al server.
+     * @param client Il client che ha fatto la richiesta
+     * @param fileName Il file da cercare
+     * @param k Il numero massimo di seeder da restituire
+     * @return Restituisce null se il file non è pubblicato o non ha
+     * seeder, altrimenti il descrittore del file e i seeder
+     * @throws RemoteException Nel caso in cui il client risulti non registrato
+     */
+    public SearchResult searchSeeders(IdClient client, String fileName, int k)
+            throws RemoteException;
+
+    /**
+     * Cerca i file pubblicati il cui nome contiene query, senza distinguere
+     * maiuscole e minuscole (se query ha meno di tre caratteri, i file il
+     * cui nome inizia con query). I risultati sono ordinati per numero di
+     * seeder, dal più alto, e vengono restituiti una pagina alla volta.
+     * A differenza di search il client non diventa leacher dei file
+     * trovati: per scaricarne uno deve fare la search del suo nome.
+     * @param client Il client che ha fatto la richiesta
+     * @param query La stringa da cercare nei nomi dei file
+     * @param offset Il numero di risultati da saltare
+     * @param limit Il numero massimo di risultati da restituire, il server
+     * ne restituisce al più Configuration.SRV_FIND_MAX
+     * @return La pagina dei risultati, con il numero totale di risultati
+     * @throws RemoteException Nel caso in cui il client risulti non registrato
+     */
+    public FindResult find(IdClient client, String query, int offset, int limit)
+            throws RemoteException;
+
     /**
      * Segnala al server che il client ha finito di scaricare il file.
      * Il server lo sposta dalla lista dei leachers a quella dei seeders.
@@ -56,6 +119,30 @@ public interface ServerRemote extends Remote {
      */
     public void completed(IdClient client, FileDescriptor file) throws RemoteException;
 
+    /**
+     * Come completed, indicando anche il seeder da cui il client ha
+     * scaricato il file
+     * @param client Il Client che ha fatto la richiesta
+     * @param file Il file completato
+     * @param seeder Il seeder da cui è stato scaricato il file
+     * @throws RemoteException Nel caso in cui ci siano problemi con il client
+     * e/o con il file
+     */
+    public void completed(IdClient client, FileDescriptor file, IdClient seeder)
+            throws RemoteException;
+
+    /**
+     * Segnala al server che il trasferimento di un file dal seeder è
+     * fallito. Il client resta leacher del file e può provare con un
+     * altro seeder.
+     * @param client Il client che ha fatto la richiesta
+     * @param filename Il file che si stava scaricando
+     * @param seeder Il seeder da cui il trasferimento è fallito
+     * @throws RemoteException Nessuna eccezione viene sollevata
+     */
+    public void seederFailed(IdClient client, String filename, IdClient seeder)
+            throws RemoteException;
+
     /**
      * Segnala al server che il client ha avuto problemi nello scaricare
      * il file così lo può rimuovere dalla lista dei leachers
@@ -1,27 +1,41 @@
 package server;
 
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.rmi.registry.Registry;
 import java.rmi.registry.LocateRegistry;
 import java.rmi.RemoteException;
 import java.rmi.server.UnicastRemoteObject;
+import java.util.BitSet;
 import java.util.List;
 import java.net.InetAddress;
+import java.net.InetSocketAddress;
 import java.net.UnknownHostException;
 import java.util.Iterator;
+import javax.management.JMException;
 import java.io.BufferedReader;
 import java.io.InputStreamReader;
+import java.io.PrintStream;
 /*----------------*/
 import common.Configuration;
+import common.metriche.ServizioMetriche;
 import server.keepalive.GestoreKeepAlive;
+import server.notifiche.GestoreNotifiche;
 import server.data.DataServerInterface;
-import server.data.DataServer;
+import server.data.ConcurrentDataServer;
+import server.data.DataServerPersistente;
 import server.data.exception.ClientNotActiveException;
+import server.data.util.Istantanea;
+import server.statistiche.MetricheServer;
+import server.statistiche.StatisticheServer;
 import common.identifier.FileDescriptor;
 import common.identifier.IdClient;
 import common.remote.ClientRemote;
 import common.remote.ServerRemote;
 import common.remote.exception.ClientAlreadyRegisteredException;
+import common.remote.FindResult;
 import common.remote.SearchResult;
 import common.multicast.GestoreMulticastServer;
 
@@ -34,10 +48,16 @@ import common.multicast.GestoreMulticastServer;
 public class Server implements ServerRemote {
 
     private final DataServerInterface data;
+    /* null se il database non è persistente */
+    private final DataServerPersistente persistente;
+    private final GestoreNotifiche notifiche;
+    private final StatisticheServer statistiche;
     private GestoreKeepAlive keepAlive;
     private Thread keepAliveThread;
     private GestoreMulticastServer gestoreMulticast;
     private Thread gestoreMulticastThread;
+    /* null se le metriche non sono esportate */
+    private ServizioMetriche metriche;
     int portaUDP;
     InetAddress gruppoMulticast;
 
@@ -49,19 +69,77 @@ public class Server implements ServerRemote {
      * pacchetti multicast
      */
     public Server(int portaUDP, InetAddress gruppoMulticast) {
-        this.data = new DataServer();
+        this(portaUDP, gruppoMulticast, null);
+    }
+
+    /**
+     * Costruisce un nuovo oggetto Server, con il database persistente se
+     * è indicata una directory. Prima di avviarlo bisogna chiamare
+     * ripristina().
+     * @param portaUDP la porta UDP su cui attendere pacchetti keepalive
+     * @param gruppoMulticast il gruppo multicast su cui ricevere
+     * pacchetti multicast
+     * @param persistenza la directory dove salvare il database, null per
+     * non salvarlo
+     */
+    public Server(int portaUDP, InetAddress gruppoMulticast,
+            File persistenza) {
+        this.statistiche = new StatisticheServer();
+        if (persistenza == null) {
+            this.persistente = null;
+            this.data = new ConcurrentDataServer(this.statistiche);
+        } else {
+            this.persistente = new DataServerPersistente(
+                    new ConcurrentDataServer(this.statistiche), persistenza);
+            this.data = this.persistente;
+        }
+        this.notifiche = new GestoreNotifiche(this.data);
         this.portaUDP = portaUDP;
         this.gruppoMulticast = gruppoMulticast;
-        this.keepAlive = new GestoreKeepAlive(data, portaUDP);
+        this.keepAlive = new GestoreKeepAlive(data, notifiche, portaUDP);
         this.keepAliveThread = null;
         this.gestoreMulticast = null;
         this.gestoreMulticastThread = null;
+        this.metriche = null;
+    }
+
+    /**
+     * Se il database è persistente lo ricostruisce dai file salvati. I
+     * client ripristinati hanno Configuration.SRV_RECOVERY_GRACE
+     * millisecondi per riprendere ad inviare i keepalive, senza doversi
+     * registrare di nuovo.
+     * @return false se il database non può essere ripristinato
+     */
+    public boolean ripristina() {
+        if (this.persistente == null) {
+            return true;
+        }
+        List<IdClient> ripristinati;
+        try {
+            ripristinati = this.persistente.ripristina();
+        } catch (IOException e) {
+            System.out.println("SERVER, impossibile ripristinare "
+                    + "il database:\n" + e);
+            return false;
+        }
+        for (IdClient c : ripristinati) {
+            keepAlive.startTimer(c, Configuration.SRV_RECOVERY_GRACE);
+            this.notifiche.registra(c, this.data.getCallback(c));
+        }
+        return true;
     }
 
     /**
      * Metodo che si occupa di avviare l'esecuzione di tutti i moduli del server
      */
     public void startServer() {
+        try {
+            statistiche.registraMBean(Configuration.SRV_SERVICE_NAME, data);
+        } catch (JMException e) {
+            System.out.println("SERVER, statistiche non pubblicate via JMX: "
+                    + e);
+        }
+        avviaMetriche();
         System.out.println(
                 "SERVER,"
                 + " avvio Gestore Multicast");
@@ -69,7 +147,8 @@ public class Server implements ServerRemote {
             gestoreMulticast = new GestoreMulticastServer(
                     gruppoMulticast,
                     Configuration.GM_DEFAULT_MULTICAST_PORT,
-                    data);
+                    data,
+                    notifiche);
 
         } catch (IOException ex) {
             System.out.println(
@@ -101,26 +180,95 @@ public class Server implements ServerRemote {
                 + keepAliveThread.getName());
     }
 
+    /* esporta le metriche via HTTP, se non sono disattivate */
+    private void avviaMetriche() {
+        if (Configuration.SRV_METRICS_PORT < 0) {
+            return;
+        }
+        try {
+            metriche = new ServizioMetriche(new InetSocketAddress(
+                    Configuration.MET_ADDRESS,
+                    Configuration.SRV_METRICS_PORT));
+        } catch (IOException e) {
+            System.out.println("SERVER, metriche non esportate: " + e);
+            return;
+        }
+        metriche.aggiungi(new MetricheServer(data, statistiche, keepAlive,
+                notifiche));
+        metriche.avvia();
+        System.out.println("SERVER, metriche su http://"
+                + Configuration.MET_ADDRESS + ":"
+                + metriche.getIndirizzo().getPort()
+                + ServizioMetriche.PERCORSO);
+    }
+
+    /**
+     * Stampa il database, su file o a video. Il database viene prima
+     * copiato (le richieste dei client sono bloccate solo durante la
+     * copia) e poi stampato dalla copia.
+     * @param file il file su cui stampare, null per stampare a video
+     * @throws IOException se il file non può essere scritto
+     */
+    public void dump(File file) throws IOException {
+        Istantanea ist = data.fotografa();
+        if (file == null) {
+            ist.stampa(System.out);
+            return;
+        }
+        PrintStream out = new PrintStream(
+                new BufferedOutputStream(new FileOutputStream(file)));
+        try {
+            ist.stampa(out);
+        } finally {
+            out.close();
+        }
+        if (out.checkError()) {
+            throw new IOException("errore di scrittura su " + file);
+        }
+        System.out.println("SERVER, database (" + ist.size()
+                + " client) scritto su " + file);
+    }
+
+    /**
+     * Restituisce le statistiche delle operazioni remote del server
+     * @return le statistiche
+     */
+    public StatisticheServer getStatistiche() {
+        return this.statistiche;
+    }
+
     /**
      * Metodo che interrompe l'esecuzione del server e di tutti i suoi moduli.
      */
     public void stopServer() throws InterruptedException {
+        statistiche.deregistraMBean();
+        if (metriche != null) {
+            metriche.ferma();
+        }
         /* termino il gestore multicast */
         gestoreMulticastThread.interrupt();
         gestoreMulticastThread.join();
         /* termino il gestore keepalive */
         keepAliveThread.interrupt();
         keepAliveThread.join();
+        /* lascio partire le notifiche già accodate */
+        this.notifiche.chiudi(Configuration.GN_CALLBACK_TIMEOUT);
+
+        if (this.persistente != null) {
+            /* salvo il database: i client restano attivi e riprendono
+             * quando il server riparte */
+            this.persistente.chiudi();
+            System.err.println("SERVER, database salvato. Goodbye!");
+            System.exit(0);
+        }
 
         /* notifico a tutti i client che sto chiudendo */
-        synchronized (this.data) {
-            Iterator i = this.data.scanCallback();
-            while (i.hasNext()) {
-                ClientRemote cr = (ClientRemote) i.next();
-                try {
-                    cr.serverShuttingDown();
-                } catch (RemoteException ex) {
-                }
+        Iterator i = this.data.scanCallback();
+        while (i.hasNext()) {
+            ClientRemote cr = (ClientRemote) i.next();
+            try {
+                cr.serverShuttingDown();
+            } catch (RemoteException ex) {
             }
         }
         System.err.println("SERVER, Goodbye!");
@@ -139,6 +287,42 @@ public class Server implements ServerRemote {
     @Override
     public List<IdClient> register(IdClient client, ClientRemote callback)
             throws ClientAlreadyRegisteredException {
+        long t = System.nanoTime();
+        try {
+            /* client della versione precedente: i keepalive non hanno
+             * token */
+            return registra(client, callback, 0);
+        } finally {
+            statistiche.fine(StatisticheServer.REGISTER, t);
+        }
+    }
+
+    /**
+     * Come register(client, callback), ma memorizza anche il token di
+     * sessione dei keepalive del client: il GestoreKeepAlive accetta solo i
+     * keepalive con questo token, così nessuno può tenere in vita il
+     * client o farlo scadere con dei keepalive falsi.
+     * @param client IdClient del client che vuole registrarsi
+     * @param callback Callback remota del client che vuole registrarsi
+     * @param token token di sessione dei keepalive, 0 se non c'è
+     * @return la lista di IdClient registrati in quel momento nel server
+     * @throws ClientAlreadyRegisteredException Se il client risulta
+     * già presente nella lista dei client registrati.
+     */
+    @Override
+    public List<IdClient> register(IdClient client, ClientRemote callback,
+            long token) throws ClientAlreadyRegisteredException {
+        long t = System.nanoTime();
+        try {
+            return registra(client, callback, token);
+        } finally {
+            statistiche.fine(StatisticheServer.REGISTER, t);
+        }
+    }
+
+    /* esegue la register */
+    private List<IdClient> registra(IdClient client, ClientRemote callback,
+            long token) throws ClientAlreadyRegisteredException {
 
         System.out.println(
                 "SERVER, ricevuta REGISTER.\n"
@@ -146,11 +330,12 @@ public class Server implements ServerRemote {
                 /* stampo la callback solo se è null */
                 + ((callback == null) ? ("\n callback=" + callback) : ""));
 
-        if (data.insertClient(client, callback) == false) {
+        if (data.insertClient(client, callback, token) == false) {
             System.out.println(
                     "SERVER, REGISTER ignorata, "
                     + "il client " + client
                     + " è già presente.\n");
+            statistiche.errore(StatisticheServer.REGISTER);
             throw new ClientAlreadyRegisteredException();
         }
 
@@ -159,22 +344,12 @@ public class Server implements ServerRemote {
          */
         keepAlive.startTimer(client);
 
-
-        /* notifico a tutti i client attualmente registrati
-         * che c'è un nuovo client nel sistema
+        /* accodo a tutti i client attualmente registrati la notifica
+         * che c'è un nuovo client nel sistema: le callback sono invocate
+         * dai thread del GestoreNotifiche, la register non le aspetta
          */
-        synchronized (this.data) {
-            Iterator i = this.data.scanCallback();
-            ClientRemote cr;
-            while (i.hasNext()) {
-                cr = (ClientRemote) i.next();
-                try {
-                    cr.addClient(client);
-                } catch (RemoteException e) {
-                    continue;
-                }
-            }
-        }
+        this.notifiche.registra(client, callback);
+        this.notifiche.notificaAggiunta(client);
 
         /* tutto ok, ritorno la lista di tutti i client attivi */
         System.out.println(
@@ -186,37 +361,88 @@ public class Server implements ServerRemote {
 
     /**
      * Nel caso in cui il file non esista lo inserisce tra quelli pubblicati
-     * con il client che lo ha pubblicato come primo seeder
+     * con il client che lo ha pubblicato come primo seeder.
+     * Se è già stato pubblicato un file con gli stessi hash, anche con
+     * un altro nome, il client diventa un suo seeder.
      * @param client Il client che vuole pubblicare il file
      * @param file Il file da pubblicare
      * @return Restituisce false se è già stato pubblicato un file
-     * con lo stesso nome, true altrimenti
+     * con lo stesso nome e senza hash, se il client era già seeder o
+     * leacher del file, o se il nome inizia con FileDescriptor.KEY_PREFIX,
+     * true altrimenti
      * @throws RemoteException Nel caso in cui il client risulti non registrato
      */
     @Override
     public boolean publish(IdClient client, FileDescriptor file)
             throws RemoteException {
-
-        System.out.println(
-                "SERVER, ricevuta PUBLISH.\n"
-                + "client=" + client
-                + ", file=" + file);
-
-        boolean ret;
+        long t = System.nanoTime();
         try {
-            ret = data.insertFile(client, file);
-        } catch (ClientNotActiveException e) {
             System.out.println(
-                    "SERVER, PUBLISH. Client=" + client + " non registrato.");
-            throw new common.remote.exception.ClientNotActiveException();
+                    "SERVER, ricevuta PUBLISH.\n"
+                    + "client=" + client
+                    + ", file=" + file);
+
+            boolean ret;
+            try {
+                ret = data.insertFile(client, file);
+            } catch (ClientNotActiveException e) {
+                System.out.println("SERVER, PUBLISH. Client=" + client
+                        + " non registrato.");
+                statistiche.errore(StatisticheServer.PUBLISH);
+                throw new common.remote.exception.ClientNotActiveException();
+            }
+
+            System.out.println(
+                    "SERVER, PUBLISH completata con successo "
+                    + client + ", " + file);
+            return ret;
+        } finally {
+            statistiche.fine(StatisticheServer.PUBLISH, t);
         }
+    }
 
-        data.printDataServer();
-        System.out.println(
-                "SERVER, PUBLISH completata con successo "
-                + client + ", " + file);
-        return ret;
+    /**
+     * Esegue la publish di tutti i file della lista con una sola chiamata.
+     * Il database viene modificato con un'unica operazione.
+     * @param client Il client che vuole pubblicare i file
+     * @param files I file da pubblicare
+     * @return L'esito di ogni file: il bit i-esimo vale true se il client
+     * è diventato seeder dell'i-esimo file
+     * @throws RemoteException Nel caso in cui il client risulti non registrato
+     */
+    @Override
+    public BitSet publishAll(IdClient client, List<FileDescriptor> files)
+            throws RemoteException {
+        long t = System.nanoTime();
+        try {
+            if (files == null || files.contains(null)) {
+                statistiche.errore(StatisticheServer.PUBLISH_ALL);
+                throw new common.remote.exception
+                        .InvalidRemoteArgumentException();
+            }
+            System.out.println(
+                    "SERVER, ricevuta PUBLISHALL.\n"
+                    + "client=" + client
+                    + ", file=" + files.size());
+
+            BitSet ret;
+            try {
+                ret = data.insertFiles(client, files);
+            } catch (ClientNotActiveException e) {
+                System.out.println("SERVER, PUBLISHALL. Client=" + client
+                        + " non registrato.");
+                statistiche.errore(StatisticheServer.PUBLISH_ALL);
+                throw new common.remote.exception.ClientNotActiveException();
+            }
 
+            System.out.println(
+                    "SERVER, PUBLISHALL completata con successo "
+                    + client + ", " + ret.cardinality() + "/" + files.size()
+                    + " file pubblicati");
+            return ret;
+        } finally {
+            statistiche.fine(StatisticheServer.PUBLISH_ALL, t);
+        }
     }
 
     /**
@@ -232,15 +458,49 @@ public class Server implements ServerRemote {
     @Override
     public SearchResult search(IdClient client, String fileName)
             throws RemoteException {
+        long t = System.nanoTime();
+        try {
+            return cerca(client, fileName, 1);
+        } finally {
+            statistiche.fine(StatisticheServer.SEARCH, t);
+        }
+    }
+
+    /**
+     * Se esistono seeder per fileName, il server inserisce il client
+     * che ha fatto la richiesta tra i leachers del file e restituisce
+     * fino a k seeder, dal meno al più carico.
+     * @param client Il client che ha fatto la richiesta
+     * @param fileName Il file da cercare
+     * @param k Il numero massimo di seeder da restituire
+     * @return null se il file non è pubblicato, altrimenti il descrittore
+     * del file e i seeder
+     * @throws RemoteException Nel caso in cui il client risulti non registrato
+     */
+    @Override
+    public SearchResult searchSeeders(IdClient client, String fileName, int k)
+            throws RemoteException {
+        long t = System.nanoTime();
+        try {
+            return cerca(client, fileName, k);
+        } finally {
+            statistiche.fine(StatisticheServer.SEARCH, t);
+        }
+    }
+
+    /* esegue la search */
+    private SearchResult cerca(IdClient client, String fileName, int k)
+            throws RemoteException {
 
         FileDescriptor f;
-        IdClient s;
+        List<IdClient> s;
 
         try {
             f = data.getFile(fileName, client);
         } catch (ClientNotActiveException e) {
             System.out.println(
                     "SERVER, SEARCH. Client=" + client + " non registrato.");
+            statistiche.errore(StatisticheServer.SEARCH);
             throw new common.remote.exception.ClientNotActiveException();
         }
 
@@ -248,8 +508,8 @@ public class Server implements ServerRemote {
             return null;
         }
 
-        s = data.getSeeder(f);
-        if (s == null) {
+        s = data.getSeeders(f, Math.max(1, k));
+        if (s.isEmpty()) {
             return null;
         }
 
@@ -260,6 +520,45 @@ public class Server implements ServerRemote {
         return new SearchResult(f, s);
     }
 
+    /**
+     * Cerca i file pubblicati il cui nome contiene query, dal più al meno
+     * condiviso. Il client non diventa leacher dei file trovati.
+     * @param client Il client che ha fatto la richiesta
+     * @param query La stringa da cercare nei nomi dei file
+     * @param offset Il numero di risultati da saltare
+     * @param limit Il numero massimo di risultati da restituire
+     * @return La pagina dei risultati
+     * @throws RemoteException Nel caso in cui il client risulti non registrato
+     */
+    @Override
+    public FindResult find(IdClient client, String query, int offset,
+            int limit) throws RemoteException {
+        long t = System.nanoTime();
+        try {
+            if (!data.isActive(client)) {
+                System.out.println("SERVER, FIND. Client=" + client
+                        + " non registrato.");
+                statistiche.errore(StatisticheServer.FIND);
+                throw new common.remote.exception.ClientNotActiveException();
+            }
+            if (query == null || offset < 0 || limit < 0) {
+                statistiche.errore(StatisticheServer.FIND);
+                throw new common.remote.exception
+                        .InvalidRemoteArgumentException();
+            }
+
+            FindResult r = data.find(query, offset,
+                    Math.min(limit, Configuration.SRV_FIND_MAX));
+            System.out.println(
+                    "SERVER, FIND completata con successo\n"
+                    + "client=" + client
+                    + ", query=" + query + ", risultati=" + r.getTotale());
+            return r;
+        } finally {
+            statistiche.fine(StatisticheServer.FIND, t);
+        }
+    }
+
 
     /**
      * Segnala al server che il client ha finito di scaricare il file.
@@ -272,6 +571,17 @@ public class Server implements ServerRemote {
     @Override
     public void completed(IdClient client, FileDescriptor file)
             throws RemoteException {
+        long t = System.nanoTime();
+        try {
+            completa(client, file);
+        } finally {
+            statistiche.fine(StatisticheServer.COMPLETED, t);
+        }
+    }
+
+    /* esegue la completed */
+    private void completa(IdClient client, FileDescriptor file)
+            throws RemoteException {
 
         System.out.println(
                 "SERVER, ricevuta COMPLETED.\n"
@@ -283,10 +593,64 @@ public class Server implements ServerRemote {
             data.leacherToSeeder(client, file);
         } catch (Exception e) {
 
+            statistiche.errore(StatisticheServer.COMPLETED);
             throw new RemoteException();
         }
     }
 
+    /**
+     * Segnala al server che il client ha finito di scaricare il file dal
+     * seeder. Oltre a quanto fa completed, aggiorna le statistiche del
+     * seeder, ma solo se il client era davvero leacher del file.
+     * @param client Il Client che ha fatto la richiesta
+     * @param file Il file completato
+     * @param seeder Il seeder da cui è stato scaricato il file
+     * @throws RemoteException Nel caso in cui ci siano problemi con il client
+     * e/o con il file
+     */
+    @Override
+    public void completed(IdClient client, FileDescriptor file,
+            IdClient seeder) throws RemoteException {
+        long t = System.nanoTime();
+        try {
+            completa(client, file);
+            if (seeder != null && !seeder.equals(client)) {
+                this.data.esitoTrasferimento(seeder, true);
+            }
+        } finally {
+            statistiche.fine(StatisticheServer.COMPLETED, t);
+        }
+    }
+
+    /**
+     * Segnala al server che il trasferimento dal seeder è fallito. Il
+     * client resta leacher del file. La segnalazione è ignorata se il
+     * client non sta scaricando un file con quel nome.
+     * @param client Il client che ha fatto la richiesta
+     * @param filename Il file che si stava scaricando
+     * @param seeder Il seeder da cui il trasferimento è fallito
+     * @throws RemoteException Nessuna eccezione viene sollevata
+     */
+    @Override
+    public void seederFailed(IdClient client, String filename,
+            IdClient seeder) throws RemoteException {
+        long t = System.nanoTime();
+        try {
+            if (seeder == null || seeder.equals(client)) {
+                return;
+            }
+            if (!this.data.isLeacher(client, filename)) {
+                System.out.println(
+                        "SERVER, SEEDER FAILED ignorata. Client=" + client
+                        + " non scarica " + filename);
+                return;
+            }
+            this.data.esitoTrasferimento(seeder, false);
+        } finally {
+            statistiche.fine(StatisticheServer.SEEDER_FAILED, t);
+        }
+    }
+
     /**
      * Segnala al server che il client ha avuto problemi nello scaricare 
      * il file così lo può rimuovere dalla lista dei leachers
@@ -297,7 +661,12 @@ public class Server implements ServerRemote {
     @Override
     public void transferFailed(String filename, IdClient client)
             throws RemoteException {
-        this.data.removeLeacher(filename, client);
+        long t = System.nanoTime();
+        try {
+            this.data.removeLeacher(filename, client);
+        } finally {
+            statistiche.fine(StatisticheServer.TRANSFER_FAILED, t);
+        }
     }
 
     /* stampa il classico usage quando vengono dati i parametri sbagliati */
@@ -314,6 +683,8 @@ public class Server implements ServerRemote {
                 + "rmiPort, la porta su cui creare il registro RMI\n"
                 + "UDPPort, la porta su cui ricevere i pacchetti keepalive\n"
                 + "MulticastGroup, gruppo multicast su quale ricevere i pacchetti\n"
+                + "PersistenceDir, directory dove salvare il database, che\n"
+                + "sopravvive così ai riavvii del server\n"
                 + "\n"
                 + "Ogni opzione rende obbligatorio l'inserimento delle precedenti\n"
                 + "\n");
@@ -328,8 +699,11 @@ public class Server implements ServerRemote {
         ServerRemote stub;
 
 
+        /* timeout delle callback verso i client, prima di usare RMI */
+        GestoreNotifiche.impostaTimeoutRMI();
+
         /***Parsing dei parametri***/
-        if (args.length > 3) {
+        if (args.length > 4) {
             Server.printUsage();
             return;
         }
@@ -361,6 +735,9 @@ public class Server implements ServerRemote {
                 ? Configuration.GM_DEFAULT_MULTICAST_GROUP
                 : args[2];
 
+        /*parso la directory del database*/
+        File persistenza = (args.length < 4) ? null : new File(args[3]);
+
         /***Fine parsing argomenti***/
         /***controllo semantico degli argomenti***/
 
@@ -398,11 +775,15 @@ public class Server implements ServerRemote {
 
         /***Creo l'oggetto server***/
         Server server = null;
-        server = new Server(portaUDP, multicastGroup);
+        server = new Server(portaUDP, multicastGroup, persistenza);
+        if (!server.ripristina()) {
+            return;
+        }
         /*** Oggetto Server creato ***/
         /*** Esporto l'interfaccia remota ***/
         try {
-            stub = (ServerRemote) UnicastRemoteObject.exportObject((ServerRemote) server, 0);
+            stub = (ServerRemote) UnicastRemoteObject.exportObject(
+                    (ServerRemote) server, 0);
         } catch (RemoteException e) {
             System.out.println("MAIN, problemi nell'esportare "
                     + "l'oggetto remota.");
@@ -433,13 +814,26 @@ public class Server implements ServerRemote {
 
 
         System.err.println(
-                "MAIN, Server attivo.\nPremere un tasto per terminare");
+                "MAIN, Server attivo.\n"
+                + "dump [file] per stampare il database, "
+                + "invio per terminare");
         BufferedReader br = new BufferedReader(new InputStreamReader(System.in));
         try {
-
-            br.readLine();
-
-
+            String riga;
+            while ((riga = br.readLine()) != null
+                    && riga.trim().length() > 0) {
+                String[] comando = riga.trim().split(" +", 2);
+                if (!comando[0].equalsIgnoreCase("dump")) {
+                    System.err.println("MAIN, '" + riga + "' comando errato");
+                    continue;
+                }
+                try {
+                    server.dump((comando.length < 2)
+                            ? null : new File(comando[1]));
+                } catch (IOException e) {
+                    System.err.println("MAIN, DUMP fallita: " + e);
+                }
+            }
         } catch (Exception e) {
         }
 
@@ -0,0 +1,60 @@
+package server.data;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import common.identifier.IdClient;
+import server.data.util.CaricoClient;
+import server.data.util.TableClientInterface;
+
+/**
+ * Ordina un campione di seeder dal meno al più carico, secondo il
+ * punteggio calcolato da CaricoClient. A parità di punteggio resta
+ * l'ordine del campione, cioè la rotazione fatta da FileCondiviso.
+ * Usata sia da DataServer sia da ConcurrentDataServer.
+ * @author Federico Della Bona - Alessandro Lensi
+ */
+class ClassificaSeeder {
+
+    private ClassificaSeeder() {
+    }
+
+    /**
+     * Restituisce i k seeder migliori del campione, e segnala al primo
+     * che gli è stato assegnato un download
+     * @param campione i seeder candidati
+     * @param tab la tabella dei client da cui leggere i carichi
+     * @param k numero massimo di seeder da restituire
+     * @return al più k seeder, il migliore per primo
+     */
+    static List<IdClient> migliori(List<IdClient> campione,
+            TableClientInterface tab, int k) {
+        int n = campione.size();
+        long ora = System.currentTimeMillis();
+        final double[] punti = new double[n];
+        CaricoClient[] carichi = new CaricoClient[n];
+        Integer[] ordine = new Integer[n];
+        for (int i = 0; i < n; i++) {
+            carichi[i] = tab.getCarico(campione.get(i));
+            /* un seeder appena uscito finisce in fondo */
+            punti[i] = (carichi[i] == null)
+                    ? Double.MAX_VALUE : carichi[i].punteggio(ora);
+            ordine[i] = i;
+        }
+        Arrays.sort(ordine, new Comparator<Integer>() {
+
+            public int compare(Integer a, Integer b) {
+                return Double.compare(punti[a], punti[b]);
+            }
+        });
+        List<IdClient> ret = new ArrayList<IdClient>(Math.min(k, n));
+        for (int i = 0; i < n && ret.size() < k; i++) {
+            ret.add(campione.get(ordine[i]));
+        }
+        if (!ret.isEmpty() && carichi[ordine[0]] != null) {
+            carichi[ordine[0]].assegnato();
+        }
+        return ret;
+    }
+}
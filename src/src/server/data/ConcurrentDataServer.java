@@ -0,0 +1,676 @@
+package server.data;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantLock;
+import server.data.exception.ClientNotActiveException;
+import server.data.util.CaricoClient;
+import common.identifier.FileDescriptor;
+import server.data.exception.FileExistingException;
+import server.data.exception.FileNotFoundException;
+import common.identifier.IdClient;
+import server.data.exception.LeacherNotFoundException;
+import server.data.exception.SeederExistsException;
+import server.data.util.TableClientAttivi;
+import server.data.util.TableClientInterface;
+import server.data.util.TableFileCondivisi;
+import server.data.util.TableFileInterface;
+import server.data.util.Istantanea;
+import server.data.util.ConteggioPeer;
+import common.remote.ClientRemote;
+import common.remote.FindResult;
+import common.Configuration;
+import server.statistiche.StatisticheServer;
+
+/**
+ * La classe realizza lo stesso database di DataServer, ma può essere usata
+ * da molti thread contemporaneamente senza serializzare tutte le operazioni
+ * su un unico monitor.
+ * Le due tabelle sono protette da due insiemi di lock (lock striping):
+ * ogni client e ogni file sono associati, tramite l'hashcode del client e
+ * della chiave del file, ad uno dei lock del rispettivo insieme. Le operazioni su client e file diversi
+ * procedono quindi in parallelo.
+ * Per evitare deadlock i lock vengono sempre presi nello stesso ordine:
+ * prima il lock del client, poi quello del file.
+ * Le attese per i lock delle operazioni remote vengono registrate nelle
+ * statistiche del server.
+ * @author Federico Della Bona - Alessandro Lensi
+ */
+public class ConcurrentDataServer implements DataServerInterface {
+
+    /* numero di lock per ogni tabella, deve essere una potenza di 2 */
+    private static final int NUM_LOCK = 64;
+    private TableClientInterface tab_client;
+    private TableFileInterface tab_file;
+    private final ReentrantLock[] lock_client;
+    private final ReentrantLock[] lock_file;
+    private final StatisticheServer statistiche;
+    private volatile OsservatoreModifiche osservatore;
+
+    /**
+     * crea un ConcurrentDataServer vuoto
+     */
+    public ConcurrentDataServer() {
+        this(new StatisticheServer());
+    }
+
+    /**
+     * crea un ConcurrentDataServer vuoto, che registra in statistiche le
+     * attese per i lock delle operazioni remote
+     * @param statistiche le statistiche del server
+     */
+    public ConcurrentDataServer(StatisticheServer statistiche) {
+        this.statistiche = statistiche;
+        tab_client = new TableClientAttivi();
+        tab_file = new TableFileCondivisi();
+        lock_client = new ReentrantLock[NUM_LOCK];
+        lock_file = new ReentrantLock[NUM_LOCK];
+        for (int i = 0; i < NUM_LOCK; i++) {
+            lock_client[i] = new ReentrantLock();
+            lock_file[i] = new ReentrantLock();
+        }
+    }
+
+    /* sparpaglia i bit alti dell'hashcode e sceglie il lock */
+    private static int indice(int hash) {
+        return (hash ^ (hash >>> 16)) & (NUM_LOCK - 1);
+    }
+
+    private ReentrantLock lockDi(IdClient c) {
+        return lock_client[indice(c.hashCode())];
+    }
+
+    /* il lock di un file dipende dalla sua chiave (FileDescriptor.getKey) */
+    private ReentrantLock lockDi(String chiave) {
+        return lock_file[indice(chiave.hashCode())];
+    }
+
+    /* prende il lock e restituisce i nanosecondi di attesa; il tempo
+     * viene misurato solo se il lock è occupato */
+    private static long attendi(ReentrantLock l) {
+        if (l.tryLock()) {
+            return 0;
+        }
+        long inizio = System.nanoTime();
+        l.lock();
+        return System.nanoTime() - inizio;
+    }
+
+    /* prende il lock e registra l'attesa per l'operazione op */
+    private void prendi(ReentrantLock l, int op) {
+        statistiche.attesaLock(op, attendi(l));
+    }
+
+    /**
+     * Imposta chi riceve le modifiche fatte al database
+     * @param o l'osservatore, null per nessuno
+     */
+    public void setOsservatore(OsservatoreModifiche o) {
+        this.osservatore = o;
+    }
+
+    /* segnala una modifica all'osservatore, con i lock dell'operazione
+     * ancora presi */
+    private void modificato(byte tipo, IdClient c, Object arg) {
+        OsservatoreModifiche o = this.osservatore;
+        if (o != null) {
+            o.modificato(tipo, c, arg);
+        }
+    }
+
+    /**
+     * Aggiunge un client al database
+     * @param c client da aggiungere
+     * @param callback interfaccia remota del client
+     * @param token token di sessione dei keepalive del client, 0 se il
+     * client non l'ha fornito
+     * @return true se l'inserimento è andato a buon fine (non c'era già);
+     *         false altrimenti.
+     */
+    public boolean insertClient(IdClient c, ClientRemote callback,
+            long token) {
+        ReentrantLock lc = lockDi(c);
+        prendi(lc, StatisticheServer.REGISTER);
+        try {
+            boolean ret = tab_client.addClient(c, callback, token);
+            if (ret) {
+                modificato(RegistroOperazioni.CLIENT_CON_TOKEN, c,
+                        new Object[]{callback, token});
+            }
+            return ret;
+        } finally {
+            lc.unlock();
+        }
+    }
+
+    /**
+     * Elimina il client c dal database
+     * @param c client da rimuovere
+     * @return true se il c era nel database; false altrimenti.
+     */
+    public boolean deleteClient(IdClient c) {
+        ReentrantLock lc = lockDi(c);
+        lc.lock();
+        try {
+            if (!tab_client.checkClient(c)) {
+                return false;
+            }
+            Iterator<?> posseduti = tab_client.scanFilePosseduti(c);
+            while (posseduti.hasNext()) {
+                FileDescriptor fd = (FileDescriptor) posseduti.next();
+                ReentrantLock lf = lockDi(fd.getKey());
+                lf.lock();
+                try {
+                    tab_file.removeSeeder(fd, c);
+                } catch (FileNotFoundException ex) {
+                    System.out.print("deleteClient -> removeSeeder: " + ex);
+                } finally {
+                    lf.unlock();
+                }
+            }
+            Iterator<?> richiesti = tab_client.scanFileRichiesti(c);
+            while (richiesti.hasNext()) {
+                FileDescriptor fd = (FileDescriptor) richiesti.next();
+                ReentrantLock lf = lockDi(fd.getKey());
+                lf.lock();
+                try {
+                    tab_file.removeLeacher(fd, c);
+                } catch (FileNotFoundException ex) {
+                    System.out.print("deleteClient -> removeLeacher: " + ex);
+                } finally {
+                    lf.unlock();
+                }
+            }
+            boolean ret = tab_client.removeClient(c);
+            if (ret) {
+                modificato(RegistroOperazioni.CLIENT_RIMOSSO, c, null);
+            }
+            return ret;
+        } finally {
+            lc.unlock();
+        }
+    }
+
+    /**
+     * Restituisce la Lista dei client attivi
+     * @return la Lista dei client attivi
+     */
+    public List<IdClient> getClientList() {
+        return tab_client.toList();
+    }
+
+    /**
+     * Aggiunge il file f al database e mette il client c come primo ed unico
+     * seeder del file. Se c'è già un file con lo stesso contenuto, anche con
+     * un altro nome, c diventa un suo seeder.
+     * @param c il client da aggiungere come seeder ad f
+     * @param f il file da aggiungere al database
+     * @return true se c è diventato seeder di f; false se c'era già un file
+     * con lo stesso nome e senza hash, o c era già seeder o leacher di f
+     * @throws ClientNotActiveException se il client c non è attivo
+     */
+    public boolean insertFile(IdClient c, FileDescriptor f)
+            throws ClientNotActiveException {
+        ReentrantLock lc = lockDi(c);
+        prendi(lc, StatisticheServer.PUBLISH);
+        try {
+            if (!tab_client.checkClient(c)) {
+                throw new ClientNotActiveException();
+            }
+            ReentrantLock lf = lockDi(f.getKey());
+            prendi(lf, StatisticheServer.PUBLISH);
+            try {
+                boolean ret = inserisci(c, f);
+                if (ret) {
+                    modificato(RegistroOperazioni.SEEDER, c, f);
+                }
+                return ret;
+            } finally {
+                lf.unlock();
+            }
+        } finally {
+            lc.unlock();
+        }
+    }
+
+    /**
+     * Esegue insertFile per ogni file della lista, in un'unica operazione.
+     * Invece di prendere il lock di ogni file prende una volta sola, in
+     * ordine di indice, i lock dei gruppi a cui appartengono i file, che
+     * restano presi per tutta la lista: le liste lunghe vanno divise da
+     * chi chiama. Le attese per tutti i lock sono registrate come
+     * un'unica attesa.
+     * @param c il client da aggiungere come seeder dei file
+     * @param files i file da aggiungere al database
+     * @return l'esito di ogni file: il bit i-esimo vale true se c è
+     * diventato seeder dell'i-esimo file
+     * @throws ClientNotActiveException se il client c non è attivo
+     */
+    public BitSet insertFiles(IdClient c, List<FileDescriptor> files)
+            throws ClientNotActiveException {
+        BitSet esiti = new BitSet(files.size());
+        BitSet gruppi = new BitSet(NUM_LOCK);
+        for (FileDescriptor f : files) {
+            gruppi.set(indice(f.getKey().hashCode()));
+        }
+        ReentrantLock lc = lockDi(c);
+        long attesa = attendi(lc);
+        try {
+            if (!tab_client.checkClient(c)) {
+                throw new ClientNotActiveException();
+            }
+            for (int i = gruppi.nextSetBit(0); i >= 0;
+                    i = gruppi.nextSetBit(i + 1)) {
+                attesa += attendi(lock_file[i]);
+            }
+            try {
+                for (int i = 0; i < files.size(); i++) {
+                    if (inserisci(c, files.get(i))) {
+                        esiti.set(i);
+                    }
+                }
+                if (!esiti.isEmpty()) {
+                    modificato(RegistroOperazioni.SEEDER_MULTIPLO, c,
+                            RegistroOperazioni.accettati(files, esiti));
+                }
+            } finally {
+                for (int i = gruppi.previousSetBit(NUM_LOCK - 1); i >= 0;
+                        i = gruppi.previousSetBit(i - 1)) {
+                    lock_file[i].unlock();
+                }
+            }
+        } finally {
+            lc.unlock();
+            statistiche.attesaLock(StatisticheServer.PUBLISH_ALL, attesa);
+        }
+        return esiti;
+    }
+
+    /* aggiunge c ai seeders di f, con i lock di c e di f presi */
+    private boolean inserisci(IdClient c, FileDescriptor f)
+            throws ClientNotActiveException {
+        boolean ret;
+        if (ret = tab_file.addFile(f, c)) {
+            tab_client.addFilePosseduto(c, f);
+            try {
+                tab_file.addSeeder(f, c);
+            } catch (FileNotFoundException ex) {
+                System.out.print("InsertFile -> addSeeder: " + ex);
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * Se esiste il file filename nel database, restituisce il FileDescriptor
+     * ed aggiunge c come leacher di questo.
+     * @param FileName il nome del file di cui si vuole il FileDescriptor
+     * @return FileDescriptor se il file c'è, null altrimenti.
+     */
+    public FileDescriptor getFile(String FileName, IdClient c)
+            throws ClientNotActiveException {
+        ReentrantLock lc = lockDi(c);
+        prendi(lc, StatisticheServer.SEARCH);
+        try {
+            if (!tab_client.checkClient(c)) {
+                throw new ClientNotActiveException();
+            }
+            FileDescriptor ret = tab_file.getFileDescriptor(FileName);
+            if (ret == null) {
+                return null;
+            }
+            ReentrantLock lf = lockDi(ret.getKey());
+            prendi(lf, StatisticheServer.SEARCH);
+            try {
+                if (!tab_file.checkFile(ret)) {
+                    /* rimosso prima che prendessi il lock */
+                    return null;
+                }
+                if (!tab_client.addFileRichiesto(c, ret)) {
+                    /* sei già un Leacher o Seeder per quel file */
+                    return null;
+                }
+                try {
+                    if (!tab_file.addLeacher(ret, c)) {
+                        /* sei già un Leacher o Seeder per quel file */
+                        return null;
+                    }
+                } catch (FileNotFoundException ex) {
+                    System.err.print("getFile -> addLeacher: " + ex);
+                }
+                modificato(RegistroOperazioni.LEACHER, c, ret);
+                return ret;
+            } finally {
+                lf.unlock();
+            }
+        } finally {
+            lc.unlock();
+        }
+    }
+
+    /**
+     * Restituisce un seeder per il file f
+     * @param f il file di cui si vuole ottenere un seeder
+     * @return null se non c'è nessun seeder; il seeder altrimenti
+     */
+    public IdClient getSeeder(FileDescriptor f) {
+        ReentrantLock lf = lockDi(f.getKey());
+        lf.lock();
+        try {
+            return tab_file.getSeeder(f);
+        } finally {
+            lf.unlock();
+        }
+    }
+
+    /**
+     * Se il client c è un leacher del file f, questo diventa un seeder di f
+     * @param c il client da cambiare
+     * @param f il file di cui c è leacher
+     * @throws FileNotFoundException se f non è nella tabella dei files
+     * @throws ClientNotActiveException se c non è un client attivo
+     * @throws SeederExistsException se c è già seeder di f
+     * @throws LeacherNotFoundException se c non era leacher di f
+     */
+    public void leacherToSeeder(IdClient c, FileDescriptor f)
+            throws FileNotFoundException, ClientNotActiveException,
+            SeederExistsException, LeacherNotFoundException {
+        ReentrantLock lc = lockDi(c);
+        prendi(lc, StatisticheServer.COMPLETED);
+        try {
+            if (!tab_client.checkClient(c)) {
+                throw new ClientNotActiveException();
+            }
+            ReentrantLock lf = lockDi(f.getKey());
+            prendi(lf, StatisticheServer.COMPLETED);
+            try {
+                f = tab_file.intern(f);
+                tab_file.leacherToSeeder(f, c);
+                try {
+                    tab_client.moveFileNeiCompletati(c, f);
+                } catch (FileExistingException ex) {
+                    throw new SeederExistsException();
+                }
+                modificato(RegistroOperazioni.COMPLETATO, c, f);
+            } finally {
+                lf.unlock();
+            }
+        } finally {
+            lc.unlock();
+        }
+    }
+
+    /**
+     * Controlla se il client c è attivo
+     * @param c client da controllare
+     * @return true se c è attivo, false altrimenti
+     */
+    public boolean isActive(IdClient c) {
+        return this.tab_client.checkClient(c);
+    }
+
+    /**
+     * Controlla se il client c sta scaricando un file di nome filename
+     * @param c client da controllare
+     * @param filename nome del file
+     * @return true se c è leacher di un file con quel nome, false altrimenti
+     */
+    public boolean isLeacher(IdClient c, String filename) {
+        if (c == null || filename == null) {
+            return false;
+        }
+        for (FileDescriptor fd : this.tab_file.getFileDescriptors(filename)) {
+            ReentrantLock lf = lockDi(fd.getKey());
+            prendi(lf, StatisticheServer.SEEDER_FAILED);
+            try {
+                if (this.tab_file.checkLeacher(fd, c)) {
+                    return true;
+                }
+            } finally {
+                lf.unlock();
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Stampa a video la tabella dei file e la tabella dei client.
+     * I lock sono presi solo per copiare il database (vedi fotografa),
+     * la stampa avviene sulla copia.
+     */
+    public void printDataServer() {
+        fotografa().stampa(System.out);
+    }
+
+    /**
+     * Restituisce un iteratore per le callback dei client attivi
+     * @return un iteratore per le callback dei client attivi
+     */
+    public Iterator<?> scanCallback() {
+        return tab_client.scanCallback();
+    }
+
+    /**
+     * Rimuove client come leacher del file filename
+     * @param filename file da aggiornare
+     * @param client da rimuovere come leacher del file filename
+     */
+    public void removeLeacher(String filename, IdClient client) {
+        if (client == null) {
+            return;
+        }
+        ReentrantLock lc = lockDi(client);
+        prendi(lc, StatisticheServer.TRANSFER_FAILED);
+        try {
+            /* ci possono essere più file con lo stesso nome, client è
+             * leacher al più di uno */
+            for (FileDescriptor fd : this.tab_file.getFileDescriptors(filename)) {
+                ReentrantLock lf = lockDi(fd.getKey());
+                prendi(lf, StatisticheServer.TRANSFER_FAILED);
+                try {
+                    if (this.tab_client.removeFileRichiesto(client, fd)) {
+                        try {
+                            this.tab_file.removeLeacher(fd, client);
+                        } catch (Exception e) {
+                        }
+                        modificato(RegistroOperazioni.LEACHER_RIMOSSO,
+                                client, filename);
+                        return;
+                    }
+                } finally {
+                    lf.unlock();
+                }
+            }
+        } finally {
+            lc.unlock();
+        }
+    }
+
+    /**
+     * Restituisce al più k seeder per il file f, dal meno al più carico.
+     * Il lock del file è tenuto solo per estrarre il campione di seeder,
+     * i carichi vengono letti senza lock.
+     * @param f il file di cui si vogliono ottenere i seeder
+     * @param k numero massimo di seeder
+     * @return la lista dei seeder, vuota se non ce ne sono
+     */
+    public List<IdClient> getSeeders(FileDescriptor f, int k) {
+        List<IdClient> campione;
+        ReentrantLock lf = lockDi(f.getKey());
+        prendi(lf, StatisticheServer.SEARCH);
+        try {
+            campione = tab_file.getSeeders(f, Configuration.SRV_SEARCH_SAMPLE);
+        } finally {
+            lf.unlock();
+        }
+        return ClassificaSeeder.migliori(campione, tab_client, k);
+    }
+
+    /**
+     * Cerca i file il cui nome contiene la ricerca, dal più al meno
+     * condiviso. Non prende i lock dei file: il numero di seeders di
+     * ogni file è letto mentre altri thread possono modificarlo.
+     * @param ricerca la stringa da cercare
+     * @param da il numero di risultati da saltare
+     * @param quanti il numero massimo di risultati da restituire
+     * @return la pagina dei risultati
+     */
+    public FindResult find(String ricerca, int da, int quanti) {
+        return tab_file.find(ricerca, da, quanti);
+    }
+
+    /**
+     * Restituisce il numero di client attivi
+     * @return il numero di client
+     */
+    public int countClient() {
+        return tab_client.size();
+    }
+
+    /**
+     * Restituisce il numero di file condivisi
+     * @return il numero di file
+     */
+    public int countFile() {
+        return tab_file.size();
+    }
+
+    /**
+     * Conta i seeders e i leachers dei file condivisi, senza prendere lock
+     * @param primi il numero di file più condivisi da riportare uno per uno
+     * @return il conteggio, approssimato
+     */
+    public ConteggioPeer contaPeer(int primi) {
+        return tab_file.contaPeer(primi);
+    }
+
+    /**
+     * Registra l'esito di un trasferimento in cui c era il seeder
+     * @param c il seeder
+     * @param riuscito true se il trasferimento è riuscito, false altrimenti
+     */
+    public void esitoTrasferimento(IdClient c, boolean riuscito) {
+        CaricoClient cc = this.tab_client.getCarico(c);
+        if (cc != null) {
+            cc.esito(riuscito);
+        }
+    }
+
+    /**
+     * Restituisce le statistiche di carico del client c, in cui il
+     * GestoreKeepAlive memorizza gli upload in corso dichiarati
+     * @param c il client
+     * @return il CaricoClient, null se c non è attivo
+     */
+    public CaricoClient getCarico(IdClient c) {
+        return this.tab_client.getCarico(c);
+    }
+
+    /**
+     * Restituisce il token di sessione dei keepalive del client c, fornito
+     * con register
+     * @param c il client
+     * @return il token, 0 se c non è attivo o non l'ha fornito
+     */
+    public long getToken(IdClient c) {
+        return this.tab_client.getToken(c);
+    }
+
+    /**
+     * Restituisce la callback del client c
+     * @param c il client
+     * @return la callback, null se c non è attivo o non l'ha fornita
+     */
+    public ClientRemote getCallback(IdClient c) {
+        return this.tab_client.getCallback(c);
+    }
+
+    /**
+     * Aggiunge il client c ai seeders o ai leachers del file f, e f al
+     * database se non c'è. Serve per ricostruire il database dopo un
+     * riavvio del server.
+     * @param c il client, deve essere attivo
+     * @param f il file
+     * @param seeder true se c è seeder di f, false se è leacher
+     * @return true se c è stato aggiunto, false se non è attivo o era già
+     *         seeder o leacher di f
+     */
+    public boolean ripristinaFile(IdClient c, FileDescriptor f,
+            boolean seeder) {
+        ReentrantLock lc = lockDi(c);
+        lc.lock();
+        try {
+            if (!tab_client.checkClient(c)) {
+                return false;
+            }
+            ReentrantLock lf = lockDi(f.getKey());
+            lf.lock();
+            try {
+                if (!tab_file.ripristina(f, c, seeder)) {
+                    return false;
+                }
+                try {
+                    if (seeder) {
+                        tab_client.addFilePosseduto(c, f);
+                    } else {
+                        tab_client.addFileRichiesto(c, f);
+                    }
+                } catch (ClientNotActiveException ex) {
+                    System.out.print("ripristinaFile: " + ex);
+                }
+                modificato(seeder ? RegistroOperazioni.SEEDER
+                        : RegistroOperazioni.LEACHER, c, f);
+                return true;
+            } finally {
+                lf.unlock();
+            }
+        } finally {
+            lc.unlock();
+        }
+    }
+
+    /**
+     * Restituisce una copia del database. I client vengono copiati un
+     * gruppo di lock alla volta, tenendo solo il lock del gruppo: la copia
+     * di ogni client è consistente, ma le operazioni sui client degli
+     * altri gruppi procedono durante la copia. Per una copia consistente
+     * di tutto il database chi chiama deve bloccare le modifiche (vedi
+     * DataServerPersistente).
+     * @return l'istantanea del database
+     */
+    @SuppressWarnings("unchecked")
+    public Istantanea fotografa() {
+        ArrayList<IdClient>[] gruppi =
+                (ArrayList<IdClient>[]) new ArrayList<?>[NUM_LOCK];
+        for (IdClient c : tab_client.toList()) {
+            int i = indice(c.hashCode());
+            if (gruppi[i] == null) {
+                gruppi[i] = new ArrayList<IdClient>();
+            }
+            gruppi[i].add(c);
+        }
+        Istantanea ist = new Istantanea();
+        for (int i = 0; i < NUM_LOCK; i++) {
+            if (gruppi[i] == null) {
+                continue;
+            }
+            lock_client[i].lock();
+            try {
+                for (IdClient c : gruppi[i]) {
+                    /* può essere stato eliminato dopo toList */
+                    if (tab_client.checkClient(c)) {
+                        ist.aggiungi(c, tab_client.getCallback(c),
+                                tab_client.getToken(c),
+                                tab_client.scanFilePosseduti(c),
+                                tab_client.scanFileRichiesti(c));
+                    }
+                }
+            } finally {
+                lock_client[i].unlock();
+            }
+        }
+        return ist;
+    }
+}
@@ -1,10 +1,10 @@
 package server.data;
 
-import java.util.Collection;
+import java.util.BitSet;
 import java.util.Iterator;
 import java.util.List;
 import server.data.exception.ClientNotActiveException;
-import server.data.util.FileCondiviso;
+import server.data.util.CaricoClient;
 import common.identifier.FileDescriptor;
 import server.data.exception.FileExistingException;
 import server.data.exception.FileNotFoundException;
@@ -15,7 +15,12 @@ import server.data.util.TableClientAttivi;
 import server.data.util.TableClientInterface;
 import server.data.util.TableFileCondivisi;
 import server.data.util.TableFileInterface;
+import server.data.util.Istantanea;
+import server.data.util.ConteggioPeer;
 import common.remote.ClientRemote;
+import common.remote.FindResult;
+import common.Configuration;
+import server.statistiche.StatisticheServer;
 
 /**
  * La classe realizza un piccolo database, che mantiene come informazioni,
@@ -27,25 +32,69 @@ public class DataServer implements DataServerInterface {
 
     private TableClientInterface tab_client;
     private TableFileInterface tab_file;
+    private final StatisticheServer statistiche;
+    private volatile OsservatoreModifiche osservatore;
 
     /**
      * crea una DataServer vuoto
      */
     public DataServer() {
+        this(new StatisticheServer());
+    }
+
+    /**
+     * crea una DataServer vuoto, che registra in statistiche le attese
+     * per il monitor delle operazioni remote
+     * @param statistiche le statistiche del server
+     */
+    public DataServer(StatisticheServer statistiche) {
+        this.statistiche = statistiche;
         tab_client = new TableClientAttivi();
         tab_file = new TableFileCondivisi();
     }
 
+    /* registra l'attesa per il monitor di un'operazione iniziata in inizio */
+    private void attesa(int op, long inizio) {
+        statistiche.attesaLock(op, System.nanoTime() - inizio);
+    }
+
+    /**
+     * Imposta chi riceve le modifiche fatte al database
+     * @param o l'osservatore, null per nessuno
+     */
+    public void setOsservatore(OsservatoreModifiche o) {
+        this.osservatore = o;
+    }
+
+    /* segnala una modifica all'osservatore, con il monitor ancora preso */
+    private void modificato(byte tipo, IdClient c, Object arg) {
+        OsservatoreModifiche o = this.osservatore;
+        if (o != null) {
+            o.modificato(tipo, c, arg);
+        }
+    }
+
     /**
      * Aggiunge un client al database
      * @param c client da aggiungere
      * @param callback interfaccia remota del client
+     * @param token token di sessione dei keepalive del client, 0 se il
+     * client non l'ha fornito
      * @return true se l'inserimento è andato a buon fine (non c'era già);
      *         false altrimenti.
      */
-    public synchronized boolean insertClient(
-            IdClient c, ClientRemote callback) {
-        return tab_client.addClient(c, callback);
+    public boolean insertClient(
+            IdClient c, ClientRemote callback, long token) {
+        long inizio = System.nanoTime();
+        synchronized (this) {
+            attesa(StatisticheServer.REGISTER, inizio);
+            boolean ret = tab_client.addClient(c, callback, token);
+            if (ret) {
+                modificato(RegistroOperazioni.CLIENT_CON_TOKEN, c,
+                        new Object[]{callback, token});
+            }
+            return ret;
+        }
     }
 
     /**
@@ -73,8 +122,11 @@ public class DataServer implements DataServerInterface {
                 System.out.print("deleteClient -> removeLeacher: " + ex);
             }
         }
-        return tab_client.removeClient(c);
-
+        boolean ret = tab_client.removeClient(c);
+        if (ret) {
+            modificato(RegistroOperazioni.CLIENT_RIMOSSO, c, null);
+        }
+        return ret;
     }
 
     /**
@@ -90,15 +142,60 @@ public class DataServer implements DataServerInterface {
      * seeder del file
      * @param c il client da aggiungere come seeder ad f
      * @param f il file da aggiungere al database
-     * @return true se il file non c'era; false altrimenti
+     * @return true se c è diventato seeder di f; false se c'era già un file
+     * con lo stesso nome e senza hash, o c era già seeder o leacher di f
      * @throws ClientNotActiveException se il client c non è attivo
      */
-    public synchronized boolean insertFile(IdClient c, FileDescriptor f)
+    public boolean insertFile(IdClient c, FileDescriptor f)
             throws ClientNotActiveException {
-        boolean ret;
-        if (!tab_client.checkClient(c)) {
-            throw new ClientNotActiveException();
+        long inizio = System.nanoTime();
+        synchronized (this) {
+            attesa(StatisticheServer.PUBLISH, inizio);
+            if (!tab_client.checkClient(c)) {
+                throw new ClientNotActiveException();
+            }
+            boolean ret = inserisci(c, f);
+            if (ret) {
+                modificato(RegistroOperazioni.SEEDER, c, f);
+            }
+            return ret;
+        }
+    }
+
+    /**
+     * Esegue insertFile per ogni file della lista, in un'unica operazione.
+     * @param c il client da aggiungere come seeder dei file
+     * @param files i file da aggiungere al database
+     * @return l'esito di ogni file: il bit i-esimo vale true se c è
+     * diventato seeder dell'i-esimo file
+     * @throws ClientNotActiveException se il client c non è attivo
+     */
+    public BitSet insertFiles(IdClient c,
+            List<FileDescriptor> files) throws ClientNotActiveException {
+        long inizio = System.nanoTime();
+        synchronized (this) {
+            attesa(StatisticheServer.PUBLISH_ALL, inizio);
+            if (!tab_client.checkClient(c)) {
+                throw new ClientNotActiveException();
+            }
+            BitSet esiti = new BitSet(files.size());
+            for (int i = 0; i < files.size(); i++) {
+                if (inserisci(c, files.get(i))) {
+                    esiti.set(i);
+                }
+            }
+            if (!esiti.isEmpty()) {
+                modificato(RegistroOperazioni.SEEDER_MULTIPLO, c,
+                        RegistroOperazioni.accettati(files, esiti));
+            }
+            return esiti;
         }
+    }
+
+    /* aggiunge c ai seeders di f, c deve essere attivo */
+    private boolean inserisci(IdClient c, FileDescriptor f)
+            throws ClientNotActiveException {
+        boolean ret;
         if (ret = tab_file.addFile(f, c)) {
             tab_client.addFilePosseduto(c, f);
             try {
@@ -116,33 +213,37 @@ public class DataServer implements DataServerInterface {
      * @param FileName il nome del file di cui si vuole il FileDescriptor
      * @return FileDescriptor se il file c'è, null altrimenti.
      */
-    public synchronized FileDescriptor getFile(String FileName, IdClient c)
+    public FileDescriptor getFile(String FileName, IdClient c)
             throws ClientNotActiveException {
-        if (!tab_client.checkClient(c)) {
-            throw new ClientNotActiveException();
-        }
-        FileDescriptor ret = tab_file.getFileDescriptor(FileName);
-
+        long inizio = System.nanoTime();
+        synchronized (this) {
+            attesa(StatisticheServer.SEARCH, inizio);
+            if (!tab_client.checkClient(c)) {
+                throw new ClientNotActiveException();
+            }
+            FileDescriptor ret = tab_file.getFileDescriptor(FileName);
 
-        if (ret == null) {
-            return null;
-        }
 
-        if (!tab_client.addFileRichiesto(c, ret)) {
-            /* sei già un Leacher o Seeder per quel file */
-            return null;
-        }
+            if (ret == null) {
+                return null;
+            }
 
-        try {
-            if (!tab_file.addLeacher(ret, c)) {
+            if (!tab_client.addFileRichiesto(c, ret)) {
                 /* sei già un Leacher o Seeder per quel file */
                 return null;
             }
-        } catch (server.data.exception.FileNotFoundException ex) {
-            System.err.print("getFile -> addLeacher: " + ex);
-        }
 
-        return ret;
+            try {
+                if (!tab_file.addLeacher(ret, c)) {
+                    /* sei già un Leacher o Seeder per quel file */
+                    return null;
+                }
+            } catch (server.data.exception.FileNotFoundException ex) {
+                System.err.print("getFile -> addLeacher: " + ex);
+            }
+            modificato(RegistroOperazioni.LEACHER, c, ret);
+            return ret;
+        }
     }
 
     /**
@@ -163,20 +264,25 @@ public class DataServer implements DataServerInterface {
      * @throws SeederExistsException se c è già seeder di f
      * @throws LeacherNotFoundException se c non era leacher di f
      */
-    public synchronized void leacherToSeeder(IdClient c, FileDescriptor f)
+    public void leacherToSeeder(IdClient c, FileDescriptor f)
             throws FileNotFoundException, ClientNotActiveException,
             SeederExistsException, LeacherNotFoundException {
+        long inizio = System.nanoTime();
+        synchronized (this) {
+            attesa(StatisticheServer.COMPLETED, inizio);
+            if (!tab_client.checkClient(c)) {
+                throw new ClientNotActiveException();
+            }
 
-        if (!tab_client.checkClient(c)) {
-            throw new ClientNotActiveException();
-        }
-
-        tab_file.leacherToSeeder(f, c);
+            f = tab_file.intern(f);
+            tab_file.leacherToSeeder(f, c);
 
-        try {
-            tab_client.moveFileNeiCompletati(c, f);
-        } catch (FileExistingException ex) {
-            throw new SeederExistsException();
+            try {
+                tab_client.moveFileNeiCompletati(c, f);
+            } catch (FileExistingException ex) {
+                throw new SeederExistsException();
+            }
+            modificato(RegistroOperazioni.COMPLETATO, c, f);
         }
     }
 
@@ -190,30 +296,35 @@ public class DataServer implements DataServerInterface {
     }
 
     /**
-     * Stampa a video la tabella dei file e la tabella dei client
+     * Controlla se il client c sta scaricando un file di nome filename
+     * @param c client da controllare
+     * @param filename nome del file
+     * @return true se c è leacher di un file con quel nome, false altrimenti
      */
-    public synchronized void printDataServer() {
-        List<IdClient> l = this.tab_client.toList();
-        Collection c = this.tab_file.toCollection();
-        Iterator scanFile = c.iterator();
-        Iterator i = l.iterator();
-
-        System.out.println("*-*-*-*----Tabella dei Client----*-*-*-*");
-        while (i.hasNext()) {
-            IdClient client = (IdClient) i.next();
-            System.out.println(client.toString());
-            this.tab_client.printClient(client);
-            System.out.println("---------------------------------------");
-        }
-        System.out.println("*-*-*-*----Tabella dei File----*-*-*-*");
-        while (scanFile.hasNext()) {
-            FileCondiviso f = (FileCondiviso) scanFile.next();
-            System.out.println(f.getFileDescriptor().getName());
-            this.tab_file.printFile(f.getFileDescriptor());
-            System.out.println("---------------------------------------");
+    public boolean isLeacher(IdClient c, String filename) {
+        long inizio = System.nanoTime();
+        synchronized (this) {
+            attesa(StatisticheServer.SEEDER_FAILED, inizio);
+            if (c == null || filename == null) {
+                return false;
+            }
+            for (FileDescriptor fd : this.tab_file.getFileDescriptors(filename)) {
+                if (this.tab_file.checkLeacher(fd, c)) {
+                    return true;
+                }
+            }
+            return false;
         }
     }
 
+    /**
+     * Stampa a video la tabella dei file e la tabella dei client. Il
+     * monitor è tenuto solo per copiare il database, non per stamparlo.
+     */
+    public void printDataServer() {
+        fotografa().stampa(System.out);
+    }
+
 
 
 
@@ -232,21 +343,165 @@ public class DataServer implements DataServerInterface {
      * @param filename file da aggiornare
      * @param client da rimuovere come leacher del file filename
      */
-    public synchronized void removeLeacher(String filename, IdClient client) {
-        if (client == null) {
-            return;
+    public void removeLeacher(String filename, IdClient client) {
+        long inizio = System.nanoTime();
+        synchronized (this) {
+            attesa(StatisticheServer.TRANSFER_FAILED, inizio);
+            if (client == null) {
+                return;
+            }
+            /* ci possono essere più file con lo stesso nome, client è leacher
+             * al più di uno */
+            for (FileDescriptor fd : this.tab_file.getFileDescriptors(filename)) {
+                if (this.tab_client.removeFileRichiesto(client, fd)) {
+                    try {
+                        this.tab_file.removeLeacher(fd, client);
+                    } catch (Exception e) {
+                    }
+                    modificato(RegistroOperazioni.LEACHER_RIMOSSO,
+                            client, filename);
+                    return;
+                }
+            }
         }
-        FileDescriptor fd = this.tab_file.getFileDescriptor(filename);
-        if (fd == null) {
-            return;
+    }
+
+    /**
+     * Restituisce al più k seeder per il file f, dal meno al più carico
+     * @param f il file di cui si vogliono ottenere i seeder
+     * @param k numero massimo di seeder
+     * @return la lista dei seeder, vuota se non ce ne sono
+     */
+    public List<IdClient> getSeeders(FileDescriptor f, int k) {
+        long inizio = System.nanoTime();
+        synchronized (this) {
+            attesa(StatisticheServer.SEARCH, inizio);
+            return ClassificaSeeder.migliori(
+                    tab_file.getSeeders(f, Configuration.SRV_SEARCH_SAMPLE),
+                    tab_client, k);
         }
-        if (this.tab_client.removeFileRichiesto(client, fd)) {
-            try {
-                this.tab_file.removeLeacher(fd, client);
-            } catch (Exception e) {
-                return;
+    }
+
+    /**
+     * Cerca i file il cui nome contiene la ricerca, dal più al meno
+     * condiviso
+     * @param ricerca la stringa da cercare
+     * @param da il numero di risultati da saltare
+     * @param quanti il numero massimo di risultati da restituire
+     * @return la pagina dei risultati
+     */
+    public synchronized FindResult find(String ricerca, int da, int quanti) {
+        return tab_file.find(ricerca, da, quanti);
+    }
+
+    /**
+     * Restituisce il numero di client attivi
+     * @return il numero di client
+     */
+    public synchronized int countClient() {
+        return tab_client.size();
+    }
+
+    /**
+     * Restituisce il numero di file condivisi
+     * @return il numero di file
+     */
+    public synchronized int countFile() {
+        return tab_file.size();
+    }
+
+    /**
+     * Conta i seeders e i leachers dei file condivisi, senza prendere il
+     * lock del DataServer
+     * @param primi il numero di file più condivisi da riportare uno per uno
+     * @return il conteggio, approssimato
+     */
+    public ConteggioPeer contaPeer(int primi) {
+        return tab_file.contaPeer(primi);
+    }
+
+    /**
+     * Registra l'esito di un trasferimento in cui c era il seeder
+     * @param c il seeder
+     * @param riuscito true se il trasferimento è riuscito, false altrimenti
+     */
+    public void esitoTrasferimento(IdClient c, boolean riuscito) {
+        CaricoClient cc = this.tab_client.getCarico(c);
+        if (cc != null) {
+            cc.esito(riuscito);
+        }
+    }
+
+    /**
+     * Restituisce le statistiche di carico del client c, in cui il
+     * GestoreKeepAlive memorizza gli upload in corso dichiarati
+     * @param c il client
+     * @return il CaricoClient, null se c non è attivo
+     */
+    public CaricoClient getCarico(IdClient c) {
+        return this.tab_client.getCarico(c);
+    }
+
+    /**
+     * Restituisce il token di sessione dei keepalive del client c, fornito
+     * con register
+     * @param c il client
+     * @return il token, 0 se c non è attivo o non l'ha fornito
+     */
+    public long getToken(IdClient c) {
+        return this.tab_client.getToken(c);
+    }
+
+    /**
+     * Restituisce la callback del client c
+     * @param c il client
+     * @return la callback, null se c non è attivo o non l'ha fornita
+     */
+    public ClientRemote getCallback(IdClient c) {
+        return this.tab_client.getCallback(c);
+    }
+
+    /**
+     * Aggiunge il client c ai seeders o ai leachers del file f, e f al
+     * database se non c'è. Serve per ricostruire il database dopo un
+     * riavvio del server.
+     * @param c il client, deve essere attivo
+     * @param f il file
+     * @param seeder true se c è seeder di f, false se è leacher
+     * @return true se c è stato aggiunto, false se non è attivo o era già
+     *         seeder o leacher di f
+     */
+    public synchronized boolean ripristinaFile(IdClient c, FileDescriptor f,
+            boolean seeder) {
+        if (!tab_client.checkClient(c) || !tab_file.ripristina(f, c, seeder)) {
+            return false;
+        }
+        try {
+            if (seeder) {
+                tab_client.addFilePosseduto(c, f);
+            } else {
+                tab_client.addFileRichiesto(c, f);
             }
+        } catch (ClientNotActiveException ex) {
+            System.out.print("ripristinaFile: " + ex);
+        }
+        modificato(seeder ? RegistroOperazioni.SEEDER
+                : RegistroOperazioni.LEACHER, c, f);
+        return true;
+    }
+
+    /**
+     * Restituisce una copia consistente del database
+     * @return l'istantanea del database
+     */
+    public synchronized Istantanea fotografa() {
+        Istantanea ist = new Istantanea();
+        for (IdClient c : tab_client.toList()) {
+            ist.aggiungi(c, tab_client.getCallback(c),
+                    tab_client.getToken(c),
+                    tab_client.scanFilePosseduti(c),
+                    tab_client.scanFileRichiesti(c));
         }
-        return;
+        return ist;
     }
 }
@@ -1,5 +1,6 @@
 package server.data;
 
+import java.util.BitSet;
 import java.util.Iterator;
 import java.util.List;
 import server.data.exception.SeederExistsException;
@@ -8,7 +9,11 @@ import common.identifier.FileDescriptor;
 import server.data.exception.FileNotFoundException;
 import common.identifier.IdClient;
 import server.data.exception.LeacherNotFoundException;
+import server.data.util.CaricoClient;
+import server.data.util.Istantanea;
+import server.data.util.ConteggioPeer;
 import common.remote.ClientRemote;
+import common.remote.FindResult;
 
 /**
  * L'interfaccia DataServerInterface può essere implementata da una classe
@@ -23,10 +28,12 @@ public interface DataServerInterface {
      * Aggiunge un client al database
      * @param c client da aggiungere
      * @param callback interfaccia remota del client
+     * @param token token di sessione dei keepalive del client, 0 se il
+     * client non l'ha fornito
      * @return true se l'inserimento è andato a buon fine (non c'era già); 
      *         false altrimenti.
      */
-    public boolean insertClient(IdClient c, ClientRemote callback);
+    public boolean insertClient(IdClient c, ClientRemote callback, long token);
 
     /**
      * Elimina il client c dal database
@@ -45,10 +52,12 @@ public interface DataServerInterface {
 
     /**
      * Aggiunge il file f al database e mette il client c come primo ed unico
-     * seeder del file
+     * seeder del file. Se c'è già un file con lo stesso contenuto, anche con
+     * un altro nome, c diventa un suo seeder.
      * @param c il client da aggiungere come seeder ad f
      * @param f il file da aggiungere al database
-     * @return true se il file non c'era; false altrimenti
+     * @return true se c è diventato seeder di f; false se c'era già un file
+     * con lo stesso nome e senza hash, o c era già seeder o leacher di f
      * @throws ClientNotActiveException se il client c non è attivo
      */
     public boolean insertFile(IdClient c, FileDescriptor f)
@@ -63,6 +72,17 @@ public interface DataServerInterface {
     public FileDescriptor getFile(String FileName, IdClient c)
             throws ClientNotActiveException;
 
+    /**
+     * Esegue insertFile per ogni file della lista, in un'unica operazione.
+     * @param c il client da aggiungere come seeder dei file
+     * @param files i file da aggiungere al database
+     * @return l'esito di ogni file: il bit i-esimo vale true se c è
+     * diventato seeder dell'i-esimo file
+     * @throws ClientNotActiveException se il client c non è attivo
+     */
+    public BitSet insertFiles(IdClient c, List<FileDescriptor> files)
+            throws ClientNotActiveException;
+
     /**
      * Restituisce un seeder per il file f
      * @param f il file di cui si vuole ottenere un seeder
@@ -94,6 +114,14 @@ public interface DataServerInterface {
      */
     public boolean isActive(IdClient c);
 
+    /**
+     * Controlla se il client c sta scaricando un file di nome filename
+     * @param c client da controllare
+     * @param filename nome del file
+     * @return true se c è leacher di un file con quel nome, false altrimenti
+     */
+    public boolean isLeacher(IdClient c, String filename);
+
     /**
      * Restituisce un iteratore per le callback dei client attivi
      * @return un iteratore per le callback dei client attivi
@@ -101,7 +129,8 @@ public interface DataServerInterface {
     public Iterator scanCallback();
 
     /**
-     * Stampa a video la tabella dei file e la tabella dei client
+     * Stampa a video la tabella dei file e la tabella dei client, da una
+     * copia del database (vedi fotografa)
      */
     public void printDataServer();
     /**
@@ -110,4 +139,105 @@ public interface DataServerInterface {
      * @param client da rimuovere come leacher del file filename
      */
     public void removeLeacher(String filename, IdClient client);
+
+    /**
+     * Restituisce al più k seeder per il file f, dal meno al più carico.
+     * Vengono considerati al più Configuration.SRV_SEARCH_SAMPLE seeder,
+     * scelti a turno. Al primo seeder viene contato un download assegnato.
+     * @param f il file di cui si vogliono ottenere i seeder
+     * @param k numero massimo di seeder
+     * @return la lista dei seeder, vuota se non ce ne sono
+     */
+    public List<IdClient> getSeeders(FileDescriptor f, int k);
+
+    /**
+     * Cerca i file il cui nome contiene la ricerca, dal più al meno
+     * condiviso. Non modifica il database: chi cerca non diventa leacher
+     * dei file trovati.
+     * @param ricerca la stringa da cercare
+     * @param da il numero di risultati da saltare
+     * @param quanti il numero massimo di risultati da restituire
+     * @return la pagina dei risultati
+     */
+    public FindResult find(String ricerca, int da, int quanti);
+
+    /**
+     * Restituisce il numero di client attivi
+     * @return il numero di client
+     */
+    public int countClient();
+
+    /**
+     * Restituisce il numero di file condivisi. I file con gli hash
+     * contano una volta sola, con qualunque nome siano stati pubblicati.
+     * @return il numero di file
+     */
+    public int countFile();
+
+    /**
+     * Conta i seeders e i leachers dei file condivisi, per le metriche.
+     * Non prende i lock del database, quindi non rallenta le altre
+     * operazioni, ma il conteggio è approssimato se nel frattempo i file
+     * vengono modificati.
+     * @param primi il numero di file più condivisi da riportare uno per uno
+     * @return il conteggio
+     */
+    public ConteggioPeer contaPeer(int primi);
+
+    /**
+     * Registra l'esito di un trasferimento in cui c era il seeder
+     * @param c il seeder
+     * @param riuscito true se il trasferimento è riuscito, false altrimenti
+     */
+    public void esitoTrasferimento(IdClient c, boolean riuscito);
+
+    /**
+     * Restituisce le statistiche di carico del client c, in cui il
+     * GestoreKeepAlive memorizza gli upload in corso dichiarati
+     * @param c il client
+     * @return il CaricoClient, null se c non è attivo
+     */
+    public CaricoClient getCarico(IdClient c);
+
+    /**
+     * Restituisce il token di sessione dei keepalive del client c, fornito
+     * con register
+     * @param c il client
+     * @return il token, 0 se c non è attivo o non l'ha fornito
+     */
+    public long getToken(IdClient c);
+
+    /**
+     * Restituisce la callback del client c
+     * @param c il client
+     * @return la callback, null se c non è attivo o non l'ha fornita
+     */
+    public ClientRemote getCallback(IdClient c);
+
+    /**
+     * Aggiunge il client c ai seeders o ai leachers del file f, e f al
+     * database se non c'è. Serve per ricostruire il database dopo un
+     * riavvio del server.
+     * @param c il client, deve essere attivo
+     * @param f il file
+     * @param seeder true se c è seeder di f, false se è leacher
+     * @return true se c è stato aggiunto, false se non è attivo o era già
+     *         seeder o leacher di f
+     */
+    public boolean ripristinaFile(IdClient c, FileDescriptor f, boolean seeder);
+
+    /**
+     * Restituisce una copia del database. La copia di ogni client è
+     * consistente; quella dell'intero database lo è se nessuno lo modifica
+     * durante la copia.
+     * @return l'istantanea del database
+     */
+    public Istantanea fotografa();
+
+    /**
+     * Imposta chi riceve le modifiche fatte al database, mentre sono
+     * ancora tenuti i lock di ogni operazione (vedi OsservatoreModifiche)
+     * @param o l'osservatore, null per nessuno
+     */
+    public void setOsservatore(OsservatoreModifiche o);
 }
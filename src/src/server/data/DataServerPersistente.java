@@ -0,0 +1,552 @@
+package server.data;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.BitSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import server.data.exception.ClientNotActiveException;
+import server.data.exception.FileNotFoundException;
+import server.data.exception.LeacherNotFoundException;
+import server.data.exception.SeederExistsException;
+import server.data.util.CaricoClient;
+import server.data.util.Istantanea;
+import server.data.util.ConteggioPeer;
+import common.identifier.FileDescriptor;
+import common.identifier.IdClient;
+import common.remote.ClientRemote;
+import common.remote.FindResult;
+import common.Configuration;
+
+/**
+ * La classe DataServerPersistente rende persistente un altro database:
+ * ogni operazione che lo modifica (register, publish, publishAll, search,
+ * completed, transferFailed, eliminazione di un client) viene aggiunta ad un
+ * registro (vedi RegistroOperazioni) dal database stesso, mentre tiene
+ * ancora i lock dell'operazione (vedi OsservatoreModifiche): le operazioni
+ * sullo stesso client o sullo stesso file sono nel registro nell'ordine in
+ * cui sono state eseguite. Inoltre ogni
+ * Configuration.SRV_SNAPSHOT_INTERVAL millisecondi, se ci sono state
+ * modifiche, l'intero database viene salvato in un'istantanea compatta.
+ * Al riavvio il database viene ricostruito dall'ultima istantanea e dai
+ * registri successivi.
+ * Ogni istantanea inizia una nuova generazione del registro: i registri
+ * delle generazioni precedenti sono già contenuti nell'istantanea e
+ * vengono cancellati. L'istantanea viene scritta in un file temporaneo e
+ * poi rinominata, così un crash durante il salvataggio lascia intatta
+ * quella precedente.
+ * Le operazioni vengono eseguite in parallelo come nel database
+ * sottostante; solo per fotografare il database e cambiare registro
+ * vengono bloccate per un momento.
+ * @author Federico Della Bona - Alessandro Lensi
+ */
+public class DataServerPersistente implements DataServerInterface {
+
+    private static final String ISTANTANEA = "istantanea.dat";
+    private static final String REGISTRO = "registro-";
+    private static final String ESTENSIONE = ".log";
+    private final DataServerInterface data;
+    private final File dir;
+    /* letto da chi modifica il database, scritto da chi cambia registro */
+    private final ReentrantReadWriteLock modifiche;
+    private volatile RegistroOperazioni registro;
+    private long generazione;
+    private ScheduledExecutorService temporizzatore;
+    /* chi riceve le modifiche dopo il registro */
+    private volatile OsservatoreModifiche altro;
+
+    /**
+     * Crea un database persistente, che salva le sue modifiche in dir.
+     * Prima di usarlo bisogna chiamare ripristina().
+     * @param data il database da rendere persistente, vuoto
+     * @param dir la directory dell'istantanea e dei registri
+     */
+    public DataServerPersistente(DataServerInterface data, File dir) {
+        this.data = data;
+        this.dir = dir;
+        this.modifiche = new ReentrantReadWriteLock();
+        this.registro = null;
+        this.generazione = 0;
+        this.data.setOsservatore(new OsservatoreModifiche() {
+
+            public void modificato(byte tipo, IdClient c, Object arg) {
+                scrivi(tipo, c, arg);
+                OsservatoreModifiche o = altro;
+                if (o != null) {
+                    o.modificato(tipo, c, arg);
+                }
+            }
+        });
+    }
+
+    /**
+     * Ricostruisce il database dall'istantanea e dai registri salvati in
+     * dir, salva una nuova istantanea e inizia a registrare le modifiche
+     * @return i client ripristinati
+     * @throws IOException se l'istantanea o i registri non possono essere
+     * letti, o se non si riesce a creare il nuovo registro
+     */
+    public List<IdClient> ripristina() throws IOException {
+        if (!this.dir.isDirectory() && !this.dir.mkdirs()) {
+            throw new IOException("impossibile creare " + this.dir);
+        }
+        long inizio = System.currentTimeMillis();
+        File f = new File(this.dir, ISTANTANEA);
+        if (f.exists()) {
+            Istantanea ist = leggiIstantanea(f);
+            this.generazione = ist.getGenerazione();
+            for (int i = 0; i < ist.size(); i++) {
+                IdClient c = ist.getClient(i);
+                this.data.insertClient(c, ist.getCallback(i), ist.getToken(i));
+                for (FileDescriptor fd : ist.getPosseduti(i)) {
+                    this.data.ripristinaFile(c, fd, true);
+                }
+                for (FileDescriptor fd : ist.getRichiesti(i)) {
+                    this.data.ripristinaFile(c, fd, false);
+                }
+            }
+        }
+        int operazioni = 0;
+        for (long g = this.generazione;; g++) {
+            File r = fileRegistro(g);
+            if (!r.exists()) {
+                break;
+            }
+            operazioni += RegistroOperazioni.rileggi(r, this.data);
+            this.generazione = g;
+        }
+        List<IdClient> ripristinati = this.data.getClientList();
+        System.out.println("SERVER, database ripristinato da " + this.dir
+                + " in " + (System.currentTimeMillis() - inizio) + " ms: "
+                + ripristinati.size() + " client, "
+                + operazioni + " operazioni dal registro");
+        istantanea();
+        this.temporizzatore = Executors.newSingleThreadScheduledExecutor(
+                new ThreadFactory() {
+
+                    public Thread newThread(Runnable r) {
+                        Thread t = new Thread(r, "Istantanee DataServer");
+                        t.setDaemon(true);
+                        return t;
+                    }
+                });
+        this.temporizzatore.scheduleWithFixedDelay(new Runnable() {
+
+            public void run() {
+                if (registro.getRecord() > 0) {
+                    try {
+                        istantanea();
+                    } catch (IOException e) {
+                        System.out.println("SERVER, impossibile salvare "
+                                + "l'istantanea del database: " + e);
+                    }
+                }
+            }
+        }, Configuration.SRV_SNAPSHOT_INTERVAL,
+                Configuration.SRV_SNAPSHOT_INTERVAL, TimeUnit.MILLISECONDS);
+        return ripristinati;
+    }
+
+    /**
+     * Salva l'istantanea del database e inizia una nuova generazione del
+     * registro. Le modifiche sono bloccate solo mentre il database viene
+     * copiato in memoria, non durante la scrittura su disco.
+     * @throws IOException se l'istantanea non può essere scritta
+     */
+    public synchronized void istantanea() throws IOException {
+        Istantanea ist;
+        this.modifiche.writeLock().lock();
+        try {
+            ist = this.data.fotografa();
+            RegistroOperazioni nuovo =
+                    new RegistroOperazioni(fileRegistro(this.generazione + 1));
+            if (this.registro != null) {
+                this.registro.chiudi();
+            }
+            this.registro = nuovo;
+            this.generazione++;
+            ist.setGenerazione(this.generazione);
+        } finally {
+            this.modifiche.writeLock().unlock();
+        }
+        File tmp = new File(this.dir, ISTANTANEA + ".nuova");
+        FileOutputStream fos = new FileOutputStream(tmp);
+        try {
+            ObjectOutputStream out =
+                    new ObjectOutputStream(new BufferedOutputStream(fos));
+            out.writeObject(ist);
+            out.flush();
+            fos.getFD().sync();
+        } finally {
+            fos.close();
+        }
+        Files.move(tmp.toPath(), new File(this.dir, ISTANTANEA).toPath(),
+                StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+        /* i registri precedenti sono nell'istantanea */
+        for (long g = this.generazione - 1; g >= 0; g--) {
+            File r = fileRegistro(g);
+            if (!r.exists()) {
+                break;
+            }
+            r.delete();
+        }
+    }
+
+    /**
+     * Smette di salvare istantanee periodiche, salva l'ultima e chiude il
+     * registro
+     */
+    public void chiudi() {
+        if (this.temporizzatore != null) {
+            this.temporizzatore.shutdownNow();
+        }
+        try {
+            istantanea();
+        } catch (IOException e) {
+            System.out.println("SERVER, impossibile salvare l'istantanea "
+                    + "del database, resta il registro: " + e);
+        }
+        this.registro.chiudi();
+    }
+
+    private File fileRegistro(long g) {
+        return new File(this.dir, REGISTRO + g + ESTENSIONE);
+    }
+
+    private static Istantanea leggiIstantanea(File f) throws IOException {
+        ObjectInputStream in = new ObjectInputStream(
+                new BufferedInputStream(new FileInputStream(f)));
+        try {
+            return (Istantanea) in.readObject();
+        } catch (ClassNotFoundException e) {
+            throw new IOException(e);
+        } finally {
+            in.close();
+        }
+    }
+
+    /* aggiunge un'operazione al registro, chiamata dal database con il
+     * lock in lettura e i lock dell'operazione presi; durante il
+     * ripristino non c'è ancora un registro */
+    private void scrivi(byte tipo, IdClient c, Object arg) {
+        RegistroOperazioni r = this.registro;
+        if (r == null) {
+            return;
+        }
+        try {
+            r.scrivi(tipo, c, arg);
+        } catch (IOException e) {
+            System.out.println("SERVER, impossibile scrivere nel registro "
+                    + r.getFile() + ": " + e);
+        }
+    }
+
+    /**
+     * Aggiunge un client al database
+     * @param c client da aggiungere
+     * @param callback interfaccia remota del client
+     * @param token token di sessione dei keepalive del client, 0 se il
+     * client non l'ha fornito
+     * @return true se l'inserimento è andato a buon fine (non c'era già);
+     *         false altrimenti.
+     */
+    public boolean insertClient(IdClient c, ClientRemote callback,
+            long token) {
+        this.modifiche.readLock().lock();
+        try {
+            return this.data.insertClient(c, callback, token);
+        } finally {
+            this.modifiche.readLock().unlock();
+        }
+    }
+
+    /**
+     * Elimina il client c dal database
+     * @param c client da rimuovere
+     * @return true se il c era nel database; false altrimenti.
+     */
+    public boolean deleteClient(IdClient c) {
+        this.modifiche.readLock().lock();
+        try {
+            return this.data.deleteClient(c);
+        } finally {
+            this.modifiche.readLock().unlock();
+        }
+    }
+
+    /**
+     * Restituisce la Lista dei client attivi
+     * @return la Lista dei client attivi
+     */
+    public List<IdClient> getClientList() {
+        return this.data.getClientList();
+    }
+
+    /**
+     * Aggiunge il file f al database e mette il client c tra i suoi seeder
+     * @param c il client da aggiungere come seeder ad f
+     * @param f il file da aggiungere al database
+     * @return true se c è diventato seeder di f; false altrimenti
+     * @throws ClientNotActiveException se il client c non è attivo
+     */
+    public boolean insertFile(IdClient c, FileDescriptor f)
+            throws ClientNotActiveException {
+        this.modifiche.readLock().lock();
+        try {
+            return this.data.insertFile(c, f);
+        } finally {
+            this.modifiche.readLock().unlock();
+        }
+    }
+
+    /**
+     * Esegue insertFile per ogni file della lista, in un'unica operazione.
+     * I file accettati vengono scritti in un unico record del registro.
+     * @param c il client da aggiungere come seeder dei file
+     * @param files i file da aggiungere al database
+     * @return l'esito di ogni file: il bit i-esimo vale true se c è
+     * diventato seeder dell'i-esimo file
+     * @throws ClientNotActiveException se il client c non è attivo
+     */
+    public BitSet insertFiles(IdClient c, List<FileDescriptor> files)
+            throws ClientNotActiveException {
+        this.modifiche.readLock().lock();
+        try {
+            return this.data.insertFiles(c, files);
+        } finally {
+            this.modifiche.readLock().unlock();
+        }
+    }
+
+    /**
+     * Se esiste il file filename nel database, restituisce il FileDescriptor
+     * ed aggiunge c come leacher di questo.
+     * @param FileName il nome del file di cui si vuole il FileDescriptor
+     * @return FileDescriptor se il file c'è, null altrimenti.
+     */
+    public FileDescriptor getFile(String FileName, IdClient c)
+            throws ClientNotActiveException {
+        this.modifiche.readLock().lock();
+        try {
+            return this.data.getFile(FileName, c);
+        } finally {
+            this.modifiche.readLock().unlock();
+        }
+    }
+
+    /**
+     * Restituisce un seeder per il file f
+     * @param f il file di cui si vuole ottenere un seeder
+     * @return null se non c'è nessun seeder; il seeder altrimenti
+     */
+    public IdClient getSeeder(FileDescriptor f) {
+        return this.data.getSeeder(f);
+    }
+
+    /**
+     * Se il client c è un leacher del file f, questo diventa un seeder di f
+     * @param c il client da cambiare
+     * @param f il file di cui c è leacher
+     * @throws FileNotFoundException se f non è nella tabella dei files
+     * @throws ClientNotActiveException se c non è un client attivo
+     * @throws SeederExistsException se c è già seeder di f
+     * @throws LeacherNotFoundException se c non era leacher di f
+     */
+    public void leacherToSeeder(IdClient c, FileDescriptor f)
+            throws FileNotFoundException, ClientNotActiveException,
+            SeederExistsException, LeacherNotFoundException {
+        this.modifiche.readLock().lock();
+        try {
+            this.data.leacherToSeeder(c, f);
+        } finally {
+            this.modifiche.readLock().unlock();
+        }
+    }
+
+    /**
+     * Controlla se il client c è attivo
+     * @param c client da controllare
+     * @return true se c è attivo, false altrimenti
+     */
+    public boolean isActive(IdClient c) {
+        return this.data.isActive(c);
+    }
+
+    /**
+     * Controlla se il client c sta scaricando un file di nome filename
+     * @param c client da controllare
+     * @param filename nome del file
+     * @return true se c è leacher di un file con quel nome, false altrimenti
+     */
+    public boolean isLeacher(IdClient c, String filename) {
+        return this.data.isLeacher(c, filename);
+    }
+
+    /**
+     * Restituisce un iteratore per le callback dei client attivi
+     * @return un iteratore per le callback dei client attivi
+     */
+    public Iterator<?> scanCallback() {
+        return this.data.scanCallback();
+    }
+
+    /**
+     * Stampa a video la tabella dei file e la tabella dei client
+     */
+    public void printDataServer() {
+        this.data.printDataServer();
+    }
+
+    /**
+     * Rimuove client come leacher del file filename
+     * @param filename file da aggiornare
+     * @param client da rimuovere come leacher del file filename
+     */
+    public void removeLeacher(String filename, IdClient client) {
+        if (client == null) {
+            return;
+        }
+        this.modifiche.readLock().lock();
+        try {
+            this.data.removeLeacher(filename, client);
+        } finally {
+            this.modifiche.readLock().unlock();
+        }
+    }
+
+    /**
+     * Restituisce al più k seeder per il file f, dal meno al più carico
+     * @param f il file di cui si vogliono ottenere i seeder
+     * @param k numero massimo di seeder
+     * @return la lista dei seeder, vuota se non ce ne sono
+     */
+    public List<IdClient> getSeeders(FileDescriptor f, int k) {
+        return this.data.getSeeders(f, k);
+    }
+
+    /**
+     * Cerca i file il cui nome contiene la ricerca, dal più al meno
+     * condiviso. Non modifica il database e non viene registrata.
+     * @param ricerca la stringa da cercare
+     * @param da il numero di risultati da saltare
+     * @param quanti il numero massimo di risultati da restituire
+     * @return la pagina dei risultati
+     */
+    public FindResult find(String ricerca, int da, int quanti) {
+        return this.data.find(ricerca, da, quanti);
+    }
+
+    /**
+     * Restituisce il numero di client attivi
+     * @return il numero di client
+     */
+    public int countClient() {
+        return this.data.countClient();
+    }
+
+    /**
+     * Restituisce il numero di file condivisi
+     * @return il numero di file
+     */
+    public int countFile() {
+        return this.data.countFile();
+    }
+
+    /**
+     * Conta i seeders e i leachers dei file condivisi, senza prendere lock
+     * @param primi il numero di file più condivisi da riportare uno per uno
+     * @return il conteggio, approssimato
+     */
+    public ConteggioPeer contaPeer(int primi) {
+        return this.data.contaPeer(primi);
+    }
+
+    /**
+     * Registra l'esito di un trasferimento in cui c era il seeder. Le
+     * statistiche di carico non sono persistenti.
+     * @param c il seeder
+     * @param riuscito true se il trasferimento è riuscito, false altrimenti
+     */
+    public void esitoTrasferimento(IdClient c, boolean riuscito) {
+        this.data.esitoTrasferimento(c, riuscito);
+    }
+
+    /**
+     * Restituisce le statistiche di carico del client c, in cui il
+     * GestoreKeepAlive memorizza gli upload in corso dichiarati
+     * @param c il client
+     * @return il CaricoClient, null se c non è attivo
+     */
+    public CaricoClient getCarico(IdClient c) {
+        return this.data.getCarico(c);
+    }
+
+    /**
+     * Restituisce il token di sessione dei keepalive del client c, fornito
+     * con register
+     * @param c il client
+     * @return il token, 0 se c non è attivo o non l'ha fornito
+     */
+    public long getToken(IdClient c) {
+        return this.data.getToken(c);
+    }
+
+    /**
+     * Restituisce la callback del client c
+     * @param c il client
+     * @return la callback, null se c non è attivo o non l'ha fornita
+     */
+    public ClientRemote getCallback(IdClient c) {
+        return this.data.getCallback(c);
+    }
+
+    /**
+     * Aggiunge il client c ai seeders o ai leachers del file f, e f al
+     * database se non c'è
+     * @param c il client, deve essere attivo
+     * @param f il file
+     * @param seeder true se c è seeder di f, false se è leacher
+     * @return true se c è stato aggiunto, false altrimenti
+     */
+    public boolean ripristinaFile(IdClient c, FileDescriptor f,
+            boolean seeder) {
+        this.modifiche.readLock().lock();
+        try {
+            return this.data.ripristinaFile(c, f, seeder);
+        } finally {
+            this.modifiche.readLock().unlock();
+        }
+    }
+
+    /**
+     * Restituisce una copia del database (vedi
+     * DataServerInterface.fotografa)
+     * @return l'istantanea del database
+     */
+    public Istantanea fotografa() {
+        return this.data.fotografa();
+    }
+
+    /**
+     * Imposta chi riceve le modifiche fatte al database, dopo che sono
+     * state scritte nel registro
+     * @param o l'osservatore, null per nessuno
+     */
+    public void setOsservatore(OsservatoreModifiche o) {
+        this.altro = o;
+    }
+}
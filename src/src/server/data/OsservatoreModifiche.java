@@ -0,0 +1,24 @@
+package server.data;
+
+import common.identifier.IdClient;
+
+/**
+ * Riceve le modifiche fatte al database, ad esempio per scriverle in un
+ * registro (vedi DataServerPersistente).
+ * Il database chiama modificato dopo ogni operazione riuscita che lo
+ * modifica, mentre tiene ancora i lock dei client e dei file coinvolti:
+ * due operazioni sullo stesso client o sullo stesso file vengono quindi
+ * notificate nell'ordine in cui sono state eseguite. Per lo stesso motivo
+ * modificato non deve usare il database.
+ * @author Federico Della Bona - Alessandro Lensi
+ */
+public interface OsservatoreModifiche {
+
+    /**
+     * Segnala una modifica al database
+     * @param tipo il tipo dell'operazione (vedi RegistroOperazioni)
+     * @param c il client che l'ha eseguita
+     * @param arg l'argomento dell'operazione, o null
+     */
+    public void modificato(byte tipo, IdClient c, Object arg);
+}
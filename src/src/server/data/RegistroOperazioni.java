@@ -0,0 +1,254 @@
+package server.data;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.RandomAccessFile;
+import java.util.BitSet;
+import java.util.List;
+import java.util.zip.CRC32;
+import common.identifier.FileDescriptor;
+import common.identifier.IdClient;
+import common.remote.ClientRemote;
+import common.Configuration;
+
+/**
+ * Registro (write-ahead log) delle operazioni che modificano il database
+ * del server. Ogni operazione è un record
+ * <pre>
+ * lunghezza (int) | CRC32 (long) | tipo, client, argomento serializzati
+ * </pre>
+ * aggiunto in fondo al file. Rileggendo il registro, un record incompleto
+ * o con il CRC sbagliato (scritto a metà durante un crash) termina il
+ * registro e viene troncato.
+ * @author Federico Della Bona - Alessandro Lensi
+ */
+class RegistroOperazioni {
+
+    /** register dei registri precedenti, argomento la callback */
+    static final byte CLIENT_INSERITO = 1;
+    /** client eliminato, nessun argomento */
+    static final byte CLIENT_RIMOSSO = 2;
+    /** publish, argomento il FileDescriptor */
+    static final byte SEEDER = 3;
+    /** search, argomento il FileDescriptor restituito */
+    static final byte LEACHER = 4;
+    /** completed, argomento il FileDescriptor */
+    static final byte COMPLETATO = 5;
+    /** transferFailed, argomento il nome del file */
+    static final byte LEACHER_RIMOSSO = 6;
+    /** publishAll, argomento l'array dei FileDescriptor accettati */
+    static final byte SEEDER_MULTIPLO = 7;
+    /** register, argomento l'array con la callback e il token (Long) */
+    static final byte CLIENT_CON_TOKEN = 8;
+    /* dimensione massima di un record, oltre il registro è rovinato */
+    private static final int DIMENSIONE_MAX = 16 * 1024 * 1024;
+
+    private final File file;
+    private final FileOutputStream fos;
+    private final DataOutputStream out;
+    private final CRC32 crc;
+    private int record;
+
+    /**
+     * Apre il registro in scrittura, in fondo al file
+     * @param file il file del registro
+     * @throws IOException se il file non può essere aperto
+     */
+    RegistroOperazioni(File file) throws IOException {
+        this.file = file;
+        this.fos = new FileOutputStream(file, true);
+        this.out = new DataOutputStream(new BufferedOutputStream(this.fos));
+        this.crc = new CRC32();
+        this.record = 0;
+    }
+
+    /**
+     * Aggiunge un'operazione al registro
+     * @param tipo il tipo dell'operazione
+     * @param c il client che l'ha eseguita
+     * @param arg l'argomento, o null
+     * @throws IOException in caso di errori di scrittura
+     */
+    synchronized void scrivi(byte tipo, IdClient c, Object arg)
+            throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream(256);
+        ObjectOutputStream oos = new ObjectOutputStream(bos);
+        oos.writeByte(tipo);
+        oos.writeObject(c);
+        oos.writeObject(arg);
+        oos.close();
+        byte[] b = bos.toByteArray();
+        this.crc.reset();
+        this.crc.update(b, 0, b.length);
+        this.out.writeInt(b.length);
+        this.out.writeLong(this.crc.getValue());
+        this.out.write(b);
+        this.out.flush();
+        if (Configuration.SRV_LOG_SYNC) {
+            this.fos.getFD().sync();
+        }
+        this.record++;
+    }
+
+    /**
+     * Restituisce i file accettati da una insertFiles, argomento di un
+     * record SEEDER_MULTIPLO
+     * @param files i file della insertFiles
+     * @param esiti il suo risultato
+     * @return i file il cui bit in esiti vale true
+     */
+    static FileDescriptor[] accettati(List<FileDescriptor> files,
+            BitSet esiti) {
+        FileDescriptor[] a = new FileDescriptor[esiti.cardinality()];
+        int k = 0;
+        for (int i = esiti.nextSetBit(0); i >= 0;
+                i = esiti.nextSetBit(i + 1)) {
+            a[k++] = files.get(i);
+        }
+        return a;
+    }
+
+    /**
+     * Restituisce il numero di operazioni scritte da quando il registro è
+     * stato aperto
+     * @return il numero di operazioni
+     */
+    synchronized int getRecord() {
+        return this.record;
+    }
+
+    /**
+     * Restituisce il file del registro
+     * @return il file
+     */
+    File getFile() {
+        return this.file;
+    }
+
+    /**
+     * Chiude il registro
+     */
+    synchronized void chiudi() {
+        try {
+            this.out.close();
+        } catch (IOException ex) {
+        }
+    }
+
+    /**
+     * Esegue sul database tutte le operazioni di un registro, nell'ordine
+     * in cui sono state scritte. Le operazioni che falliscono (ad esempio
+     * perché il database contiene già il loro effetto) vengono ignorate.
+     * @param file il file del registro
+     * @param data il database da aggiornare
+     * @return il numero di operazioni rilette
+     * @throws IOException in caso di errori di lettura
+     */
+    static int rileggi(File file, DataServerInterface data)
+            throws IOException {
+        DataInputStream in = new DataInputStream(new FileInputStream(file));
+        long valido = 0;
+        int n = 0;
+        CRC32 crc = new CRC32();
+        try {
+            while (true) {
+                int len;
+                long atteso;
+                byte[] b;
+                try {
+                    len = in.readInt();
+                    atteso = in.readLong();
+                    if (len < 0 || len > DIMENSIONE_MAX) {
+                        break;
+                    }
+                    b = new byte[len];
+                    in.readFully(b);
+                } catch (EOFException e) {
+                    break;
+                }
+                crc.reset();
+                crc.update(b, 0, len);
+                if (crc.getValue() != atteso) {
+                    break;
+                }
+                esegui(b, data);
+                valido += 12 + len;
+                n++;
+            }
+        } finally {
+            in.close();
+        }
+        if (valido < file.length()) {
+            System.out.println("SERVER, il registro " + file
+                    + " termina con un record incompleto, lo tronco");
+            RandomAccessFile raf = new RandomAccessFile(file, "rw");
+            try {
+                raf.setLength(valido);
+            } finally {
+                raf.close();
+            }
+        }
+        return n;
+    }
+
+    /* esegue un record sul database */
+    private static void esegui(byte[] b, DataServerInterface data)
+            throws IOException {
+        ObjectInputStream ois =
+                new ObjectInputStream(new ByteArrayInputStream(b));
+        byte tipo;
+        IdClient c;
+        Object arg;
+        try {
+            tipo = ois.readByte();
+            c = (IdClient) ois.readObject();
+            arg = ois.readObject();
+        } catch (ClassNotFoundException e) {
+            throw new IOException(e);
+        }
+        switch (tipo) {
+            case CLIENT_INSERITO:
+                data.insertClient(c, (ClientRemote) arg, 0);
+                break;
+            case CLIENT_CON_TOKEN:
+                Object[] a = (Object[]) arg;
+                data.insertClient(c, (ClientRemote) a[0], (Long) a[1]);
+                break;
+            case CLIENT_RIMOSSO:
+                data.deleteClient(c);
+                break;
+            case SEEDER:
+                data.ripristinaFile(c, (FileDescriptor) arg, true);
+                break;
+            case LEACHER:
+                data.ripristinaFile(c, (FileDescriptor) arg, false);
+                break;
+            case COMPLETATO:
+                try {
+                    data.leacherToSeeder(c, (FileDescriptor) arg);
+                } catch (Exception e) {
+                }
+                break;
+            case LEACHER_RIMOSSO:
+                data.removeLeacher((String) arg, c);
+                break;
+            case SEEDER_MULTIPLO:
+                for (FileDescriptor f : (FileDescriptor[]) arg) {
+                    data.ripristinaFile(c, f, true);
+                }
+                break;
+            default:
+                throw new IOException("operazione " + tipo + " sconosciuta");
+        }
+    }
+}
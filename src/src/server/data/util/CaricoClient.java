@@ -0,0 +1,100 @@
+package server.data.util;
+
+import common.Configuration;
+
+/**
+ * La classe CaricoClient mantiene le statistiche usate per scegliere i
+ * seeder meno carichi:
+ * - gli upload in corso dichiarati dal client nei keepalive;
+ * - i download assegnati al client dal server e non ancora conclusi, un
+ *   valore che decade nel tempo così da non crescere all'infinito per i
+ *   download di cui non si saprà mai l'esito;
+ * - il tasso recente di trasferimenti falliti (media mobile esponenziale).
+ * @author Federico Della Bona - Alessandro Lensi
+ */
+public class CaricoClient {
+
+    /* peso della nuova misura nella media dei fallimenti */
+    private static final double ALFA = 0.2;
+    private volatile int dichiarato;
+    /* protetti dal lock dell'oggetto */
+    private double assegnati;
+    private long ultimoDecadimento;
+    private double tassoFallimenti;
+
+    /**
+     * Crea un CaricoClient per un client senza trasferimenti
+     */
+    public CaricoClient() {
+        this.dichiarato = 0;
+        this.assegnati = 0;
+        this.ultimoDecadimento = System.currentTimeMillis();
+        this.tassoFallimenti = 0;
+    }
+
+    /**
+     * Memorizza il numero di upload in corso dichiarato dal client
+     * @param n upload in corso
+     */
+    public void setDichiarato(int n) {
+        this.dichiarato = n;
+    }
+
+    /**
+     * Restituisce il numero di upload in corso dichiarato dal client
+     * @return upload in corso
+     */
+    public int getDichiarato() {
+        return this.dichiarato;
+    }
+
+    /* fa decadere i download assegnati fino all'istante ora */
+    private void decadi(long ora) {
+        long trascorso = ora - this.ultimoDecadimento;
+        if (trascorso > 0) {
+            this.assegnati *= Math.exp(
+                    -(double) trascorso / Configuration.SRV_LOAD_DECAY);
+            this.ultimoDecadimento = ora;
+        }
+    }
+
+    /**
+     * Segnala che il server ha indicato il client come seeder per un
+     * download
+     */
+    public synchronized void assegnato() {
+        decadi(System.currentTimeMillis());
+        this.assegnati += 1;
+    }
+
+    /**
+     * Segnala la fine di un trasferimento in cui il client era seeder
+     * @param riuscito true se il trasferimento è riuscito, false se è fallito
+     */
+    public synchronized void esito(boolean riuscito) {
+        decadi(System.currentTimeMillis());
+        this.assegnati = Math.max(0, this.assegnati - 1);
+        this.tassoFallimenti = (1 - ALFA) * this.tassoFallimenti
+                + ALFA * (riuscito ? 0 : 1);
+    }
+
+    /**
+     * Restituisce il tasso recente di trasferimenti falliti
+     * @return un valore tra 0 e 1
+     */
+    public synchronized double getTassoFallimenti() {
+        return this.tassoFallimenti;
+    }
+
+    /**
+     * Restituisce il punteggio del client come seeder: più è basso, meno
+     * il client è carico
+     * @param ora l'istante attuale in millisecondi
+     * @return il punteggio
+     */
+    public synchronized double punteggio(long ora) {
+        decadi(ora);
+        return this.dichiarato + this.assegnati
+                + Configuration.SRV_LOAD_FAILURE_WEIGHT * this.tassoFallimenti;
+    }
+}
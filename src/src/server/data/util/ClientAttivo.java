@@ -1,26 +1,79 @@
 package server.data.util;
 
 import java.util.Iterator;
-import java.util.LinkedList;
+import java.util.LinkedHashSet;
 import common.identifier.FileDescriptor;
+import common.remote.ClientRemote;
 
 /**
  * La classe ClientAttivo mantiene la lista dei file posseduti e richiesti
- * da un client
+ * da un client.
+ * Le liste sono insiemi hash, così i controlli di appartenenza non
+ * dipendono dal numero di file del client.
  * @author Federico Della Bona - Alessandro Lensi
  */
 public class ClientAttivo {
 
-    private LinkedList<FileDescriptor> file_posseduti;
-    private LinkedList<FileDescriptor> file_richiesti;
+    private LinkedHashSet<FileDescriptor> file_posseduti;
+    private LinkedHashSet<FileDescriptor> file_richiesti;
+    private ClientRemote callback;
+    private final CaricoClient carico;
+    /* token di sessione dei keepalive, 0 se il client non l'ha fornito */
+    private final long token;
 
 
     /**
      * Crea un ClientAttivo senza file posseduti e richiesti
      */
     public ClientAttivo(){
-        this.file_posseduti = new LinkedList<FileDescriptor>();
-        this.file_richiesti = new LinkedList<FileDescriptor>();
+        this(null, 0);
+    }
+
+    /**
+     * Crea un ClientAttivo senza file posseduti e richiesti, associato
+     * alla callback del client
+     * @param callback callback remota del client (può essere null)
+     */
+    public ClientAttivo(ClientRemote callback){
+        this(callback, 0);
+    }
+
+    /**
+     * Crea un ClientAttivo senza file posseduti e richiesti, associato
+     * alla callback e al token di sessione del client
+     * @param callback callback remota del client (può essere null)
+     * @param token token di sessione dei keepalive, 0 se non c'è
+     */
+    public ClientAttivo(ClientRemote callback, long token){
+        this.file_posseduti = new LinkedHashSet<FileDescriptor>();
+        this.file_richiesti = new LinkedHashSet<FileDescriptor>();
+        this.callback = callback;
+        this.carico = new CaricoClient();
+        this.token = token;
+    }
+
+    /**
+     * Restituisce le statistiche di carico del client
+     * @return il CaricoClient
+     */
+    public CaricoClient getCarico(){
+        return this.carico;
+    }
+
+    /**
+     * Restituisce il token di sessione dei keepalive del client
+     * @return il token, 0 se il client non l'ha fornito
+     */
+    public long getToken(){
+        return this.token;
+    }
+
+    /**
+     * Restituisce la callback del client
+     * @return la callback, null se il client non ne ha fornita una
+     */
+    public ClientRemote getCallback(){
+        return this.callback;
     }
 
     /**
@@ -28,7 +81,7 @@ public class ClientAttivo {
      * @param f file da aggiungere
      */
     public void addFilePosseduto(FileDescriptor f){
-        this.file_posseduti.addFirst(f);
+        this.file_posseduti.add(f);
     }
 
     /**
@@ -0,0 +1,129 @@
+package server.data.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import common.identifier.FileDescriptor;
+
+/**
+ * Il numero di seeders e di leachers dei file condivisi, contato per le
+ * metriche del server: i totali, la distribuzione dei file per numero di
+ * seeders e i valori dei file più condivisi.
+ * Viene riempito da TableFileCondivisi.contaPeer() senza prendere lock,
+ * quindi può non corrispondere esattamente a nessuno stato della tabella.
+ * @author Federico Della Bona - Alessandro Lensi
+ */
+public class ConteggioPeer {
+
+    /** estremi superiori degli intervalli della distribuzione dei file
+     * per numero di seeders */
+    public static final int[] LIMITI_SEEDERS = {0, 1, 2, 5, 10, 20, 50, 100,
+        1000};
+    private int file;
+    private long seeders;
+    private long leachers;
+    /* file con al più LIMITI_SEEDERS[i] seeders, non cumulativo */
+    private final long[] distribuzione;
+    private final List<FileDescriptor> primi;
+    private final List<int[]> peerPrimi;
+
+    /**
+     * Crea un conteggio vuoto
+     */
+    public ConteggioPeer() {
+        this.distribuzione = new long[LIMITI_SEEDERS.length + 1];
+        this.primi = new ArrayList<FileDescriptor>();
+        this.peerPrimi = new ArrayList<int[]>();
+    }
+
+    /**
+     * Conta un file
+     * @param s i seeders del file
+     * @param l i leachers del file
+     */
+    void conta(int s, int l) {
+        this.file++;
+        this.seeders += s;
+        this.leachers += l;
+        int i = 0;
+        while (i < LIMITI_SEEDERS.length && s > LIMITI_SEEDERS[i]) {
+            i++;
+        }
+        this.distribuzione[i]++;
+    }
+
+    /**
+     * Aggiunge un file a quelli più condivisi, dal più condiviso
+     * @param fd il file
+     * @param s i seeders del file
+     * @param l i leachers del file
+     */
+    void aggiungiPrimo(FileDescriptor fd, int s, int l) {
+        this.primi.add(fd);
+        this.peerPrimi.add(new int[]{s, l});
+    }
+
+    /**
+     * @return il numero di file contati
+     */
+    public int getFile() {
+        return this.file;
+    }
+
+    /**
+     * @return la somma dei seeders di tutti i file
+     */
+    public long getSeeders() {
+        return this.seeders;
+    }
+
+    /**
+     * @return la somma dei leachers di tutti i file
+     */
+    public long getLeachers() {
+        return this.leachers;
+    }
+
+    /**
+     * Restituisce il numero di file con al più LIMITI_SEEDERS[i] seeders
+     * @param i l'indice del limite, LIMITI_SEEDERS.length per tutti i file
+     * @return il numero di file, cumulativo
+     */
+    public long getFileFino(int i) {
+        long n = 0;
+        for (int j = 0; j <= i; j++) {
+            n += this.distribuzione[j];
+        }
+        return n;
+    }
+
+    /**
+     * @return il numero di file più condivisi riportati uno per uno
+     */
+    public int numPrimi() {
+        return this.primi.size();
+    }
+
+    /**
+     * @param i la posizione, 0 per il file più condiviso
+     * @return il file in posizione i
+     */
+    public FileDescriptor getPrimo(int i) {
+        return this.primi.get(i);
+    }
+
+    /**
+     * @param i la posizione, 0 per il file più condiviso
+     * @return i seeders del file in posizione i
+     */
+    public int getSeedersPrimo(int i) {
+        return this.peerPrimi.get(i)[0];
+    }
+
+    /**
+     * @param i la posizione, 0 per il file più condiviso
+     * @return i leachers del file in posizione i
+     */
+    public int getLeachersPrimo(int i) {
+        return this.peerPrimi.get(i)[1];
+    }
+}
@@ -1,19 +1,27 @@
 package server.data.util;
 
+import java.util.ArrayList;
 import java.util.Iterator;
-import java.util.LinkedList;
+import java.util.LinkedHashSet;
+import java.util.List;
 import common.identifier.FileDescriptor;
 import common.identifier.IdClient;
 
 /**
  * La classe FileCondiviso mantiene la lista dei seeders e dei leachers
- * per un file descriptor
+ * per un file descriptor.
+ * Le liste sono insiemi hash che mantengono l'ordine di inserimento, così
+ * inserimenti, rimozioni e controlli di appartenenza costano O(1) anche per
+ * file con moltissimi peer.
+ * Un file con gli hash può essere pubblicato da più client con nomi
+ * diversi: il FileCondiviso mantiene anche tutti i nomi del file.
  * @author Federico Della Bona - Alessandro Lensi
  */
 public class FileCondiviso {
     private FileDescriptor fd;
-    private LinkedList<IdClient> seeders;
-    private LinkedList<IdClient> leachers;
+    private LinkedHashSet<IdClient> seeders;
+    private LinkedHashSet<IdClient> leachers;
+    private LinkedHashSet<String> nomi;
 
     /**
      * Crea un FileCondiviso senza seeders e senza leachers
@@ -21,8 +29,10 @@ public class FileCondiviso {
      */
     public FileCondiviso(FileDescriptor fd){
         this.fd = fd;
-        this.seeders = new LinkedList<IdClient>();
-        this.leachers = new LinkedList<IdClient>();
+        this.seeders = new LinkedHashSet<IdClient>();
+        this.leachers = new LinkedHashSet<IdClient>();
+        this.nomi = new LinkedHashSet<String>();
+        this.nomi.add(fd.getName());
     }
 
 
@@ -31,7 +41,7 @@ public class FileCondiviso {
      * @param id client da aggiungere
      */
     public void addSeeder(IdClient id){
-        this.seeders.addFirst(id);
+        this.seeders.add(id);
     }
 
     /**
@@ -42,6 +52,15 @@ public class FileCondiviso {
         this.leachers.add(id);
     }
 
+    /**
+     * Aggiunge un nome con cui è stato pubblicato il file
+     * @param nome il nome da aggiungere
+     * @return true se il nome non c'era, false altrimenti
+     */
+    public boolean addNome(String nome){
+        return this.nomi.add(nome);
+    }
+
     /**
      * Rimuove id come leacher
      * @param id da rimuovere
@@ -69,17 +88,41 @@ public class FileCondiviso {
     }
 
     /**
-     * Restituisce un seeder per questo FileCondiviso
+     * Restituisce un seeder per questo FileCondiviso. I seeders vengono
+     * restituiti a turno: il seeder scelto viene spostato in fondo
+     * all'ordine di inserimento.
      * @return un IdClient seeder del FileCondiviso
      */
     public IdClient getSeeder(){
         if(this.seeders.isEmpty())
             return null;
-        IdClient id =  this.seeders.removeFirst();
-        this.seeders.addLast(id);
+        Iterator<IdClient> it = this.seeders.iterator();
+        IdClient id = it.next();
+        it.remove();
+        this.seeders.add(id);
         return id;
     }
 
+    /**
+     * Restituisce al più n seeders per questo FileCondiviso. Come per
+     * getSeeder() i seeders restituiti vengono spostati in fondo
+     * all'ordine di inserimento, così chiamate successive restituiscono
+     * seeders diversi.
+     * @param n numero massimo di seeders
+     * @return la lista dei seeders, vuota se non ce ne sono
+     */
+    public List<IdClient> getSeeders(int n){
+        List<IdClient> l = new ArrayList<IdClient>(
+                Math.min(n, this.seeders.size()));
+        Iterator<IdClient> it = this.seeders.iterator();
+        while(l.size() < n && it.hasNext()){
+            l.add(it.next());
+            it.remove();
+        }
+        this.seeders.addAll(l);
+        return l;
+    }
+
     /**
      * Restituisce il numero di seeders
      * @return il numero di seeders
@@ -130,12 +173,21 @@ public class FileCondiviso {
         return this.leachers.iterator();
     }
 
+    /**
+     * restituisce un iteratore per i nomi del file
+     * @return l'iteratore
+     */
+    public Iterator<String> scanNomi(){
+        return this.nomi.iterator();
+    }
+
     /**
      * Stampa a video le informazioni dell'oggetto
      */
     public void stampa(){
         Iterator gen_seeders = scanSeeder();
         Iterator gen_leachers = scanLeacher();
+        System.out.println("Nomi: " + this.nomi);
         System.out.println("Seeders: ");
         while(gen_seeders.hasNext()){
             System.out.println(gen_seeders.next());
@@ -0,0 +1,189 @@
+package server.data.util;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.TreeMap;
+
+/**
+ * Indice dei nomi dei file per la ricerca per sottostringa.
+ * Ad ogni nome è assegnato un numero; per ogni trigramma (tre caratteri
+ * consecutivi del nome in minuscolo) l'indice mantiene la lista dei numeri
+ * dei nomi che lo contengono. Una ricerca di almeno tre caratteri scorre
+ * la lista più corta tra quelle dei trigrammi della ricerca, controllando
+ * per ogni nome che contenga davvero la ricerca. Le ricerche più corte
+ * restituiscono i nomi che iniziano con la ricerca, usando un indice
+ * ordinato.
+ * L'indice non è sincronizzato: chi lo usa deve serializzare gli accessi.
+ * @author Federico Della Bona - Alessandro Lensi
+ */
+public class IndiceNomi {
+
+    private static final int[] VUOTA = new int[0];
+    /* numero -> nome, null se il numero è libero */
+    private final ArrayList<String> nomi;
+    /* numero -> nome in minuscolo */
+    private final ArrayList<String> minuscoli;
+    private final HashMap<String, Integer> numeri;
+    private final ArrayList<Integer> liberi;
+    private final HashMap<Long, Lista> trigrammi;
+    /* nome in minuscolo, '\0', nome -> nome */
+    private final TreeMap<String, String> ordinati;
+
+    /* lista di numeri di nomi, senza ordine */
+    private static class Lista {
+
+        int[] v = VUOTA;
+        int n;
+
+        void aggiungi(int x) {
+            if (this.n == this.v.length) {
+                int[] nuovo = new int[Math.max(4, this.n * 2)];
+                System.arraycopy(this.v, 0, nuovo, 0, this.n);
+                this.v = nuovo;
+            }
+            this.v[this.n++] = x;
+        }
+
+        void rimuovi(int x) {
+            for (int i = 0; i < this.n; i++) {
+                if (this.v[i] == x) {
+                    this.v[i] = this.v[--this.n];
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Crea un indice vuoto
+     */
+    public IndiceNomi() {
+        this.nomi = new ArrayList<String>();
+        this.minuscoli = new ArrayList<String>();
+        this.numeri = new HashMap<String, Integer>();
+        this.liberi = new ArrayList<Integer>();
+        this.trigrammi = new HashMap<Long, Lista>();
+        this.ordinati = new TreeMap<String, String>();
+    }
+
+    /**
+     * Aggiunge un nome all'indice
+     * @param nome il nome da aggiungere
+     * @return true se il nome è stato aggiunto, false se c'era già
+     */
+    public boolean aggiungi(String nome) {
+        if (this.numeri.containsKey(nome)) {
+            return false;
+        }
+        String min = minuscolo(nome);
+        int x;
+        if (this.liberi.isEmpty()) {
+            x = this.nomi.size();
+            this.nomi.add(nome);
+            this.minuscoli.add(min);
+        } else {
+            x = this.liberi.remove(this.liberi.size() - 1);
+            this.nomi.set(x, nome);
+            this.minuscoli.set(x, min);
+        }
+        this.numeri.put(nome, x);
+        for (Long t : trigrammiDi(min)) {
+            Lista l = this.trigrammi.get(t);
+            if (l == null) {
+                l = new Lista();
+                this.trigrammi.put(t, l);
+            }
+            l.aggiungi(x);
+        }
+        this.ordinati.put(min + '\0' + nome, nome);
+        return true;
+    }
+
+    /**
+     * Rimuove un nome dall'indice
+     * @param nome il nome da rimuovere
+     * @return true se il nome è stato rimosso, false se non c'era
+     */
+    public boolean rimuovi(String nome) {
+        Integer x = this.numeri.remove(nome);
+        if (x == null) {
+            return false;
+        }
+        String min = this.minuscoli.get(x);
+        for (Long t : trigrammiDi(min)) {
+            Lista l = this.trigrammi.get(t);
+            l.rimuovi(x);
+            if (l.n == 0) {
+                this.trigrammi.remove(t);
+            }
+        }
+        this.ordinati.remove(min + '\0' + nome);
+        this.nomi.set(x, null);
+        this.minuscoli.set(x, null);
+        this.liberi.add(x);
+        return true;
+    }
+
+    /**
+     * Restituisce il numero di nomi nell'indice
+     * @return il numero di nomi
+     */
+    public int size() {
+        return this.numeri.size();
+    }
+
+    /**
+     * Cerca i nomi che contengono la ricerca, senza distinguere maiuscole
+     * e minuscole. Se la ricerca ha meno di tre caratteri restituisce i
+     * nomi che iniziano con la ricerca.
+     * @param ricerca la stringa da cercare
+     * @return la lista dei nomi trovati, senza un ordine particolare
+     */
+    public List<String> cerca(String ricerca) {
+        List<String> trovati = new ArrayList<String>();
+        String min = minuscolo(ricerca);
+        if (min.length() == 0) {
+            return trovati;
+        }
+        if (min.length() < 3) {
+            trovati.addAll(this.ordinati.subMap(
+                    min, min + Character.MAX_VALUE).values());
+            return trovati;
+        }
+        Lista corta = null;
+        for (Long t : trigrammiDi(min)) {
+            Lista l = this.trigrammi.get(t);
+            if (l == null) {
+                return trovati;
+            }
+            if (corta == null || l.n < corta.n) {
+                corta = l;
+            }
+        }
+        for (int i = 0; i < corta.n; i++) {
+            int x = corta.v[i];
+            if (this.minuscoli.get(x).contains(min)) {
+                trovati.add(this.nomi.get(x));
+            }
+        }
+        return trovati;
+    }
+
+    private static String minuscolo(String s) {
+        return s.toLowerCase(Locale.ROOT);
+    }
+
+    /* i trigrammi distinti di s, ognuno codificato in un long */
+    private static HashSet<Long> trigrammiDi(String s) {
+        HashSet<Long> t = new HashSet<Long>();
+        for (int i = 0; i + 3 <= s.length(); i++) {
+            t.add(((long) s.charAt(i) << 32)
+                    | ((long) s.charAt(i + 1) << 16)
+                    | s.charAt(i + 2));
+        }
+        return t;
+    }
+}
@@ -0,0 +1,203 @@
+package server.data.util;
+
+import java.io.PrintStream;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import common.identifier.FileDescriptor;
+import common.identifier.IdClient;
+import common.remote.ClientRemote;
+
+/**
+ * La classe Istantanea contiene una copia, serializzabile, del database del
+ * server in un certo istante: per ogni client attivo la callback, il token
+ * di sessione dei keepalive, i file posseduti e i file richiesti. Le liste dei seeders e dei leachers dei
+ * file si ricostruiscono da quelle dei client.
+ * Contiene anche la generazione del registro delle operazioni da cui
+ * ripartire: le operazioni dei registri precedenti sono già nell'istantanea.
+ * Un'istantanea può essere stampata senza bloccare il database da cui è
+ * stata presa.
+ * @author Federico Della Bona - Alessandro Lensi
+ */
+public class Istantanea implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+    private static final FileDescriptor[] NESSUN_FILE = new FileDescriptor[0];
+    private final ArrayList<IdClient> client;
+    private final ArrayList<ClientRemote> callback;
+    /* null nelle istantanee salvate prima che ci fossero i token */
+    private final ArrayList<Long> token;
+    private final ArrayList<FileDescriptor[]> posseduti;
+    private final ArrayList<FileDescriptor[]> richiesti;
+    private long generazione;
+
+    /* un file della tabella dei file, ricostruito dalle liste dei client */
+    private static class VoceFile {
+
+        final LinkedHashSet<String> nomi = new LinkedHashSet<String>();
+        final ArrayList<IdClient> seeders = new ArrayList<IdClient>();
+        final ArrayList<IdClient> leachers = new ArrayList<IdClient>();
+    }
+
+    /**
+     * Crea un'istantanea vuota
+     */
+    public Istantanea() {
+        this.client = new ArrayList<IdClient>();
+        this.callback = new ArrayList<ClientRemote>();
+        this.token = new ArrayList<Long>();
+        this.posseduti = new ArrayList<FileDescriptor[]>();
+        this.richiesti = new ArrayList<FileDescriptor[]>();
+    }
+
+    /**
+     * Aggiunge un client all'istantanea
+     * @param id il client
+     * @param cb la callback del client, può essere null
+     * @param token il token di sessione dei keepalive, 0 se non c'è
+     * @param pos generatore dei file posseduti
+     * @param ric generatore dei file richiesti
+     */
+    public void aggiungi(IdClient id, ClientRemote cb, long token,
+            Iterator<?> pos, Iterator<?> ric) {
+        this.client.add(id);
+        this.callback.add(cb);
+        this.token.add(token);
+        this.posseduti.add(copia(pos));
+        this.richiesti.add(copia(ric));
+    }
+
+    private static FileDescriptor[] copia(Iterator<?> i) {
+        ArrayList<FileDescriptor> l = new ArrayList<FileDescriptor>();
+        while (i.hasNext()) {
+            l.add((FileDescriptor) i.next());
+        }
+        return l.toArray(NESSUN_FILE);
+    }
+
+    /**
+     * Restituisce il numero di client
+     * @return il numero di client
+     */
+    public int size() {
+        return this.client.size();
+    }
+
+    /**
+     * Restituisce l'i-esimo client
+     * @param i indice del client
+     * @return il client
+     */
+    public IdClient getClient(int i) {
+        return this.client.get(i);
+    }
+
+    /**
+     * Restituisce la callback dell'i-esimo client
+     * @param i indice del client
+     * @return la callback, null se il client non l'aveva fornita
+     */
+    public ClientRemote getCallback(int i) {
+        return this.callback.get(i);
+    }
+
+    /**
+     * Restituisce il token di sessione dei keepalive dell'i-esimo client
+     * @param i indice del client
+     * @return il token, 0 se il client non l'aveva fornito
+     */
+    public long getToken(int i) {
+        return (this.token == null) ? 0 : this.token.get(i);
+    }
+
+    /**
+     * Restituisce i file posseduti dall'i-esimo client
+     * @param i indice del client
+     * @return i file posseduti
+     */
+    public FileDescriptor[] getPosseduti(int i) {
+        return this.posseduti.get(i);
+    }
+
+    /**
+     * Restituisce i file richiesti dall'i-esimo client
+     * @param i indice del client
+     * @return i file richiesti
+     */
+    public FileDescriptor[] getRichiesti(int i) {
+        return this.richiesti.get(i);
+    }
+
+    /**
+     * Restituisce la generazione del primo registro delle operazioni non
+     * contenuto nell'istantanea
+     * @return la generazione
+     */
+    public long getGenerazione() {
+        return this.generazione;
+    }
+
+    /**
+     * Imposta la generazione del primo registro delle operazioni non
+     * contenuto nell'istantanea
+     * @param generazione la generazione
+     */
+    public void setGenerazione(long generazione) {
+        this.generazione = generazione;
+    }
+
+    /**
+     * Stampa la tabella dei client e la tabella dei file, nel formato di
+     * DataServerInterface.printDataServer
+     * @param out lo stream su cui stampare
+     */
+    public void stampa(PrintStream out) {
+        LinkedHashMap<String, VoceFile> file =
+                new LinkedHashMap<String, VoceFile>();
+        out.println("*-*-*-*----Tabella dei Client----*-*-*-*");
+        for (int i = 0; i < size(); i++) {
+            out.println(getClient(i).toString());
+            out.println("FileDescriptor posseduti: ");
+            for (FileDescriptor f : getPosseduti(i)) {
+                out.println(f);
+                VoceFile v = voce(file, f);
+                v.nomi.add(f.getName());
+                v.seeders.add(getClient(i));
+            }
+            out.println("FileDescriptor richiesti: ");
+            for (FileDescriptor f : getRichiesti(i)) {
+                out.println(f);
+                voce(file, f).leachers.add(getClient(i));
+            }
+            out.println("---------------------------------------");
+        }
+        out.println("*-*-*-*----Tabella dei File----*-*-*-*");
+        for (String chiave : file.keySet()) {
+            VoceFile v = file.get(chiave);
+            out.println(chiave);
+            out.println("Nomi: " + v.nomi);
+            out.println("Seeders: ");
+            for (IdClient c : v.seeders) {
+                out.println(c);
+            }
+            out.println("Leachers: ");
+            for (IdClient c : v.leachers) {
+                out.println(c);
+            }
+            out.println("---------------------------------------");
+        }
+        out.flush();
+    }
+
+    private static VoceFile voce(LinkedHashMap<String, VoceFile> file,
+            FileDescriptor f) {
+        VoceFile v = file.get(f.getKey());
+        if (v == null) {
+            v = new VoceFile();
+            file.put(f.getKey(), v);
+        }
+        return v;
+    }
+}
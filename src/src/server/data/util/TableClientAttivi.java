@@ -2,10 +2,10 @@ package server.data.util;
 
 import common.remote.ClientRemote;
 
-import java.util.HashMap;
+import java.util.ArrayList;
 import java.util.Iterator;
-import java.util.LinkedList;
 import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
 import server.data.exception.ClientNotActiveException;
 import common.identifier.FileDescriptor;
 import server.data.exception.FileExistingException;
@@ -15,41 +15,35 @@ import common.identifier.IdClient;
 /**
  * La classe TableClientAttivi realizza una tabella di client, che mantiene
  * come informazioni la lista dei file posseduti, la lista dei file richiesti,
- * e la callback del client:
+ * e la callback del client.
+ * La tabella può essere consultata da più thread contemporaneamente
+ * (inserimenti, rimozioni e ricerche dei client sono thread-safe), mentre
+ * le modifiche alle liste di file di uno stesso client devono essere
+ * serializzate da chi usa la tabella.
  * @author Federico Della Bona - Alessandro Lensi
  */
 public class TableClientAttivi implements TableClientInterface {
 
-    private HashMap table;
-    private List<IdClient> lista;
-    private List<ClientRemote> callback;
+    private ConcurrentHashMap<IdClient, ClientAttivo> table;
 
     /**
      * Crea una tabella vuota
      */
     public TableClientAttivi() {
-        this.table = new HashMap();
-        this.lista = new LinkedList<IdClient>();
-        this.callback = new LinkedList<ClientRemote>();
+        this.table = new ConcurrentHashMap<IdClient, ClientAttivo>();
     }
 
     /**
      * Aggiunge un nuovo client con relativa callback nella tabella
      * @param id identificatore del cliente
      * @param callback callback del client
+     * @param token token di sessione dei keepalive, 0 se non c'è
      * @return true se l'inserimento ha successo,
      *         false se il client è già nella tabella
      */
-    public boolean addClient(IdClient id, ClientRemote callback) {
-
-        if (this.table.get(id) == null) {
-            this.table.put(id, new ClientAttivo());
-            this.lista.add(id);
-            this.callback.add(callback);
-            return true;
-        } else {
-            return false;
-        }
+    public boolean addClient(IdClient id, ClientRemote callback, long token) {
+        return this.table.putIfAbsent(id, new ClientAttivo(callback, token))
+                == null;
     }
 
     /**
@@ -59,7 +53,7 @@ public class TableClientAttivi implements TableClientInterface {
      *         false altrimenti
      */
     public boolean checkClient(IdClient id) {
-        return this.table.get(id) != null;
+        return this.table.containsKey(id);
     }
 
     /**
@@ -75,14 +69,12 @@ public class TableClientAttivi implements TableClientInterface {
             throws ClientNotActiveException, FileNotFoundException,
             FileExistingException {
 
-        ClientAttivo ca = (ClientAttivo) this.table.get(id);
+        ClientAttivo ca = this.table.get(id);
 
         if (ca == null) {
             throw new ClientNotActiveException();
         }
 
-        this.printClient(id);
-        
         boolean pp = ca.removeFileRichiesto(f);
 
 
@@ -111,7 +103,7 @@ public class TableClientAttivi implements TableClientInterface {
     public boolean addFileRichiesto(IdClient id, FileDescriptor f)
             throws ClientNotActiveException {
 
-        ClientAttivo ca = (ClientAttivo) this.table.get(id);
+        ClientAttivo ca = this.table.get(id);
         if (ca == null) {
             throw new ClientNotActiveException();
         }
@@ -127,7 +119,7 @@ public class TableClientAttivi implements TableClientInterface {
      * @param id identificatore del cliente
      */
     public void printClient(IdClient id) {
-        ClientAttivo ca = (ClientAttivo) this.table.get(id);
+        ClientAttivo ca = this.table.get(id);
         ca.stampa();
     }
 
@@ -138,16 +130,7 @@ public class TableClientAttivi implements TableClientInterface {
      *         false se il client non è presente nella tabella
      */
     public boolean removeClient(IdClient id) {
-        int index = 0;
-        if (checkClient(id)) {
-            this.table.remove(id);
-            index = this.lista.indexOf(id);
-            this.lista.remove(id);
-            this.callback.remove(index);
-            return true;
-        } else {
-            return false;
-        }
+        return this.table.remove(id) != null;
     }
 
     /**
@@ -160,7 +143,7 @@ public class TableClientAttivi implements TableClientInterface {
      */
     public boolean addFilePosseduto(IdClient id, FileDescriptor f)
             throws ClientNotActiveException {
-        ClientAttivo ca = (ClientAttivo) this.table.get(id);
+        ClientAttivo ca = this.table.get(id);
         if (ca == null) {
             throw new ClientNotActiveException();
         }
@@ -172,19 +155,47 @@ public class TableClientAttivi implements TableClientInterface {
     }
 
     /**
-     * Restituisce una lista di idClient
+     * Restituisce il numero di client nella tabella
+     * @return il numero di client
+     */
+    public int size() {
+        return this.table.size();
+    }
+
+    /**
+     * Restituisce una lista di idClient. La lista è una copia della
+     * tabella al momento della chiamata.
      * @return una lista di identificatori di cliente
      */
     public List<IdClient> toList() {
-        return lista;
+        return new ArrayList<IdClient>(this.table.keySet());
     }
 
     /**
-     * Restituisce un generatore di callback
+     * Restituisce un generatore di callback. Il generatore scorre una copia
+     * delle callback al momento della chiamata, e salta i client che non
+     * hanno fornito una callback.
      * @return iterator di callback di tipo ClientRemote
      */
     public Iterator scanCallback() {
-        return this.callback.iterator();
+        List<ClientRemote> l = new ArrayList<ClientRemote>(this.table.size());
+        for (ClientAttivo ca : this.table.values()) {
+            if (ca.getCallback() != null) {
+                l.add(ca.getCallback());
+            }
+        }
+        return l.iterator();
+    }
+
+    /**
+     * Restituisce la callback del client id
+     * @param id identificatore del cliente
+     * @return la callback, null se il client non è attivo o non ha
+     *         fornito una callback
+     */
+    public ClientRemote getCallback(IdClient id) {
+        ClientAttivo ca = this.table.get(id);
+        return (ca == null) ? null : ca.getCallback();
     }
 
     /**
@@ -193,7 +204,7 @@ public class TableClientAttivi implements TableClientInterface {
      * @return iterator di FileDescriptor
      */
     public Iterator scanFilePosseduti(IdClient id) {
-        ClientAttivo ca = (ClientAttivo) this.table.get(id);
+        ClientAttivo ca = this.table.get(id);
         return ca.scanPosseduti();
     }
 
@@ -203,10 +214,31 @@ public class TableClientAttivi implements TableClientInterface {
      * @return iterator di FileDescriptor
      */
     public Iterator scanFileRichiesti(IdClient id) {
-        ClientAttivo ca = (ClientAttivo) this.table.get(id);
+        ClientAttivo ca = this.table.get(id);
         return ca.scanRichiesti();
     }
 
+    /**
+     * Restituisce le statistiche di carico del client id. Non serve
+     * nessun lock: la tabella è concorrente e CaricoClient è thread safe.
+     * @param id identificatore del cliente
+     * @return il CaricoClient, null se il client non è attivo
+     */
+    public CaricoClient getCarico(IdClient id) {
+        ClientAttivo ca = this.table.get(id);
+        return (ca == null) ? null : ca.getCarico();
+    }
+
+    /**
+     * Restituisce il token di sessione dei keepalive del client id
+     * @param id identificatore del cliente
+     * @return il token, 0 se il client non è attivo o non l'ha fornito
+     */
+    public long getToken(IdClient id) {
+        ClientAttivo ca = this.table.get(id);
+        return (ca == null) ? 0 : ca.getToken();
+    }
+
     /**
      * Rimuove file dalla lista dei file richiesti di id
      * @param id identificatore del cliente
@@ -215,7 +247,7 @@ public class TableClientAttivi implements TableClientInterface {
      *         false altrimenti
      */
     public boolean removeFileRichiesto(IdClient id, FileDescriptor file) {
-        ClientAttivo cc = (ClientAttivo) table.get(id);
+        ClientAttivo cc = table.get(id);
         if (cc == null) {
             return false;
         }
@@ -25,10 +25,11 @@ public interface TableClientInterface {
      * Aggiunge un nuovo client con relativa callback nella tabella
      * @param id identificatore del cliente
      * @param callback callback del client
+     * @param token token di sessione dei keepalive, 0 se non c'è
      * @return true se l'inserimento ha successo,
      *         false se il client è già nella tabella
      */
-    public boolean addClient(IdClient id, ClientRemote callback);
+    public boolean addClient(IdClient id, ClientRemote callback, long token);
 
 
     /**
@@ -100,6 +101,12 @@ public interface TableClientInterface {
      */
     public List<IdClient> toList();
 
+    /**
+     * Restituisce il numero di client nella tabella
+     * @return il numero di client
+     */
+    public int size();
+
 
     /**
      * Restituisce un generatore di callback
@@ -108,6 +115,15 @@ public interface TableClientInterface {
     public Iterator scanCallback();
 
 
+    /**
+     * Restituisce la callback del client id
+     * @param id identificatore del cliente
+     * @return la callback, null se il client non è attivo o non ha
+     *         fornito una callback
+     */
+    public ClientRemote getCallback(IdClient id);
+
+
     /**
      * Restituisce un generatore dei file posseduti da id
      * @param id identificatore del cliente
@@ -124,6 +140,22 @@ public interface TableClientInterface {
     public Iterator scanFileRichiesti(IdClient id);
 
     
+    /**
+     * Restituisce le statistiche di carico del client id
+     * @param id identificatore del cliente
+     * @return il CaricoClient, null se il client non è attivo
+     */
+    public CaricoClient getCarico(IdClient id);
+
+
+    /**
+     * Restituisce il token di sessione dei keepalive del client id
+     * @param id identificatore del cliente
+     * @return il token, 0 se il client non è attivo o non l'ha fornito
+     */
+    public long getToken(IdClient id);
+
+
     /**
      * Stampa le informazioni del client id
      * @param id identificatore del cliente
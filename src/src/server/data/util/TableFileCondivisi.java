@@ -1,7 +1,16 @@
 package server.data.util;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
-import java.util.HashMap;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiFunction;
+import common.remote.FindResult;
 import server.data.exception.ClientNotActiveException;
 import common.identifier.FileDescriptor;
 import server.data.exception.FileNotFoundException;
@@ -12,37 +21,168 @@ import server.data.exception.SeederExistsException;
  * La classe TableFileCondivisi realizza una tabella di FileDescriptor,
  * che mantiene come informazioni, la lista dei seeders e la lista dei
  * leachers per file associato al FileDescriptor.
+ * I file sono indicizzati per chiave (vedi FileDescriptor.getKey): i file
+ * con gli hash per contenuto, così tutte le copie degli stessi byte, anche
+ * pubblicate con nomi diversi, hanno gli stessi seeders; quelli senza hash
+ * per nome, come nei server vecchi. Un indice secondario associa ad ogni
+ * nome le chiavi dei file pubblicati con quel nome, che possono essere
+ * più d'una. I nomi sono anche in un IndiceNomi, per la ricerca per
+ * sottostringa.
+ * L'indice secondario è una mappa concorrente: le letture non prendono
+ * lock, le modifiche di un nome sono atomiche rispetto a quel nome solo.
+ * La tabella può essere consultata da più thread contemporaneamente,
+ * mentre le modifiche ai seeders e ai leachers di uno stesso file devono
+ * essere serializzate da chi usa la tabella.
  * @author Federico Della Bona - Alessandro Lensi
  */
 public class TableFileCondivisi implements TableFileInterface {
 
-    private HashMap table;
+    private ConcurrentHashMap<String, FileCondiviso> table;
+    /* nome -> chiavi dei file con quel nome; un nome e le sue chiavi
+     * vengono aggiunti e tolti solo con compute, insieme all'indice */
+    private final ConcurrentHashMap<String, Set<String>> nomi;
+    /* i nomi di nomi, protetto dal suo monitor */
+    private final IndiceNomi indice;
+
+    /* un risultato della find */
+    private static class Trovato {
+
+        final String nome;
+        final FileCondiviso fc;
+        final int seeders;
+
+        Trovato(String nome, FileCondiviso fc) {
+            this.nome = nome;
+            this.fc = fc;
+            this.seeders = fc.sizeSeeder();
+        }
+
+        /* true se this va dopo t nei risultati */
+        boolean peggiore(Trovato t) {
+            if (this.seeders != t.seeders) {
+                return this.seeders < t.seeders;
+            }
+            return this.nome.compareTo(t.nome) > 0;
+        }
+    }
+
+    /* ordina i risultati dal peggiore al migliore */
+    private static final Comparator<Trovato> DAL_PEGGIORE =
+            new Comparator<Trovato>() {
+
+                public int compare(Trovato a, Trovato b) {
+                    if (a.peggiore(b)) {
+                        return -1;
+                    }
+                    return b.peggiore(a) ? 1 : 0;
+                }
+            };
+
+    /* un file letto dalla contaPeer */
+    private static class Contato {
+
+        final FileCondiviso fc;
+        final int seeders;
+        final int leachers;
+
+        Contato(FileCondiviso fc, int seeders, int leachers) {
+            this.fc = fc;
+            this.seeders = seeders;
+            this.leachers = leachers;
+        }
+    }
+
+    /* ordina i file letti dal meno al più condiviso */
+    private static final Comparator<Contato> DAL_MENO_CONDIVISO =
+            new Comparator<Contato>() {
+
+                public int compare(Contato a, Contato b) {
+                    if (a.seeders != b.seeders) {
+                        return (a.seeders < b.seeders) ? -1 : 1;
+                    }
+                    if (a.leachers != b.leachers) {
+                        return (a.leachers < b.leachers) ? -1 : 1;
+                    }
+                    return 0;
+                }
+            };
 
     /**
      * Crea una tabella vuota
      */
     public TableFileCondivisi() {
-        table = new HashMap();
+        table = new ConcurrentHashMap<String, FileCondiviso>();
+        nomi = new ConcurrentHashMap<String, Set<String>>();
+        indice = new IndiceNomi();
     }
 
     /**
      * Aggiunge il file f alla tabella, con seeder l'idClient passato
-     * come argomento
+     * come argomento. Se nella tabella c'è già un file con lo stesso
+     * contenuto, anche con un altro nome, seeder viene aggiunto ai suoi
+     * seeders e il nome di f diventa un altro nome di quel file.
      * @param f file da aggiungere
      * @param seeder del file f
      * @return true se l'inserimento ha successo,
-     *         false se il file f è già nella tabella
+     *         false se il file f è già nella tabella e non ha gli hash,
+     *         se seeder era già tra i seeders o leachers di f, o se il
+     *         nome di f inizia con FileDescriptor.KEY_PREFIX
      */
     public boolean addFile(FileDescriptor f, IdClient seeder) {
-        FileCondiviso fc;
-        if (this.table.get(f.getName()) == null) {
-            fc = new FileCondiviso(f);
-            fc.addSeeder(seeder);
-            this.table.put(f.getName(), fc);
+        /* i nomi con il prefisso delle chiavi sono cercati come chiavi
+         * (vedi getFileDescriptor): un file senza hash con un nome così
+         * finirebbe tra le chiavi dei file con gli hash */
+        if (f.getName().startsWith(FileDescriptor.KEY_PREFIX)) {
+            return false;
+        }
+        String chiave = f.getKey();
+        FileCondiviso fc = new FileCondiviso(f);
+        fc.addSeeder(seeder);
+        FileCondiviso c = this.table.putIfAbsent(chiave, fc);
+        if (c == null) {
+            aggiungiNome(f.getName(), chiave);
             return true;
-        } else {
+        }
+        if (!f.hasHashes() || c.containsSeeder(seeder)
+                || c.containsLeacher(seeder)) {
             return false;
         }
+        c.addSeeder(seeder);
+        if (c.addNome(f.getName())) {
+            aggiungiNome(f.getName(), chiave);
+        }
+        return true;
+    }
+
+    /**
+     * Aggiunge il client id ai seeders o ai leachers di f, e aggiunge f
+     * alla tabella se non c'è. Serve per ricostruire la tabella dopo un
+     * riavvio del server.
+     * @param f file da aggiornare
+     * @param id client da aggiungere
+     * @param seeder true per aggiungere id ai seeders, false ai leachers
+     * @return true se id è stato aggiunto, false se era già tra i seeders
+     *         o i leachers di f, o se c'è un altro file con la stessa chiave
+     */
+    public boolean ripristina(FileDescriptor f, IdClient id, boolean seeder) {
+        String chiave = f.getKey();
+        FileCondiviso fc = this.table.get(chiave);
+        if (fc == null) {
+            fc = new FileCondiviso(f);
+            this.table.put(chiave, fc);
+            aggiungiNome(f.getName(), chiave);
+        } else if (!fc.getFileDescriptor().equals(f)
+                || fc.containsSeeder(id) || fc.containsLeacher(id)) {
+            return false;
+        } else if (seeder && fc.addNome(f.getName())) {
+            aggiungiNome(f.getName(), chiave);
+        }
+        if (seeder) {
+            fc.addSeeder(id);
+        } else {
+            fc.addLeacher(id);
+        }
+        return true;
     }
 
     /**
@@ -52,20 +192,179 @@ public class TableFileCondivisi implements TableFileInterface {
      *         false altrimenti
      */
     public boolean checkFile(FileDescriptor f) {
-        return this.table.get(f.getName()) != null;
+        return this.table.get(f.getKey()) != null;
     }
 
     /**
-     * Restituisce il FileDescriptor relativo al file che si chiama filename
-     * @param filename nome del file
-     * @return il FileDescriptor associato a filename
+     * Restituisce il FileDescriptor relativo al file che si chiama
+     * filename. Se ci sono più file con quel nome restituisce quello con
+     * più seeders. Il FileDescriptor restituito ha il nome cercato, anche
+     * se il file è stato pubblicato la prima volta con un altro nome.
+     * @param filename nome del file, o la sua chiave
+     * @return il FileDescriptor associato a filename, null se non c'è
      */
     public FileDescriptor getFileDescriptor(String fileName) {
-        FileCondiviso fc = (FileCondiviso) this.table.get(fileName);
-        if (fc == null) {
+        FileCondiviso migliore = null;
+        if (fileName.startsWith(FileDescriptor.KEY_PREFIX)) {
+            migliore = this.table.get(fileName);
+            return (migliore == null) ? null : migliore.getFileDescriptor();
+        }
+        Set<String> chiavi = this.nomi.get(fileName);
+        if (chiavi == null) {
+            return null;
+        }
+        for (String chiave : chiavi) {
+            FileCondiviso fc = this.table.get(chiave);
+            if (fc != null && (migliore == null
+                    || fc.sizeSeeder() > migliore.sizeSeeder())) {
+                migliore = fc;
+            }
+        }
+        if (migliore == null) {
             return null;
         }
-        return fc.getFileDescriptor();
+        return conNome(migliore.getFileDescriptor(), fileName);
+    }
+
+    /**
+     * Restituisce i FileDescriptor di tutti i file che si chiamano
+     * filename, ognuno con il nome cercato
+     * @param filename nome del file
+     * @return la lista dei FileDescriptor, vuota se non ce ne sono
+     */
+    public List<FileDescriptor> getFileDescriptors(String fileName) {
+        List<FileDescriptor> l = new ArrayList<FileDescriptor>();
+        Set<String> chiavi = this.nomi.get(fileName);
+        if (chiavi == null) {
+            return l;
+        }
+        for (String chiave : chiavi) {
+            FileCondiviso fc = this.table.get(chiave);
+            if (fc != null) {
+                l.add(conNome(fc.getFileDescriptor(), fileName));
+            }
+        }
+        return l;
+    }
+
+    /**
+     * Cerca i file il cui nome contiene la ricerca, senza distinguere
+     * maiuscole e minuscole (con meno di tre caratteri, i file il cui nome
+     * inizia con la ricerca). I risultati sono ordinati per numero di
+     * seeders, dal più alto, e a parità per nome. Un file con più nomi
+     * trovati compare una volta per ogni nome.
+     * Il lock dell'indice dei nomi è tenuto solo per copiare i nomi
+     * trovati, i risultati sono costruiti dalla copia.
+     * @param ricerca la stringa da cercare
+     * @param da il numero di risultati da saltare
+     * @param quanti il numero massimo di risultati da restituire
+     * @return la pagina dei risultati
+     */
+    public FindResult find(String ricerca, int da, int quanti) {
+        int totale = 0;
+        int tenuti = (int) Math.min((long) da + quanti, Integer.MAX_VALUE);
+        /* i migliori tenuti risultati, il peggiore in testa */
+        PriorityQueue<Trovato> migliori =
+                new PriorityQueue<Trovato>(16, DAL_PEGGIORE);
+        List<String> trovati;
+        synchronized (this.indice) {
+            trovati = this.indice.cerca(ricerca);
+        }
+        for (String nome : trovati) {
+            Set<String> chiavi = this.nomi.get(nome);
+            if (chiavi == null) {
+                continue;
+            }
+            for (String chiave : chiavi) {
+                FileCondiviso fc = this.table.get(chiave);
+                if (fc == null) {
+                    continue;
+                }
+                totale++;
+                if (migliori.size() < tenuti) {
+                    migliori.add(new Trovato(nome, fc));
+                } else if (tenuti > 0 && fc.sizeSeeder()
+                        >= migliori.peek().seeders) {
+                    Trovato t = new Trovato(nome, fc);
+                    if (migliori.peek().peggiore(t)) {
+                        migliori.poll();
+                        migliori.add(t);
+                    }
+                }
+            }
+        }
+        /* i primi da risultati restano nella coda */
+        int n = Math.max(0, migliori.size() - da);
+        FileDescriptor[] files = new FileDescriptor[n];
+        int[] seeders = new int[n];
+        for (int i = n - 1; i >= 0; i--) {
+            Trovato t = migliori.poll();
+            files[i] = conNome(t.fc.getFileDescriptor(), t.nome);
+            seeders[i] = t.seeders;
+        }
+        return new FindResult(Arrays.asList(files), seeders, totale);
+    }
+
+    /* restituisce f, o una sua copia con il nome richiesto */
+    private static FileDescriptor conNome(FileDescriptor f, String nome) {
+        return f.getName().equals(nome) ? f : new FileDescriptor(f, nome);
+    }
+
+    /* aggiunge chiave alle chiavi del nome, e il nome all'indice se è
+     * nuovo. compute tiene il lock della sola voce del nome, così un nome
+     * non può essere tolto mentre gli si aggiunge una chiave */
+    private void aggiungiNome(String nome, final String chiave) {
+        this.nomi.compute(nome,
+                new BiFunction<String, Set<String>, Set<String>>() {
+
+                    public Set<String> apply(String n, Set<String> chiavi) {
+                        if (chiavi == null) {
+                            chiavi = ConcurrentHashMap.newKeySet();
+                            synchronized (indice) {
+                                indice.aggiungi(n);
+                            }
+                        }
+                        chiavi.add(chiave);
+                        return chiavi;
+                    }
+                });
+    }
+
+    /* rimuove il file dalla tabella e tutti i suoi nomi dall'indice */
+    private void rimuovi(final String chiave, FileCondiviso fc) {
+        this.table.remove(chiave);
+        BiFunction<String, Set<String>, Set<String>> togli =
+                new BiFunction<String, Set<String>, Set<String>>() {
+
+                    public Set<String> apply(String n, Set<String> chiavi) {
+                        if (chiavi.remove(chiave) && chiavi.isEmpty()) {
+                            synchronized (indice) {
+                                indice.rimuovi(n);
+                            }
+                            return null;
+                        }
+                        return chiavi;
+                    }
+                };
+        Iterator<String> i = fc.scanNomi();
+        while (i.hasNext()) {
+            this.nomi.computeIfPresent(i.next(), togli);
+        }
+    }
+
+    /**
+     * Restituisce l'istanza di FileDescriptor, equivalente ad f, mantenuta
+     * nella tabella. Serve per far condividere la stessa istanza a tutte
+     * le strutture che si riferiscono allo stesso file.
+     * @param f file da cercare
+     * @return l'istanza nella tabella se il file c'è, f altrimenti
+     */
+    public FileDescriptor intern(FileDescriptor f) {
+        FileCondiviso fc = this.table.get(f.getKey());
+        if (fc != null && fc.getFileDescriptor().equals(f)) {
+            return fc.getFileDescriptor();
+        }
+        return f;
     }
 
     /**
@@ -77,7 +376,7 @@ public class TableFileCondivisi implements TableFileInterface {
      * @throws FileNotFoundException se f non è nella tabella
      */
     public boolean addSeeder(FileDescriptor f, IdClient id) throws FileNotFoundException {
-        FileCondiviso fc = (FileCondiviso) this.table.get(f.getName());
+        FileCondiviso fc = this.table.get(f.getKey());
         if (fc == null) {
             throw new FileNotFoundException();
         }
@@ -97,7 +396,7 @@ public class TableFileCondivisi implements TableFileInterface {
      * @throws FileNotFoundException se f non è nella tabella
      */
     public boolean addLeacher(FileDescriptor f, IdClient id) throws FileNotFoundException {
-        FileCondiviso fc = (FileCondiviso) this.table.get(f.getName());
+        FileCondiviso fc = this.table.get(f.getKey());
         if (fc == null) {
             throw new FileNotFoundException();
         }
@@ -120,7 +419,7 @@ public class TableFileCondivisi implements TableFileInterface {
     public void leacherToSeeder(FileDescriptor f, IdClient id)
             throws FileNotFoundException, ClientNotActiveException,
             SeederExistsException {
-        FileCondiviso fc = (FileCondiviso) this.table.get(f.getName());
+        FileCondiviso fc = this.table.get(f.getKey());
         if (fc == null) {
             throw new FileNotFoundException();
         } else if (fc.removeLeacher(id)) {
@@ -145,13 +444,13 @@ public class TableFileCondivisi implements TableFileInterface {
      */
     public boolean removeSeeder(FileDescriptor f, IdClient id)
             throws FileNotFoundException {
-        FileCondiviso fc = (FileCondiviso) this.table.get(f.getName());
+        FileCondiviso fc = this.table.get(f.getKey());
         if (fc == null) {
             throw new FileNotFoundException();
         }
         if (fc.removeSeeder(id)) {
             if (fc.sizeSeeder() == 0 && fc.sizeLeacher() == 0) {//rimuove il file se tutte le liste son vuote
-                this.table.remove(f.getName());
+                rimuovi(f.getKey(), fc);
             }
             return true;
         } else {
@@ -169,13 +468,13 @@ public class TableFileCondivisi implements TableFileInterface {
      */
     public boolean removeLeacher(FileDescriptor f, IdClient id)
             throws FileNotFoundException {
-        FileCondiviso fc = (FileCondiviso) this.table.get(f.getName());
+        FileCondiviso fc = this.table.get(f.getKey());
         if (fc == null) {
             throw new FileNotFoundException();
         }
         if (fc.removeLeacher(id)) {
             if (fc.sizeLeacher() == 0 && fc.sizeSeeder() == 0) {
-                this.table.remove(f.getName());
+                rimuovi(f.getKey(), fc);
             }
             return true;
         } else {
@@ -183,28 +482,99 @@ public class TableFileCondivisi implements TableFileInterface {
         }
     }
 
+    /**
+     * Controlla se il client id è leacher di f
+     * @param f file da controllare
+     * @param id client da controllare
+     * @return true se id è leacher di f, false altrimenti (anche se f non
+     * è nella tabella)
+     */
+    public boolean checkLeacher(FileDescriptor f, IdClient id) {
+        FileCondiviso fc = this.table.get(f.getKey());
+        return fc != null && fc.containsLeacher(id);
+    }
+
     /**
      * Restituisce un seeder per il file f
      * @param f file
      * @return un seeder per f
      */
     public IdClient getSeeder(FileDescriptor f) {
-        FileCondiviso fc = (FileCondiviso) this.table.get(f.getName());
+        FileCondiviso fc = this.table.get(f.getKey());
         if (fc != null) {
             return fc.getSeeder();
         }
         return null;
     }
 
+    /**
+     * Restituisce al più n seeder per il file f, a turno
+     * @param f file
+     * @param n numero massimo di seeder
+     * @return la lista dei seeder, vuota se f non c'è
+     */
+    public List<IdClient> getSeeders(FileDescriptor f, int n) {
+        FileCondiviso fc = this.table.get(f.getKey());
+        if (fc != null) {
+            return fc.getSeeders(n);
+        }
+        return new ArrayList<IdClient>();
+    }
+
     /**
      * Stampa le informazioni del file f
      * @param f file
      */
     public void printFile(FileDescriptor f) {
-        FileCondiviso fc = (FileCondiviso) this.table.get(f.getName());
+        FileCondiviso fc = this.table.get(f.getKey());
         fc.stampa();
     }
 
+    /**
+     * Conta i seeders e i leachers di tutti i file, e riporta uno per uno
+     * i primi file più condivisi (per seeders, poi per leachers).
+     * Non prende lock: legge i file mentre vengono modificati, quindi il
+     * conteggio è approssimato ma non rallenta le altre operazioni.
+     * @param primi il numero di file da riportare uno per uno
+     * @return il conteggio
+     */
+    public ConteggioPeer contaPeer(int primi) {
+        ConteggioPeer cp = new ConteggioPeer();
+        /* i primi file, il meno condiviso in testa */
+        PriorityQueue<Contato> migliori =
+                new PriorityQueue<Contato>(16, DAL_MENO_CONDIVISO);
+        for (FileCondiviso fc : this.table.values()) {
+            int s = fc.sizeSeeder();
+            int l = fc.sizeLeacher();
+            cp.conta(s, l);
+            if (migliori.size() < primi) {
+                migliori.add(new Contato(fc, s, l));
+            } else if (primi > 0) {
+                Contato ultimo = migliori.peek();
+                if (s > ultimo.seeders
+                        || (s == ultimo.seeders && l > ultimo.leachers)) {
+                    migliori.poll();
+                    migliori.add(new Contato(fc, s, l));
+                }
+            }
+        }
+        Contato[] ordinati = migliori.toArray(new Contato[migliori.size()]);
+        Arrays.sort(ordinati, DAL_MENO_CONDIVISO);
+        for (int i = ordinati.length - 1; i >= 0; i--) {
+            cp.aggiungiPrimo(ordinati[i].fc.getFileDescriptor(),
+                    ordinati[i].seeders, ordinati[i].leachers);
+        }
+        return cp;
+    }
+
+    /**
+     * Restituisce il numero di file nella tabella
+     * @return il numero di file
+     */
+    public int size() {
+        return this.table.size();
+    }
+
     /**
      * Restituisce una collezione degli elementi
      * @return la collezione degli elementi
@@ -1,10 +1,12 @@
 package server.data.util;
 
 import java.util.Collection;
+import java.util.List;
 import server.data.exception.ClientNotActiveException;
 import common.identifier.FileDescriptor;
 import server.data.exception.FileNotFoundException;
 import common.identifier.IdClient;
+import common.remote.FindResult;
 import server.data.exception.SeederExistsException;
 
 /**
@@ -19,15 +21,32 @@ public interface TableFileInterface {
 
     /**
      * Aggiunge il file f alla tabella, con seeder l'idClient passato
-     * come argomento
+     * come argomento. Se nella tabella c'è già un file con lo stesso
+     * contenuto, anche con un altro nome, seeder viene aggiunto ai suoi
+     * seeders.
      * @param f file da aggiungere
      * @param seeder del file f
      * @return true se l'inserimento ha successo,
-     *         false se il file f è già nella tabella
+     *         false se il file f è già nella tabella e non ha gli hash,
+     *         se seeder era già tra i seeders o leachers di f, o se il
+     *         nome di f inizia con FileDescriptor.KEY_PREFIX
      */
     public boolean addFile(FileDescriptor f, IdClient seeder);
 
 
+    /**
+     * Aggiunge il client id ai seeders o ai leachers di f, e aggiunge f
+     * alla tabella se non c'è. Serve per ricostruire la tabella dopo un
+     * riavvio del server.
+     * @param f file da aggiornare
+     * @param id client da aggiungere
+     * @param seeder true per aggiungere id ai seeders, false ai leachers
+     * @return true se id è stato aggiunto, false se era già tra i seeders
+     *         o i leachers di f, o se c'è un altro file con la stessa chiave
+     */
+    public boolean ripristina(FileDescriptor f, IdClient id, boolean seeder);
+
+
     /**
      * Controlla se il file è già nella tabella
      * @param f file da controllare
@@ -38,12 +57,31 @@ public interface TableFileInterface {
 
 
     /**
-     * Restituisce il FileDescriptor relativo al file che si chiama filename
-     * @param filename nome del file
-     * @return il FileDescriptor associato a filename
+     * Restituisce il FileDescriptor relativo al file che si chiama
+     * filename. Se ci sono più file con quel nome restituisce quello con
+     * più seeders. Il FileDescriptor restituito ha il nome cercato.
+     * @param filename nome del file, o la sua chiave
+     * @return il FileDescriptor associato a filename, null se non c'è
      */
     public FileDescriptor getFileDescriptor(String fileName);
 
+    /**
+     * Restituisce i FileDescriptor di tutti i file che si chiamano
+     * filename, ognuno con il nome cercato
+     * @param filename nome del file
+     * @return la lista dei FileDescriptor, vuota se non ce ne sono
+     */
+    public List<FileDescriptor> getFileDescriptors(String fileName);
+
+    /**
+     * Restituisce l'istanza di FileDescriptor, equivalente ad f, mantenuta
+     * nella tabella. Serve per far condividere la stessa istanza a tutte
+     * le strutture che si riferiscono allo stesso file.
+     * @param f file da cercare
+     * @return l'istanza nella tabella se il file c'è, f altrimenti
+     */
+    public FileDescriptor intern(FileDescriptor f);
+
     /**
      * Aggiunge il client id ai seeders di f
      * @param f file da aggiornare
@@ -101,6 +139,15 @@ public interface TableFileInterface {
      */
     public boolean removeLeacher(FileDescriptor f, IdClient id) throws FileNotFoundException;
 
+    /**
+     * Controlla se il client id è leacher di f
+     * @param f file da controllare
+     * @param id client da controllare
+     * @return true se id è leacher di f, false altrimenti (anche se f non
+     * è nella tabella)
+     */
+    public boolean checkLeacher(FileDescriptor f, IdClient id);
+
 
     /**
      * Restituisce un seeder per il file f
@@ -110,6 +157,40 @@ public interface TableFileInterface {
     public IdClient getSeeder(FileDescriptor f);
 
 
+    /**
+     * Restituisce al più n seeder per il file f, a turno
+     * @param f file
+     * @param n numero massimo di seeder
+     * @return la lista dei seeder, vuota se f non c'è
+     */
+    public List<IdClient> getSeeders(FileDescriptor f, int n);
+
+
+    /**
+     * Cerca i file il cui nome contiene la ricerca, dal più al meno
+     * condiviso
+     * @param ricerca la stringa da cercare
+     * @param da il numero di risultati da saltare
+     * @param quanti il numero massimo di risultati da restituire
+     * @return la pagina dei risultati
+     */
+    public FindResult find(String ricerca, int da, int quanti);
+
+
+    /**
+     * Conta i seeders e i leachers di tutti i file senza prendere lock
+     * @param primi il numero di file più condivisi da riportare uno per uno
+     * @return il conteggio, approssimato se la tabella viene modificata
+     */
+    public ConteggioPeer contaPeer(int primi);
+
+    /**
+     * Restituisce il numero di file nella tabella
+     * @return il numero di file
+     */
+    public int size();
+
+
     /**
      * Stampa le informazioni del file f
      * @param f file
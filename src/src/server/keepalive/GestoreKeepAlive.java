@@ -2,54 +2,85 @@ package server.keepalive;
 
 import common.identifier.IdClient;
 import common.Configuration;
+import common.keepalive.FrameKeepAlive;
+import common.metriche.Velocita;
 import server.data.DataServerInterface;
-import java.io.ByteArrayInputStream;
-import java.io.DataInputStream;
+import server.data.util.CaricoClient;
+import server.notifiche.GestoreNotifiche;
 import java.io.IOException;
-
-
-import java.net.DatagramPacket;
-import java.net.DatagramSocket;
-import java.net.SocketException;
-import java.net.SocketTimeoutException;
-import java.util.HashMap;
-import java.util.Timer;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
  * La classe GestoreKeepAlive realizza un modulo del server per
  * controllare periodicamente che i client registrati siano attivi.
  * Questa classe è complementata sul lato client dalla classe
  * KeepAliveSender, che deve notificare periodicamente a questo gestore
- * lo stato di attività del client
+ * lo stato di attività del client.
+ * Le scadenze di tutti i client sono controllate da un'unica
+ * RuotaTemporale, che gira su un thread avviato insieme al gestore.
+ * I pacchetti sono ricevuti da un DatagramChannel non bloccante: ad ogni
+ * risveglio il gestore legge tutti i pacchetti in attesa, usando sempre
+ * gli stessi buffer, e passa alla ruota le chiavi dei client a blocchi.
+ * Sono accettati sia i frame binari (vedi FrameKeepAlive) sia il vecchio
+ * formato testuale ip:porta scritto con writeUTF.
+ * Il gestore conta i pacchetti ricevuti e i client scaduti, per le
+ * metriche del server.
  * @author Federico Della Bona - Alessandro Lensi
  */
 public class GestoreKeepAlive extends Thread {
 
     private int porta;
-    private final HashMap hashtimer;
+    private final RuotaTemporale ruota;
     private DataServerInterface data;
+    private GestoreNotifiche notifiche;
+    /* pacchetti ricevuti, aggiornato una volta per risveglio */
+    private final Velocita pacchetti;
+    private final LongAdder scaduti;
 
     /**
      * Inizializza un GestoreKeepAlive pronto ad essere avviato
      * @param data Il DataServer dove rimuovere un client inattivo
+     * @param notifiche Il GestoreNotifiche con cui avvisare gli altri client
      * @param porta porta dove mettersi in ascolto del KeepAliveSender
      */
-    public GestoreKeepAlive(DataServerInterface data, int porta) {
+    public GestoreKeepAlive(DataServerInterface data,
+            GestoreNotifiche notifiche, int porta) {
         this.porta = porta;
         this.data = data;
-        hashtimer = new HashMap();
+        this.notifiche = notifiche;
+        this.pacchetti = new Velocita();
+        this.scaduti = new LongAdder();
+        this.ruota = new RuotaTemporale(this,
+                Configuration.GKA_WHEEL_TICK,
+                Configuration.GKA_WHEEL_SLOTS,
+                Configuration.GKA_CLIENT_TIMEOUT);
     }
 
-    private DatagramSocket creaSocket() {
-        DatagramSocket ds;
+    private DatagramChannel creaCanale(Selector selettore) {
+        DatagramChannel dc = null;
         try {
-            ds = new DatagramSocket(this.porta);
-        } catch (SocketException e) {
+            dc = DatagramChannel.open();
+            dc.bind(new InetSocketAddress(this.porta));
+            dc.configureBlocking(false);
+            dc.register(selettore, SelectionKey.OP_READ);
+        } catch (IOException e) {
             System.out.println("GESTORE DEI KEEP-ALIVE: "
                     + "impossibile creare il socket.");
+            if (dc != null) {
+                try {
+                    dc.close();
+                } catch (IOException ex) {
+                }
+            }
             return null;
         }
-        return ds;
+        return dc;
     }
 
     /**
@@ -59,17 +90,23 @@ public class GestoreKeepAlive extends Thread {
      * @return true se id è attivo nel dataserver, false altrimenti
      */
     public boolean startTimer(IdClient id) {
-        if (!this.data.isActive(id)) {
+        return startTimer(id, Configuration.GKA_CLIENT_TIMEOUT);
+    }
+
+    /**
+     * Aggiunge il client id all'insieme dei client controllati
+     * dal gestore, aspettando il primo keepalive per attesa millisecondi
+     * (ad esempio i client ripristinati dopo un riavvio del server).
+     * @param id nuovo client da controllare
+     * @param attesa millisecondi entro cui deve arrivare il primo keepalive
+     * @return true se id è attivo nel dataserver, false altrimenti
+     */
+    public boolean startTimer(IdClient id, long attesa) {
+        CaricoClient carico = this.data.getCarico(id);
+        if (carico == null) {
             return false;
         }
-        boolean isDaemon = true;
-        KillClient killer = new KillClient(data, this, id);
-        Timer t = new Timer(isDaemon);
-        TimerKiller tk = new TimerKiller(killer, t);
-        synchronized (hashtimer) {
-            this.hashtimer.put(id, tk);
-        }
-        t.schedule(killer, 3000); //mettere come costante
+        this.ruota.aggiungi(id, attesa, carico, this.data.getToken(id));
         return true;
     }
 
@@ -79,25 +116,41 @@ public class GestoreKeepAlive extends Thread {
      * @param id client da rimuovere
      */
     protected void deleteTimer(IdClient id) {
-        synchronized (hashtimer) {
-            hashtimer.remove(id);
-        }
+        this.ruota.rimuovi(id);
     }
 
-    private boolean resetTimer(IdClient id) {
-        if (!this.data.isActive(id)) {
-            return false;
-        }
-        TimerKiller tk;
-        synchronized (hashtimer) {
-            tk = (TimerKiller) hashtimer.get(id);
-        }
-        System.out.println("GESTORE DEI KEEP-ALIVE: resetto il timer "
-                + "di [" + id + "]");
-        if (tk != null) {
-            tk.reset();
+    private boolean resetTimer(IdClient id, long token, int carico) {
+        return this.ruota.contatto(id, token, carico);
+    }
+
+    /**
+     * Restituisce il contatore dei pacchetti keepalive ricevuti, validi o
+     * no
+     * @return il contatore, con la velocità in pacchetti al secondo
+     */
+    public Velocita getPacchetti() {
+        return this.pacchetti;
+    }
+
+    /**
+     * Restituisce il numero di client eliminati perché non hanno inviato
+     * keepalive in tempo
+     * @return i client scaduti dall'avvio del gestore
+     */
+    public long getClientScaduti() {
+        return this.scaduti.sum();
+    }
+
+    /**
+     * Elimina i client scaduti dal DataServer. Viene invocata dalla
+     * RuotaTemporale con tutti i client scaduti nello stesso tick.
+     * @param scaduti i client che non hanno inviato keepalive in tempo
+     */
+    void clientScaduti(List<IdClient> scaduti) {
+        this.scaduti.add(scaduti.size());
+        for (IdClient id : scaduti) {
+            new KillClient(this.data, this.notifiche, this, id).run();
         }
-        return true;
     }
 
     /**
@@ -108,33 +161,67 @@ public class GestoreKeepAlive extends Thread {
      */
     @Override
     public void run() {
-        DatagramSocket receiver = creaSocket();
+        Selector selettore;
+        try {
+            selettore = Selector.open();
+        } catch (IOException e) {
+            System.out.println("GESTORE DEI KEEP-ALIVE: Esco");
+            return;
+        }
+        DatagramChannel receiver = creaCanale(selettore);
         if (receiver == null) {
             System.out.println("GESTORE DEI KEEP-ALIVE: Esco");
+            try {
+                selettore.close();
+            } catch (IOException ex) {
+            }
             return;
         }
-        byte[] buf = new byte[256];
-        DatagramPacket packet = new DatagramPacket(buf, 256);
-        ByteArrayInputStream bufin = null;
-        DataInputStream in = null;
-
-        IdClient idclient;
+        /* buffer riusati per tutti i pacchetti */
+        ByteBuffer buf = ByteBuffer.allocateDirect(256);
+        byte[] testo = new byte[256];
+        long[] chiavi = new long[Configuration.GKA_BATCH_SIZE];
+        long[] token = new long[Configuration.GKA_BATCH_SIZE];
+        int[] carichi = new int[Configuration.GKA_BATCH_SIZE];
+        int n;
+        int ricevuti;
 
-        try {
-            receiver.setSoTimeout(Configuration.GKA_SOCKET_TIMEOUT);
-        } catch (SocketException ex) {
-            System.out.println(ex.toString());
-        }
+        Thread ruotaThread = new Thread(this.ruota, "Ruota Scadenze KeepAlive");
+        ruotaThread.setDaemon(true);
+        ruotaThread.start();
 
         System.out.println(
                 "GESTORE DEI KEEP-ALIVE: "
                 + "In attesa di pacchetti...");
         while (!Thread.interrupted()) {
             try {
-                receiver.receive(packet);
-            } catch (SocketTimeoutException s) {
-                continue;
-            } catch (Exception e) {
+                if (selettore.select(Configuration.GKA_SOCKET_TIMEOUT) == 0) {
+                    continue;
+                }
+                selettore.selectedKeys().clear();
+                /* leggo tutti i pacchetti in attesa */
+                n = 0;
+                ricevuti = 0;
+                while (true) {
+                    buf.clear();
+                    if (receiver.receive(buf) == null) {
+                        break;
+                    }
+                    ricevuti++;
+                    buf.flip();
+                    if (!decodifica(buf, testo, chiavi, token, carichi, n)) {
+                        continue;
+                    }
+                    if (++n == chiavi.length) {
+                        this.ruota.contatti(chiavi, token, carichi, n);
+                        n = 0;
+                    }
+                }
+                if (n > 0) {
+                    this.ruota.contatti(chiavi, token, carichi, n);
+                }
+                this.pacchetti.aggiungi(ricevuti);
+            } catch (IOException e) {
                 System.out.println("GESTORE DEI KEEP-ALIVE: "
                         + "errore nella ricezione dei pachetti keep-alive");
                 try {
@@ -142,33 +229,71 @@ public class GestoreKeepAlive extends Thread {
                 } catch (InterruptedException ex) {
                     break;
                 }
-                continue;
             }
-            bufin = new ByteArrayInputStream(
-                    packet.getData(), 0, packet.getLength());
+        }
+        ruotaThread.interrupt();
+        try {
+            ruotaThread.join();
+        } catch (InterruptedException ex) {
+        }
+        try {
+            receiver.close();
+            selettore.close();
+        } catch (IOException ex) {
+        }
+        System.out.println("GESTORE DEI KEEP-ALIVE: "
+                + "sono stato interrotto, termino");
+    }
 
-            in = new DataInputStream(bufin);
-            String s = null;
-            try {
-                s = in.readUTF();
-            } catch (IOException ex) {
-                System.out.println("GESTORE DEI KEEP-ALIVE: "
-                        + "pacchetto non valido, lo ignoro.");
-                continue;
+    /* Decodifica un pacchetto keepalive.
+     * Se il client è IPv4 scrive la sua chiave, il token e gli upload in
+     * corso (-1 se assenti) in chiavi[n], token[n] e carichi[n], senza
+     * creare oggetti, e restituisce true. Altrimenti rinnova direttamente
+     * la scadenza del client e restituisce false (così come per i
+     * pacchetti non validi).
+     */
+    boolean decodifica(ByteBuffer buf, byte[] testo,
+            long[] chiavi, long[] token, int[] carichi, int n) {
+        if (FrameKeepAlive.isBinario(buf)) {
+            if (!FrameKeepAlive.isFrame(buf)) {
+                return false;
             }
-            try {
-                idclient = new IdClient(s);
-            } catch (Exception e) {
-                System.out.println("GESTORE DEI KEEP-ALIVE: "
-                        + s + " non è un client valido.");
-                continue;
+            long k = FrameKeepAlive.leggiChiave(buf);
+            long t = FrameKeepAlive.leggiToken(buf);
+            int c = FrameKeepAlive.leggiCarico(buf);
+            if (k == IdClient.CHIAVE_NON_VALIDA) {
+                IdClient id = FrameKeepAlive.leggiId(buf);
+                resetTimer(id, t, c);
+                return false;
             }
-
-            System.out.println("GESTORE DEI KEEP-ALIVE: "
-                    + "resetto il timer di " + idclient.toString());
-            resetTimer(idclient);
+            chiavi[n] = k;
+            token[n] = t;
+            carichi[n] = c;
+            return true;
         }
-        System.out.println("GESTORE DEI KEEP-ALIVE: "
-                + "sono stato interrotto, termino");
+        /* vecchio formato: la stringa ip:porta scritta con writeUTF,
+         * 2 byte di lunghezza seguiti dai caratteri
+         */
+        int len = buf.remaining();
+        if (len < 2) {
+            return false;
+        }
+        int lenUTF = buf.getShort() & 0xffff;
+        if (lenUTF != len - 2) {
+            return false;
+        }
+        buf.get(testo, 0, lenUTF);
+        long k = IdClient.parseChiave(testo, 0, lenUTF);
+        if (k == IdClient.CHIAVE_NON_VALIDA) {
+            IdClient idclient = IdClient.parse(testo, 0, lenUTF);
+            if (idclient != null) {
+                resetTimer(idclient, 0, -1);
+            }
+            return false;
+        }
+        chiavi[n] = k;
+        token[n] = 0;
+        carichi[n] = -1;
+        return true;
     }
 }
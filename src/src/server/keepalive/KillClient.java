@@ -2,31 +2,33 @@ package server.keepalive;
 
 import common.identifier.IdClient;
 import server.data.DataServerInterface;
-import java.rmi.RemoteException;
-import java.util.Iterator;
-import java.util.TimerTask;
-import common.remote.ClientRemote;
+import server.notifiche.GestoreNotifiche;
 
 /**
  * Rappresenta il task che deve eliminare un client dalle strutture del
  * server quando non arriva il pacchetto di keep alive per un certo
  * tempo (il tempo è definito nella classe common.Configuration).
+ * Viene eseguito dalla RuotaTemporale quando il client scade.
  * @author Federico Della Bona - Alessandro Lensi
  */
-public class KillClient extends TimerTask {
+public class KillClient implements Runnable {
 
     private IdClient id_da_uccidere;
     private GestoreKeepAlive gestore;
     private final DataServerInterface data;
+    private final GestoreNotifiche notifiche;
 
     /**
      * Crea un Task
      * @param data DataServer in cui rimuovere il client id
+     * @param notifiche GestoreNotifiche da usare per avvisare gli altri client
      * @param gestore GestoreKeepAlive in cui rimuovere il client id
      * @param id client da eliminare
      */
-    public KillClient(DataServerInterface data, GestoreKeepAlive gestore, IdClient id) {
+    public KillClient(DataServerInterface data, GestoreNotifiche notifiche,
+            GestoreKeepAlive gestore, IdClient id) {
         this.data = data;
+        this.notifiche = notifiche;
         this.gestore = gestore;
         this.id_da_uccidere = id;
     }
@@ -58,8 +60,10 @@ public class KillClient extends TimerTask {
 
     /**
      * Elimina il client dalle strutture del dataserver, dalle strutture
-     * del gestore dei keep alive, e invoca anche un metodo remoto 
-     * (removeClient) dei client per avvisarli dell'evento
+     * del gestore dei keep alive, e accoda ai GestoreNotifiche la chiamata
+     * del metodo remoto removeClient degli altri client. Le callback sono
+     * invocate in modo asincrono, quindi la RuotaTemporale non si blocca
+     * sui client lenti.
      */
     @Override
     public void run() {
@@ -67,18 +71,9 @@ public class KillClient extends TimerTask {
         System.err.println("Devo uccidere il client->" + id_da_uccidere);
 
         this.gestore.deleteTimer(this.id_da_uccidere);
+        this.notifiche.rimuovi(this.id_da_uccidere);
         if (this.data.deleteClient(this.id_da_uccidere)) {
-            synchronized (this.data) {
-                Iterator i = this.data.scanCallback();
-                while (i.hasNext()) {
-                    ClientRemote cr = (ClientRemote) i.next();
-                    try {
-                        cr.removeClient(id_da_uccidere);
-                    } catch (RemoteException ex) {
-                        System.out.println("Eccezione removeClient remota:" + ex);
-                    }
-                }
-            }
+            this.notifiche.notificaRimozione(this.id_da_uccidere);
         }
 
     }
@@ -0,0 +1,123 @@
+package server.keepalive;
+
+import common.identifier.IdClient;
+import java.util.Arrays;
+
+/**
+ * Tabella hash ad indirizzamento aperto che associa la chiave compatta
+ * di un IdClient IPv4 (vedi IdClient.getChiave()) alla sua scadenza.
+ * Le ricerche non allocano memoria, così il GestoreKeepAlive può
+ * rinnovare una scadenza a partire dai byte di un pacchetto senza creare
+ * oggetti. La classe non è thread-safe: è protetta dal lock della
+ * RuotaTemporale.
+ * @author Federico Della Bona - Alessandro Lensi
+ */
+class MappaChiavi {
+
+    private static final long VUOTA = IdClient.CHIAVE_NON_VALIDA;
+    private long[] chiavi;
+    private ScadenzaClient[] valori;
+    private int maschera;
+    private int size;
+
+    /**
+     * Crea una tabella vuota
+     * @param capacita capacità iniziale, deve essere una potenza di 2
+     */
+    MappaChiavi(int capacita) {
+        alloca(capacita);
+    }
+
+    private void alloca(int capacita) {
+        this.chiavi = new long[capacita];
+        this.valori = new ScadenzaClient[capacita];
+        this.maschera = capacita - 1;
+        this.size = 0;
+        Arrays.fill(this.chiavi, VUOTA);
+    }
+
+    private int casella(long k) {
+        long h = k * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32)) & this.maschera;
+    }
+
+    /**
+     * Restituisce la scadenza associata alla chiave k
+     * @param k la chiave
+     * @return la scadenza, null se la chiave non c'è
+     */
+    ScadenzaClient get(long k) {
+        for (int i = casella(k);; i = (i + 1) & this.maschera) {
+            long c = this.chiavi[i];
+            if (c == k) {
+                return this.valori[i];
+            }
+            if (c == VUOTA) {
+                return null;
+            }
+        }
+    }
+
+    /**
+     * Associa la scadenza s alla chiave k, sostituendo quella precedente
+     * @param k la chiave
+     * @param s la scadenza
+     */
+    void put(long k, ScadenzaClient s) {
+        if ((this.size + 1) * 2 > this.chiavi.length) {
+            long[] vecchieChiavi = this.chiavi;
+            ScadenzaClient[] vecchiValori = this.valori;
+            alloca(vecchieChiavi.length * 2);
+            for (int i = 0; i < vecchieChiavi.length; i++) {
+                if (vecchieChiavi[i] != VUOTA) {
+                    put(vecchieChiavi[i], vecchiValori[i]);
+                }
+            }
+        }
+        int i = casella(k);
+        while (this.chiavi[i] != VUOTA && this.chiavi[i] != k) {
+            i = (i + 1) & this.maschera;
+        }
+        if (this.chiavi[i] == VUOTA) {
+            this.size++;
+        }
+        this.chiavi[i] = k;
+        this.valori[i] = s;
+    }
+
+    /**
+     * Rimuove la chiave k, solo se è associata alla scadenza s
+     * @param k la chiave
+     * @param s la scadenza
+     */
+    void remove(long k, ScadenzaClient s) {
+        int i = casella(k);
+        while (this.chiavi[i] != k) {
+            if (this.chiavi[i] == VUOTA) {
+                return;
+            }
+            i = (i + 1) & this.maschera;
+        }
+        if (this.valori[i] != s) {
+            return;
+        }
+        /* cancellazione con spostamento all'indietro: riempio il buco con
+         * gli elementi successivi che non sono nella loro casella naturale
+         */
+        for (int j = (i + 1) & this.maschera;; j = (j + 1) & this.maschera) {
+            long c = this.chiavi[j];
+            if (c == VUOTA) {
+                break;
+            }
+            int home = casella(c);
+            if (((j - home) & this.maschera) >= ((j - i) & this.maschera)) {
+                this.chiavi[i] = c;
+                this.valori[i] = this.valori[j];
+                i = j;
+            }
+        }
+        this.chiavi[i] = VUOTA;
+        this.valori[i] = null;
+        this.size--;
+    }
+}
@@ -0,0 +1,238 @@
+package server.keepalive;
+
+import common.identifier.IdClient;
+import server.data.util.CaricoClient;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * La classe RuotaTemporale controlla le scadenze di tutti i client
+ * registrati con un unico thread (hashed timing wheel).
+ * Il tempo è diviso in tick di durata fissa; ogni scadenza è messa nella
+ * casella (slot) corrispondente al tick in cui scade, modulo il numero di
+ * caselle. Ad ogni tick la ruota controlla solo la casella corrente: le
+ * scadenze passate vengono notificate tutte insieme al GestoreKeepAlive,
+ * quelle rinnovate nel frattempo vengono spostate nella casella giusta.
+ * Rinnovare una scadenza all'arrivo di un keepalive è quindi una semplice
+ * scrittura, e non sposta nulla nella ruota.
+ * Oltre che per IdClient, le scadenze dei client IPv4 sono indicizzate per
+ * chiave compatta, così il GestoreKeepAlive può rinnovarle a blocchi
+ * (contatti()) senza creare oggetti per ogni pacchetto.
+ * @author Federico Della Bona - Alessandro Lensi
+ */
+public class RuotaTemporale implements Runnable {
+
+    private final GestoreKeepAlive gestore;
+    private final long durataTick;
+    private final long timeout;
+    private final int maschera;
+    /* le caselle sono protette dal lock della ruota */
+    private final ArrayList<ScadenzaClient>[] caselle;
+    private final ConcurrentHashMap<IdClient, ScadenzaClient> scadenze;
+    /* protetta dal lock della ruota */
+    private final MappaChiavi perChiave;
+    /* usato solo dal thread della ruota */
+    private long tickCorrente;
+
+    /**
+     * Crea una ruota vuota
+     * @param gestore GestoreKeepAlive da avvisare quando scadono dei client
+     * @param durataTick durata di un tick in millisecondi
+     * @param numCaselle numero di caselle, deve essere una potenza di 2
+     * @param timeout tempo in millisecondi dopo il quale un client che non
+     * ha inviato keepalive è considerato scaduto
+     */
+    @SuppressWarnings("unchecked")
+    public RuotaTemporale(GestoreKeepAlive gestore, long durataTick,
+            int numCaselle, long timeout) {
+        if (numCaselle <= 0 || (numCaselle & (numCaselle - 1)) != 0) {
+            throw new IllegalArgumentException();
+        }
+        this.gestore = gestore;
+        this.durataTick = durataTick;
+        this.timeout = timeout;
+        this.maschera = numCaselle - 1;
+        this.caselle =
+                (ArrayList<ScadenzaClient>[]) new ArrayList<?>[numCaselle];
+        for (int i = 0; i < numCaselle; i++) {
+            this.caselle[i] = new ArrayList<ScadenzaClient>();
+        }
+        this.scadenze = new ConcurrentHashMap<IdClient, ScadenzaClient>();
+        this.perChiave = new MappaChiavi(1024);
+        this.tickCorrente = System.currentTimeMillis() / durataTick;
+    }
+
+    /* il primo tick in cui la scadenza è passata */
+    private long tickDi(long scadenza) {
+        return (scadenza + this.durataTick - 1) / this.durataTick;
+    }
+
+    private synchronized void inserisci(ScadenzaClient s) {
+        this.caselle[(int) (tickDi(s.getScadenza()) & this.maschera)].add(s);
+    }
+
+    private synchronized ArrayList<ScadenzaClient> svuota(int casella) {
+        ArrayList<ScadenzaClient> l = this.caselle[casella];
+        if (l.isEmpty()) {
+            return null;
+        }
+        this.caselle[casella] = new ArrayList<ScadenzaClient>();
+        return l;
+    }
+
+    private synchronized boolean scadi(ScadenzaClient s) {
+        if (!this.scadenze.remove(s.getId(), s)) {
+            return false;
+        }
+        this.perChiave.remove(s.getId().getChiave(), s);
+        return true;
+    }
+
+    /**
+     * Inizia a controllare il client id. Se il client era già controllato
+     * la vecchia scadenza viene sostituita.
+     * @param id client da controllare
+     * @param attesa millisecondi entro i quali deve arrivare il primo
+     * keepalive
+     * @param carico le statistiche di carico del client, in cui vengono
+     * memorizzati gli upload in corso dichiarati nei keepalive (può essere
+     * null)
+     * @param token il token di sessione ricevuto con la register, 0 se il
+     * client non l'ha fornito
+     */
+    public void aggiungi(IdClient id, long attesa, CaricoClient carico,
+            long token) {
+        ScadenzaClient s = new ScadenzaClient(
+                id, System.currentTimeMillis() + attesa, carico, token);
+        synchronized (this) {
+            ScadenzaClient vecchia = this.scadenze.put(id, s);
+            if (vecchia != null) {
+                vecchia.cancella();
+            }
+            if (id.getChiave() != IdClient.CHIAVE_NON_VALIDA) {
+                this.perChiave.put(id.getChiave(), s);
+            }
+            inserisci(s);
+        }
+    }
+
+    /**
+     * Rinnova la scadenza del client id
+     * @param id il client che ha inviato un keepalive
+     * @param token il token di sessione del keepalive (0 se assente)
+     * @param carico gli upload in corso dichiarati nel keepalive (-1 se
+     * assenti)
+     * @return true se il client era controllato, false altrimenti
+     */
+    public boolean contatto(IdClient id, long token, int carico) {
+        ScadenzaClient s = this.scadenze.get(id);
+        if (s == null || !s.verificaToken(token)) {
+            return false;
+        }
+        s.rinnova(System.currentTimeMillis() + this.timeout, carico);
+        return true;
+    }
+
+    /**
+     * Rinnova le scadenze di un blocco di client identificati dalla loro
+     * chiave compatta, e memorizza gli upload in corso che hanno
+     * dichiarato. Le chiavi che non corrispondono a nessun client
+     * controllato, o con il token sbagliato, vengono ignorate.
+     * @param chiavi le chiavi dei client che hanno inviato un keepalive
+     * @param token i token di sessione dei keepalive (0 se assente)
+     * @param carichi gli upload in corso dichiarati nei keepalive (-1 se
+     * assenti)
+     * @param n il numero di chiavi valide nell'array
+     * @return il numero di scadenze rinnovate
+     */
+    public synchronized int contatti(long[] chiavi, long[] token,
+            int[] carichi, int n) {
+        long scadenza = System.currentTimeMillis() + this.timeout;
+        int rinnovate = 0;
+        for (int i = 0; i < n; i++) {
+            ScadenzaClient s = this.perChiave.get(chiavi[i]);
+            if (s != null && s.verificaToken(token[i])) {
+                s.rinnova(scadenza, carichi[i]);
+                rinnovate++;
+            }
+        }
+        return rinnovate;
+    }
+
+    /**
+     * Smette di controllare il client id
+     * @param id il client da rimuovere
+     */
+    public synchronized void rimuovi(IdClient id) {
+        ScadenzaClient s = this.scadenze.remove(id);
+        if (s != null) {
+            s.cancella();
+            this.perChiave.remove(id.getChiave(), s);
+        }
+    }
+
+    /**
+     * Restituisce il numero di client controllati
+     * @return il numero di client controllati
+     */
+    public int size() {
+        return this.scadenze.size();
+    }
+
+    /**
+     * Fa avanzare la ruota fino all'istante ora, e restituisce i client
+     * scaduti nel frattempo.
+     * @param ora l'istante attuale in millisecondi
+     * @return la lista dei client scaduti (eventualmente vuota)
+     */
+    List<IdClient> avanza(long ora) {
+        List<IdClient> scaduti = new ArrayList<IdClient>();
+        long ultimo = ora / this.durataTick;
+        /* se sono rimasto indietro di un giro intero basta controllare
+         * ogni casella una volta sola
+         */
+        long primo = Math.max(this.tickCorrente + 1, ultimo - this.maschera);
+        for (long t = primo; t <= ultimo; t++) {
+            ArrayList<ScadenzaClient> l = svuota((int) (t & this.maschera));
+            if (l == null) {
+                continue;
+            }
+            for (ScadenzaClient s : l) {
+                if (s.isCancellata()) {
+                    continue;
+                }
+                if (s.getScadenza() <= ora) {
+                    if (scadi(s)) {
+                        scaduti.add(s.getId());
+                    }
+                } else {
+                    inserisci(s);
+                }
+            }
+        }
+        if (ultimo > this.tickCorrente) {
+            this.tickCorrente = ultimo;
+        }
+        return scaduti;
+    }
+
+    /**
+     * Funzione che viene eseguita quando si chiama la start() di Thread.
+     * Ad ogni tick controlla le scadenze e notifica al gestore i client
+     * scaduti.
+     */
+    public void run() {
+        while (!Thread.interrupted()) {
+            try {
+                Thread.sleep(this.durataTick);
+            } catch (InterruptedException e) {
+                break;
+            }
+            List<IdClient> scaduti = avanza(System.currentTimeMillis());
+            if (!scaduti.isEmpty()) {
+                this.gestore.clientScaduti(scaduti);
+            }
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package server.keepalive;
+
+import common.identifier.IdClient;
+import server.data.util.CaricoClient;
+
+/**
+ * Mantiene l'istante entro il quale un client deve inviare il prossimo
+ * pacchetto keepalive. Gli oggetti di questa classe sono gestiti da
+ * RuotaTemporale.
+ * @author Federico Della Bona - Alessandro Lensi
+ */
+class ScadenzaClient {
+
+    private final IdClient id;
+    /* dove memorizzare gli upload in corso dichiarati nei keepalive */
+    private final CaricoClient carico;
+    /* scritta dal thread dei keepalive, letta dalla ruota */
+    private volatile long scadenza;
+    private volatile boolean cancellata;
+    /* token di sessione ricevuto con la register, 0 se non c'è */
+    private final long token;
+
+    /**
+     * Crea una scadenza
+     * @param id il client a cui si riferisce la scadenza
+     * @param scadenza l'istante (in millisecondi) in cui scade il client
+     * @param carico le statistiche di carico del client, null se non ci
+     * sono
+     * @param token il token di sessione ricevuto con la register, 0 se il
+     * client non l'ha fornito
+     */
+    ScadenzaClient(IdClient id, long scadenza, CaricoClient carico,
+            long token) {
+        this.id = id;
+        this.carico = carico;
+        this.scadenza = scadenza;
+        this.cancellata = false;
+        this.token = token;
+    }
+
+    /**
+     * Restituisce il client a cui si riferisce la scadenza
+     * @return l'IdClient
+     */
+    IdClient getId() {
+        return this.id;
+    }
+
+    /**
+     * Restituisce l'istante in cui scade il client
+     * @return l'istante in millisecondi
+     */
+    long getScadenza() {
+        return this.scadenza;
+    }
+
+    /**
+     * Sposta in avanti la scadenza del client e memorizza gli upload in
+     * corso che ha dichiarato
+     * @param scadenza il nuovo istante di scadenza in millisecondi
+     * @param caricoDichiarato upload in corso, negativo se il keepalive
+     * non li contiene
+     */
+    void rinnova(long scadenza, int caricoDichiarato) {
+        this.scadenza = scadenza;
+        if (caricoDichiarato >= 0 && this.carico != null) {
+            this.carico.setDichiarato(caricoDichiarato);
+        }
+    }
+
+    /**
+     * Controlla il token di sessione di un keepalive. Il token non viene
+     * mai preso dai keepalive, che arrivano via UDP senza autenticazione,
+     * ma solo dalla register: un client che l'ha fornito deve inviarlo in
+     * ogni keepalive, un client della versione precedente (token 0) invia
+     * keepalive senza token.
+     * @param t il token contenuto nel keepalive (0 se assente)
+     * @return true se il keepalive è accettato, false altrimenti
+     */
+    boolean verificaToken(long t) {
+        return t == this.token;
+    }
+
+    /**
+     * Segnala che la scadenza non deve più essere controllata
+     */
+    void cancella() {
+        this.cancellata = true;
+    }
+
+    /**
+     * Controlla se la scadenza è stata cancellata
+     * @return true se è stata cancellata, false altrimenti
+     */
+    boolean isCancellata() {
+        return this.cancellata;
+    }
+}
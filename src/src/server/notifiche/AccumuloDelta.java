@@ -0,0 +1,87 @@
+package server.notifiche;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import common.identifier.IdClient;
+import common.remote.DeltaClient;
+
+/**
+ * Raccoglie ingressi e uscite di client per costruire un unico
+ * DeltaClient. Per ogni client conta solo l'ultimo evento: un client
+ * entrato e subito uscito compare solo tra i rimossi.
+ * Non è thread safe.
+ * @author Federico Della Bona - Alessandro Lensi
+ */
+class AccumuloDelta {
+
+    /* true se il client è entrato, false se è uscito */
+    private final LinkedHashMap<IdClient, Boolean> eventi;
+
+    /**
+     * Crea un accumulo vuoto
+     */
+    AccumuloDelta() {
+        this.eventi = new LinkedHashMap<IdClient, Boolean>();
+    }
+
+    /**
+     * Registra l'ingresso del client c
+     * @param c il client entrato
+     */
+    void aggiungi(IdClient c) {
+        this.eventi.remove(c);
+        this.eventi.put(c, Boolean.TRUE);
+    }
+
+    /**
+     * Registra l'uscita del client c
+     * @param c il client uscito
+     */
+    void rimuovi(IdClient c) {
+        this.eventi.remove(c);
+        this.eventi.put(c, Boolean.FALSE);
+    }
+
+    /**
+     * Aggiunge all'accumulo gli eventi di un delta non completo
+     * @param d il delta
+     */
+    void unisci(DeltaClient d) {
+        for (IdClient c : d.getRimossi()) {
+            rimuovi(c);
+        }
+        for (IdClient c : d.getAggiunti()) {
+            aggiungi(c);
+        }
+    }
+
+    /**
+     * Controlla se l'accumulo è vuoto
+     * @return true se non ci sono eventi, false altrimenti
+     */
+    boolean isVuoto() {
+        return this.eventi.isEmpty();
+    }
+
+    /**
+     * Costruisce il delta con gli eventi raccolti e svuota l'accumulo
+     * @param da la versione a cui si applica il delta
+     * @param a la versione dopo il delta
+     * @return il delta
+     */
+    DeltaClient crea(long da, long a) {
+        List<IdClient> aggiunti = new ArrayList<IdClient>();
+        List<IdClient> rimossi = new ArrayList<IdClient>();
+        for (Map.Entry<IdClient, Boolean> e : this.eventi.entrySet()) {
+            if (e.getValue()) {
+                aggiunti.add(e.getKey());
+            } else {
+                rimossi.add(e.getKey());
+            }
+        }
+        this.eventi.clear();
+        return new DeltaClient(da, a, aggiunti, rimossi);
+    }
+}
@@ -0,0 +1,223 @@
+package server.notifiche;
+
+import java.rmi.RemoteException;
+import java.rmi.UnmarshalException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import common.Configuration;
+import common.identifier.IdClient;
+import common.remote.ClientRemote;
+import common.remote.DeltaClient;
+
+/**
+ * Mantiene la coda, limitata, dei delta da inviare ad un client.
+ * I delta di uno stesso client sono inviati in ordine da un solo
+ * thread alla volta; client diversi sono serviti in parallelo dai thread
+ * del GestoreNotifiche. Se un client resta indietro i delta accodati
+ * vengono uniti in uno solo; se un delta va perso (coda piena, errore,
+ * client che rifiuta il delta) al client viene inviata l'intera lista.
+ * Ai client della versione precedente, che non conoscono applyDelta, i
+ * delta sono inviati con una addClient o una removeClient per ogni client
+ * aggiunto o rimosso, come faceva il server precedente.
+ * @author Federico Della Bona - Alessandro Lensi
+ */
+class CodaCallback implements Runnable {
+
+    private final GestoreNotifiche gestore;
+    private final IdClient id;
+    private final ClientRemote callback;
+    private final ArrayBlockingQueue<DeltaClient> coda;
+    /* true se un thread sta svuotando la coda, o sta per farlo */
+    private final AtomicBoolean inEsecuzione;
+    /* usati solo dal thread che svuota la coda */
+    private int fallimenti;
+    private long versioneNota;
+    /* true se il client non conosce applyDelta */
+    private boolean vecchiaVersione;
+    /* true se il prossimo invio deve essere l'intera lista */
+    private volatile boolean serveCompleto;
+    private volatile boolean scartata;
+
+    /**
+     * Crea una coda vuota
+     * @param gestore il GestoreNotifiche che esegue la coda
+     * @param id il client da notificare
+     * @param callback la callback del client
+     * @param versione la versione della lista nota al client
+     */
+    CodaCallback(GestoreNotifiche gestore, IdClient id, ClientRemote callback,
+            long versione) {
+        this.gestore = gestore;
+        this.id = id;
+        this.callback = callback;
+        this.coda = new ArrayBlockingQueue<DeltaClient>(Configuration.GN_QUEUE_SIZE);
+        this.inEsecuzione = new AtomicBoolean(false);
+        this.fallimenti = 0;
+        this.versioneNota = versione;
+        this.vecchiaVersione = false;
+        this.serveCompleto = false;
+        this.scartata = false;
+    }
+
+    /**
+     * Restituisce il client a cui appartiene la coda
+     * @return l'IdClient
+     */
+    IdClient getId() {
+        return this.id;
+    }
+
+    /**
+     * Aggiunge un delta alla coda. Se la coda è piena il delta viene
+     * perso e al client verrà inviata l'intera lista.
+     * @param d il delta
+     * @return true se il delta è stato accodato, false altrimenti
+     */
+    boolean accoda(DeltaClient d) {
+        if (this.scartata) {
+            return false;
+        }
+        boolean ok = this.coda.offer(d);
+        if (!ok) {
+            this.serveCompleto = true;
+        }
+        esegui();
+        return ok;
+    }
+
+    /**
+     * Mette la coda in esecuzione, se non lo è già
+     */
+    void esegui() {
+        if (this.inEsecuzione.compareAndSet(false, true)) {
+            this.gestore.esegui(this);
+        }
+    }
+
+    /**
+     * Smette di notificare il client e svuota la coda
+     */
+    void scarta() {
+        this.scartata = true;
+        this.coda.clear();
+    }
+
+    /* unisce al più GN_BATCH_SIZE delta della coda, null se non c'è niente
+     * da inviare o se manca un delta */
+    private DeltaClient prossimoDelta() {
+        DeltaClient primo = null;
+        AccumuloDelta acc = null;
+        long a = this.versioneNota;
+        DeltaClient d;
+        for (int n = 0; n < Configuration.GN_BATCH_SIZE
+                && (d = this.coda.poll()) != null; n++) {
+            if (d.getVersioneA() <= a) {
+                /* già coperto dall'intera lista inviata */
+                continue;
+            }
+            if (d.getVersioneDa() != a) {
+                this.serveCompleto = true;
+                return null;
+            }
+            if (primo == null) {
+                primo = d;
+            } else {
+                if (acc == null) {
+                    acc = new AccumuloDelta();
+                    acc.unisci(primo);
+                }
+                acc.unisci(d);
+            }
+            a = d.getVersioneA();
+        }
+        return (acc == null) ? primo : acc.crea(this.versioneNota, a);
+    }
+
+    /* invia d al client; se il client non conosce applyDelta passa, per
+     * sempre, ai metodi della versione precedente. Restituisce false se il
+     * client ha rifiutato il delta */
+    private boolean invia(DeltaClient d) throws RemoteException {
+        if (!this.vecchiaVersione) {
+            try {
+                return this.callback.applyDelta(d);
+            } catch (RemoteException e) {
+                /* il metodo sconosciuto arriva come UnmarshalException,
+                 * dentro una ServerException se lanciata dal client */
+                if (!(e instanceof UnmarshalException)
+                        && !(e.getCause() instanceof UnmarshalException)) {
+                    throw e;
+                }
+                System.out.println("GESTORE NOTIFICHE: " + this.id
+                        + " non conosce applyDelta, uso addClient e "
+                        + "removeClient.");
+                this.vecchiaVersione = true;
+            }
+        }
+        /* la versione precedente non può ricevere l'intera lista: il
+         * client resta con la lista che ha, come con il server precedente
+         * quando una notifica andava persa */
+        if (!d.isCompleto()) {
+            for (IdClient c : d.getRimossi()) {
+                this.callback.removeClient(c);
+            }
+            for (IdClient c : d.getAggiunti()) {
+                this.callback.addClient(c);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Invia al client un delta (o l'intera lista), poi lascia il thread
+     * agli altri client e, se la coda non è vuota, si rimette in
+     * esecuzione.
+     */
+    public void run() {
+        boolean riprova = false;
+        boolean fallita = false;
+        DeltaClient d = this.scartata ? null : prossimoDelta();
+        if (d == null && this.serveCompleto && !this.scartata) {
+            this.serveCompleto = false;
+            this.coda.clear();
+            d = this.gestore.completo();
+        }
+        if (d != null) {
+            try {
+                if (invia(d)) {
+                    this.versioneNota = d.getVersioneA();
+                } else {
+                    this.serveCompleto = true;
+                    riprova = true;
+                }
+                this.fallimenti = 0;
+            } catch (RemoteException e) {
+                this.serveCompleto = true;
+                fallita = true;
+                this.gestore.fallita();
+                if (++this.fallimenti >= Configuration.GN_MAX_FAILURES) {
+                    System.out.println("GESTORE NOTIFICHE: la callback di "
+                            + this.id + " ha fallito " + this.fallimenti
+                            + " volte, la scarto.");
+                    this.gestore.scarta(this);
+                }
+            } catch (RuntimeException e) {
+                this.serveCompleto = true;
+                fallita = true;
+                this.gestore.fallita();
+                System.out.println("GESTORE NOTIFICHE: errore notificando "
+                        + this.id + ": " + e);
+            }
+        }
+        this.inEsecuzione.set(false);
+        if (this.scartata) {
+            return;
+        }
+        if (riprova) {
+            /* il client non è pronto, riprovo alla prossima finestra */
+            this.gestore.riprova(this);
+        } else if (!this.coda.isEmpty() || (this.serveCompleto && !fallita)) {
+            /* dopo un errore la lista completa parte col prossimo delta */
+            esegui();
+        }
+    }
+}
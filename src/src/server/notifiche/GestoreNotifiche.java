@@ -0,0 +1,264 @@
+package server.notifiche;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import common.Configuration;
+import common.identifier.IdClient;
+import common.remote.ClientRemote;
+import common.remote.DeltaClient;
+import server.data.DataServerInterface;
+
+/**
+ * La classe GestoreNotifiche invia ai client registrati, in modo
+ * asincrono, le variazioni della lista dei client attivi.
+ * Gli ingressi e le uscite vengono raccolti per GN_DELTA_WINDOW
+ * millisecondi e inviati a tutti i client come un unico DeltaClient
+ * numerato con la versione della lista.
+ * Ogni client ha una propria coda limitata di delta (CodaCallback),
+ * svuotata da un insieme fisso di thread: un client lento o irraggiungibile
+ * rallenta solo la propria coda, e non blocca le register, le scadenze dei
+ * keepalive né il DataServer.
+ * Le callback che falliscono GN_MAX_FAILURES volte di seguito vengono
+ * scartate. Il timeout delle singole chiamate remote è quello del
+ * trasporto RMI (vedi impostaTimeoutRMI()).
+ * @author Federico Della Bona - Alessandro Lensi
+ */
+public class GestoreNotifiche {
+
+    private final DataServerInterface data;
+    private final ConcurrentHashMap<IdClient, CodaCallback> code;
+    private final ExecutorService esecutore;
+    private final ScheduledExecutorService temporizzatore;
+    /* eventi della finestra corrente, protetto dal proprio lock */
+    private final AccumuloDelta accumulo;
+    /* versione della lista dei client, incrementata ad ogni delta */
+    private final AtomicLong versione;
+    /* callback fallite e scartate, per le metriche */
+    private final LongAdder fallite;
+    private final LongAdder scartate;
+
+    /**
+     * Crea un GestoreNotifiche senza client registrati
+     * @param data il DataServer da cui leggere la lista completa dei client
+     */
+    public GestoreNotifiche(DataServerInterface data) {
+        this.data = data;
+        this.code = new ConcurrentHashMap<IdClient, CodaCallback>();
+        this.accumulo = new AccumuloDelta();
+        this.versione = new AtomicLong(0);
+        this.fallite = new LongAdder();
+        this.scartate = new LongAdder();
+        this.esecutore = Executors.newFixedThreadPool(
+                Configuration.GN_WORKER_THREADS, new Fabbrica("Notifiche-"));
+        this.temporizzatore = Executors.newSingleThreadScheduledExecutor(
+                new Fabbrica("Notifiche-Delta-"));
+        this.temporizzatore.scheduleWithFixedDelay(new Runnable() {
+
+            public void run() {
+                chiudiFinestra();
+            }
+        }, Configuration.GN_DELTA_WINDOW, Configuration.GN_DELTA_WINDOW,
+                TimeUnit.MILLISECONDS);
+    }
+
+    /* crea thread demoni con nome prefisso + numero */
+    private static class Fabbrica implements ThreadFactory {
+
+        private final String prefisso;
+        private final AtomicInteger n = new AtomicInteger(0);
+
+        Fabbrica(String prefisso) {
+            this.prefisso = prefisso;
+        }
+
+        public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, this.prefisso + n.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        }
+    }
+
+    /**
+     * Imposta i timeout di connessione e di risposta delle chiamate remote
+     * fatte da questa JVM, e quindi delle callback dei client.
+     * Deve essere invocata prima di usare RMI.
+     */
+    public static void impostaTimeoutRMI() {
+        String t = String.valueOf(Configuration.GN_CALLBACK_TIMEOUT);
+        System.setProperty("sun.rmi.transport.tcp.responseTimeout", t);
+        System.setProperty("sun.rmi.transport.proxy.connectTimeout", t);
+    }
+
+    /**
+     * Registra la callback del client id, che da ora in poi riceverà le
+     * variazioni della lista dei client.
+     * Va invocata prima di leggere la lista da restituire al client, così
+     * il client non perde le variazioni successive.
+     * @param id il client
+     * @param callback la callback del client, se null il client non
+     * riceverà notifiche
+     */
+    public void registra(IdClient id, ClientRemote callback) {
+        if (callback == null) {
+            return;
+        }
+        CodaCallback vecchia = this.code.put(id,
+                new CodaCallback(this, id, callback, this.versione.get()));
+        if (vecchia != null) {
+            vecchia.scarta();
+        }
+    }
+
+    /**
+     * Smette di notificare il client id
+     * @param id il client
+     */
+    public void rimuovi(IdClient id) {
+        CodaCallback c = this.code.remove(id);
+        if (c != null) {
+            c.scarta();
+        }
+    }
+
+    /**
+     * Segnala a tutti i client registrati che il client c è entrato nel
+     * sistema. L'evento viene inviato alla chiusura della finestra corrente.
+     * @param c il client entrato
+     */
+    public void notificaAggiunta(IdClient c) {
+        synchronized (this.accumulo) {
+            this.accumulo.aggiungi(c);
+        }
+    }
+
+    /**
+     * Segnala a tutti i client registrati che il client c è uscito dal
+     * sistema. L'evento viene inviato alla chiusura della finestra corrente.
+     * @param c il client uscito
+     */
+    public void notificaRimozione(IdClient c) {
+        synchronized (this.accumulo) {
+            this.accumulo.rimuovi(c);
+        }
+    }
+
+    /* crea il delta della finestra appena chiusa e lo accoda a tutti */
+    private void chiudiFinestra() {
+        DeltaClient d;
+        synchronized (this.accumulo) {
+            if (this.accumulo.isVuoto()) {
+                return;
+            }
+            long v = this.versione.get();
+            d = this.accumulo.crea(v, v + 1);
+            this.versione.set(v + 1);
+        }
+        for (CodaCallback c : this.code.values()) {
+            c.accoda(d);
+        }
+    }
+
+    /**
+     * Restituisce l'intera lista dei client attivi. La versione viene
+     * letta prima della lista: i delta successivi possono ripetere
+     * variazioni già contenute nella lista, e i client li applicano
+     * comunque senza problemi.
+     * @return il delta completo
+     */
+    DeltaClient completo() {
+        long v = this.versione.get();
+        return DeltaClient.completo(v, this.data.getClientList());
+    }
+
+    /**
+     * Esegue la coda c su uno dei thread del gestore
+     * @param c la coda da eseguire
+     */
+    void esegui(CodaCallback c) {
+        try {
+            this.esecutore.execute(c);
+        } catch (RejectedExecutionException e) {
+            /* il gestore sta terminando */
+        }
+    }
+
+    /**
+     * Rimette in esecuzione la coda c alla prossima finestra
+     * @param c la coda da eseguire
+     */
+    void riprova(final CodaCallback c) {
+        try {
+            this.temporizzatore.schedule(new Runnable() {
+
+                public void run() {
+                    c.esegui();
+                }
+            }, Configuration.GN_DELTA_WINDOW, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            /* il gestore sta terminando */
+        }
+    }
+
+    /**
+     * Conta una chiamata ad una callback fallita
+     */
+    void fallita() {
+        this.fallite.increment();
+    }
+
+    /**
+     * Restituisce il numero di chiamate alle callback dei client fallite
+     * @return le chiamate fallite dall'avvio del gestore
+     */
+    public long getCallbackFallite() {
+        return this.fallite.sum();
+    }
+
+    /**
+     * Restituisce il numero di callback scartate perché hanno fallito
+     * GN_MAX_FAILURES volte di seguito
+     * @return le callback scartate dall'avvio del gestore
+     */
+    public long getCallbackScartate() {
+        return this.scartate.sum();
+    }
+
+    /**
+     * Restituisce il numero di client che ricevono le notifiche
+     * @return il numero di callback registrate
+     */
+    public int getCallbackRegistrate() {
+        return this.code.size();
+    }
+
+    /**
+     * Scarta la coda c, perché la sua callback continua a fallire
+     * @param c la coda da scartare
+     */
+    void scarta(CodaCallback c) {
+        this.scartate.increment();
+        this.code.remove(c.getId(), c);
+        c.scarta();
+    }
+
+    /**
+     * Termina il gestore, aspettando al più timeout millisecondi che i
+     * delta in corso siano inviati
+     * @param timeout millisecondi da aspettare
+     * @throws InterruptedException se l'attesa viene interrotta
+     */
+    public void chiudi(long timeout) throws InterruptedException {
+        this.temporizzatore.shutdownNow();
+        chiudiFinestra();
+        this.esecutore.shutdown();
+        this.esecutore.awaitTermination(timeout, TimeUnit.MILLISECONDS);
+    }
+}
@@ -0,0 +1,28 @@
+package server.statistiche;
+
+import server.data.DataServerInterface;
+
+/**
+ * Espone via JMX le dimensioni del database del server
+ * @author Federico Della Bona - Alessandro Lensi
+ */
+public class Catalogo implements CatalogoMBean {
+
+    private final DataServerInterface data;
+
+    /**
+     * Crea l'MBean del database
+     * @param data il database
+     */
+    public Catalogo(DataServerInterface data) {
+        this.data = data;
+    }
+
+    public int getClient() {
+        return this.data.countClient();
+    }
+
+    public int getFile() {
+        return this.data.countFile();
+    }
+}
@@ -0,0 +1,18 @@
+package server.statistiche;
+
+/**
+ * Interfaccia JMX delle dimensioni del database del server
+ * @author Federico Della Bona - Alessandro Lensi
+ */
+public interface CatalogoMBean {
+
+    /**
+     * @return il numero di client attivi
+     */
+    public int getClient();
+
+    /**
+     * @return il numero di file condivisi
+     */
+    public int getFile();
+}
@@ -0,0 +1,178 @@
+package server.statistiche;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Istogramma di durate in nanosecondi, con intervalli di ampiezza
+ * logaritmica come negli istogrammi HDR: ogni potenza di 2 è divisa in
+ * 2^BIT_SUB intervalli uguali, quindi i percentili hanno un errore
+ * relativo inferiore a 1/2^BIT_SUB (circa il 3%) su tutto l'intervallo
+ * dei valori, da un nanosecondo a circa 18 minuti.
+ * La registrazione di un valore non alloca memoria e non prende lock:
+ * incrementa un contatore atomico. Più thread possono registrare e
+ * leggere contemporaneamente; le letture vedono una fotografia non
+ * necessariamente consistente, che va bene per il monitoraggio.
+ * @author Federico Della Bona - Alessandro Lensi
+ */
+public class Istogramma {
+
+    /* intervalli per ogni potenza di 2 = 2^BIT_SUB */
+    private static final int BIT_SUB = 5;
+    /* valori registrabili: fino a 2^MAX_BIT - 1 ns, i più grandi
+     * finiscono nell'ultimo intervallo */
+    private static final int MAX_BIT = 40;
+    private static final long MAX_VALORE = (1L << MAX_BIT) - 1;
+    private static final int INTERVALLI = (MAX_BIT - BIT_SUB + 1) << BIT_SUB;
+    private final AtomicLongArray conteggi;
+    private final LongAdder somma;
+    private final AtomicLong massimo;
+
+    /**
+     * Crea un istogramma vuoto
+     */
+    public Istogramma() {
+        this.conteggi = new AtomicLongArray(INTERVALLI);
+        this.somma = new LongAdder();
+        this.massimo = new AtomicLong();
+    }
+
+    /* l'intervallo del valore v */
+    private static int indice(long v) {
+        if (v > MAX_VALORE) {
+            v = MAX_VALORE;
+        }
+        int shift = Math.max(0, 63 - Long.numberOfLeadingZeros(v) - BIT_SUB);
+        return (shift << BIT_SUB) + (int) (v >>> shift);
+    }
+
+    /* il valore più grande dell'intervallo i */
+    private static long estremo(int i) {
+        int shift = Math.max(0, (i >> BIT_SUB) - 1);
+        long sub = i - (shift << BIT_SUB);
+        return ((sub + 1) << shift) - 1;
+    }
+
+    /**
+     * Registra un valore
+     * @param ns il valore in nanosecondi, i valori negativi contano come 0
+     */
+    public void registra(long ns) {
+        if (ns < 0) {
+            ns = 0;
+        }
+        this.conteggi.incrementAndGet(indice(ns));
+        this.somma.add(ns);
+        long m = this.massimo.get();
+        while (ns > m && !this.massimo.compareAndSet(m, ns)) {
+            m = this.massimo.get();
+        }
+    }
+
+    /**
+     * Restituisce il numero di valori registrati
+     * @return il numero di valori
+     */
+    public long getConteggio() {
+        long n = 0;
+        for (int i = 0; i < INTERVALLI; i++) {
+            n += this.conteggi.get(i);
+        }
+        return n;
+    }
+
+    /**
+     * Restituisce la somma dei valori registrati
+     * @return la somma in nanosecondi
+     */
+    public long getSomma() {
+        return this.somma.sum();
+    }
+
+    /**
+     * Restituisce la media dei valori registrati
+     * @return la media in nanosecondi, 0 se non ci sono valori
+     */
+    public double getMedia() {
+        long n = getConteggio();
+        return (n == 0) ? 0 : (double) this.somma.sum() / n;
+    }
+
+    /**
+     * Restituisce il valore più grande registrato
+     * @return il massimo in nanosecondi
+     */
+    public long getMassimo() {
+        return this.massimo.get();
+    }
+
+    /**
+     * Restituisce il percentile p dei valori registrati, approssimato per
+     * eccesso all'estremo del suo intervallo
+     * @param p il percentile, tra 0 e 100
+     * @return il valore in nanosecondi, 0 se non ci sono valori
+     */
+    public long percentile(double p) {
+        long[] c = new long[INTERVALLI];
+        long n = 0;
+        for (int i = 0; i < INTERVALLI; i++) {
+            c[i] = this.conteggi.get(i);
+            n += c[i];
+        }
+        if (n == 0) {
+            return 0;
+        }
+        long posizione = Math.max(1, (long) Math.ceil(p / 100.0 * n));
+        long visti = 0;
+        for (int i = 0; i < INTERVALLI; i++) {
+            visti += c[i];
+            if (visti >= posizione) {
+                return Math.min(estremo(i), this.massimo.get());
+            }
+        }
+        return this.massimo.get();
+    }
+
+    /**
+     * Restituisce il numero di valori registrati non più grandi di ciascuno
+     * dei limiti, come gli intervalli di un istogramma di Prometheus.
+     * Un valore conta fino ad un limite se l'estremo del suo intervallo non
+     * lo supera, quindi i conteggi sono approssimati per difetto.
+     * @param limiti i limiti in nanosecondi, in ordine crescente
+     * @return limiti.length + 1 conteggi cumulativi, l'ultimo è il numero
+     * di tutti i valori
+     */
+    public long[] getCumulativi(long[] limiti) {
+        long[] ret = new long[limiti.length + 1];
+        long visti = 0;
+        int k = 0;
+        for (int i = 0; i < INTERVALLI; i++) {
+            long c = this.conteggi.get(i);
+            if (c == 0) {
+                continue;
+            }
+            long e = estremo(i);
+            while (k < limiti.length && e > limiti[k]) {
+                ret[k++] = visti;
+            }
+            visti += c;
+        }
+        while (k <= limiti.length) {
+            ret[k++] = visti;
+        }
+        return ret;
+    }
+
+    /**
+     * Azzera l'istogramma. I valori registrati durante l'azzeramento
+     * possono essere persi in parte.
+     */
+    public void azzera() {
+        for (int i = 0; i < INTERVALLI; i++) {
+            this.conteggi.set(i, 0);
+        }
+        this.somma.reset();
+        this.massimo.set(0);
+    }
+}
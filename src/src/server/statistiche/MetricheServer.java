@@ -0,0 +1,165 @@
+package server.statistiche;
+
+import common.Configuration;
+import common.identifier.FileDescriptor;
+import common.metriche.FormatoPrometheus;
+import common.metriche.Metriche;
+import server.data.DataServerInterface;
+import server.data.util.ConteggioPeer;
+import server.keepalive.GestoreKeepAlive;
+import server.notifiche.GestoreNotifiche;
+
+/**
+ * Le metriche del server esportate da un ServizioMetriche: le dimensioni
+ * del database, i seeders e i leachers dei file, i keepalive ricevuti, i
+ * client scaduti, le callback fallite e gli istogrammi delle operazioni
+ * remote (vedi StatisticheServer).
+ * Tutti i valori sono letti da contatori atomici o senza prendere i lock
+ * del database, quindi uno scrape non rallenta le richieste dei client.
+ * @author Federico Della Bona - Alessandro Lensi
+ */
+public class MetricheServer implements Metriche {
+
+    /* limiti (secondi) degli intervalli degli istogrammi delle durate */
+    private static final String[] LE = {"0.00005", "0.0001", "0.00025",
+        "0.0005", "0.001", "0.0025", "0.005", "0.01", "0.025", "0.05", "0.1",
+        "0.25", "0.5", "1", "2.5", "5", "10"};
+    private static final long[] LIMITI_NS = new long[LE.length];
+
+    static {
+        for (int i = 0; i < LE.length; i++) {
+            LIMITI_NS[i] = Math.round(Double.parseDouble(LE[i]) * 1e9);
+        }
+    }
+    private final DataServerInterface data;
+    private final StatisticheServer statistiche;
+    private final GestoreKeepAlive keepAlive;
+    private final GestoreNotifiche notifiche;
+
+    /**
+     * Crea le metriche del server
+     * @param data il database
+     * @param statistiche le statistiche delle operazioni remote
+     * @param keepAlive il gestore dei keepalive
+     * @param notifiche il gestore delle callback
+     */
+    public MetricheServer(DataServerInterface data,
+            StatisticheServer statistiche, GestoreKeepAlive keepAlive,
+            GestoreNotifiche notifiche) {
+        this.data = data;
+        this.statistiche = statistiche;
+        this.keepAlive = keepAlive;
+        this.notifiche = notifiche;
+    }
+
+    /**
+     * Scrive le metriche del server
+     * @param out dove scrivere le metriche
+     */
+    public void scrivi(FormatoPrometheus out) {
+        out.indicatore("bytetorrent_client_attivi",
+                "Client registrati e attivi.", this.data.countClient());
+        out.indicatore("bytetorrent_file_condivisi",
+                "File condivisi, i file con gli hash contano una volta sola.",
+                this.data.countFile());
+        scriviPeer(out);
+
+        out.contatore("bytetorrent_keepalive_ricevuti_total",
+                "Pacchetti keepalive ricevuti.",
+                this.keepAlive.getPacchetti().getTotale());
+        out.indicatore("bytetorrent_keepalive_al_secondo",
+                "Pacchetti keepalive ricevuti al secondo, dall'ultimo scrape.",
+                this.keepAlive.getPacchetti().getPerSecondo());
+        out.contatore("bytetorrent_client_scaduti_total",
+                "Client eliminati perché non hanno inviato keepalive in tempo.",
+                this.keepAlive.getClientScaduti());
+
+        out.indicatore("bytetorrent_callback_registrate",
+                "Client che ricevono le notifiche della lista dei client.",
+                this.notifiche.getCallbackRegistrate());
+        out.contatore("bytetorrent_callback_fallite_total",
+                "Chiamate alle callback dei client fallite.",
+                this.notifiche.getCallbackFallite());
+        out.contatore("bytetorrent_callback_scartate_total",
+                "Callback scartate dopo troppi fallimenti consecutivi.",
+                this.notifiche.getCallbackScartate());
+
+        Operazione[] ops = this.statistiche.getOperazioni();
+        out.famiglia("bytetorrent_rmi_durata_secondi", "histogram",
+                "Durata delle chiamate remote al server.");
+        for (Operazione op : ops) {
+            scriviIstogramma(out, "bytetorrent_rmi_durata_secondi",
+                    op.getNome(), op.getIstogrammaLatenza());
+        }
+        out.famiglia("bytetorrent_rmi_errori_total", "counter",
+                "Chiamate remote al server terminate con un'eccezione.");
+        for (Operazione op : ops) {
+            out.campione("bytetorrent_rmi_errori_total",
+                    FormatoPrometheus.etichetta("operazione", op.getNome()),
+                    op.getErrori());
+        }
+        out.famiglia("bytetorrent_lock_attesa_secondi", "histogram",
+                "Attesa per i lock del database nelle chiamate remote.");
+        for (Operazione op : ops) {
+            scriviIstogramma(out, "bytetorrent_lock_attesa_secondi",
+                    op.getNome(), op.getIstogrammaAttesaLock());
+        }
+    }
+
+    /* i totali dei seeders e dei leachers e i file più condivisi */
+    private void scriviPeer(FormatoPrometheus out) {
+        ConteggioPeer cp = this.data.contaPeer(
+                Configuration.SRV_METRICS_TOP_FILES);
+        out.indicatore("bytetorrent_seeders",
+                "Seeders di tutti i file, un client conta per ogni suo file.",
+                cp.getSeeders());
+        out.indicatore("bytetorrent_leachers",
+                "Leachers di tutti i file, un client conta per ogni suo file.",
+                cp.getLeachers());
+
+        String nome = "bytetorrent_file_per_seeders";
+        out.famiglia(nome, "histogram", "File per numero di seeders.");
+        for (int i = 0; i < ConteggioPeer.LIMITI_SEEDERS.length; i++) {
+            out.campione(nome + "_bucket", FormatoPrometheus.etichetta("le",
+                    String.valueOf(ConteggioPeer.LIMITI_SEEDERS[i])),
+                    cp.getFileFino(i));
+        }
+        out.campione(nome + "_bucket", FormatoPrometheus.etichetta("le",
+                "+Inf"), cp.getFile());
+        out.campione(nome + "_sum", cp.getSeeders());
+        out.campione(nome + "_count", cp.getFile());
+
+        out.famiglia("bytetorrent_file_seeders", "gauge",
+                "Seeders dei file più condivisi.");
+        for (int i = 0; i < cp.numPrimi(); i++) {
+            out.campione("bytetorrent_file_seeders",
+                    etichetteFile(cp.getPrimo(i)), cp.getSeedersPrimo(i));
+        }
+        out.famiglia("bytetorrent_file_leachers", "gauge",
+                "Leachers dei file più condivisi.");
+        for (int i = 0; i < cp.numPrimi(); i++) {
+            out.campione("bytetorrent_file_leachers",
+                    etichetteFile(cp.getPrimo(i)), cp.getLeachersPrimo(i));
+        }
+    }
+
+    private static String etichetteFile(FileDescriptor fd) {
+        return FormatoPrometheus.etichetta("file", fd.getName()) + ","
+                + FormatoPrometheus.etichetta("chiave", fd.getKey());
+    }
+
+    /* scrive un istogramma di durate in secondi */
+    private static void scriviIstogramma(FormatoPrometheus out, String nome,
+            String operazione, Istogramma h) {
+        String op = FormatoPrometheus.etichetta("operazione", operazione);
+        long[] c = h.getCumulativi(LIMITI_NS);
+        for (int i = 0; i < LE.length; i++) {
+            out.campione(nome + "_bucket",
+                    op + "," + FormatoPrometheus.etichetta("le", LE[i]), c[i]);
+        }
+        out.campione(nome + "_bucket",
+                op + "," + FormatoPrometheus.etichetta("le", "+Inf"), c[LE.length]);
+        out.campione(nome + "_sum", op, h.getSomma() / 1e9);
+        out.campione(nome + "_count", op, c[LE.length]);
+    }
+}
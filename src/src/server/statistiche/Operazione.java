@@ -0,0 +1,107 @@
+package server.statistiche;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Statistiche di un'operazione remota del server: la durata delle
+ * chiamate, il numero di errori e l'attesa per i lock del database.
+ * @author Federico Della Bona - Alessandro Lensi
+ */
+public class Operazione implements OperazioneMBean {
+
+    private static final double NS_PER_US = 1000.0;
+    private final String nome;
+    private final Istogramma latenza;
+    private final Istogramma attesaLock;
+    private final LongAdder errori;
+
+    /**
+     * Crea le statistiche di un'operazione
+     * @param nome il nome dell'operazione
+     */
+    public Operazione(String nome) {
+        this.nome = nome;
+        this.latenza = new Istogramma();
+        this.attesaLock = new Istogramma();
+        this.errori = new LongAdder();
+    }
+
+    /**
+     * @return il nome dell'operazione
+     */
+    public String getNome() {
+        return this.nome;
+    }
+
+    /**
+     * @return l'istogramma delle durate delle chiamate
+     */
+    public Istogramma getIstogrammaLatenza() {
+        return this.latenza;
+    }
+
+    /**
+     * @return l'istogramma delle attese per i lock del database
+     */
+    public Istogramma getIstogrammaAttesaLock() {
+        return this.attesaLock;
+    }
+
+    void errore() {
+        this.errori.increment();
+    }
+
+    public long getChiamate() {
+        return this.latenza.getConteggio();
+    }
+
+    public long getErrori() {
+        return this.errori.sum();
+    }
+
+    public double getLatenzaMedia() {
+        return this.latenza.getMedia() / NS_PER_US;
+    }
+
+    public double getLatenza50() {
+        return this.latenza.percentile(50) / NS_PER_US;
+    }
+
+    public double getLatenza90() {
+        return this.latenza.percentile(90) / NS_PER_US;
+    }
+
+    public double getLatenza99() {
+        return this.latenza.percentile(99) / NS_PER_US;
+    }
+
+    public double getLatenza999() {
+        return this.latenza.percentile(99.9) / NS_PER_US;
+    }
+
+    public double getLatenzaMassima() {
+        return this.latenza.getMassimo() / NS_PER_US;
+    }
+
+    public long getLockPresi() {
+        return this.attesaLock.getConteggio();
+    }
+
+    public double getAttesaLockMedia() {
+        return this.attesaLock.getMedia() / NS_PER_US;
+    }
+
+    public double getAttesaLock99() {
+        return this.attesaLock.percentile(99) / NS_PER_US;
+    }
+
+    public double getAttesaLockMassima() {
+        return this.attesaLock.getMassimo() / NS_PER_US;
+    }
+
+    public void azzera() {
+        this.latenza.azzera();
+        this.attesaLock.azzera();
+        this.errori.reset();
+    }
+}
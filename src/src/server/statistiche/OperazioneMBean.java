@@ -0,0 +1,75 @@
+package server.statistiche;
+
+/**
+ * Interfaccia JMX delle statistiche di un'operazione remota del server.
+ * Le durate sono in microsecondi.
+ * @author Federico Della Bona - Alessandro Lensi
+ */
+public interface OperazioneMBean {
+
+    /**
+     * @return il numero di chiamate completate
+     */
+    public long getChiamate();
+
+    /**
+     * @return il numero di chiamate terminate con un'eccezione, comprese
+     * quelle con cui il server segnala un client non registrato
+     */
+    public long getErrori();
+
+    /**
+     * @return la durata media delle chiamate
+     */
+    public double getLatenzaMedia();
+
+    /**
+     * @return la mediana delle durate delle chiamate
+     */
+    public double getLatenza50();
+
+    /**
+     * @return il 90-esimo percentile delle durate delle chiamate
+     */
+    public double getLatenza90();
+
+    /**
+     * @return il 99-esimo percentile delle durate delle chiamate
+     */
+    public double getLatenza99();
+
+    /**
+     * @return il 99,9-esimo percentile delle durate delle chiamate
+     */
+    public double getLatenza999();
+
+    /**
+     * @return la durata massima delle chiamate
+     */
+    public double getLatenzaMassima();
+
+    /**
+     * @return il numero di lock del database presi dalle chiamate
+     */
+    public long getLockPresi();
+
+    /**
+     * @return l'attesa media per prendere un lock del database
+     */
+    public double getAttesaLockMedia();
+
+    /**
+     * @return il 99-esimo percentile delle attese per un lock del database
+     */
+    public double getAttesaLock99();
+
+    /**
+     * @return l'attesa massima per un lock del database
+     */
+    public double getAttesaLockMassima();
+
+    /**
+     * Azzera le statistiche dell'operazione
+     */
+    public void azzera();
+}
@@ -0,0 +1,119 @@
+package server.statistiche;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import server.data.DataServerInterface;
+
+/**
+ * Statistiche delle operazioni remote del server: per ogni operazione un
+ * istogramma delle durate, un istogramma delle attese per i lock del
+ * database e il numero di errori. Le operazioni sono identificate dalle
+ * costanti della classe.
+ * Le durate vengono misurate dai metodi remoti del server (vedi fine), le
+ * attese per i lock dal database.
+ * Le statistiche possono essere pubblicate come MBean JMX, nel dominio
+ * Configuration.SRV_SERVICE_NAME: una per operazione
+ * (type=Operazione,name=...) e una con le dimensioni del database
+ * (type=Catalogo).
+ * @author Federico Della Bona - Alessandro Lensi
+ */
+public class StatisticheServer {
+
+    public static final int REGISTER = 0;
+    public static final int PUBLISH = 1;
+    public static final int PUBLISH_ALL = 2;
+    public static final int SEARCH = 3;
+    public static final int FIND = 4;
+    public static final int COMPLETED = 5;
+    public static final int SEEDER_FAILED = 6;
+    public static final int TRANSFER_FAILED = 7;
+    private static final String[] NOMI = {"register", "publish",
+        "publishAll", "search", "find", "completed", "seederFailed",
+        "transferFailed"};
+    private final Operazione[] operazioni;
+    private final List<ObjectName> registrati;
+
+    /**
+     * Crea statistiche vuote
+     */
+    public StatisticheServer() {
+        this.operazioni = new Operazione[NOMI.length];
+        for (int i = 0; i < NOMI.length; i++) {
+            this.operazioni[i] = new Operazione(NOMI[i]);
+        }
+        this.registrati = new ArrayList<ObjectName>();
+    }
+
+    /**
+     * Registra la durata di una chiamata terminata adesso
+     * @param op l'operazione
+     * @param inizio l'istante di inizio della chiamata (System.nanoTime)
+     */
+    public void fine(int op, long inizio) {
+        this.operazioni[op].getIstogrammaLatenza().registra(
+                System.nanoTime() - inizio);
+    }
+
+    /**
+     * Conta una chiamata terminata con un errore
+     * @param op l'operazione
+     */
+    public void errore(int op) {
+        this.operazioni[op].errore();
+    }
+
+    /**
+     * Registra l'attesa per prendere un lock del database
+     * @param op l'operazione che ha preso il lock
+     * @param ns l'attesa in nanosecondi
+     */
+    public void attesaLock(int op, long ns) {
+        this.operazioni[op].getIstogrammaAttesaLock().registra(ns);
+    }
+
+    /**
+     * Restituisce le statistiche di tutte le operazioni
+     * @return le statistiche, nell'ordine delle costanti
+     */
+    public Operazione[] getOperazioni() {
+        return this.operazioni.clone();
+    }
+
+    /**
+     * Pubblica le statistiche come MBean nel server JMX della piattaforma
+     * @param dominio il dominio dei nomi degli MBean
+     * @param data il database di cui pubblicare le dimensioni
+     * @throws JMException se gli MBean non possono essere registrati
+     */
+    public synchronized void registraMBean(String dominio,
+            DataServerInterface data) throws JMException {
+        MBeanServer mbs = ManagementFactory.getPlatformMBeanServer();
+        for (Operazione o : this.operazioni) {
+            ObjectName n = new ObjectName(dominio
+                    + ":type=Operazione,name=" + o.getNome());
+            mbs.registerMBean(o, n);
+            this.registrati.add(n);
+        }
+        ObjectName n = new ObjectName(dominio + ":type=Catalogo");
+        mbs.registerMBean(new Catalogo(data), n);
+        this.registrati.add(n);
+    }
+
+    /**
+     * Rimuove gli MBean registrati da registraMBean
+     */
+    public synchronized void deregistraMBean() {
+        MBeanServer mbs = ManagementFactory.getPlatformMBeanServer();
+        for (ObjectName n : this.registrati) {
+            try {
+                mbs.unregisterMBean(n);
+            } catch (JMException e) {
+            }
+        }
+        this.registrati.clear();
+    }
+}